@@ -0,0 +1,46 @@
+package org.bimserver.benchmarks;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks (or the ones matching the regular expression given as argument) with the GC profiler, so next to the time per operation the allocation per operation is reported. The results are written
+ * to jmh-result.json as well, to compare between releases.
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws RunnerException {
+		ChainedOptionsBuilder options = new OptionsBuilder();
+		if (args.length == 0) {
+			options.include("org\\.bimserver\\..*Benchmark");
+		} else {
+			for (String include : args) {
+				options.include(include);
+			}
+		}
+		options.addProfiler(GCProfiler.class);
+		options.resultFormat(ResultFormatType.JSON);
+		options.result("jmh-result.json");
+		new Runner(options.build()).run();
+	}
+}
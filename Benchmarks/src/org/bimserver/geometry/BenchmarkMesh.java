@@ -0,0 +1,96 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+/**
+ * A mesh in the buffer layout the render engines return (little endian int indices, double vertices, float normals and int material indices), filled with reproducible random data
+ */
+public class BenchmarkMesh {
+	private final ByteBuffer indices;
+	private final ByteBuffer vertices;
+	private final ByteBuffer normals;
+	private final ByteBuffer materialIndices;
+
+	public BenchmarkMesh(int nrTriangles) {
+		Random random = new Random(nrTriangles);
+		int nrVertices = nrTriangles * 3;
+		indices = ByteBuffer.allocate(nrTriangles * 3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i=0; i<nrTriangles * 3; i++) {
+			indices.putInt(random.nextInt(nrVertices));
+		}
+		vertices = ByteBuffer.allocate(nrVertices * 3 * 8).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i=0; i<nrVertices * 3; i++) {
+			// Meters, somewhere within a building of 100m
+			vertices.putDouble(random.nextDouble() * 100);
+		}
+		normals = ByteBuffer.allocate(nrVertices * 3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i=0; i<nrVertices; i++) {
+			float[] normal = Vector3D.normalize(new float[3], new float[] {random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f});
+			normals.putFloat(normal[0]);
+			normals.putFloat(normal[1]);
+			normals.putFloat(normal[2]);
+		}
+		materialIndices = ByteBuffer.allocate(nrTriangles * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i=0; i<nrTriangles; i++) {
+			materialIndices.putInt(random.nextInt(4));
+		}
+		indices.flip();
+		vertices.flip();
+		normals.flip();
+		materialIndices.flip();
+	}
+
+	public ByteBuffer getIndices() {
+		return indices.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public ByteBuffer getVertices() {
+		return vertices.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public ByteBuffer getNormals() {
+		return normals.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public ByteBuffer getMaterialIndices() {
+		return materialIndices.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public IntBuffer getIndicesAsInt() {
+		return getIndices().asIntBuffer();
+	}
+
+	public DoubleBuffer getVerticesAsDouble() {
+		return getVertices().asDoubleBuffer();
+	}
+
+	public FloatBuffer getNormalsAsFloat() {
+		return getNormals().asFloatBuffer();
+	}
+
+	public IntBuffer getMaterialIndicesAsInt() {
+		return getMaterialIndices().asIntBuffer();
+	}
+}
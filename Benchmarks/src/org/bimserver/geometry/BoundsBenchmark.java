@@ -0,0 +1,81 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.DoubleBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.GenerateGeometryResult;
+import org.bimserver.models.geometry.GeometryPackage;
+import org.bimserver.shared.HashMapWrappedVirtualObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transforming all vertices of a mesh to calculate the (transformed) bounds of a product, as GeometryRunner does for every product
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoundsBenchmark {
+	@Param({"100", "10000"})
+	private int nrTriangles;
+
+	private DoubleBuffer vertices;
+	private double[] transformationMatrix;
+
+	@Setup
+	public void setup() {
+		vertices = new BenchmarkMesh(nrTriangles).getVerticesAsDouble();
+		transformationMatrix = Matrix.identity();
+		Matrix.scaleM(transformationMatrix, 0, 1000, 1000, 1000);
+		Matrix.translateM(transformationMatrix, 0, 10, 20, 30);
+	}
+
+	@Benchmark
+	public GenerateGeometryResult processExtends() throws BimserverDatabaseException {
+		HashMapWrappedVirtualObject minBounds = createVector(Double.POSITIVE_INFINITY);
+		HashMapWrappedVirtualObject maxBounds = createVector(Double.NEGATIVE_INFINITY);
+		GenerateGeometryResult generateGeometryResult = new GenerateGeometryResult();
+		for (int i=0; i<vertices.capacity(); i+=3) {
+			StreamingGeometryGenerator.processExtends(minBounds, maxBounds, transformationMatrix, vertices, i, generateGeometryResult);
+		}
+		return generateGeometryResult;
+	}
+
+	private HashMapWrappedVirtualObject createVector(double value) throws BimserverDatabaseException {
+		HashMapWrappedVirtualObject vector = new HashMapWrappedVirtualObject(GeometryPackage.eINSTANCE.getVector3f());
+		vector.set("x", value);
+		vector.set("y", value);
+		vector.set("z", value);
+		return vector;
+	}
+}
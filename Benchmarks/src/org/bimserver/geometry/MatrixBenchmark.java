@@ -0,0 +1,114 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The 4x4 matrix operations that are done for every mapped item and placement of every product
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixBenchmark {
+	private final double[] lhs = new double[16];
+	private final double[] rhs = new double[16];
+	private final double[] result = new double[16];
+	private final float[] lhsF = new float[16];
+	private final float[] rhsF = new float[16];
+	private final float[] resultF = new float[16];
+	private final double[] vertex = new double[] {1.5, 2.5, 3.5, 1};
+	private final double[] vertexResult = new double[4];
+	private final float[] normal = new float[3];
+	private final float[] normalResult = new float[3];
+
+	@Setup
+	public void setup() {
+		Random random = new Random(16);
+		// A rotation, translation and scale, so the matrices are invertible
+		Matrix.setIdentityM(lhs, 0);
+		Matrix.rotateM(lhs, 0, random.nextDouble() * 360, 0, 0, 1);
+		Matrix.translateM(lhs, 0, random.nextDouble() * 100, random.nextDouble() * 100, random.nextDouble() * 100);
+		Matrix.setIdentityM(rhs, 0);
+		Matrix.scaleM(rhs, 0, 1000, 1000, 1000);
+		Matrix.rotateM(rhs, 0, random.nextDouble() * 360, 1, 0, 0);
+		for (int i=0; i<16; i++) {
+			lhsF[i] = (float) lhs[i];
+			rhsF[i] = (float) rhs[i];
+		}
+		for (int i=0; i<3; i++) {
+			normal[i] = random.nextFloat();
+		}
+	}
+
+	@Benchmark
+	public double[] multiplyMM() {
+		Matrix.multiplyMM(result, 0, lhs, 0, rhs, 0);
+		return result;
+	}
+
+	@Benchmark
+	public float[] multiplyMMFloat() {
+		Matrix.multiplyMM(resultF, 0, lhsF, 0, rhsF, 0);
+		return resultF;
+	}
+
+	@Benchmark
+	public boolean invertM() {
+		return Matrix.invertM(result, 0, lhs, 0);
+	}
+
+	@Benchmark
+	public boolean invertMFloat() {
+		return Matrix.invertM(resultF, 0, lhsF, 0);
+	}
+
+	@Benchmark
+	public double[] multiplyMV() {
+		Matrix.multiplyMV(vertexResult, 0, lhs, 0, vertex, 0);
+		return vertexResult;
+	}
+
+	/**
+	 * The allocating variant, to compare with {@link #multiplyMV()}
+	 */
+	@Benchmark
+	public double[] multiplyV() {
+		return Matrix.multiplyV(lhs, new double[] {vertex[0], vertex[1], vertex[2]});
+	}
+
+	@Benchmark
+	public float[] normalize() {
+		return Vector3D.normalize(normalResult, normal);
+	}
+}
@@ -0,0 +1,89 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The conversions of the buffers returned by the render engine before they are stored: quantization of vertices and normals, conversion to floats and duplicating two-faced geometry
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VertexBufferBenchmark {
+	@Param({"100", "10000"})
+	private int nrTriangles;
+
+	private BenchmarkMesh mesh;
+	private double[] quantizationMatrix;
+
+	@Setup
+	public void setup() {
+		mesh = new BenchmarkMesh(nrTriangles);
+		// Same as StreamingGeometryGenerator does for a model of 100m
+		quantizationMatrix = Matrix.identity();
+		Matrix.scaleM(quantizationMatrix, 0, 65535 / 100000.0, 65535 / 100000.0, 65535 / 100000.0);
+		Matrix.translateM(quantizationMatrix, 0, -50000, -50000, -50000);
+	}
+
+	@Benchmark
+	public ByteBuffer quantizeVertices() {
+		return StreamingGeometryGenerator.quantizeVertices(mesh.getVerticesAsDouble(), quantizationMatrix, 1000);
+	}
+
+	@Benchmark
+	public ByteBuffer quantizeNormals() {
+		return GeometryRunner.quantizeNormals(mesh.getNormalsAsFloat());
+	}
+
+	/**
+	 * Double vertices to floats, as needed for the float based formats
+	 */
+	@Benchmark
+	public ByteBuffer verticesToFloats() {
+		DoubleBuffer vertices = mesh.getVerticesAsDouble();
+		ByteBuffer result = ByteBuffer.allocate(vertices.capacity() * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i=0; i<vertices.capacity(); i++) {
+			result.putFloat((float) vertices.get(i));
+		}
+		return result;
+	}
+
+	@Benchmark
+	public BufferSet appendInvertedGeometry() {
+		return GeometryRunner.appendInvertedGeometry(mesh.getIndicesAsInt(), mesh.getVerticesAsDouble(), mesh.getNormalsAsFloat(), mesh.getMaterialIndicesAsInt());
+	}
+}
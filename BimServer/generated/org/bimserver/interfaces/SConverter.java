@@ -329,6 +329,7 @@ public class SConverter {
 		result.setUuid(input.getUuid());
 		result.setRid(input.getRid());
 		result.setData(input.getData());
+		result.setEncoding(input.getEncoding());
 		return result;
 	}
 
@@ -352,6 +353,7 @@ public class SConverter {
 			return null;
 		}
 		result.setData(input.getData());
+		result.setEncoding(input.getEncoding());
 		return result;
 	}
 
@@ -4032,6 +4034,7 @@ public class SConverter {
 		result.setGenerateGeometryOnCheckin(input.isGenerateGeometryOnCheckin());
 		result.setAllowOnlyWhitelisted(input.isAllowOnlyWhitelisted());
 		result.getWhitelistedDomains().addAll(input.getWhitelistedDomains());
+		result.getIndexedFeatures().addAll(input.getIndexedFeatures());
 		result.setHideUserListForNonAdmin(input.getHideUserListForNonAdmin());
 		result.setProtocolBuffersPort(input.getProtocolBuffersPort());
 		result.setCacheOutputFiles(input.getCacheOutputFiles());
@@ -4094,6 +4097,7 @@ public class SConverter {
 		result.setGenerateGeometryOnCheckin(input.isGenerateGeometryOnCheckin());
 		result.setAllowOnlyWhitelisted(input.isAllowOnlyWhitelisted());
 		result.getWhitelistedDomains().addAll(input.getWhitelistedDomains());
+		result.getIndexedFeatures().addAll(input.getIndexedFeatures());
 		result.setHideUserListForNonAdmin(input.getHideUserListForNonAdmin());
 		result.setProtocolBuffersPort(input.getProtocolBuffersPort());
 		result.setCacheOutputFiles(input.getCacheOutputFiles());
@@ -37,6 +37,7 @@ import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.spec.SecretKeySpec;
 
@@ -53,12 +54,14 @@ import org.bimserver.database.Database;
 import org.bimserver.database.DatabaseRestartRequiredException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.KeyValueStore;
+import org.bimserver.database.KeyValueStoreType;
 import org.bimserver.database.OldQuery;
 import org.bimserver.database.OperationType;
 import org.bimserver.database.Record;
 import org.bimserver.database.RecordIterator;
 import org.bimserver.database.berkeley.BerkeleyKeyValueStore;
 import org.bimserver.database.berkeley.DatabaseInitException;
+import org.bimserver.database.lmdb.LmdbKeyValueStore;
 import org.bimserver.database.migrations.InconsistentModelsException;
 import org.bimserver.database.queries.om.Include;
 import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
@@ -70,6 +73,7 @@ import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.emf.MetaDataManager;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.endpoints.EndPointManager;
+import org.bimserver.geometry.GeometryScheduler;
 import org.bimserver.geometry.accellerator.GeometryAccellerator;
 import org.bimserver.interfaces.SConverter;
 import org.bimserver.interfaces.objects.SInternalServicePluginConfiguration;
@@ -202,12 +206,14 @@ public class BimServer implements BasicServerInfoProvider {
 	private Map<String, WebModulePlugin> webModules = new HashMap<String, WebModulePlugin>();
 	private WebModulePlugin defaultWebModule;
 	private ExecutorService executorService = Executors.newCachedThreadPool();
+	private ExecutorService queryPool;
 	private InternalServicesManager internalServicesManager;
 	private MetaDataManager metaDataManager;
 	private SchemaConverterManager schemaConverterManager = new SchemaConverterManager();
 	private WebModuleManager webModuleManager;
 	private MetricsRegistry metricsRegistry;
 	private RenderEnginePools renderEnginePools;
+	private GeometryScheduler geometryScheduler;
 	private MavenPluginRepository mavenPluginRepository;
 	private AuthCache authCache;
 	private GeometryAccellerator geometryAccellerator;
@@ -222,6 +228,15 @@ public class BimServer implements BasicServerInfoProvider {
 	public BimServer(BimServerConfig config) {
 		System.setProperty("org.eclipse.emf.common.util.ReferenceClearingQueue", "false");
 		this.config = config;
+		if (config.getQueryThreads() > 1) {
+			// The workers of a parallel query block on the queue of the download, so they get their own threads instead of a ForkJoinPool
+			AtomicInteger queryThreadCounter = new AtomicInteger();
+			queryPool = Executors.newFixedThreadPool(config.getQueryThreads(), runnable -> {
+				Thread thread = new Thread(runnable, "Query-" + queryThreadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
 		try {
 			if (config.getHomeDir() != null) {
 				initHomeDir(config);
@@ -672,7 +687,7 @@ public class BimServer implements BasicServerInfoProvider {
 				LOGGER.info("No email templates found");
 			}
 			Path databaseDir = config.getHomeDir().resolve("database");
-			BerkeleyKeyValueStore keyValueStore = new BerkeleyKeyValueStore(databaseDir, config.getBdbEnvironmentProperties());
+			KeyValueStore keyValueStore = createKeyValueStore(databaseDir);
 
 			geometryAccellerator = new GeometryAccellerator(this);
 			
@@ -697,7 +712,7 @@ public class BimServer implements BasicServerInfoProvider {
 				bimDatabase.init();
 			} catch (DatabaseRestartRequiredException e) {
 				bimDatabase.close();
-				keyValueStore = new BerkeleyKeyValueStore(databaseDir, config.getBdbEnvironmentProperties());
+				keyValueStore = createKeyValueStore(databaseDir);
 				bimDatabase = new Database(this, packages, keyValueStore, metaDataManager);
 				try {
 					bimDatabase.init();
@@ -809,6 +824,13 @@ public class BimServer implements BasicServerInfoProvider {
 		}
 	}
 
+	private KeyValueStore createKeyValueStore(Path databaseDir) throws DatabaseInitException {
+		if (config.getKeyValueStoreType() == KeyValueStoreType.LMDB) {
+			return new LmdbKeyValueStore(databaseDir, config.getLmdbEnvironmentProperties());
+		}
+		return new BerkeleyKeyValueStore(databaseDir, config.getBdbEnvironmentProperties());
+	}
+
 	private void cleanupStaleData() throws BimserverDatabaseException {
 		LOGGER.info("Checking for stale records, this can take some time...");
 		long s = System.nanoTime();
@@ -1051,6 +1073,27 @@ public class BimServer implements BasicServerInfoProvider {
 		return renderEnginePools;
 	}
 
+	/**
+	 * @return The scheduler all geometry generation jobs of this server run on
+	 */
+	public GeometryScheduler getGeometryScheduler() {
+		return geometryScheduler;
+	}
+
+	/**
+	 * Applies the renderEngineProcesses server setting to the geometry scheduler, call after the server settings have changed
+	 */
+	public void updateGeometryScheduler() {
+		if (geometryScheduler != null) {
+			geometryScheduler.setNrThreads(getNrGeometryThreads());
+		}
+	}
+
+	private int getNrGeometryThreads() {
+		int renderEngineProcesses = getServerSettingsCache().getServerSettings().getRenderEngineProcesses();
+		return Math.max(1, Math.min(renderEngineProcesses, Runtime.getRuntime().availableProcessors()));
+	}
+
 	public ObjectType convertSettings(DatabaseSession session, ObjectDefinition objectDefinition) throws BimserverDatabaseException {
 		ObjectType settings = session.create(ObjectType.class);
 		if (objectDefinition != null) {
@@ -1127,9 +1170,10 @@ public class BimServer implements BasicServerInfoProvider {
 			}
 
 			int renderEngineProcesses = getServerSettingsCache().getServerSettings().getRenderEngineProcesses();
-			RenderEnginePoolFactory renderEnginePoolFactory = new CommonsPoolingRenderEnginePoolFactory(renderEngineProcesses);
+			RenderEnginePoolFactory renderEnginePoolFactory = new CommonsPoolingRenderEnginePoolFactory(renderEngineProcesses, config.getRenderEngineMaxUses());
 
 			renderEnginePools = new RenderEnginePools(this, renderEnginePoolFactory);
+			geometryScheduler = new GeometryScheduler(getNrGeometryThreads());
 			
 			session = bimDatabase.createSession(OperationType.POSSIBLY_WRITE);
 //			createDatabaseObjects(session);
@@ -1428,6 +1472,12 @@ public class BimServer implements BasicServerInfoProvider {
 	public void stop() {
 		LOGGER.info("Stopping BIMserver");
 		executorService.shutdown();
+		if (queryPool != null) {
+			queryPool.shutdownNow();
+		}
+		if (geometryScheduler != null) {
+			geometryScheduler.close();
+		}
 		if (bimDatabase != null) {
 			try {
 				bimDatabase.close();
@@ -1565,6 +1615,13 @@ public class BimServer implements BasicServerInfoProvider {
 		return executorService;
 	}
 
+	/**
+	 * @return The pool used by parallel queries, or null when queries run on a single thread
+	 */
+	public ExecutorService getQueryPool() {
+		return queryPool;
+	}
+
 	public MetaDataManager getMetaDataManager() {
 		return metaDataManager;
 	}
@@ -20,6 +20,7 @@ package org.bimserver;
 import java.nio.file.Path;
 import java.util.Properties;
 
+import org.bimserver.database.KeyValueStoreType;
 import org.bimserver.plugins.ResourceFetcher;
 
 public class BimServerConfig {
@@ -34,6 +35,16 @@ public class BimServerConfig {
 	private Environment environment;
 	private String resourceBase;
 	private Properties bdbEnvironmentProperties = null;
+	private KeyValueStoreType keyValueStoreType = KeyValueStoreType.BERKELEY;
+	private Properties lmdbEnvironmentProperties = null;
+	private int queryThreads = 1;
+	private long objectCacheSize = 0;
+	private boolean encodeGeometry = false;
+	private int lodLevels = 0;
+	private int renderEngineMaxUses = 1;
+	private int bulkUploadThreads = 4;
+	private boolean pipelinedCheckin = false;
+	private boolean deltaCheckin = false;
 	
 	public boolean isStartEmbeddedWebServer() {
 		return startEmbeddedWebServer;
@@ -93,6 +104,116 @@ public class BimServerConfig {
 	public Properties getBdbEnvironmentProperties() {
 		return bdbEnvironmentProperties;
 	}
+
+	public KeyValueStoreType getKeyValueStoreType() {
+		return keyValueStoreType;
+	}
+
+	/**
+	 * @param keyValueStoreType The storage backend, an existing database can only be opened with the type it was created with
+	 */
+	public void setKeyValueStoreType(KeyValueStoreType keyValueStoreType) {
+		this.keyValueStoreType = keyValueStoreType;
+	}
+
+	public Properties getLmdbEnvironmentProperties() {
+		return lmdbEnvironmentProperties;
+	}
+
+	/**
+	 * @param lmdbEnvironmentProperties Optional settings for the LMDB backend: mapSize (bytes), maxReaders and maxTables
+	 */
+	public void setLmdbEnvironmentProperties(Properties lmdbEnvironmentProperties) {
+		this.lmdbEnvironmentProperties = lmdbEnvironmentProperties;
+	}
+
+	public int getQueryThreads() {
+		return queryThreads;
+	}
+
+	/**
+	 * @param queryThreads The number of threads a streaming download uses to read objects, 1 (the default) reads everything on the thread of the download
+	 */
+	public void setQueryThreads(int queryThreads) {
+		this.queryThreads = queryThreads;
+	}
+
+	public int getBulkUploadThreads() {
+		return bulkUploadThreads;
+	}
+
+	/**
+	 * @param bulkUploadThreads The maximum number of files of a bulk upload that are checked in at the same time, files for the same project are always checked in one after the other
+	 */
+	public void setBulkUploadThreads(int bulkUploadThreads) {
+		this.bulkUploadThreads = bulkUploadThreads;
+	}
+
+	public long getObjectCacheSize() {
+		return objectCacheSize;
+	}
+
+	/**
+	 * @param objectCacheSize The estimated amount of bytes of objects all database sessions together keep in their object caches, 0 (the default) uses 1/16th of the maximum heap size
+	 */
+	public void setObjectCacheSize(long objectCacheSize) {
+		this.objectCacheSize = objectCacheSize;
+	}
+
+	public boolean isEncodeGeometry() {
+		return encodeGeometry;
+	}
+
+	/**
+	 * @param encodeGeometry When true, generated geometry stores its indices, vertices and normals in the compact GeometryDataEncoding format (quantized, lossy), serializers that need full precision decode them
+	 */
+	public void setEncodeGeometry(boolean encodeGeometry) {
+		this.encodeGeometry = encodeGeometry;
+	}
+
+	public int getLodLevels() {
+		return lodLevels;
+	}
+
+	/**
+	 * @param lodLevels The number of decimated levels of detail (at most 3) generated for every mesh, 0 (the default) generates none. Tile queries can request a level of detail per octree level
+	 */
+	public void setLodLevels(int lodLevels) {
+		this.lodLevels = lodLevels;
+	}
+
+	public int getRenderEngineMaxUses() {
+		return renderEngineMaxUses;
+	}
+
+	/**
+	 * @param renderEngineMaxUses The number of jobs a pooled render engine process is reused for before it is recycled. 1 (the default) starts a fresh process for every job, higher values keep engines warm, they are then health checked with a probe model and discarded after a crash
+	 */
+	public void setRenderEngineMaxUses(int renderEngineMaxUses) {
+		this.renderEngineMaxUses = renderEngineMaxUses;
+	}
+
+	public boolean isPipelinedCheckin() {
+		return pipelinedCheckin;
+	}
+
+	/**
+	 * @param pipelinedCheckin When true, streaming checkins parse on one thread while other threads encode the objects and write them to the database in batches, oids are assigned exactly as without this option
+	 */
+	public void setPipelinedCheckin(boolean pipelinedCheckin) {
+		this.pipelinedCheckin = pipelinedCheckin;
+	}
+
+	public boolean isDeltaCheckin() {
+		return deltaCheckin;
+	}
+
+	/**
+	 * @param deltaCheckin When true, a streaming checkin on a project with a previous revision only stores the objects that changed compared to that revision
+	 */
+	public void setDeltaCheckin(boolean deltaCheckin) {
+		this.deltaCheckin = deltaCheckin;
+	}
 	
 	public int getPort() {
 		return port;
@@ -20,6 +20,7 @@ package org.bimserver;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.bimserver.database.SpatialIndexEntry;
 import org.bimserver.geometry.Density;
 import org.bimserver.models.geometry.Bounds;
 
@@ -51,6 +52,7 @@ public class GenerateGeometryResult {
 	private double[] maxUntransformed;
 	private float multiplierToMm;
 	private List<Density> densities = new ArrayList<>();
+	private List<SpatialIndexEntry> spatialIndexEntries = new ArrayList<>();
 
 	public GenerateGeometryResult() {
 		min = new double[]{Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
@@ -215,6 +217,29 @@ public class GenerateGeometryResult {
 		maxUntransformed[2] = value;
 	}
 
+	/**
+	 * Grows the bounds of this result to include the given bounds, used when only part of a model is regenerated
+	 */
+	public void includeBounds(Bounds bounds, Bounds boundsUntransformed) {
+		for (int i=0; i<3; i++) {
+			min[i] = Math.min(min[i], get(bounds.getMin(), i));
+			max[i] = Math.max(max[i], get(bounds.getMax(), i));
+			minUntransformed[i] = Math.min(minUntransformed[i], get(boundsUntransformed.getMin(), i));
+			maxUntransformed[i] = Math.max(maxUntransformed[i], get(boundsUntransformed.getMax(), i));
+		}
+	}
+
+	private double get(Vector3f vector, int index) {
+		switch (index) {
+		case 0:
+			return vector.getX();
+		case 1:
+			return vector.getY();
+		default:
+			return vector.getZ();
+		}
+	}
+
 	public void setMultiplierToMm(float multiplierToMm) {
 		this.multiplierToMm = multiplierToMm;
 	}
@@ -230,4 +255,12 @@ public class GenerateGeometryResult {
 	public List<Density> getDensities() {
 		return densities;
 	}
+
+	public synchronized void addSpatialIndexEntry(SpatialIndexEntry spatialIndexEntry) {
+		spatialIndexEntries.add(spatialIndexEntry);
+	}
+
+	public List<SpatialIndexEntry> getSpatialIndexEntries() {
+		return spatialIndexEntries;
+	}
 }
\ No newline at end of file
@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import org.bimserver.geometry.GeometryDataEncoding;
 import org.bimserver.models.geometry.GeometryData;
 import org.bimserver.models.ifc2x3tc1.IfcProduct;
 import org.eclipse.emf.ecore.EClass;
@@ -99,10 +100,10 @@ public class GeometrySimplifier {
 //	}
 
 	private boolean matchSameOrder(GeometryData geometryDate, GeometryData d) {
-		ByteBuffer bb1 = ByteBuffer.wrap(geometryDate.getVertices().getData());
+		ByteBuffer bb1 = ByteBuffer.wrap(GeometryDataEncoding.decode(geometryDate.getVertices().getEncoding(), geometryDate.getVertices().getData()));
 		bb1.order(ByteOrder.nativeOrder());
 		FloatBuffer buffer1 = bb1.asFloatBuffer();
-		ByteBuffer bb2 = ByteBuffer.wrap(d.getVertices().getData());
+		ByteBuffer bb2 = ByteBuffer.wrap(GeometryDataEncoding.decode(d.getVertices().getEncoding(), d.getVertices().getData()));
 		bb2.order(ByteOrder.nativeOrder());
 		FloatBuffer buffer2 = bb2.asFloatBuffer();
 		float lastX1 = buffer1.get(0);
@@ -129,10 +130,10 @@ public class GeometrySimplifier {
 	}
 
 	private boolean matchExactlyTheSame(GeometryData geometryDate, GeometryData d) {
-		ByteBuffer bb1 = ByteBuffer.wrap(geometryDate.getVertices().getData());
+		ByteBuffer bb1 = ByteBuffer.wrap(GeometryDataEncoding.decode(geometryDate.getVertices().getEncoding(), geometryDate.getVertices().getData()));
 		bb1.order(ByteOrder.LITTLE_ENDIAN);
 		FloatBuffer buffer1 = bb1.asFloatBuffer();
-		ByteBuffer bb2 = ByteBuffer.wrap(d.getVertices().getData());
+		ByteBuffer bb2 = ByteBuffer.wrap(GeometryDataEncoding.decode(d.getVertices().getEncoding(), d.getVertices().getData()));
 		bb2.order(ByteOrder.LITTLE_ENDIAN);
 		FloatBuffer buffer2 = bb2.asFloatBuffer();
 		if (buffer1.capacity() != buffer2.capacity()) {
@@ -0,0 +1,101 @@
+package org.bimserver;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.plugins.serializers.ObjectProvider;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.eclipse.emf.ecore.EClass;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * ObjectProvider that returns objects that have already been read by another ObjectProvider, objects that are not in the list are looked up with the other ObjectProvider
+ */
+public class ListObjectProvider implements ObjectProvider {
+
+	private final ObjectProvider objectProvider;
+	private final List<HashMapVirtualObject> objects;
+	private final Long2ObjectOpenHashMap<HashMapVirtualObject> byOid;
+	private final Iterator<HashMapVirtualObject> iterator;
+
+	public ListObjectProvider(ObjectProvider objectProvider, List<HashMapVirtualObject> objects) {
+		this(objectProvider, objects, null);
+	}
+	
+	private ListObjectProvider(ObjectProvider objectProvider, List<HashMapVirtualObject> objects, Long2ObjectOpenHashMap<HashMapVirtualObject> byOid) {
+		this.objectProvider = objectProvider;
+		this.objects = objects;
+		if (byOid == null) {
+			byOid = new Long2ObjectOpenHashMap<>(objects.size());
+			for (HashMapVirtualObject object : objects) {
+				byOid.put(object.getOid(), object);
+			}
+		}
+		this.byOid = byOid;
+		this.iterator = objects.iterator();
+	}
+
+	@Override
+	public HashMapVirtualObject next() throws BimserverDatabaseException {
+		if (iterator.hasNext()) {
+			return iterator.next();
+		}
+		return null;
+	}
+
+	@Override
+	public ObjectProvider copy() throws IOException, QueryException {
+		return new ListObjectProvider(objectProvider, objects, byOid);
+	}
+
+	@Override
+	public HashMapVirtualObject getByOid(long oid) {
+		HashMapVirtualObject object = byOid.get(oid);
+		if (object != null) {
+			return object;
+		}
+		return objectProvider.getByOid(oid);
+	}
+
+	@Override
+	public EClass getEClassForOid(long oid) {
+		return objectProvider.getEClassForOid(oid);
+	}
+
+	@Override
+	public EClass getEClassForCid(short cid) {
+		return objectProvider.getEClassForCid(cid);
+	}
+
+	@Override
+	public ObjectNode getQueryNode() {
+		return objectProvider.getQueryNode();
+	}
+
+	@Override
+	public void cache(HashMapVirtualObject object) {
+		objectProvider.cache(object);
+	}
+}
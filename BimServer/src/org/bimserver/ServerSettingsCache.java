@@ -51,6 +51,7 @@ public class ServerSettingsCache {
 			for (String domain : serverSettings.getWhitelistedDomains()) {
 				allowedHosts.add(domain);
 			}
+			database.getConfiguredIndices().update(serverSettings.getIndexedFeatures());
 		} catch (BimserverDatabaseException e) {
 			LOGGER.error("", e);
 		} finally {
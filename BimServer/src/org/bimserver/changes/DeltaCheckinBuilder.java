@@ -0,0 +1,411 @@
+package org.bimserver.changes;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.BimServer;
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.models.store.ConcreteRevision;
+import org.bimserver.models.store.Project;
+import org.bimserver.models.store.Revision;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.HashMapWrappedVirtualObject;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+
+/**
+ * Turns a checkin that has been deserialized as a complete new concrete revision into a {@link Transaction} against the previous revision, so only the differences have to be stored.
+ * 
+ * Objects with a GlobalId are matched on their GlobalId. Other objects are matched on a hash of their content in which references are replaced by the oids of the matched objects in the previous revision.
+ * This is repeated until a round finds no new matches, every round matches the objects that only refer to objects matched in earlier rounds (points first, then the polylines using them etc...).
+ * Inverses and references to other packages (generated geometry) are derived data, they are not compared but taken over from the previous revision.
+ * 
+ * Unmatched objects are created, matched objects with a GlobalId whose content differs are updated (and keep the oid they had in the previous revision), unmatched objects of the previous revision are deleted.
+ * The records the deserializer wrote are removed, storing the transaction is up to the caller, the same way CommitTransactionDatabaseAction stores one.
+ * 
+ * GlobalIds and contents are only kept as hashes, and only the classes that can still match are read in each pass, so the memory used is a small fixed amount per object. The full 128 bit hashes are used as keys,
+ * matches are not verified otherwise and with shorter hashes a collision in a large model would be likely enough to silently map an object onto an unrelated object of the previous revision.
+ */
+public class DeltaCheckinBuilder {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DeltaCheckinBuilder.class);
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+	private static final long UNMATCHED = -1;
+	private static final int MAX_ROUNDS = 64;
+
+	private final BimServer bimServer;
+	private final DatabaseSession databaseSession;
+	private final PackageMetaData packageMetaData;
+	private final Revision previousRevision;
+	private final long newRoid;
+	private final Transaction transaction;
+	private final EClass rootClass;
+	private final EAttribute globalIdAttribute;
+	
+	// New oid -> oid in the previous revision
+	private final Long2LongOpenHashMap mapping = new Long2LongOpenHashMap();
+	private final LongOpenHashSet matchedPreviousOids = new LongOpenHashSet();
+	
+	// Content hashes of the objects with a GlobalId in the previous revision
+	private final Long2ObjectOpenHashMap<HashCode> rootedHashes = new Long2ObjectOpenHashMap<>();
+	private Set<EClass> pendingClasses;
+	private int nrUnchanged;
+
+	public DeltaCheckinBuilder(BimServer bimServer, DatabaseSession databaseSession, PackageMetaData packageMetaData, Revision previousRevision, long newRoid, Project project, ConcreteRevision concreteRevision) {
+		this.bimServer = bimServer;
+		this.databaseSession = databaseSession;
+		this.packageMetaData = packageMetaData;
+		this.previousRevision = previousRevision;
+		this.newRoid = newRoid;
+		this.transaction = new Transaction(bimServer, previousRevision, project, concreteRevision, databaseSession);
+		this.rootClass = packageMetaData.getEClass("IfcRoot");
+		this.globalIdAttribute = (EAttribute) rootClass.getEStructuralFeature("GlobalId");
+		mapping.defaultReturnValue(UNMATCHED);
+	}
+
+	public Transaction build() throws BimserverDatabaseException, IOException, QueryException {
+		matchOnGlobalId();
+		int rounds = matchOnContent();
+		collectChanges();
+		LOGGER.info("Delta checkin: " + mapping.size() + " objects matched in " + rounds + " rounds, " + nrUnchanged + " unchanged, " + transaction.getCreated().size() + " created, " + transaction.getUpdated().size() + " updated, " + transaction.getDeleted().size() + " deleted");
+		return transaction;
+	}
+
+	private void matchOnGlobalId() throws BimserverDatabaseException, IOException, QueryException {
+		Set<EClass> rootedClasses = new HashSet<>();
+		pendingClasses = new HashSet<>();
+		for (EClass eClass : packageMetaData.getEClasses()) {
+			if (!eClass.isAbstract() && !eClass.isInterface()) {
+				if (rootClass.isSuperTypeOf(eClass)) {
+					rootedClasses.add(eClass);
+				} else {
+					pendingClasses.add(eClass);
+				}
+			}
+		}
+		
+		// Hash of the GlobalId -> oid in the previous revision
+		Object2LongOpenHashMap<HashCode> previousGlobalIds = new Object2LongOpenHashMap<>();
+		previousGlobalIds.defaultReturnValue(UNMATCHED);
+		QueryObjectProvider previous = scan(previousRevision.getOid(), rootedClasses);
+		for (HashMapVirtualObject next = previous.next(); next != null; next = previous.next()) {
+			if (isModelObject(next) && isRooted(next)) {
+				String globalId = (String) next.eGet(globalIdAttribute);
+				if (globalId != null) {
+					previousGlobalIds.put(hash(globalId), next.getOid());
+				}
+				rootedHashes.put(next.getOid(), hash(next, false));
+			}
+		}
+		
+		QueryObjectProvider current = scan(newRoid, rootedClasses);
+		for (HashMapVirtualObject next = current.next(); next != null; next = current.next()) {
+			if (isModelObject(next) && isRooted(next)) {
+				String globalId = (String) next.eGet(globalIdAttribute);
+				long previousOid = globalId == null ? UNMATCHED : previousGlobalIds.removeLong(hash(globalId));
+				if (previousOid != UNMATCHED && databaseSession.getEClassForOid(previousOid) == next.eClass()) {
+					match(next.getOid(), previousOid);
+				}
+			}
+		}
+	}
+
+	private int matchOnContent() throws BimserverDatabaseException, IOException, QueryException {
+		int round = 0;
+		while (round < MAX_ROUNDS && !pendingClasses.isEmpty()) {
+			round++;
+			// Content hash -> oid of an unmatched object in the previous revision, objects with the same content as one already in candidates go in duplicates
+			Object2LongOpenHashMap<HashCode> candidates = new Object2LongOpenHashMap<>();
+			candidates.defaultReturnValue(UNMATCHED);
+			Object2ObjectOpenHashMap<HashCode, LongArrayList> duplicates = new Object2ObjectOpenHashMap<>();
+			QueryObjectProvider previous = scan(previousRevision.getOid(), pendingClasses);
+			for (HashMapVirtualObject next = previous.next(); next != null; next = previous.next()) {
+				if (!isRooted(next) && !matchedPreviousOids.contains(next.getOid())) {
+					HashCode hash = hash(next, false);
+					if (candidates.containsKey(hash)) {
+						LongArrayList oids = duplicates.get(hash);
+						if (oids == null) {
+							oids = new LongArrayList();
+							duplicates.put(hash, oids);
+						}
+						oids.add(next.getOid());
+					} else {
+						candidates.put(hash, next.getOid());
+					}
+				}
+			}
+			
+			int matched = 0;
+			Set<EClass> stillPending = new HashSet<>();
+			QueryObjectProvider current = scan(newRoid, pendingClasses);
+			for (HashMapVirtualObject next = current.next(); next != null; next = current.next()) {
+				if (!isRooted(next) && !mapping.containsKey(next.getOid())) {
+					long previousOid = takeCandidate(candidates, duplicates, hash(next, true));
+					if (previousOid != UNMATCHED) {
+						match(next.getOid(), previousOid);
+						matched++;
+					} else {
+						stillPending.add(next.eClass());
+					}
+				}
+			}
+			pendingClasses = stillPending;
+			if (matched == 0) {
+				break;
+			}
+		}
+		return round;
+	}
+
+	private void collectChanges() throws BimserverDatabaseException, IOException, QueryException {
+		Map<Long, HashMapVirtualObject> replacements = new HashMap<>();
+		List<HashMapVirtualObject> created = new ArrayList<>();
+		Map<EClass, LongArrayList> written = new HashMap<>();
+		int pid = -1;
+		int rid = -1;
+		QueryObjectProvider current = scan(newRoid, null);
+		for (HashMapVirtualObject next = current.next(); next != null; next = current.next()) {
+			if (!isModelObject(next)) {
+				continue;
+			}
+			LongArrayList oids = written.get(next.eClass());
+			if (oids == null) {
+				oids = new LongArrayList();
+				written.put(next.eClass(), oids);
+			}
+			oids.add(next.getOid());
+			pid = next.getPid();
+			rid = next.getRid();
+			
+			long previousOid = mapping.get(next.getOid());
+			if (previousOid == UNMATCHED) {
+				remapReferences(next);
+				created.add(next);
+			} else if (isRooted(next) && !hash(next, true).equals(rootedHashes.get(previousOid))) {
+				remapReferences(next);
+				replacements.put(previousOid, next);
+			} else {
+				nrUnchanged++;
+			}
+		}
+		
+		// The records of the deserializer are not needed anymore, what remains is stored through the transaction
+		for (EClass eClass : written.keySet()) {
+			for (long oid : written.get(eClass)) {
+				databaseSession.deleteRecord(pid, oid, rid, eClass);
+			}
+		}
+		
+		for (HashMapVirtualObject object : created) {
+			transaction.created(object);
+		}
+		
+		QueryObjectProvider previous = scan(previousRevision.getOid(), null);
+		for (HashMapVirtualObject next = previous.next(); next != null; next = previous.next()) {
+			if (!isModelObject(next)) {
+				continue;
+			}
+			HashMapVirtualObject replacement = replacements.get(next.getOid());
+			if (replacement != null) {
+				takeOver(next, replacement);
+				transaction.replaced(next, replacement);
+			} else if (!matchedPreviousOids.contains(next.getOid())) {
+				transaction.deleted(next);
+			}
+		}
+	}
+
+	/**
+	 * Gives replacement the identity of the previous version, and the derived data that is not part of the comparison
+	 */
+	private void takeOver(HashMapVirtualObject previous, HashMapVirtualObject replacement) throws BimserverDatabaseException {
+		replacement.setOid(previous.getOid());
+		replacement.setUuid(previous.getUuid());
+		for (EReference eReference : previous.eClass().getEAllReferences()) {
+			if (!packageMetaData.useForDatabaseStorage(previous.eClass(), eReference) || isCompared(previous.eClass(), eReference)) {
+				continue;
+			}
+			Object value = previous.eGet(eReference);
+			replacement.eUnset(eReference);
+			if (value instanceof List) {
+				for (Object item : (List<?>) value) {
+					if (item instanceof Long) {
+						replacement.addReference(eReference, databaseSession.getEClassForOid((Long) item), (Long) item);
+					}
+				}
+			} else if (value instanceof Long) {
+				replacement.setReference(eReference, (Long) value);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void remapReferences(HashMapVirtualObject object) throws BimserverDatabaseException {
+		for (EReference eReference : object.eClass().getEAllReferences()) {
+			if (!isCompared(object.eClass(), eReference)) {
+				continue;
+			}
+			Object value = object.eGet(eReference);
+			if (value instanceof List) {
+				List<Object> list = (List<Object>) value;
+				for (int i = 0; i < list.size(); i++) {
+					Object item = list.get(i);
+					if (item instanceof Long) {
+						long previousOid = mapping.get((Long) item);
+						if (previousOid != UNMATCHED) {
+							list.set(i, previousOid);
+						}
+					}
+				}
+			} else if (value instanceof Long) {
+				long previousOid = mapping.get((Long) value);
+				if (previousOid != UNMATCHED) {
+					object.setReference(eReference, previousOid);
+				}
+			}
+		}
+	}
+
+	private long takeCandidate(Object2LongOpenHashMap<HashCode> candidates, Object2ObjectOpenHashMap<HashCode, LongArrayList> duplicates, HashCode hash) {
+		LongArrayList oids = duplicates.get(hash);
+		if (oids != null) {
+			long oid = oids.removeLong(oids.size() - 1);
+			if (oids.isEmpty()) {
+				duplicates.remove(hash);
+			}
+			return oid;
+		}
+		return candidates.removeLong(hash);
+	}
+
+	private HashCode hash(String globalId) {
+		return HASH_FUNCTION.hashUnencodedChars(globalId);
+	}
+
+	private HashCode hash(HashMapVirtualObject object, boolean mapReferences) {
+		Hasher hasher = HASH_FUNCTION.newHasher();
+		hasher.putUnencodedChars(object.eClass().getName());
+		for (EStructuralFeature feature : object.eClass().getEAllStructuralFeatures()) {
+			if (isCompared(object.eClass(), feature)) {
+				hasher.putInt(feature.getFeatureID());
+				putValue(hasher, feature, object.eGet(feature), mapReferences);
+			}
+		}
+		return hasher.hash();
+	}
+
+	private void putValue(Hasher hasher, EStructuralFeature feature, Object value, boolean mapReferences) {
+		if (value == null) {
+			hasher.putByte((byte) 0);
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			hasher.putByte((byte) 1);
+			hasher.putInt(list.size());
+			for (Object item : list) {
+				putValue(hasher, feature, item, mapReferences);
+			}
+		} else if (value instanceof HashMapWrappedVirtualObject) {
+			HashMapWrappedVirtualObject wrappedObject = (HashMapWrappedVirtualObject) value;
+			hasher.putByte((byte) 2);
+			hasher.putUnencodedChars(wrappedObject.eClass().getName());
+			for (EStructuralFeature wrappedFeature : wrappedObject.eClass().getEAllStructuralFeatures()) {
+				putValue(hasher, wrappedFeature, wrappedObject.eGet(wrappedFeature), mapReferences);
+			}
+		} else if (feature instanceof EReference && value instanceof Long) {
+			long oid = (Long) value;
+			hasher.putByte((byte) 3);
+			hasher.putLong(mapReferences ? mapping.get(oid) : oid);
+		} else if (value instanceof byte[]) {
+			hasher.putByte((byte) 4);
+			hasher.putBytes((byte[]) value);
+		} else {
+			hasher.putByte((byte) 5);
+			hasher.putUnencodedChars(value.toString());
+		}
+	}
+
+	private boolean isCompared(EClass eClass, EStructuralFeature feature) {
+		if (!packageMetaData.useForDatabaseStorage(eClass, feature)) {
+			return false;
+		}
+		if (feature instanceof EReference) {
+			EReference eReference = (EReference) feature;
+			if (eReference.getEReferenceType().getEPackage() != eClass.getEPackage()) {
+				return false;
+			}
+			return !packageMetaData.isInverse(eReference);
+		}
+		return true;
+	}
+
+	private boolean isModelObject(HashMapVirtualObject object) {
+		return object.eClass().getEPackage() == packageMetaData.getEPackage();
+	}
+
+	private boolean isRooted(HashMapVirtualObject object) {
+		return rootClass.isSuperTypeOf(object.eClass());
+	}
+
+	private void match(long newOid, long previousOid) {
+		mapping.put(newOid, previousOid);
+		matchedPreviousOids.add(previousOid);
+	}
+
+	/**
+	 * @param eClasses The classes to read, all classes of the revision when null
+	 */
+	private QueryObjectProvider scan(long roid, Set<EClass> eClasses) throws IOException, QueryException {
+		Query query = new Query("Delta checkin", packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		if (eClasses != null) {
+			for (EClass eClass : eClasses) {
+				queryPart.addType(eClass, false);
+			}
+		}
+		return new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(roid), packageMetaData);
+	}
+}
@@ -0,0 +1,204 @@
+package org.bimserver.changes;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EReference;
+
+/**
+ * Updates the inverses/opposites for the objects created, updated and deleted in a {@link Transaction}, so a commit only touches the changed objects and the objects they (used to) refer to.
+ * 
+ * For every changed object the references with an inverse (and the inverses themselves, so a change on either end works) are compared with their values in the previous revision, the referenced objects that were removed
+ * lose the object in their inverse, the ones that were added gain it. Referenced objects that get a new inverse are marked as updated in the transaction, so they are written together with the rest of the changes.
+ */
+public class InverseUpdater {
+	private final Transaction transaction;
+	private final PackageMetaData packageMetaData;
+
+	public InverseUpdater(Transaction transaction) {
+		this.transaction = transaction;
+		this.packageMetaData = transaction.getPackageMetaData();
+	}
+
+	public void update() throws BimserverDatabaseException, IOException, QueryException {
+		// Copied first, updating inverses adds the referenced objects to the transaction
+		Map<Long, HashMapVirtualObject> changed = new LinkedHashMap<>();
+		for (HashMapVirtualObject object : transaction.getCreated()) {
+			changed.put(object.getOid(), object);
+		}
+		for (HashMapVirtualObject object : transaction.getUpdated()) {
+			changed.put(object.getOid(), object);
+		}
+		for (HashMapVirtualObject object : transaction.getDeleted()) {
+			changed.put(object.getOid(), object);
+		}
+		for (HashMapVirtualObject object : changed.values()) {
+			boolean deleted = transaction.isDeleted(object.getOid());
+			Map<EReference, Object> originalReferences = transaction.getOriginalReferences(object);
+			for (EReference eReference : getReferencesWithOpposite(packageMetaData, object.eClass())) {
+				List<Long> removed = toList(originalReferences.get(eReference));
+				List<Long> added = deleted ? new ArrayList<>() : toList(object.eGet(eReference));
+				// Only the difference matters, references that are in both lists keep their inverse
+				for (Long oid : new ArrayList<>(added)) {
+					if (removed.remove(oid)) {
+						added.remove(oid);
+					}
+				}
+				for (Long oid : removed) {
+					removeInverse(object, eReference, oid);
+				}
+				for (Long oid : added) {
+					addInverse(object, eReference, oid);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The references with an inverse and the inverses of the given class
+	 */
+	static Set<EReference> getReferencesWithOpposite(PackageMetaData packageMetaData, EClass eClass) {
+		Set<EReference> result = packageMetaData.getAllHasInverseReferences(eClass);
+		for (EReference eReference : eClass.getEAllReferences()) {
+			if (eReference.getEReferenceType().getEPackage() == eClass.getEPackage() && packageMetaData.isInverse(eReference)) {
+				result.add(eReference);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The reference on the other end of eReference (an object of the class eClass referring to an object of referencedEClass), or null when there is none
+	 */
+	private EReference getOpposite(EClass eClass, EReference eReference, EClass referencedEClass) {
+		EReference opposite = packageMetaData.getInverseOrOpposite(referencedEClass, eReference);
+		if (opposite != null) {
+			return opposite;
+		}
+		// Not all inverses have an eOpposite, those are found by looking for the reference they are the inverse of
+		for (EReference candidate : packageMetaData.getAllHasInverseReferences(referencedEClass)) {
+			if (packageMetaData.getInverseOrOpposite(eClass, candidate) == eReference) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Long> toList(Object value) {
+		if (value == null) {
+			return new ArrayList<>();
+		} else if (value instanceof List) {
+			List<Long> list = new ArrayList<>();
+			for (Object item : (List<Object>) value) {
+				if (item instanceof Long) {
+					list.add((Long) item);
+				}
+			}
+			return list;
+		} else if (value instanceof Long) {
+			List<Long> list = new ArrayList<>();
+			list.add((Long) value);
+			return list;
+		}
+		return new ArrayList<>();
+	}
+
+	private void removeInverse(HashMapVirtualObject object, EReference eReference, long referencedOid) throws BimserverDatabaseException, IOException, QueryException {
+		if (transaction.isDeleted(referencedOid)) {
+			return;
+		}
+		EReference inverseOrOpposite = getOpposite(object.eClass(), eReference, transaction.getDatabaseSession().getEClassForOid(referencedOid));
+		if (inverseOrOpposite == null) {
+			return;
+		}
+		HashMapVirtualObject referencedObject = get(referencedOid);
+		if (referencedObject == null) {
+			return;
+		}
+		transaction.updated(referencedObject);
+		if (inverseOrOpposite.isMany()) {
+			List<?> list = (List<?>) referencedObject.eGet(inverseOrOpposite);
+			if (list != null) {
+				list.remove((Object) object.getOid());
+			}
+		} else {
+			Object value = referencedObject.eGet(inverseOrOpposite);
+			if (value != null && value.equals(object.getOid())) {
+				referencedObject.eUnset(inverseOrOpposite);
+			}
+		}
+	}
+
+	private void addInverse(HashMapVirtualObject object, EReference eReference, long referencedOid) throws BimserverDatabaseException, IOException, QueryException {
+		if (transaction.isDeleted(referencedOid)) {
+			return;
+		}
+		EClass referencedEClass = transaction.getDatabaseSession().getEClassForOid(referencedOid);
+		EReference inverseOrOpposite = getOpposite(object.eClass(), eReference, referencedEClass);
+		if (inverseOrOpposite == null) {
+			return;
+		}
+		HashMapVirtualObject referencedObject = get(referencedOid);
+		if (referencedObject == null) {
+			throw new BimserverDatabaseException("Referenced object with oid " + referencedOid + " (" + referencedEClass.getName() + "), referenced from " + object.eClass().getName() + " not found");
+		}
+		transaction.updated(referencedObject);
+		if (inverseOrOpposite.isMany()) {
+			List<?> list = (List<?>) referencedObject.eGet(inverseOrOpposite);
+			if (list == null || !list.contains(object.getOid())) {
+				referencedObject.addReference(inverseOrOpposite, object.eClass(), object.getOid());
+			}
+		} else {
+			Object previous = referencedObject.eGet(inverseOrOpposite);
+			if (previous instanceof Long && (Long) previous != object.getOid()) {
+				// The referenced object moves over to this object, the object it referred to loses its end of the relation
+				removeInverse(referencedObject, inverseOrOpposite, (Long) previous);
+			}
+			referencedObject.setReference(inverseOrOpposite, object.getOid());
+		}
+	}
+
+	private HashMapVirtualObject get(long oid) throws BimserverDatabaseException, IOException, QueryException {
+		HashMapVirtualObject object = transaction.get(oid);
+		if (object == null && transaction.getPreviousRevision() != null) {
+			Query query = new Query(packageMetaData);
+			QueryPart queryPart = query.createQueryPart();
+			queryPart.addOid(oid);
+
+			QueryObjectProvider queryObjectProvider = new QueryObjectProvider(transaction.getDatabaseSession(), transaction.getBimServer(), query, Collections.singleton(transaction.getPreviousRevision().getOid()), packageMetaData);
+			object = queryObjectProvider.next();
+		}
+		return object;
+	}
+}
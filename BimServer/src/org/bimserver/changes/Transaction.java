@@ -17,21 +17,26 @@ package org.bimserver.changes;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.bimserver.BimServer;
 import org.bimserver.database.DatabaseSession;
+import org.bimserver.emf.PackageMetaData;
 import org.bimserver.models.store.ConcreteRevision;
 import org.bimserver.models.store.Project;
 import org.bimserver.models.store.Revision;
 import org.bimserver.shared.HashMapVirtualObject;
+import org.eclipse.emf.ecore.EReference;
 
 public class Transaction {
 	private Map<Long, HashMapVirtualObject> created = new HashMap<>();
 	private Map<Long, HashMapVirtualObject> updated = new HashMap<>();
 	private Map<Long, HashMapVirtualObject> deleted = new HashMap<>();
+	private Map<Long, Map<EReference, Object>> originalReferences = new HashMap<>();
 	private Revision previousRevision;
 	private Project project;
 	private ConcreteRevision concreteRevision;
@@ -90,10 +95,51 @@ public class Transaction {
 	}
 
 	public void updated(HashMapVirtualObject object) {
-		if (!created.containsKey(object.getOid())) {
+		if (!created.containsKey(object.getOid()) && !updated.containsKey(object.getOid())) {
 			updated.put(object.getOid(), object);
+			originalReferences.put(object.getOid(), copyReferences(object));
 		}
 	}
+
+	/**
+	 * Marks object as the new version of original, which is an object of the previous revision with the same oid
+	 */
+	public void replaced(HashMapVirtualObject original, HashMapVirtualObject object) {
+		updated.put(object.getOid(), object);
+		originalReferences.put(object.getOid(), copyReferences(original));
+	}
+
+	/**
+	 * @return The values of the references with inverses of the given object as they were in the previous revision, an empty map for objects created in this transaction
+	 */
+	public Map<EReference, Object> getOriginalReferences(HashMapVirtualObject object) {
+		if (created.containsKey(object.getOid())) {
+			return new HashMap<>();
+		}
+		Map<EReference, Object> references = originalReferences.get(object.getOid());
+		if (references == null) {
+			// Never marked as updated, so never changed
+			return copyReferences(object);
+		}
+		return references;
+	}
+
+	private Map<EReference, Object> copyReferences(HashMapVirtualObject object) {
+		Map<EReference, Object> references = new HashMap<>();
+		for (EReference eReference : InverseUpdater.getReferencesWithOpposite(getPackageMetaData(), object.eClass())) {
+			Object value = object.eGet(eReference);
+			if (value instanceof List) {
+				references.put(eReference, new ArrayList<>((List<?>) value));
+			} else if (value != null) {
+				references.put(eReference, value);
+			}
+		}
+		return references;
+	}
+
+	public PackageMetaData getPackageMetaData() {
+		return databaseSession.getMetaDataManager().getPackageMetaData(project.getSchema());
+	}
 	
 	public void deleted(HashMapVirtualObject object) {
 		deleted.put(object.getOid(), object);
@@ -103,6 +149,10 @@ public class Transaction {
 		return deleted.values();
 	}
 
+	public boolean isDeleted(long oid) {
+		return deleted.containsKey(oid);
+	}
+
 	public int getNewRid() {
 		return newRid;
 	}
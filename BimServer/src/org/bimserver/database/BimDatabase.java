@@ -41,6 +41,18 @@ public interface BimDatabase {
 
 	Registry getRegistry();
 
+	SpatialIndex getSpatialIndex();
+
+	PropertyIndex getPropertyIndex();
+
+	GeometryBufferStore getGeometryBufferStore();
+
+	GeometryLodStore getGeometryLodStore();
+
+	GeometryCheckpointStore getGeometryCheckpointStore();
+
+	ConfiguredIndices getConfiguredIndices();
+
 	EClass getEClassForOid(long oid) throws BimserverDatabaseException;
 
 	String getTableName(EClass eClass);
@@ -29,7 +29,17 @@ public class BimserverLockConflictException extends BimserverDatabaseException {
 		super(e);
 	}
 	
+	/**
+	 * For conflicts that are not detected by Berkeley DB
+	 */
+	public BimserverLockConflictException(String message) {
+		super(message);
+	}
+	
+	/**
+	 * @return The Berkeley DB exception, null when the conflict was not detected by Berkeley DB
+	 */
 	public LockConflictException getLockException() {
-		return (LockConflictException) getCause();
+		return getCause() instanceof LockConflictException ? (LockConflictException) getCause() : null;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,428 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.models.ifc4.Ifc4Package;
+import org.bimserver.shared.exceptions.ServiceException;
+import org.bimserver.utils.BinUtils;
+import org.eclipse.emf.common.util.Enumerator;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EEnum;
+import org.eclipse.emf.ecore.EEnumLiteral;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EcorePackage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Indices on features of IFC classes that are declared in the server settings (as "Class.feature", for example "IfcRoot.Name"), next to the features that have the "singleindex" annotation in the model.
+ * 
+ * Declared indices use the same layout as the annotated ones: one duplicate-key table per concrete class and feature, with keys pid (4), -rid (4), feature value and the record key as value. Records that are written after
+ * a feature has been declared are indexed directly by {@link DatabaseSession}, existing records are added by a background task. Only when that task has finished (which is remembered in the registry) is an index used to
+ * answer queries, see {@link #isQueryable(EClass, EStructuralFeature)}.
+ */
+public class ConfiguredIndices {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConfiguredIndices.class);
+	private static final String REGISTRY_PREFIX = "index_";
+	private static final int BATCH_SIZE = 10000;
+	private final Database database;
+	private final Set<String> openedTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Set<String> queryableTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ExecutorService backfillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "IndexBackfill");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile Map<EClass, Set<EStructuralFeature>> configuredFeatures = Collections.emptyMap();
+	private volatile Map<EClass, List<EStructuralFeature>> indexedFeatures = new ConcurrentHashMap<>();
+
+	public ConfiguredIndices(Database database) {
+		this.database = database;
+	}
+
+	public static String getTableName(EClass eClass, EStructuralFeature eStructuralFeature) {
+		return eClass.getEPackage().getName() + "_" + eClass.getName() + "_" + eStructuralFeature.getName();
+	}
+
+	/**
+	 * Replaces the declared indices. Tables of newly declared features are created and filled in the background, features that are no longer declared stop being maintained (and queried).
+	 */
+	public synchronized void update(Collection<String> declarations) {
+		Map<EClass, Set<EStructuralFeature>> newConfiguredFeatures = new HashMap<>();
+		for (String declaration : declarations) {
+			int index = declaration.indexOf(".");
+			if (index == -1) {
+				LOGGER.warn("Ignoring indexed feature \"" + declaration + "\", the format is Class.feature");
+				continue;
+			}
+			String className = declaration.substring(0, index).trim();
+			String featureName = declaration.substring(index + 1).trim();
+			boolean found = false;
+			for (EPackage ePackage : new EPackage[] { Ifc2x3tc1Package.eINSTANCE, Ifc4Package.eINSTANCE }) {
+				EClassifier eClassifier = ePackage.getEClassifier(className);
+				if (!(eClassifier instanceof EClass)) {
+					continue;
+				}
+				EStructuralFeature eStructuralFeature = ((EClass) eClassifier).getEStructuralFeature(featureName);
+				if (eStructuralFeature == null) {
+					continue;
+				}
+				found = true;
+				if (!isIndexable(eStructuralFeature)) {
+					LOGGER.warn("Ignoring indexed feature \"" + declaration + "\", only single valued strings, integers, booleans, enums and references can be indexed");
+					continue;
+				}
+				if (eStructuralFeature.getEAnnotation("singleindex") != null) {
+					// Always indexed
+					continue;
+				}
+				PackageMetaData packageMetaData = database.getMetaDataManager().getPackageMetaData(ePackage.getName());
+				for (EClass eClass : packageMetaData.getAllSubClassesIncludingSelf((EClass) eClassifier)) {
+					if (database.getCidOfEClass(eClass) == null) {
+						continue;
+					}
+					Set<EStructuralFeature> features = newConfiguredFeatures.get(eClass);
+					if (features == null) {
+						features = new LinkedHashSet<>();
+						newConfiguredFeatures.put(eClass, features);
+					}
+					features.add(eStructuralFeature);
+				}
+			}
+			if (!found) {
+				LOGGER.warn("Ignoring indexed feature \"" + declaration + "\", no IFC class with this feature found");
+			}
+		}
+
+		List<EClass> toFillClasses = new ArrayList<>();
+		List<EStructuralFeature> toFillFeatures = new ArrayList<>();
+		try (DatabaseSession databaseSession = database.createSession(OperationType.POSSIBLY_WRITE)) {
+			Registry registry = database.getRegistry();
+			for (EClass eClass : new ArrayList<>(newConfiguredFeatures.keySet())) {
+				Set<EStructuralFeature> features = newConfiguredFeatures.get(eClass);
+				for (EStructuralFeature eStructuralFeature : new ArrayList<>(features)) {
+					String tableName = getTableName(eClass, eStructuralFeature);
+					try {
+						openTable(tableName, databaseSession);
+					} catch (BimserverDatabaseException e) {
+						LOGGER.error("Could not open index table " + tableName, e);
+						features.remove(eStructuralFeature);
+						continue;
+					}
+					if (registry.readBoolean(REGISTRY_PREFIX + tableName, false, databaseSession)) {
+						queryableTables.add(tableName);
+					} else if (!isConfigured(eClass, eStructuralFeature)) {
+						toFillClasses.add(eClass);
+						toFillFeatures.add(eStructuralFeature);
+					}
+				}
+			}
+			for (EClass eClass : configuredFeatures.keySet()) {
+				for (EStructuralFeature eStructuralFeature : configuredFeatures.get(eClass)) {
+					Set<EStructuralFeature> features = newConfiguredFeatures.get(eClass);
+					if (features == null || !features.contains(eStructuralFeature)) {
+						// Not maintained anymore, so the index will be incomplete from now on
+						String tableName = getTableName(eClass, eStructuralFeature);
+						queryableTables.remove(tableName);
+						registry.save(REGISTRY_PREFIX + tableName, false, databaseSession);
+					}
+				}
+			}
+			databaseSession.commit();
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+		} catch (ServiceException e) {
+			LOGGER.error("", e);
+		}
+
+		// First make sure new records are indexed, then fill the index with the existing records
+		configuredFeatures = newConfiguredFeatures;
+		indexedFeatures = new ConcurrentHashMap<>();
+		for (int i = 0; i < toFillClasses.size(); i++) {
+			EClass eClass = toFillClasses.get(i);
+			EStructuralFeature eStructuralFeature = toFillFeatures.get(i);
+			backfillExecutor.submit(() -> fill(eClass, eStructuralFeature));
+		}
+	}
+
+	/**
+	 * @return All features of the given class that have an index, either because of the "singleindex" annotation or because they have been declared in the server settings
+	 */
+	public List<EStructuralFeature> getIndexedFeatures(EClass eClass) {
+		Map<EClass, List<EStructuralFeature>> cache = indexedFeatures;
+		List<EStructuralFeature> result = cache.get(eClass);
+		if (result == null) {
+			result = new ArrayList<>();
+			for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
+				if (eStructuralFeature.getEAnnotation("singleindex") != null) {
+					result.add(eStructuralFeature);
+				}
+			}
+			Set<EStructuralFeature> features = configuredFeatures.get(eClass);
+			if (features != null) {
+				result.addAll(features);
+			}
+			cache.put(eClass, result);
+		}
+		return result;
+	}
+
+	public boolean isConfigured(EClass eClass, EStructuralFeature eStructuralFeature) {
+		Set<EStructuralFeature> features = configuredFeatures.get(eClass);
+		return features != null && features.contains(eStructuralFeature);
+	}
+
+	/**
+	 * @return Whether the index on the given feature of the given (concrete) class is complete
+	 */
+	public boolean isQueryable(EClass eClass, EStructuralFeature eStructuralFeature) {
+		if (eStructuralFeature.getEAnnotation("singleindex") != null) {
+			return true;
+		}
+		return isConfigured(eClass, eStructuralFeature) && queryableTables.contains(getTableName(eClass, eStructuralFeature));
+	}
+
+	/**
+	 * @return The bytes the given value has in the index of the given feature, or null when values of this type cannot be looked up
+	 */
+	public static byte[] getIndexBytes(EStructuralFeature eStructuralFeature, Object value) {
+		EClassifier eType = eStructuralFeature.getEType();
+		if (eStructuralFeature instanceof EReference) {
+			if (value instanceof Long) {
+				return BinUtils.longToByteArrayLittleEndian((Long) value);
+			}
+		} else if (eType instanceof EEnum) {
+			EEnumLiteral eEnumLiteral = null;
+			if (value instanceof Enumerator) {
+				eEnumLiteral = ((EEnum) eType).getEEnumLiteral(((Enumerator) value).getValue());
+			} else if (value instanceof String) {
+				eEnumLiteral = ((EEnum) eType).getEEnumLiteral((String) value);
+			}
+			if (eEnumLiteral != null) {
+				return BinUtils.intToByteArray(eEnumLiteral.getValue());
+			}
+		} else if (value instanceof String && eType == EcorePackage.eINSTANCE.getEString()) {
+			return ((String) value).getBytes(Charsets.UTF_8);
+		} else if (value instanceof Integer && (eType == EcorePackage.eINSTANCE.getEInt() || eType == EcorePackage.eINSTANCE.getEIntegerObject())) {
+			return BinUtils.intToByteArray((Integer) value);
+		} else if (value instanceof Number && (eType == EcorePackage.eINSTANCE.getELong() || eType == EcorePackage.eINSTANCE.getELongObject())) {
+			return BinUtils.longToByteArray(((Number) value).longValue());
+		} else if (value instanceof Boolean && (eType == EcorePackage.eINSTANCE.getEBoolean() || eType == EcorePackage.eINSTANCE.getEBooleanObject())) {
+			return new byte[] { (Boolean) value ? (byte) 1 : (byte) 0 };
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up the oids of the objects of the given (concrete) class for which the given feature has the given value in revision rid of project pid.
+	 * 
+	 * Index entries are keyed on the revision in which a record was written, so objects that did not change since an earlier revision only have entries for that revision. This walks the
+	 * revisions that have entries for the value (newest first, down to stopRid) and only keeps an entry when the record it points to is still the current record of that object in revision rid.
+	 */
+	public List<Long> query(EClass eClass, EStructuralFeature eStructuralFeature, byte[] valueBytes, int pid, int rid, int stopRid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		byte[] pidBytes = BinUtils.intToByteArray(pid);
+		List<Long> result = new ArrayList<>();
+		List<byte[]> candidates = new ArrayList<>();
+		SearchingRecordIterator indexIterator = keyValueStore.getRecordIterator(getTableName(eClass, eStructuralFeature), pidBytes, pidBytes, databaseSession);
+		try {
+			ByteBuffer searchKey = ByteBuffer.allocate(valueBytes.length + 8);
+			int currentRid = rid;
+			int lowestRid = Math.max(stopRid, 1);
+			while (currentRid >= lowestRid) {
+				searchKey.clear();
+				searchKey.putInt(pid);
+				searchKey.putInt(-currentRid);
+				searchKey.put(valueBytes);
+				Record record = indexIterator.next(searchKey.array());
+				if (record == null) {
+					break;
+				}
+				byte[] key = record.getKey();
+				int keyRid = -ByteBuffer.wrap(key, 4, 4).getInt();
+				if (keyRid < currentRid) {
+					// No entries at all in the revisions in between
+					currentRid = keyRid;
+					continue;
+				}
+				while (record != null && Arrays.equals(record.getKey(), searchKey.array())) {
+					candidates.add(record.getValue());
+					record = indexIterator.next();
+				}
+				currentRid--;
+			}
+		} finally {
+			indexIterator.close();
+		}
+		if (candidates.isEmpty()) {
+			return result;
+		}
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), pidBytes, pidBytes, databaseSession);
+		try {
+			ByteBuffer searchKey = ByteBuffer.allocate(16);
+			for (byte[] candidate : candidates) {
+				ByteBuffer candidateKey = ByteBuffer.wrap(candidate);
+				candidateKey.getInt(); // pid
+				long oid = candidateKey.getLong();
+				int candidateRid = -candidateKey.getInt();
+				searchKey.clear();
+				searchKey.putInt(pid);
+				searchKey.putLong(oid);
+				searchKey.putInt(-rid);
+				// The first record at or after this key is the newest record of this object with a rid <= rid
+				Record record = recordIterator.next(searchKey.array());
+				if (record == null) {
+					continue;
+				}
+				ByteBuffer keyBuffer = record.getKeyBuffer();
+				keyBuffer.getInt(); // pid
+				if (keyBuffer.getLong() != oid || -keyBuffer.getInt() != candidateRid) {
+					// Changed (or deleted) in a later revision
+					continue;
+				}
+				// Records of length 1 mark deleted objects
+				if (record.getValueBuffer().capacity() > 1) {
+					result.add(oid);
+				}
+			}
+		} finally {
+			recordIterator.close();
+		}
+		return result;
+	}
+
+	public void close() {
+		backfillExecutor.shutdownNow();
+	}
+
+	private boolean isIndexable(EStructuralFeature eStructuralFeature) {
+		if (eStructuralFeature.isMany()) {
+			return false;
+		}
+		EClassifier eType = eStructuralFeature.getEType();
+		if (eStructuralFeature instanceof EReference) {
+			// Wrapped values are stored inline, not as a reference
+			return eType.getEAnnotation("wrapped") == null;
+		}
+		return eType instanceof EEnum
+				|| eType == EcorePackage.eINSTANCE.getEString()
+				|| eType == EcorePackage.eINSTANCE.getEInt()
+				|| eType == EcorePackage.eINSTANCE.getEIntegerObject()
+				|| eType == EcorePackage.eINSTANCE.getELong()
+				|| eType == EcorePackage.eINSTANCE.getELongObject()
+				|| eType == EcorePackage.eINSTANCE.getEBoolean()
+				|| eType == EcorePackage.eINSTANCE.getEBooleanObject();
+	}
+
+	private void openTable(String tableName, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		if (openedTables.contains(tableName)) {
+			return;
+		}
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		// IFC tables are not transactional
+		if (keyValueStore.containsTable(tableName)) {
+			keyValueStore.openIndexTable(databaseSession, tableName, false);
+		} else {
+			keyValueStore.createIndexTable(tableName, databaseSession, false);
+		}
+		openedTables.add(tableName);
+	}
+
+	/**
+	 * Adds all existing records of the given class to the index, and marks the index as queryable when done
+	 */
+	private void fill(EClass eClass, EStructuralFeature eStructuralFeature) {
+		String tableName = getTableName(eClass, eStructuralFeature);
+		KeyValueStore keyValueStore = database.getKeyValueStore();
+		long start = System.nanoTime();
+		long indexed = 0;
+		try (DatabaseSession databaseSession = database.createSession(OperationType.POSSIBLY_WRITE)) {
+			WriteBatch writeBatch = new WriteBatch();
+			RecordIterator recordIterator = keyValueStore.getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), databaseSession);
+			try {
+				Record record = recordIterator.next();
+				while (record != null) {
+					if (Thread.currentThread().isInterrupted() || !isConfigured(eClass, eStructuralFeature)) {
+						return;
+					}
+					byte[] value = record.getValue();
+					// Records of length 1 mark deleted objects
+					if (value.length > 1) {
+						byte[] featureBytes = databaseSession.extractFeatureBytes(databaseSession, ByteBuffer.wrap(value), eClass, eStructuralFeature);
+						if (featureBytes != null) {
+							ByteBuffer recordKey = ByteBuffer.wrap(record.getKey());
+							int pid = recordKey.getInt();
+							recordKey.getLong(); // oid
+							int negativeRid = recordKey.getInt();
+							ByteBuffer indexKey = ByteBuffer.allocate(featureBytes.length + 8);
+							indexKey.putInt(pid);
+							indexKey.putInt(negativeRid);
+							indexKey.put(featureBytes);
+							writeBatch.store(tableName, indexKey.array(), record.getKey());
+							indexed++;
+						}
+					}
+					if (writeBatch.size() >= BATCH_SIZE) {
+						keyValueStore.write(writeBatch, databaseSession);
+						writeBatch.clear();
+					}
+					record = recordIterator.next();
+				}
+			} finally {
+				recordIterator.close();
+			}
+			if (!writeBatch.isEmpty()) {
+				keyValueStore.write(writeBatch, databaseSession);
+			}
+			synchronized (this) {
+				if (isConfigured(eClass, eStructuralFeature)) {
+					database.getRegistry().save(REGISTRY_PREFIX + tableName, true, databaseSession);
+					databaseSession.commit();
+					queryableTables.add(tableName);
+					LOGGER.info("Index " + tableName + " ready, " + indexed + " records indexed in " + ((System.nanoTime() - start) / 1000000) + "ms");
+				}
+			}
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("Filling index " + tableName + " failed", e);
+		} catch (ServiceException e) {
+			LOGGER.error("Filling index " + tableName + " failed", e);
+		}
+	}
+}
@@ -81,6 +81,13 @@ public class Database implements BimDatabase {
 	private final Map<EClass, AtomicLong> oidCounters = new HashMap<EClass, AtomicLong>();
 	private final AtomicInteger pidCounter = new AtomicInteger(1);
 	private final Registry registry;
+	private final SpatialIndex spatialIndex;
+	private final PropertyIndex propertyIndex;
+	private final GeometryBufferStore geometryBufferStore;
+	private final GeometryLodStore geometryLodStore;
+	private final GeometryCheckpointStore geometryCheckpointStore;
+	private final ConfiguredIndices configuredIndices;
+	private final AtomicLong virtualObjectCacheWeight = new AtomicLong();
 	private Date created;
 	final Set<DatabaseSession> sessions = Collections.newSetFromMap(new ConcurrentHashMap<DatabaseSession, Boolean>());
 	private int databaseSchemaVersion;
@@ -95,7 +102,7 @@ public class Database implements BimDatabase {
 	 * database-schema change. Do not change this variable when nothing has
 	 * changed in the schema!
 	 */
-	public static final int APPLICATION_SCHEMA_VERSION = 56;
+	public static final int APPLICATION_SCHEMA_VERSION = 58;
 
 	public Database(BimServer bimServer, Set<? extends EPackage> emfPackages, KeyValueStore keyValueStore, MetaDataManager metaDataManager) throws DatabaseInitException {
 		this.cidToEclass = new EClass[Short.MAX_VALUE]; 
@@ -109,6 +116,12 @@ public class Database implements BimDatabase {
 			this.emfPackages.put(ePackage.getName(), ePackage);
 		}
 		this.registry = new Registry(keyValueStore);
+		this.spatialIndex = new SpatialIndex(keyValueStore);
+		this.propertyIndex = new PropertyIndex(keyValueStore);
+		this.geometryBufferStore = new GeometryBufferStore(keyValueStore);
+		this.geometryLodStore = new GeometryLodStore(keyValueStore);
+		this.geometryCheckpointStore = new GeometryCheckpointStore(keyValueStore);
+		this.configuredIndices = new ConfiguredIndices(this);
 		if (DatabaseSession.DEVELOPER_DEBUG) {
 			new DatabaseSessionMonitor(this).start();
 		}
@@ -137,6 +150,11 @@ public class Database implements BimDatabase {
 				keyValueStore.createTable(CLASS_LOOKUP_TABLE, null, true);
 				keyValueStore.createTable(Database.STORE_PROJECT_NAME, null, true);
 				keyValueStore.createTable(Registry.REGISTRY_TABLE, null, true);
+				keyValueStore.createTable(SpatialIndex.SPATIAL_INDEX_TABLE, null, true);
+				keyValueStore.createTable(PropertyIndex.PROPERTY_INDEX_TABLE, null, true);
+				keyValueStore.createTable(GeometryBufferStore.GEOMETRY_BUFFER_TABLE, null, true);
+				keyValueStore.createTable(GeometryLodStore.GEOMETRY_LOD_TABLE, null, true);
+				keyValueStore.createTable(GeometryCheckpointStore.GEOMETRY_CHECKPOINT_TABLE, null, true);
 				setDatabaseVersion(-1, databaseSession);
 				created = new Date();
 				registry.save(DATE_CREATED, created, databaseSession);
@@ -146,6 +164,36 @@ public class Database implements BimDatabase {
 				keyValueStore.openTable(databaseSession, CLASS_LOOKUP_TABLE, true);
 				keyValueStore.openTable(databaseSession, Database.STORE_PROJECT_NAME, true);
 				keyValueStore.openTable(databaseSession, Registry.REGISTRY_TABLE, true);
+				if (keyValueStore.containsTable(SpatialIndex.SPATIAL_INDEX_TABLE)) {
+					keyValueStore.openTable(databaseSession, SpatialIndex.SPATIAL_INDEX_TABLE, true);
+				} else {
+					// Databases created before the spatial index existed
+					keyValueStore.createTable(SpatialIndex.SPATIAL_INDEX_TABLE, null, true);
+				}
+				if (keyValueStore.containsTable(PropertyIndex.PROPERTY_INDEX_TABLE)) {
+					keyValueStore.openTable(databaseSession, PropertyIndex.PROPERTY_INDEX_TABLE, true);
+				} else {
+					// Databases created before the property index existed
+					keyValueStore.createTable(PropertyIndex.PROPERTY_INDEX_TABLE, null, true);
+				}
+				if (keyValueStore.containsTable(GeometryBufferStore.GEOMETRY_BUFFER_TABLE)) {
+					keyValueStore.openTable(databaseSession, GeometryBufferStore.GEOMETRY_BUFFER_TABLE, true);
+				} else {
+					// Databases created before the geometry buffer store existed
+					keyValueStore.createTable(GeometryBufferStore.GEOMETRY_BUFFER_TABLE, null, true);
+				}
+				if (keyValueStore.containsTable(GeometryLodStore.GEOMETRY_LOD_TABLE)) {
+					keyValueStore.openTable(databaseSession, GeometryLodStore.GEOMETRY_LOD_TABLE, true);
+				} else {
+					// Databases created before levels of detail were stored
+					keyValueStore.createTable(GeometryLodStore.GEOMETRY_LOD_TABLE, null, true);
+				}
+				if (keyValueStore.containsTable(GeometryCheckpointStore.GEOMETRY_CHECKPOINT_TABLE)) {
+					keyValueStore.openTable(databaseSession, GeometryCheckpointStore.GEOMETRY_CHECKPOINT_TABLE, true);
+				} else {
+					// Databases created before geometry generation was checkpointed
+					keyValueStore.createTable(GeometryCheckpointStore.GEOMETRY_CHECKPOINT_TABLE, null, true);
+				}
 				created = registry.readDate(DATE_CREATED, databaseSession);
 				uuid = UUID.fromString(registry.readString(SERVER_UUID, databaseSession));
 				if (created == null) {
@@ -309,7 +357,9 @@ public class Database implements BimDatabase {
 					if (eStructuralFeature.getEAnnotation("singleindex") != null) {
 						String indexTableName = eClass.getEPackage().getName() + "_" + eClass.getName() + "_" + eStructuralFeature.getName();
 						try {
-							keyValueStore.openIndexTable(databaseSession, indexTableName, transactional);
+							if (keyValueStore.containsTable(indexTableName)) {
+								keyValueStore.openIndexTable(databaseSession, indexTableName, transactional);
+							}
 						} catch (DatabaseNotFoundException e) {
 						}
 					}
@@ -360,6 +410,7 @@ public class Database implements BimDatabase {
 	}
 
 	public void close() {
+		configuredIndices.close();
 		keyValueStore.close();
 	}
 
@@ -396,6 +447,44 @@ public class Database implements BimDatabase {
 		return registry;
 	}
 
+	public SpatialIndex getSpatialIndex() {
+		return spatialIndex;
+	}
+
+	public PropertyIndex getPropertyIndex() {
+		return propertyIndex;
+	}
+
+	public GeometryBufferStore getGeometryBufferStore() {
+		return geometryBufferStore;
+	}
+
+	public GeometryLodStore getGeometryLodStore() {
+		return geometryLodStore;
+	}
+
+	public GeometryCheckpointStore getGeometryCheckpointStore() {
+		return geometryCheckpointStore;
+	}
+
+	public ConfiguredIndices getConfiguredIndices() {
+		return configuredIndices;
+	}
+
+	/**
+	 * @return The estimated size of the objects in the object caches of all sessions, which together are bounded by {@link #getVirtualObjectCacheSize()}
+	 */
+	public AtomicLong getVirtualObjectCacheWeight() {
+		return virtualObjectCacheWeight;
+	}
+
+	public long getVirtualObjectCacheSize() {
+		if (bimServer != null && bimServer.getConfig().getObjectCacheSize() > 0) {
+			return bimServer.getConfig().getObjectCacheSize();
+		}
+		return Runtime.getRuntime().maxMemory() / 16;
+	}
+
 	public Date getCreated() {
 		return created;
 	}
@@ -34,7 +34,6 @@ import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.ServerIfcModel;
@@ -99,6 +98,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 	public static final int DEFAULT_CONFLICT_RETRIES = 10;
 	public static final boolean DEVELOPER_DEBUG = false;
 	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseSession.class);
+	private static final long MAX_WRITE_BATCH_SIZE_IN_BYTES = 64 * 1024 * 1024;
 	
 	private final Database database;
 	private BimTransaction bimTransaction;
@@ -108,7 +108,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 	private StackTraceElement[] stackTrace;
 	private final ObjectCache objectCache = new ObjectCache();
 	private Map<String, Long> startOids;
-	private Map<Long, HashMapVirtualObject> voCache;
+	private volatile VirtualObjectCache voCache;
 	private CleanupListener cleanupListener;
 	private final Set<ServerIfcModel> serverModels = new HashSet<>();
 	private long reads;
@@ -173,6 +173,12 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		}
 		state = SessionState.CLOSED;
 		objectCache.clear();
+		if (voCache != null) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Object cache: " + voCache);
+			}
+			voCache.close();
+		}
 		for (ServerIfcModel serverIfcModel : serverModels) {
 			try {
 				serverIfcModel.close();
@@ -206,10 +212,12 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 			int current = 0;
 			long writes = 0;
 			ByteBuffer keyBuffer = ByteBuffer.wrap(new byte[16]);
+			// All writes go through a batch, which the KeyValueStore applies per table in key order
+			WriteBatch writeBatch = new WriteBatch();
 			if (objectsToDelete != null) {
 				for (RecordIdentifierPlusType recordIdentifier : objectsToDelete) {
 					fillKeyBuffer(keyBuffer, recordIdentifier);
-					database.getKeyValueStore().storeNoOverwrite(recordIdentifier.getPackageName() + "_" + recordIdentifier.getClassName(), keyBuffer.array(), new byte[] { -1 }, this);
+					writeBatch.storeNoOverwrite(recordIdentifier.getPackageName() + "_" + recordIdentifier.getClassName(), keyBuffer.array(), new byte[] { -1 });
 					writes++;
 				}
 			}
@@ -226,16 +234,15 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 					}
 					ByteBuffer valueBuffer = convertObjectToByteArray(object, reusableBuffer, getMetaDataManager().getPackageMetaData(object.eClass().getEPackage().getName()));
 					int valueBufferPosition = valueBuffer.position();
-					processPossibleIndices(keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer);
+					processPossibleIndices(keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer, null, writeBatch);
 					if (object.eClass().getEAnnotation("nolazyload") == null && !overwriteEnabled) {
-						try {
-							database.getKeyValueStore().storeNoOverwrite(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(), valueBuffer.array(), 0, valueBufferPosition, this);
-						} catch (BimserverConcurrentModificationDatabaseException e) {
-							throw e;
-						}
+						writeBatch.storeNoOverwrite(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(), valueBuffer.array(), 0, valueBufferPosition);
 					} else {
-						database.getKeyValueStore().store(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(),
-								valueBuffer.array(), 0, valueBuffer.position(), this);
+						writeBatch.store(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(), valueBuffer.array(), 0, valueBufferPosition);
+					}
+					if (writeBatch.getSizeInBytes() > MAX_WRITE_BATCH_SIZE_IN_BYTES) {
+						database.getKeyValueStore().write(writeBatch, this);
+						writeBatch.clear();
 					}
 					if (progressHandler != null) {
 						progressHandler.progress(++current, objectsToCommit.size());
@@ -245,6 +252,9 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 					reusableBuffer.position(0);
 				}
 			}
+			if (!writeBatch.isEmpty()) {
+				database.getKeyValueStore().write(writeBatch, this);
+			}
 			if (bimTransaction != null) {
 				bimTransaction.commit();
 				database.getKeyValueStore().sync();
@@ -267,15 +277,17 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		}
 	}
 
-	private void processPossibleIndices(ByteBuffer keyBuffer, int pid, int rid, long oid, EClass eClass, ByteBuffer valueBuffer) throws BimserverLockConflictException, BimserverDatabaseException {
-		boolean hasAtLeastOneIndex = false;
-		for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
-			if (eStructuralFeature.getEAnnotation("singleindex") != null) {
-				hasAtLeastOneIndex = true;
-				break;
-			}
-		}
-		if (hasAtLeastOneIndex) {
+	private void processPossibleIndices(ByteBuffer keyBuffer, int pid, int rid, long oid, EClass eClass, ByteBuffer valueBuffer, byte[] overwrittenValue) throws BimserverLockConflictException, BimserverDatabaseException {
+		processPossibleIndices(keyBuffer, pid, rid, oid, eClass, valueBuffer, overwrittenValue, null);
+	}
+
+	/**
+	 * @param overwrittenValue For classes without per record versioning, the value that is being overwritten (same pid, oid and rid), its index entries are removed. Null when nothing is overwritten
+	 * @param writeBatch When not null, index entries are added to and removed from this batch instead of being written directly
+	 */
+	private void processPossibleIndices(ByteBuffer keyBuffer, int pid, int rid, long oid, EClass eClass, ByteBuffer valueBuffer, byte[] overwrittenValue, WriteBatch writeBatch) throws BimserverLockConflictException, BimserverDatabaseException {
+		List<EStructuralFeature> indexedFeatures = database.getConfiguredIndices().getIndexedFeatures(eClass);
+		if (!indexedFeatures.isEmpty()) {
 			byte[] oldData = null;
 			ByteBuffer oldKeyBuffer = null;
 			boolean perRecordVersioning = perRecordVersioning(eClass);
@@ -285,36 +297,42 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 				oldKeyBuffer.putLong(oid);
 				oldKeyBuffer.putInt(-(rid - 1));
 				oldData = database.getKeyValueStore().get(eClass.getEPackage().getName() + "_" + eClass.getName(), oldKeyBuffer.array(), this);
+			} else {
+				oldKeyBuffer = keyBuffer;
+				oldData = overwrittenValue;
 			}
 			
-			for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
-				if (eStructuralFeature.getEAnnotation("singleindex") != null) {
-					String indexTableName = eClass.getEPackage().getName() + "_" + eClass.getName() + "_" + eStructuralFeature.getName();
-					if (perRecordVersioning && oldData != null) {
-						ByteBuffer oldValue = ByteBuffer.wrap(oldData);
-						
-						byte[] featureBytesOldIndex = extractFeatureBytes(this, oldValue, eClass, eStructuralFeature);
-						
-						if (!perRecordVersioning) {
-							ByteBuffer oldFeatureBuffer = ByteBuffer.allocate(featureBytesOldIndex.length + 8);
-							oldFeatureBuffer.putInt(pid);
-							oldFeatureBuffer.putInt(-(rid - 1));
-							oldFeatureBuffer.put(featureBytesOldIndex);
-							featureBytesOldIndex = oldFeatureBuffer.array();
-						}
-						
-						database.getKeyValueStore().delete(indexTableName, featureBytesOldIndex, oldKeyBuffer.array(), this);
+			for (EStructuralFeature eStructuralFeature : indexedFeatures) {
+				String indexTableName = ConfiguredIndices.getTableName(eClass, eStructuralFeature);
+				byte[] featureBytesOldIndex = oldData == null ? null : extractFeatureBytes(this, ByteBuffer.wrap(oldData), eClass, eStructuralFeature);
+				if (featureBytesOldIndex != null) {
+					if (!perRecordVersioning) {
+						ByteBuffer oldFeatureBuffer = ByteBuffer.allocate(featureBytesOldIndex.length + 8);
+						oldFeatureBuffer.putInt(pid);
+						oldFeatureBuffer.putInt(-rid);
+						oldFeatureBuffer.put(featureBytesOldIndex);
+						featureBytesOldIndex = oldFeatureBuffer.array();
 					}
 					
-					byte[] featureBytes = extractFeatureBytes(this, valueBuffer, eClass, eStructuralFeature);
-					if (featureBytes != null) {
-						if (!perRecordVersioning) {
-							ByteBuffer featureBuffer = ByteBuffer.allocate(featureBytes.length + 8);
-							featureBuffer.putInt(pid);
-							featureBuffer.putInt(-rid);
-							featureBuffer.put(featureBytes);
-							featureBytes = featureBuffer.array();
-						}
+					if (writeBatch != null) {
+						writeBatch.delete(indexTableName, featureBytesOldIndex, oldKeyBuffer.array());
+					} else {
+						database.getKeyValueStore().delete(indexTableName, featureBytesOldIndex, oldKeyBuffer.array(), this);
+					}
+				}
+				
+				byte[] featureBytes = extractFeatureBytes(this, valueBuffer, eClass, eStructuralFeature);
+				if (featureBytes != null) {
+					if (!perRecordVersioning) {
+						ByteBuffer featureBuffer = ByteBuffer.allocate(featureBytes.length + 8);
+						featureBuffer.putInt(pid);
+						featureBuffer.putInt(-rid);
+						featureBuffer.put(featureBytes);
+						featureBytes = featureBuffer.array();
+					}
+					if (writeBatch != null) {
+						writeBatch.store(indexTableName, featureBytes, keyBuffer.array());
+					} else {
 						database.getKeyValueStore().store(indexTableName, featureBytes, keyBuffer.array(), this);
 					}
 				}
@@ -802,7 +820,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 				objectCache.clear();
 				objectsToCommit = null;
 				bimTransaction = database.getKeyValueStore().startTransaction();
-				if (DEVELOPER_DEBUG) {
+				if (DEVELOPER_DEBUG && e.getLockException() != null) {
 					LockConflictException lockException = e.getLockException();
 					if (lockException instanceof TransactionTimeoutException) {
 					} else if (lockException instanceof LockTimeoutException) {
@@ -2291,7 +2309,19 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 				} else {
 					if (eStructuralFeature == feature) {
 						if (feature instanceof EReference) {
+							buffer.order(ByteOrder.LITTLE_ENDIAN);
+							short cid = buffer.getShort(buffer.position());
+							buffer.order(ByteOrder.BIG_ENDIAN);
+							if (cid == -1) {
+								return null;
+							}
 							return BinUtils.longToByteArrayLittleEndian(buffer.getLong());
+						} else if (feature.getEType() instanceof EEnum) {
+							int enumValue = buffer.getInt();
+							if (enumValue == -1) {
+								return null;
+							}
+							return BinUtils.intToByteArray(enumValue);
 						} else {
 							return databaseSession.readPrimitiveBytes(feature.getEType(), buffer, OldQuery.getDefault());
 						}
@@ -2322,7 +2352,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		ByteBuffer keyBuffer = createKeyBuffer(object.getPid(), object.getOid(), newRid);
 		database.getKeyValueStore().storeNoOverwrite(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position(), this);
 		
-		processPossibleIndices(keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer);
+		processPossibleIndices(keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer, null);
 		
 		if (bimTransaction != null) {
 			bimTransaction.incUpdates(1);
@@ -2336,9 +2366,13 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		ByteBuffer valueBuffer = object.write();
 		EClass eClass = object.eClass();
 		ByteBuffer keyBuffer = createKeyBuffer(object.getPid(), object.getOid(), object.getRid());
+		byte[] overwrittenValue = null;
+		if (hasIndexedFeatures(eClass) && !perRecordVersioning(eClass)) {
+			overwrittenValue = database.getKeyValueStore().get(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), this);
+		}
 		database.getKeyValueStore().store(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position(), this);
 
-		processPossibleIndices(keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer);
+		processPossibleIndices(keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer, overwrittenValue);
 
 		database.incrementCommittedWrites(1);
 		if (bimTransaction != null) {
@@ -2348,6 +2382,43 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		return valueBuffer.position();
 	}
 
+	/**
+	 * Adds an already serialized object and its index entries to writeBatch, used by {@link PipelinedDatabaseInterface} to encode objects on another thread than the one that created them.
+	 * Only valid for classes without per record versioning, this does not read from the store.
+	 * 
+	 * @param overwrittenValue When overwriting an object of a class with indexed features, the value that is being overwritten, its index entries are removed
+	 */
+	void addToWriteBatch(int pid, long oid, int rid, EClass eClass, byte[] value, boolean overwrite, byte[] overwrittenValue, WriteBatch writeBatch) throws BimserverLockConflictException, BimserverDatabaseException {
+		ByteBuffer keyBuffer = createKeyBuffer(pid, oid, rid);
+		if (overwrite) {
+			writeBatch.store(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), value);
+		} else {
+			writeBatch.storeNoOverwrite(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), value);
+		}
+		processPossibleIndices(keyBuffer, pid, rid, oid, eClass, ByteBuffer.wrap(value), overwrittenValue, writeBatch);
+	}
+
+	/**
+	 * @return The stored value of exactly this pid, oid and rid, or null when there is none
+	 */
+	byte[] getRecord(int pid, long oid, int rid, EClass eClass) throws BimserverLockConflictException, BimserverDatabaseException {
+		return database.getKeyValueStore().get(eClass.getEPackage().getName() + "_" + eClass.getName(), createKeyBuffer(pid, oid, rid).array(), this);
+	}
+
+	boolean hasIndexedFeatures(EClass eClass) {
+		return !database.getConfiguredIndices().getIndexedFeatures(eClass).isEmpty();
+	}
+
+	/**
+	 * Accounts for writes that did not go through one of the save methods of this session
+	 */
+	void incrementWrites(long writes) {
+		if (bimTransaction != null) {
+			bimTransaction.incUpdates(writes);
+		}
+		database.incrementCommittedWrites(writes);
+	}
+
 	public KeyValueStore getKeyValueStore() {
 		return database.getKeyValueStore();
 	}
@@ -2370,15 +2441,39 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		if (voCache == null) {
 			synchronized (this) {
 				if (voCache == null) {
-					voCache = new ConcurrentHashMap<>();
+					voCache = new VirtualObjectCache(database.getVirtualObjectCacheSize(), database.getVirtualObjectCacheWeight());
 				}
 			}
 		}
 	}
 	
+	/**
+	 * Caches an object that has been read from the database, the cache is bounded so callers of {@link #getFromCache(long)} should be able to read the object again
+	 */
 	public void cache(HashMapVirtualObject object) {
 		makeSureCacheExists();
-		voCache.put(object.getOid(), object);
+		voCache.put(object);
+	}
+
+	/**
+	 * Caches an object that cannot be read again (for example because it has not been stored yet), or that has state that reading it again would not restore, until it is unpinned or this session is closed
+	 */
+	public void cachePinned(HashMapVirtualObject object) {
+		makeSureCacheExists();
+		voCache.pin(object);
+	}
+
+	/**
+	 * Lets the cache evict an object that has been cached with {@link #cachePinned(HashMapVirtualObject)} again, for when the state it was pinned for is not needed anymore
+	 */
+	public void unpin(HashMapVirtualObject object) {
+		makeSureCacheExists();
+		voCache.unpin(object);
+	}
+
+	public VirtualObjectCache getObjectCache() {
+		makeSureCacheExists();
+		return voCache;
 	}
 	
 	public HashMapVirtualObject getFromCache(long oid) {
@@ -2404,6 +2499,59 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		database.incrementCommittedWrites(1);
 	}
 
+	/**
+	 * Removes a record, and the index entries that were created for it, without leaving a deletion marker. Only meant for records that have been written in the current transaction and should never have been there, for records of earlier revisions use delete
+	 */
+	public void deleteRecord(int pid, long oid, int rid, EClass eClass) throws BimserverLockConflictException, BimserverDatabaseException {
+		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		ByteBuffer keyBuffer = createKeyBuffer(pid, oid, rid);
+		byte[] value = database.getKeyValueStore().get(tableName, keyBuffer.array(), this);
+		if (value == null) {
+			return;
+		}
+		for (EStructuralFeature eStructuralFeature : database.getConfiguredIndices().getIndexedFeatures(eClass)) {
+			byte[] featureBytes = extractFeatureBytes(this, ByteBuffer.wrap(value), eClass, eStructuralFeature);
+			if (featureBytes != null) {
+				if (!perRecordVersioning(eClass)) {
+					ByteBuffer featureBuffer = ByteBuffer.allocate(featureBytes.length + 8);
+					featureBuffer.putInt(pid);
+					featureBuffer.putInt(-rid);
+					featureBuffer.put(featureBytes);
+					featureBytes = featureBuffer.array();
+				}
+				database.getKeyValueStore().delete(ConfiguredIndices.getTableName(eClass, eStructuralFeature), featureBytes, keyBuffer.array(), this);
+			}
+		}
+		database.getKeyValueStore().delete(tableName, keyBuffer.array(), this);
+	}
+
+	/**
+	 * Removes all records of the given class that have been written for the given revision with deleteRecord, records of earlier revisions are kept. This scans all records of the class in the project
+	 * 
+	 * @return The oids of the removed records
+	 */
+	public Set<Long> deleteRecords(int pid, int rid, EClass eClass) throws BimserverLockConflictException, BimserverDatabaseException {
+		Set<Long> oids = new HashSet<>();
+		RecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), BinUtils.intToByteArray(pid),
+				BinUtils.intToByteArray(pid), this);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+				if (keyBuffer.getInt(12) == -rid) {
+					oids.add(keyBuffer.getLong(4));
+				}
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		for (long oid : oids) {
+			deleteRecord(pid, oid, rid, eClass);
+		}
+		return oids;
+	}
+
 	public void addStartOid(EClass eClass, long oid) {
 		String fullname = eClass.getEPackage().getName() + "." + eClass.getName();
 		Long currentStart = startOids.get(fullname);
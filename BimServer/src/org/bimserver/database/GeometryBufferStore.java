@@ -0,0 +1,161 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.geometry.GeometryDataEncoding;
+import org.bimserver.models.geometry.GeometryPackage;
+import org.eclipse.emf.ecore.EClass;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Content addressed lookup of the geometry Buffers (indices, vertices, normals etc.) of a project, so identical buffers generated for a later revision reference the Buffer stored for an earlier revision instead of being stored again.
+ * 
+ * Keys are pid (4), hash of the data (16), values are oid (8), rid (4) of the Buffer. Buffers are objects of a project, so only buffers of the same project can be shared. A Buffer found by hash is only used after its data has been
+ * compared with the new data, so hash collisions and buffers that do not exist anymore are never returned.
+ */
+public class GeometryBufferStore {
+	public static final String GEOMETRY_BUFFER_TABLE = "INT-GeometryBuffers";
+
+	public static final int HASH_SIZE = 16;
+	private static final int KEY_SIZE = 4 + HASH_SIZE;
+	private static final String BUFFER_TABLE = GeometryPackage.eINSTANCE.getBuffer().getEPackage().getName() + "_" + GeometryPackage.eINSTANCE.getBuffer().getName();
+	private final KeyValueStore keyValueStore;
+
+	public GeometryBufferStore(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	/**
+	 * @param encoding The encoding of the Buffer, unencoded data has the same hash as before buffers had an encoding
+	 */
+	public static byte[] hash(byte[] data, int encoding) {
+		if (encoding == GeometryDataEncoding.NONE) {
+			return Hashing.murmur3_128().hashBytes(data).asBytes();
+		}
+		return Hashing.murmur3_128().newHasher().putBytes(data).putInt(encoding).hash().asBytes();
+	}
+
+	/**
+	 * @return The oid of a Buffer of the given project containing exactly the given data with the given encoding and stored in a revision with a rid not higher than the given rid, or -1 when there is no such Buffer
+	 */
+	public long find(int pid, int rid, byte[] hash, byte[] data, int encoding, PackageMetaData packageMetaData, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		byte[] value = keyValueStore.get(GEOMETRY_BUFFER_TABLE, createKey(pid, hash), databaseSession);
+		if (value == null) {
+			return -1;
+		}
+		ByteBuffer valueBuffer = ByteBuffer.wrap(value);
+		long oid = valueBuffer.getLong();
+		int bufferRid = valueBuffer.getInt();
+		if (bufferRid > rid) {
+			// Generating geometry for an older revision than the one the Buffer was stored for
+			return -1;
+		}
+		byte[] storedData = readData(pid, rid, oid, encoding, packageMetaData, databaseSession);
+		if (storedData == null || !Arrays.equals(storedData, data)) {
+			return -1;
+		}
+		return oid;
+	}
+
+	/**
+	 * Adds the buffers stored for the given revision, existing entries for the same data are replaced
+	 * 
+	 * @param buffers Hash (see {@link #hash(byte[], int)}) to oid of the Buffer
+	 */
+	public void write(int pid, int rid, Map<ByteBuffer, Long> buffers, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		if (buffers.isEmpty()) {
+			return;
+		}
+		WriteBatch writeBatch = new WriteBatch();
+		for (Map.Entry<ByteBuffer, Long> entry : buffers.entrySet()) {
+			ByteBuffer value = ByteBuffer.allocate(12);
+			value.putLong(entry.getValue());
+			value.putInt(rid);
+			writeBatch.store(GEOMETRY_BUFFER_TABLE, createKey(pid, entry.getKey().array()), value.array());
+		}
+		keyValueStore.write(writeBatch, databaseSession);
+	}
+
+	/**
+	 * Reads the data of a Buffer directly from its record, a Buffer only has the features data and encoding
+	 * 
+	 * @return The data, or null when there is none or when the Buffer has another encoding
+	 */
+	private byte[] readData(int pid, int rid, long oid, int encoding, PackageMetaData packageMetaData, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		EClass bufferClass = GeometryPackage.eINSTANCE.getBuffer();
+		ByteBuffer mustStartWith = ByteBuffer.allocate(12);
+		mustStartWith.putInt(pid);
+		mustStartWith.putLong(oid);
+		ByteBuffer startSearchWith = ByteBuffer.allocate(16);
+		startSearchWith.putInt(pid);
+		startSearchWith.putLong(oid);
+		startSearchWith.putInt(-rid);
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(BUFFER_TABLE, mustStartWith.array(), startSearchWith.array(), databaseSession);
+		try {
+			Record record = recordIterator.next();
+			if (record == null) {
+				return null;
+			}
+			ByteBuffer keyBuffer = record.getKeyBuffer();
+			keyBuffer.position(12);
+			if (-keyBuffer.getInt() > rid) {
+				return null;
+			}
+			ByteBuffer valueBuffer = record.getValueBuffer();
+			if (valueBuffer.capacity() == 1 && valueBuffer.get(0) == -1) {
+				// Deleted
+				return null;
+			}
+			byte[] unsetted = new byte[packageMetaData.getUnsettedLength(bufferClass)];
+			valueBuffer.get(unsetted);
+			if ((unsetted[0] & 1) != 0) {
+				// No data
+				return null;
+			}
+			valueBuffer.position(valueBuffer.position() + 16); // uuid
+			int length = valueBuffer.getInt();
+			if (length < 0 || length > valueBuffer.remaining()) {
+				return null;
+			}
+			byte[] data = new byte[length];
+			valueBuffer.get(data);
+			// The default encoding is stored as an unset bit
+			int storedEncoding = (unsetted[0] & 2) != 0 ? GeometryDataEncoding.NONE : valueBuffer.getInt();
+			if (storedEncoding != encoding) {
+				return null;
+			}
+			return data;
+		} finally {
+			recordIterator.close();
+		}
+	}
+
+	private static byte[] createKey(int pid, byte[] hash) {
+		ByteBuffer buffer = ByteBuffer.allocate(KEY_SIZE);
+		buffer.putInt(pid);
+		buffer.put(hash);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,137 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+
+/**
+ * Progress of a checkpointed geometry generation of one revision that is not stored anywhere else, as stored in the {@link GeometryCheckpointStore}
+ */
+public class GeometryCheckpoint {
+	static final int VALUE_SIZE = 1 + 4 + 12 * 8;
+
+	private static final byte HAS_BOUNDS = 1;
+	private static final byte REQUANTIZE = 2;
+	private static final byte ONLY_MISSING = 4;
+
+	private boolean requantize;
+	private boolean onlyMissing;
+	private float multiplierToMm = 1000f;
+	private double[] min;
+	private double[] max;
+	private double[] minUntransformed;
+	private double[] maxUntransformed;
+
+	static GeometryCheckpoint read(ByteBuffer value) {
+		GeometryCheckpoint geometryCheckpoint = new GeometryCheckpoint();
+		byte flags = value.get();
+		geometryCheckpoint.requantize = (flags & REQUANTIZE) != 0;
+		geometryCheckpoint.onlyMissing = (flags & ONLY_MISSING) != 0;
+		geometryCheckpoint.multiplierToMm = value.getFloat();
+		if ((flags & HAS_BOUNDS) != 0) {
+			geometryCheckpoint.min = readVector(value);
+			geometryCheckpoint.max = readVector(value);
+			geometryCheckpoint.minUntransformed = readVector(value);
+			geometryCheckpoint.maxUntransformed = readVector(value);
+		}
+		return geometryCheckpoint;
+	}
+
+	byte[] toValue() {
+		ByteBuffer buffer = ByteBuffer.allocate(VALUE_SIZE);
+		buffer.put((byte) ((hasBounds() ? HAS_BOUNDS : 0) | (requantize ? REQUANTIZE : 0) | (onlyMissing ? ONLY_MISSING : 0)));
+		buffer.putFloat(multiplierToMm);
+		if (hasBounds()) {
+			writeVector(buffer, min);
+			writeVector(buffer, max);
+			writeVector(buffer, minUntransformed);
+			writeVector(buffer, maxUntransformed);
+		}
+		return buffer.array();
+	}
+
+	private static double[] readVector(ByteBuffer buffer) {
+		return new double[] { buffer.getDouble(), buffer.getDouble(), buffer.getDouble() };
+	}
+
+	private static void writeVector(ByteBuffer buffer, double[] vector) {
+		for (double value : vector) {
+			buffer.putDouble(value);
+		}
+	}
+
+	/**
+	 * @return Whether quantized vertices have been generated with bounds that have grown since, they have to be generated again once all products are done
+	 */
+	public boolean isRequantize() {
+		return requantize;
+	}
+
+	public void setRequantize(boolean requantize) {
+		this.requantize = requantize;
+	}
+
+	/**
+	 * @return Whether the generation only generates geometry for products that had none, instead of for all products
+	 */
+	public boolean isOnlyMissing() {
+		return onlyMissing;
+	}
+
+	public void setOnlyMissing(boolean onlyMissing) {
+		this.onlyMissing = onlyMissing;
+	}
+
+	public float getMultiplierToMm() {
+		return multiplierToMm;
+	}
+
+	public void setMultiplierToMm(float multiplierToMm) {
+		this.multiplierToMm = multiplierToMm;
+	}
+
+	public boolean hasBounds() {
+		return min != null;
+	}
+
+	/**
+	 * Bounds of all geometry generated so far, in the same units as {@link org.bimserver.GenerateGeometryResult}
+	 */
+	public void setBounds(double[] min, double[] max, double[] minUntransformed, double[] maxUntransformed) {
+		this.min = min;
+		this.max = max;
+		this.minUntransformed = minUntransformed;
+		this.maxUntransformed = maxUntransformed;
+	}
+
+	public double[] getMin() {
+		return min;
+	}
+
+	public double[] getMax() {
+		return max;
+	}
+
+	public double[] getMinUntransformed() {
+		return minUntransformed;
+	}
+
+	public double[] getMaxUntransformed() {
+		return maxUntransformed;
+	}
+}
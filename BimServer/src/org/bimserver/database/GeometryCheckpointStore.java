@@ -0,0 +1,145 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.BimserverDatabaseException;
+
+/**
+ * Completion state of geometry generations that commit their progress in steps, so a generation that has been interrupted (server restart, crash) can be resumed without generating the geometry of finished products again.
+ * 
+ * Keys are pid (4), rid (4), kind (1), followed by the oid of a finished product (8) or the hash of a generated mesh (16). Values are a {@link GeometryCheckpoint} for the one entry without oid or hash, a marker byte
+ * for products and the oid of the GeometryData (8) for hashes. The entries of a revision are written in the same transaction as the geometry they describe and removed when the generation has finished.
+ */
+public class GeometryCheckpointStore {
+	public static final String GEOMETRY_CHECKPOINT_TABLE = "INT-GeometryCheckpoints";
+
+	private static final byte STATE = 0;
+	private static final byte PRODUCT = 1;
+	private static final byte HASH = 2;
+	private static final byte[] DONE = new byte[] { 1 };
+	private final KeyValueStore keyValueStore;
+
+	public GeometryCheckpointStore(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	/**
+	 * @return The state of an unfinished generation of the given revision, or null when there is none
+	 */
+	public GeometryCheckpoint read(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		byte[] value = keyValueStore.get(GEOMETRY_CHECKPOINT_TABLE, createKey(pid, rid, STATE, 0).array(), databaseSession);
+		if (value == null) {
+			return null;
+		}
+		return GeometryCheckpoint.read(ByteBuffer.wrap(value));
+	}
+
+	/**
+	 * Records the products of which the geometry has been generated, the hashes of the meshes generated for them (see {@link org.bimserver.geometry.StreamingGeometryGenerator}) and the new state
+	 * 
+	 * @param hashes Hash of a mesh to the oid of the GeometryData it has been stored in
+	 */
+	public void write(int pid, int rid, GeometryCheckpoint geometryCheckpoint, Set<Long> productOids, Map<ByteBuffer, Long> hashes, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		WriteBatch writeBatch = new WriteBatch();
+		writeBatch.store(GEOMETRY_CHECKPOINT_TABLE, createKey(pid, rid, STATE, 0).array(), geometryCheckpoint.toValue());
+		for (long oid : productOids) {
+			writeBatch.store(GEOMETRY_CHECKPOINT_TABLE, createKey(pid, rid, PRODUCT, 8).putLong(oid).array(), DONE);
+		}
+		for (Map.Entry<ByteBuffer, Long> entry : hashes.entrySet()) {
+			ByteBuffer value = ByteBuffer.allocate(8);
+			value.putLong(entry.getValue());
+			writeBatch.store(GEOMETRY_CHECKPOINT_TABLE, createKey(pid, rid, HASH, entry.getKey().capacity()).put(entry.getKey().array()).array(), value.array());
+		}
+		keyValueStore.write(writeBatch, databaseSession);
+	}
+
+	public Set<Long> readProductOids(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		Set<Long> result = new HashSet<>();
+		byte[] prefix = createKey(pid, rid, PRODUCT, 0).array();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(GEOMETRY_CHECKPOINT_TABLE, prefix, prefix, databaseSession, true);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				result.add(record.getKeyBuffer().getLong(prefix.length));
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		return result;
+	}
+
+	/**
+	 * @return Hash of a mesh to the oid of the GeometryData it has been stored in
+	 */
+	public Map<ByteBuffer, Long> readHashes(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		Map<ByteBuffer, Long> result = new HashMap<>();
+		byte[] prefix = createKey(pid, rid, HASH, 0).array();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(GEOMETRY_CHECKPOINT_TABLE, prefix, prefix, databaseSession);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				byte[] key = record.getKey();
+				byte[] hash = new byte[key.length - prefix.length];
+				System.arraycopy(key, prefix.length, hash, 0, hash.length);
+				result.put(ByteBuffer.wrap(hash), record.getValueBuffer().getLong(0));
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Removes all entries of the given revision, called when its generation has finished
+	 */
+	public void delete(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		byte[] prefix = ByteBuffer.allocate(8).putInt(pid).putInt(rid).array();
+		List<byte[]> keys = new ArrayList<>();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(GEOMETRY_CHECKPOINT_TABLE, prefix, prefix, databaseSession, true);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				keys.add(record.getKey());
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		for (byte[] key : keys) {
+			keyValueStore.delete(GEOMETRY_CHECKPOINT_TABLE, key, databaseSession);
+		}
+	}
+
+	private static ByteBuffer createKey(int pid, int rid, byte kind, int extra) {
+		ByteBuffer buffer = ByteBuffer.allocate(9 + extra);
+		buffer.putInt(pid);
+		buffer.putInt(rid);
+		buffer.put(kind);
+		return buffer;
+	}
+}
@@ -0,0 +1,121 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.shared.HashMapVirtualObject;
+
+/**
+ * One decimated version of the mesh of a GeometryData, as stored in the {@link GeometryLodStore}. The buffers are regular Buffer objects, -1 means the
+ * GeometryData has no such buffer.
+ */
+public class GeometryLod {
+	static final int VALUE_SIZE = 5 * 4 + 7 * 8;
+
+	private final int nrIndices;
+	private final int nrVertices;
+	private final int nrNormals;
+	private final int nrColors;
+	private final long indices;
+	private final long vertices;
+	private final long normals;
+	private final long normalsQuantized;
+	private final long colorsQuantized;
+	private final int nrLineIndices;
+	private final long lineIndices;
+	private long verticesQuantized = -1;
+
+	public GeometryLod(int nrIndices, int nrVertices, int nrNormals, int nrColors, long indices, long vertices, long normals, long normalsQuantized, long colorsQuantized, int nrLineIndices, long lineIndices) {
+		this.nrIndices = nrIndices;
+		this.nrVertices = nrVertices;
+		this.nrNormals = nrNormals;
+		this.nrColors = nrColors;
+		this.indices = indices;
+		this.vertices = vertices;
+		this.normals = normals;
+		this.normalsQuantized = normalsQuantized;
+		this.colorsQuantized = colorsQuantized;
+		this.nrLineIndices = nrLineIndices;
+		this.lineIndices = lineIndices;
+	}
+
+	static GeometryLod read(ByteBuffer value) {
+		GeometryLod geometryLod = new GeometryLod(value.getInt(), value.getInt(), value.getInt(), value.getInt(), value.getLong(), value.getLong(), value.getLong(), value.getLong(), value.getLong(), value.getInt(), value.getLong());
+		geometryLod.setVerticesQuantized(value.getLong());
+		return geometryLod;
+	}
+
+	void write(ByteBuffer value) {
+		value.putInt(nrIndices);
+		value.putInt(nrVertices);
+		value.putInt(nrNormals);
+		value.putInt(nrColors);
+		value.putLong(indices);
+		value.putLong(vertices);
+		value.putLong(normals);
+		value.putLong(normalsQuantized);
+		value.putLong(colorsQuantized);
+		value.putInt(nrLineIndices);
+		value.putLong(lineIndices);
+		value.putLong(verticesQuantized);
+	}
+
+	/**
+	 * Makes the given GeometryData, as read by a query, refer to the buffers of this level of detail instead of its own. Buffers this level does not have are
+	 * removed, so no full resolution buffer is combined with the decimated ones
+	 */
+	public void apply(HashMapVirtualObject geometryData) throws BimserverDatabaseException {
+		geometryData.set("nrIndices", nrIndices);
+		geometryData.set("nrVertices", nrVertices);
+		geometryData.set("nrNormals", nrNormals);
+		geometryData.set("nrColors", nrColors);
+		geometryData.set("nrLineIndices", nrLineIndices);
+		setBuffer(geometryData, "indices", indices);
+		setBuffer(geometryData, "vertices", vertices);
+		setBuffer(geometryData, "normals", normals);
+		setBuffer(geometryData, "normalsQuantized", normalsQuantized);
+		setBuffer(geometryData, "colorsQuantized", colorsQuantized);
+		setBuffer(geometryData, "lineIndices", lineIndices);
+		setBuffer(geometryData, "verticesQuantized", verticesQuantized);
+	}
+
+	private static void setBuffer(HashMapVirtualObject geometryData, String name, long oid) throws BimserverDatabaseException {
+		if (oid == -1) {
+			geometryData.unset(geometryData.eClass().getEStructuralFeature(name));
+		} else {
+			geometryData.set(name, oid);
+		}
+	}
+
+	public int getNrIndices() {
+		return nrIndices;
+	}
+
+	/**
+	 * @return The oid of the Buffer with the vertices of this level
+	 */
+	public long getVertices() {
+		return vertices;
+	}
+
+	public void setVerticesQuantized(long verticesQuantized) {
+		this.verticesQuantized = verticesQuantized;
+	}
+}
@@ -0,0 +1,112 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.BimserverDatabaseException;
+
+/**
+ * Levels of detail generated for the GeometryData objects of a project, from fine to coarse. Level 0 is the GeometryData itself and is not stored.
+ * 
+ * Keys are pid (4), oid of the GeometryData (8), -rid (4), values are the number of levels (1) followed by the levels. Like the GeometryData objects themselves the levels are versioned per revision: a revision
+ * reads the levels written for the highest revision up to its own, so quantizing the vertices again for a later revision does not change the levels of earlier revisions referring to the same GeometryData.
+ */
+public class GeometryLodStore {
+	public static final String GEOMETRY_LOD_TABLE = "INT-GeometryLods";
+
+	private final KeyValueStore keyValueStore;
+
+	public GeometryLodStore(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	/**
+	 * @param lods GeometryData oid to its levels of detail, starting with level 1
+	 */
+	public void write(int pid, int rid, Map<Long, List<GeometryLod>> lods, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		if (lods.isEmpty()) {
+			return;
+		}
+		WriteBatch writeBatch = new WriteBatch();
+		for (Map.Entry<Long, List<GeometryLod>> entry : lods.entrySet()) {
+			ByteBuffer value = ByteBuffer.allocate(1 + entry.getValue().size() * GeometryLod.VALUE_SIZE);
+			value.put((byte) entry.getValue().size());
+			for (GeometryLod geometryLod : entry.getValue()) {
+				geometryLod.write(value);
+			}
+			writeBatch.store(GEOMETRY_LOD_TABLE, createKey(pid, entry.getKey(), rid), value.array());
+		}
+		keyValueStore.write(writeBatch, databaseSession);
+	}
+
+	/**
+	 * @return The levels of detail of the given GeometryData starting with level 1, an empty list when none have been generated
+	 */
+	public List<GeometryLod> read(int pid, long geometryDataOid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		List<GeometryLod> result = new ArrayList<>();
+		byte[] key = createKey(pid, geometryDataOid, rid);
+		// Higher rids are stored first, so the first record from (pid, oid, -rid) onwards is the one of the highest revision up to rid
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(GEOMETRY_LOD_TABLE, Arrays.copyOf(key, 12), key, databaseSession);
+		try {
+			Record record = recordIterator.next();
+			if (record == null) {
+				return result;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(record.getValue());
+			int size = buffer.get();
+			for (int i = 0; i < size; i++) {
+				result.add(GeometryLod.read(buffer));
+			}
+		} finally {
+			recordIterator.close();
+		}
+		return result;
+	}
+
+	/**
+	 * @param lod The requested level, 1 or higher
+	 * @return The requested level of detail of the given GeometryData, the coarsest one when fewer levels have been generated, or null when there are none
+	 */
+	public GeometryLod read(int pid, long geometryDataOid, int rid, int lod, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		List<GeometryLod> lods = read(pid, geometryDataOid, rid, databaseSession);
+		if (lods.isEmpty()) {
+			return null;
+		}
+		return lods.get(Math.min(lod, lods.size()) - 1);
+	}
+
+	/**
+	 * Removes the levels of detail written for the given GeometryData for the given revision, levels of earlier revisions are kept
+	 */
+	public void delete(int pid, long geometryDataOid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		keyValueStore.delete(GEOMETRY_LOD_TABLE, createKey(pid, geometryDataOid, rid), databaseSession);
+	}
+
+	private static byte[] createKey(int pid, long oid, int rid) {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putInt(pid);
+		buffer.putLong(oid);
+		buffer.putInt(-rid);
+		return buffer.array();
+	}
+}
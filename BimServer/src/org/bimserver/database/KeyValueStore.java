@@ -76,6 +76,11 @@ public interface KeyValueStore {
 	
 	void store(String tableName, byte[] key, byte[] value, int offset, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
 
+	/**
+	 * Writes all entries of the batch, table by table in key order
+	 */
+	void write(WriteBatch writeBatch, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException, BimserverConcurrentModificationDatabaseException;
+
 	void dumpOpenCursors();
 
 	boolean createIndexTable(String tableName, DatabaseSession databaseSession, boolean transactional) throws BimserverDatabaseException;
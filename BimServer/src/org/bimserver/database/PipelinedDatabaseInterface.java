@@ -0,0 +1,344 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.plugins.deserializers.DatabaseInterface;
+import org.bimserver.shared.VirtualObject;
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * A DatabaseInterface for streaming deserializers that takes the database writes off the thread that is parsing.
+ * 
+ * The calling (parsing) thread still assigns the oids and serializes every saved object, so oids and whatever the deserializer keeps track of stay exactly the same as with a plain DatabaseSession.
+ * Encoding the keys and index entries happens on an encoder thread, which groups them into WriteBatches, applying those batches to the KeyValueStore happens on a writer thread.
+ * The stages are connected by bounded queues, so a slow store slows down the parser instead of filling up memory.
+ * 
+ * While the pipeline is active the writer thread owns the transaction of the session: it is the only thread touching the KeyValueStore. Reads and saves of classes with per record versioning
+ * are handed to the writer as a {@link Task}, which runs after everything queued before it has been written, the calling thread waits for the result.
+ * Call {@link #finish()} when the deserializer is done, close() only stops the stages.
+ */
+public class PipelinedDatabaseInterface implements DatabaseInterface, AutoCloseable {
+	private static final int OBJECT_QUEUE_SIZE = 10000;
+	private static final int BATCH_QUEUE_SIZE = 2;
+	private static final long MAX_WRITE_BATCH_SIZE_IN_BYTES = 16 * 1024 * 1024;
+	private static final long POLL_INTERVAL_MS = 100;
+
+	private final DatabaseSession databaseSession;
+	private final BlockingQueue<Object> objects = new ArrayBlockingQueue<>(OBJECT_QUEUE_SIZE);
+	private final BlockingQueue<Object> batches = new ArrayBlockingQueue<>(BATCH_QUEUE_SIZE);
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final Thread encoder;
+	private final Thread writer;
+	private volatile boolean stopped;
+	private long writes;
+	private boolean finished;
+
+	private static class QueuedObject {
+		private final int pid;
+		private final long oid;
+		private final int rid;
+		private final EClass eClass;
+		private final byte[] value;
+		private final boolean overwrite;
+
+		public QueuedObject(int pid, long oid, int rid, EClass eClass, byte[] value, boolean overwrite) {
+			this.pid = pid;
+			this.oid = oid;
+			this.rid = rid;
+			this.eClass = eClass;
+			this.value = value;
+			this.overwrite = overwrite;
+		}
+	}
+
+	private interface StoreAction<T> {
+		T run() throws BimserverDatabaseException;
+	}
+
+	/**
+	 * Passes through both stages, the writer runs the action (if any) and then releases the latch, by then everything queued before it has been written
+	 */
+	private static class Task<T> {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private final StoreAction<T> action;
+		private final boolean last;
+		private T result;
+
+		public Task(StoreAction<T> action, boolean last) {
+			this.action = action;
+			this.last = last;
+		}
+	}
+
+	public PipelinedDatabaseInterface(DatabaseSession databaseSession) {
+		this.databaseSession = databaseSession;
+		this.encoder = new Thread(this::encode, "CheckinEncoder");
+		this.writer = new Thread(this::write, "CheckinWriter");
+		encoder.setDaemon(true);
+		writer.setDaemon(true);
+		encoder.start();
+		writer.start();
+	}
+
+	@Override
+	public EClass getEClassForOid(long oid) throws BimserverDatabaseException {
+		return databaseSession.getEClassForOid(oid);
+	}
+
+	@Override
+	public short getCidOfEClass(EClass eClass) {
+		return databaseSession.getCidOfEClass(eClass);
+	}
+
+	@Override
+	public long newOid(EClass eClass) {
+		return databaseSession.newOid(eClass);
+	}
+
+	@Override
+	public UUID newUuid() {
+		return databaseSession.newUuid();
+	}
+
+	@Override
+	public int save(VirtualObject virtualObject) throws BimserverDatabaseException {
+		return enqueue(virtualObject, false);
+	}
+
+	@Override
+	public int saveOverwrite(VirtualObject virtualObject) throws BimserverDatabaseException {
+		return enqueue(virtualObject, true);
+	}
+
+	@Override
+	public byte[] get(String tableName, byte[] key) throws BimserverDatabaseException {
+		return execute(() -> databaseSession.get(tableName, key));
+	}
+
+	@Override
+	public List<byte[]> getDuplicates(String tableName, byte[] key) throws BimserverDatabaseException {
+		return execute(() -> databaseSession.getDuplicates(tableName, key));
+	}
+
+	private int enqueue(VirtualObject virtualObject, boolean overwrite) throws BimserverDatabaseException {
+		if (DatabaseSession.perRecordVersioning(virtualObject.eClass())) {
+			// Index maintenance for these classes reads the previous version of the record, so they are written by the writer, while this thread waits (and does not touch the object)
+			return execute(() -> overwrite ? databaseSession.saveOverwrite(virtualObject) : databaseSession.save(virtualObject));
+		}
+		// Deserializers keep updating objects after saving them (for example when resolving forward references), so the value has to be copied here and not on the encoder thread
+		ByteBuffer valueBuffer = virtualObject.write();
+		byte[] value = Arrays.copyOf(valueBuffer.array(), valueBuffer.position());
+		put(objects, new QueuedObject(virtualObject.getPid(), virtualObject.getOid(), virtualObject.getRid(), virtualObject.eClass(), value, overwrite));
+		writes++;
+		return value.length;
+	}
+
+	/**
+	 * Blocks until everything queued so far has been written to the KeyValueStore
+	 */
+	public void flush() throws BimserverDatabaseException {
+		execute(null);
+	}
+
+	/**
+	 * Writes everything that is still queued, stops the stages and rethrows the first error one of them ran into
+	 */
+	public void finish() throws BimserverDatabaseException {
+		checkNotFinished();
+		await(new Task<Void>(null, true));
+		finished = true;
+		databaseSession.incrementWrites(writes);
+	}
+
+	/**
+	 * Runs the given action on the writer thread, after everything queued so far has been written
+	 */
+	private <T> T execute(StoreAction<T> action) throws BimserverDatabaseException {
+		checkNotFinished();
+		return await(new Task<T>(action, false));
+	}
+
+	private <T> T await(Task<T> task) throws BimserverDatabaseException {
+		put(objects, task);
+		try {
+			while (!task.latch.await(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+				checkFailure();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BimserverDatabaseException(e);
+		}
+		checkFailure();
+		return task.result;
+	}
+
+	private void encode() {
+		try {
+			WriteBatch writeBatch = new WriteBatch();
+			// Values of the objects with indexed features in writeBatch, so overwriting them can remove their index entries without reading from the store
+			Map<Long, byte[]> batchedIndexedValues = new HashMap<>();
+			while (true) {
+				Object item = take(objects);
+				if (item == null) {
+					return;
+				}
+				if (item instanceof QueuedObject) {
+					QueuedObject queuedObject = (QueuedObject) item;
+					if (!databaseSession.hasIndexedFeatures(queuedObject.eClass)) {
+						databaseSession.addToWriteBatch(queuedObject.pid, queuedObject.oid, queuedObject.rid, queuedObject.eClass, queuedObject.value, queuedObject.overwrite, null, writeBatch);
+					} else if (queuedObject.overwrite && !batchedIndexedValues.containsKey(queuedObject.oid)) {
+						// The overwritten value has already been passed on to the writer, which is the only one that can read it. writeBatch does not contain this object, so it does not have to be passed on first
+						put(batches, queuedObject);
+					} else {
+						databaseSession.addToWriteBatch(queuedObject.pid, queuedObject.oid, queuedObject.rid, queuedObject.eClass, queuedObject.value, queuedObject.overwrite, batchedIndexedValues.get(queuedObject.oid), writeBatch);
+						batchedIndexedValues.put(queuedObject.oid, queuedObject.value);
+					}
+					if (writeBatch.getSizeInBytes() > MAX_WRITE_BATCH_SIZE_IN_BYTES) {
+						put(batches, writeBatch);
+						writeBatch = new WriteBatch();
+						batchedIndexedValues.clear();
+					}
+				} else {
+					Task<?> task = (Task<?>) item;
+					if (!writeBatch.isEmpty()) {
+						put(batches, writeBatch);
+						writeBatch = new WriteBatch();
+						batchedIndexedValues.clear();
+					}
+					put(batches, task);
+					if (task.last) {
+						return;
+					}
+				}
+			}
+		} catch (Throwable e) {
+			if (!stopped) {
+				failure.compareAndSet(null, e);
+			}
+		}
+	}
+
+	private void write() {
+		try {
+			while (true) {
+				Object item = take(batches);
+				if (item == null) {
+					return;
+				}
+				if (item instanceof WriteBatch) {
+					databaseSession.getKeyValueStore().write((WriteBatch) item, databaseSession);
+				} else if (item instanceof QueuedObject) {
+					QueuedObject queuedObject = (QueuedObject) item;
+					WriteBatch writeBatch = new WriteBatch();
+					byte[] overwrittenValue = databaseSession.getRecord(queuedObject.pid, queuedObject.oid, queuedObject.rid, queuedObject.eClass);
+					databaseSession.addToWriteBatch(queuedObject.pid, queuedObject.oid, queuedObject.rid, queuedObject.eClass, queuedObject.value, true, overwrittenValue, writeBatch);
+					databaseSession.getKeyValueStore().write(writeBatch, databaseSession);
+				} else {
+					Task<?> task = (Task<?>) item;
+					run(task);
+					if (task.last) {
+						return;
+					}
+				}
+			}
+		} catch (Throwable e) {
+			if (!stopped) {
+				failure.compareAndSet(null, e);
+			}
+		}
+	}
+
+	private <T> void run(Task<T> task) throws BimserverDatabaseException {
+		if (task.action != null) {
+			task.result = task.action.run();
+		}
+		task.latch.countDown();
+	}
+
+	/**
+	 * Like BlockingQueue.put, but gives up when one of the stages has failed (the stage downstream might never take anything again) or the pipeline has been stopped
+	 */
+	private void put(BlockingQueue<Object> queue, Object item) throws BimserverDatabaseException {
+		try {
+			while (!queue.offer(item, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+				checkFailure();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BimserverDatabaseException(e);
+		}
+	}
+
+	/**
+	 * @return The next item, or null when the pipeline has been stopped
+	 */
+	private Object take(BlockingQueue<Object> queue) throws InterruptedException {
+		while (!stopped) {
+			Object item = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			if (item != null) {
+				return item;
+			}
+		}
+		return null;
+	}
+
+	private void checkFailure() throws BimserverDatabaseException {
+		if (stopped) {
+			throw new BimserverDatabaseException("Pipeline has been stopped");
+		}
+		Throwable e = failure.get();
+		if (e instanceof BimserverDatabaseException) {
+			throw (BimserverDatabaseException) e;
+		} else if (e != null) {
+			throw new BimserverDatabaseException(e);
+		}
+	}
+
+	private void checkNotFinished() throws BimserverDatabaseException {
+		if (finished) {
+			throw new BimserverDatabaseException("Pipeline has already finished");
+		}
+	}
+
+	/**
+	 * Stops the stages without writing what is still queued. The stages are not interrupted, a KeyValueStore should not see an interrupt in the middle of a write, so this waits for a running write to complete
+	 */
+	@Override
+	public void close() {
+		stopped = true;
+		try {
+			encoder.join();
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.queries.om.Properties;
+import org.eclipse.emf.common.util.Enumerator;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Inverted index from (property set name, property name, value) to the oids of the objects that have that property, for the "properties" filter of the query language.
+ * 
+ * Keys are pid (4), rid (4), hash of the property set name, property name and value (16), oid (8), so all objects with a certain property value are in one key range. Values are empty. One extra record per revision (key pid, rid)
+ * marks that the revision has been indexed. Only values that can be matched by a query (strings, reals and booleans) are indexed, see {@link #encodeValue(String, Object)}.
+ * 
+ * Objects without any IsDefinedBy are stored under a reserved hash, the "properties" filter has always let those through, so the index does as well.
+ */
+public class PropertyIndex {
+	public static final String PROPERTY_INDEX_TABLE = "INT-PropertyIndex";
+
+	private static final int HASH_SIZE = 16;
+	private static final int ENTRY_KEY_SIZE = 8 + HASH_SIZE + 8;
+	private static final int HEADER_KEY_SIZE = 8;
+	private static final byte[] EMPTY = new byte[0];
+	private static final byte[] NO_PROPERTIES = new byte[HASH_SIZE];
+	private final KeyValueStore keyValueStore;
+
+	public PropertyIndex(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	/**
+	 * @param valueType The name of the class of the NominalValue (for example IfcLabel)
+	 * @param wrappedValue The wrappedValue of the NominalValue
+	 * @return A string representation of the value that can be compared with query values, or null when no query can match this value
+	 */
+	public static String encodeValue(String valueType, Object wrappedValue) {
+		if (valueType.equals("IfcBoolean") && wrappedValue instanceof Enumerator) {
+			return "b:" + ((Enumerator) wrappedValue).getName().toLowerCase();
+		} else if (wrappedValue instanceof String) {
+			return "s:" + wrappedValue;
+		} else if (wrappedValue instanceof Double) {
+			return "d:" + wrappedValue;
+		}
+		return null;
+	}
+
+	/**
+	 * @return The encoded values (see {@link #encodeValue(String, Object)}) a query value matches with, or null when the query value is not supported by the index
+	 */
+	private static List<String> encodeQueryValue(Object queryValue) {
+		if (queryValue instanceof Boolean) {
+			return Collections.singletonList("b:" + queryValue);
+		} else if (queryValue instanceof String) {
+			// Strings are also compared with the lowercase names of IfcBoolean values
+			List<String> result = new ArrayList<>();
+			result.add("s:" + queryValue);
+			result.add("b:" + queryValue);
+			return result;
+		} else if (queryValue instanceof Double) {
+			return Collections.singletonList("d:" + queryValue);
+		}
+		return null;
+	}
+
+	public static byte[] hash(String propertySetName, String propertyName, String encodedValue) {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		hasher.putString(propertySetName, StandardCharsets.UTF_8);
+		hasher.putByte((byte) 0);
+		hasher.putString(propertyName, StandardCharsets.UTF_8);
+		hasher.putByte((byte) 0);
+		hasher.putString(encodedValue, StandardCharsets.UTF_8);
+		return hasher.hash().asBytes();
+	}
+
+	/**
+	 * Replaces the property index of the given revision
+	 * 
+	 * @param hashesPerOid For every object the hashes (see {@link #hash(String, String, String)}) of all its properties
+	 * @param oidsWithoutProperties The objects without any IsDefinedBy
+	 */
+	public void write(int pid, int rid, Map<Long, ? extends Collection<byte[]>> hashesPerOid, Collection<Long> oidsWithoutProperties, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		delete(pid, rid, databaseSession);
+		WriteBatch writeBatch = new WriteBatch();
+		int nrEntries = 0;
+		for (Map.Entry<Long, ? extends Collection<byte[]>> entry : hashesPerOid.entrySet()) {
+			for (byte[] hash : entry.getValue()) {
+				writeBatch.store(PROPERTY_INDEX_TABLE, createEntryKey(pid, rid, hash, entry.getKey()), EMPTY);
+				nrEntries++;
+			}
+		}
+		for (long oid : oidsWithoutProperties) {
+			writeBatch.store(PROPERTY_INDEX_TABLE, createEntryKey(pid, rid, NO_PROPERTIES, oid), EMPTY);
+			nrEntries++;
+		}
+		ByteBuffer header = ByteBuffer.allocate(4);
+		header.putInt(nrEntries);
+		writeBatch.store(PROPERTY_INDEX_TABLE, createPrefix(pid, rid), header.array());
+		keyValueStore.write(writeBatch, databaseSession);
+	}
+
+	/**
+	 * Copies the index of a revision to a new revision, for new revisions that did not change any properties
+	 * 
+	 * @return Whether there was an index to copy
+	 */
+	public boolean copy(int pid, int fromRid, int toRid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		byte[] header = keyValueStore.get(PROPERTY_INDEX_TABLE, createPrefix(pid, fromRid), databaseSession);
+		if (header == null) {
+			return false;
+		}
+		delete(pid, toRid, databaseSession);
+		byte[] prefix = createPrefix(pid, fromRid);
+		WriteBatch writeBatch = new WriteBatch();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(PROPERTY_INDEX_TABLE, prefix, prefix, databaseSession, true);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				byte[] key = record.getKey();
+				if (key.length == ENTRY_KEY_SIZE) {
+					ByteBuffer.wrap(key).putInt(4, toRid);
+					writeBatch.store(PROPERTY_INDEX_TABLE, key, EMPTY);
+				}
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		writeBatch.store(PROPERTY_INDEX_TABLE, createPrefix(pid, toRid), header);
+		keyValueStore.write(writeBatch, databaseSession);
+		return true;
+	}
+
+	public void delete(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		byte[] prefix = createPrefix(pid, rid);
+		List<byte[]> keys = new ArrayList<>();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(PROPERTY_INDEX_TABLE, prefix, prefix, databaseSession, true);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				keys.add(record.getKey());
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		for (byte[] key : keys) {
+			keyValueStore.delete(PROPERTY_INDEX_TABLE, key, databaseSession);
+		}
+	}
+
+	public boolean hasIndex(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		return keyValueStore.get(PROPERTY_INDEX_TABLE, createPrefix(pid, rid), databaseSession) != null;
+	}
+
+	/**
+	 * All given properties must match (AND), like the properties filter of the query language
+	 * 
+	 * @return The sorted oids of all objects that have all the given properties, or null when this revision has no property index or the query contains values the index cannot answer
+	 */
+	public List<Long> query(int pid, int rid, Map<String, Properties> properties, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		if (!hasIndex(pid, rid, databaseSession)) {
+			return null;
+		}
+		List<List<byte[]>> hashesPerProperty = new ArrayList<>();
+		for (String propertySetName : properties.keySet()) {
+			Properties propertySet = properties.get(propertySetName);
+			for (String propertyName : propertySet.keys()) {
+				List<String> encodedValues = encodeQueryValue(propertySet.get(propertyName));
+				if (encodedValues == null) {
+					return null;
+				}
+				List<byte[]> hashes = new ArrayList<>();
+				for (String encodedValue : encodedValues) {
+					hashes.add(hash(propertySetName, propertyName, encodedValue));
+				}
+				hashesPerProperty.add(hashes);
+			}
+		}
+		if (hashesPerProperty.isEmpty()) {
+			return null;
+		}
+		Set<Long> result = null;
+		for (List<byte[]> hashes : hashesPerProperty) {
+			Set<Long> oids = new HashSet<>();
+			for (byte[] hash : hashes) {
+				readOids(pid, rid, hash, result, oids, databaseSession);
+			}
+			result = oids;
+			if (result.isEmpty()) {
+				break;
+			}
+		}
+		readOids(pid, rid, NO_PROPERTIES, null, result, databaseSession);
+		List<Long> sorted = new ArrayList<>(result);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Adds all oids stored under the given hash to result, only when they are also in filter (if not null)
+	 */
+	private void readOids(int pid, int rid, byte[] hash, Set<Long> filter, Set<Long> result, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		ByteBuffer prefix = ByteBuffer.allocate(8 + HASH_SIZE);
+		prefix.putInt(pid);
+		prefix.putInt(rid);
+		prefix.put(hash);
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(PROPERTY_INDEX_TABLE, prefix.array(), prefix.array(), databaseSession);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				ByteBuffer key = record.getKeyBuffer();
+				key.position(8 + HASH_SIZE);
+				long oid = key.getLong();
+				if (filter == null || filter.contains(oid)) {
+					result.add(oid);
+				}
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+	}
+
+	private static byte[] createEntryKey(int pid, int rid, byte[] hash, long oid) {
+		ByteBuffer key = ByteBuffer.allocate(ENTRY_KEY_SIZE);
+		key.putInt(pid);
+		key.putInt(rid);
+		key.put(hash);
+		key.putLong(oid);
+		return key.array();
+	}
+
+	private static byte[] createPrefix(int pid, int rid) {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_KEY_SIZE);
+		buffer.putInt(pid);
+		buffer.putInt(rid);
+		return buffer.array();
+	}
+}
@@ -17,8 +17,23 @@ package org.bimserver.database;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.nio.ByteBuffer;
+
+/**
+ * Iterators may return the same Record instance for every record, re-pointed on every call. The arrays returned by getKey and getValue stay valid, the buffers do not
+ */
 public interface Record {
 
 	byte[] getKey();
 	byte[] getValue();
+
+	/**
+	 * @return A read-only view on the key, positioned at 0 (in big-endian order) with a capacity equal to the key length. Depending on the store this can be backed by store-owned memory, so it is only valid until the next call on the iterator that produced this record
+	 */
+	ByteBuffer getKeyBuffer();
+
+	/**
+	 * @return A read-only view on the value, positioned at 0 (in big-endian order) with a capacity equal to the value length. Depending on the store this can be backed by store-owned memory, so it is only valid until the next call on the iterator that produced this record
+	 */
+	ByteBuffer getValueBuffer();
 }
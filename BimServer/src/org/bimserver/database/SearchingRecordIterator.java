@@ -17,6 +17,13 @@ package org.bimserver.database;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.nio.ByteBuffer;
+
 public interface SearchingRecordIterator extends RecordIterator {
 	Record next(byte[] nextKeyStart) throws BimserverLockConflictException;
+
+	/**
+	 * Same as {@link #next(byte[])}, the key to search for is taken from index 0 up to the limit of the given buffer, which allows callers to reuse one buffer for all seeks
+	 */
+	Record next(ByteBuffer nextKeyStart) throws BimserverLockConflictException;
 }
\ No newline at end of file
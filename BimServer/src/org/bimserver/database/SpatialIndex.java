@@ -0,0 +1,235 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.bimserver.BimserverDatabaseException;
+
+/**
+ * Persistent octree over the product bounds of a revision, stored as Morton coded keys in one table so a bounding box query only needs a couple of range scans instead of reading all objects of a type.
+ * 
+ * This is a loose octree: every product is stored in the cell containing the minimum corner of its bounds, at the deepest level at which the product is smaller than a cell. So a product never extends beyond its cell
+ * enlarged by one cell size on the positive side of every axis, which means products crossing cell borders do not all end up in the top levels of the tree.
+ * 
+ * Keys are pid (4), rid (4), cell code (8), oid (8), where the cell code is the Morton code of the cell shifted to the deepest level, followed by 4 bits containing the level of the cell. This keeps the entries of a cell and all its
+ * descendants together in one key range. One extra record per revision (key pid, rid) contains the bounds of the root cell.
+ */
+public class SpatialIndex {
+	public static final String SPATIAL_INDEX_TABLE = "INT-SpatialIndex";
+
+	// Cells at the deepest level are 1/256th of the size of the root cell on every axis
+	static final int MAX_DEPTH = 8;
+	static final int CELLS = 1 << MAX_DEPTH;
+	static final int ENTRY_KEY_SIZE = 24;
+	private static final int HEADER_KEY_SIZE = 8;
+	private final KeyValueStore keyValueStore;
+
+	public SpatialIndex(KeyValueStore keyValueStore) {
+		this.keyValueStore = keyValueStore;
+	}
+
+	/**
+	 * Replaces the spatial index of the given revision
+	 */
+	public void write(int pid, int rid, Collection<SpatialIndexEntry> entries, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		delete(pid, rid, databaseSession);
+		if (entries.isEmpty()) {
+			return;
+		}
+		double[] min = new double[]{Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		double[] max = new double[]{-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for (SpatialIndexEntry entry : entries) {
+			min[0] = Math.min(min[0], entry.getMinX());
+			min[1] = Math.min(min[1], entry.getMinY());
+			min[2] = Math.min(min[2], entry.getMinZ());
+			max[0] = Math.max(max[0], entry.getMaxX());
+			max[1] = Math.max(max[1], entry.getMaxY());
+			max[2] = Math.max(max[2], entry.getMaxZ());
+		}
+		ByteBuffer header = ByteBuffer.allocate(6 * 8 + 4);
+		for (int i=0; i<3; i++) {
+			header.putDouble(min[i]);
+		}
+		for (int i=0; i<3; i++) {
+			header.putDouble(max[i]);
+		}
+		header.putInt(entries.size());
+
+		WriteBatch writeBatch = new WriteBatch();
+		writeBatch.store(SPATIAL_INDEX_TABLE, createPrefix(pid, rid), header.array());
+		int[] minCell = new int[3];
+		int[] maxCell = new int[3];
+		for (SpatialIndexEntry entry : entries) {
+			toCells(min, max, entry.getMinX(), entry.getMinY(), entry.getMinZ(), minCell);
+			toCells(min, max, entry.getMaxX(), entry.getMaxY(), entry.getMaxZ(), maxCell);
+			ByteBuffer key = ByteBuffer.allocate(ENTRY_KEY_SIZE);
+			key.putInt(pid);
+			key.putInt(rid);
+			key.putLong(getCellCode(minCell, maxCell));
+			key.putLong(entry.getOid());
+			writeBatch.store(SPATIAL_INDEX_TABLE, key.array(), entry.toValue());
+		}
+		keyValueStore.write(writeBatch, databaseSession);
+	}
+
+	public void delete(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		byte[] prefix = createPrefix(pid, rid);
+		List<byte[]> keys = new ArrayList<>();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(SPATIAL_INDEX_TABLE, prefix, prefix, databaseSession, true);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				keys.add(record.getKey());
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		for (byte[] key : keys) {
+			keyValueStore.delete(SPATIAL_INDEX_TABLE, key, databaseSession);
+		}
+	}
+
+	/**
+	 * @return All entries of the given revision, or null when this revision has no spatial index
+	 */
+	public List<SpatialIndexEntry> readAll(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		byte[] prefix = createPrefix(pid, rid);
+		if (keyValueStore.get(SPATIAL_INDEX_TABLE, prefix, databaseSession) == null) {
+			return null;
+		}
+		List<SpatialIndexEntry> entries = new ArrayList<>();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(SPATIAL_INDEX_TABLE, prefix, prefix, databaseSession);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				ByteBuffer keyBuffer = record.getKeyBuffer();
+				if (keyBuffer.capacity() == ENTRY_KEY_SIZE) {
+					entries.add(SpatialIndexEntry.read(keyBuffer.getLong(16), record.getValueBuffer()));
+				}
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+		}
+		return entries;
+	}
+
+	public boolean hasIndex(int pid, int rid, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		return keyValueStore.get(SPATIAL_INDEX_TABLE, createPrefix(pid, rid), databaseSession) != null;
+	}
+
+	/**
+	 * @return An iterator over all entries of which the cells overlap with the given box (in mm), this is a superset of the entries that actually intersect with the box. Returns null when this revision has no spatial index
+	 */
+	public SpatialIndexIterator query(int pid, int rid, double minX, double minY, double minZ, double maxX, double maxY, double maxZ, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		byte[] prefix = createPrefix(pid, rid);
+		byte[] headerBytes = keyValueStore.get(SPATIAL_INDEX_TABLE, prefix, databaseSession);
+		if (headerBytes == null) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.wrap(headerBytes);
+		double[] min = new double[]{header.getDouble(), header.getDouble(), header.getDouble()};
+		double[] max = new double[]{header.getDouble(), header.getDouble(), header.getDouble()};
+		int[] minCell = new int[3];
+		int[] maxCell = new int[3];
+		boolean intersects = minX <= max[0] && maxX >= min[0] && minY <= max[1] && maxY >= min[1] && minZ <= max[2] && maxZ >= min[2];
+		if (intersects) {
+			toCells(min, max, minX, minY, minZ, minCell);
+			toCells(min, max, maxX, maxY, maxZ, maxCell);
+		}
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator(SPATIAL_INDEX_TABLE, prefix, prefix, databaseSession);
+		return new SpatialIndexIterator(recordIterator, pid, rid, minCell, maxCell, intersects);
+	}
+
+	private static byte[] createPrefix(int pid, int rid) {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_KEY_SIZE);
+		buffer.putInt(pid);
+		buffer.putInt(rid);
+		return buffer.array();
+	}
+
+	private static void toCells(double[] min, double[] max, double x, double y, double z, int[] result) {
+		result[0] = toCell(x, min[0], max[0]);
+		result[1] = toCell(y, min[1], max[1]);
+		result[2] = toCell(z, min[2], max[2]);
+	}
+
+	private static int toCell(double value, double min, double max) {
+		double size = max - min;
+		if (!(size > 0)) {
+			return 0;
+		}
+		int cell = (int) ((value - min) / size * CELLS);
+		return Math.max(0, Math.min(CELLS - 1, cell));
+	}
+
+	/**
+	 * @return The code of the cell for a product spanning the given deepest-level cells
+	 */
+	static long getCellCode(int[] minCell, int[] maxCell) {
+		int shift = 0;
+		for (int i=0; i<3; i++) {
+			shift = Math.max(shift, 32 - Integer.numberOfLeadingZeros(maxCell[i] - minCell[i]));
+		}
+		int level = MAX_DEPTH - shift;
+		return getSubtreeStart(level, minCell[0] >> shift, minCell[1] >> shift, minCell[2] >> shift) | level;
+	}
+
+	/**
+	 * @return The lowest deepest-level coordinate a product stored in the given cell (or its descendants) can cover
+	 */
+	static int getLooseMin(int level, int coordinate) {
+		return coordinate << (MAX_DEPTH - level);
+	}
+
+	/**
+	 * @return The highest deepest-level coordinate a product stored in the given cell (or its descendants) can cover
+	 */
+	static int getLooseMax(int level, int coordinate) {
+		return Math.min(CELLS - 1, ((coordinate + 2) << (MAX_DEPTH - level)) - 1);
+	}
+
+	/**
+	 * @return The lowest code of the cell at the given level and coordinates and all its descendants, without the level bits
+	 */
+	static long getSubtreeStart(int level, int x, int y, int z) {
+		return (interleave(x, y, z) << (3 * (MAX_DEPTH - level))) << 4;
+	}
+
+	/**
+	 * @return The lowest code after the cell at the given level and coordinates and all its descendants
+	 */
+	static long getSubtreeEnd(int level, int x, int y, int z) {
+		return ((interleave(x, y, z) + 1) << (3 * (MAX_DEPTH - level))) << 4;
+	}
+
+	private static long interleave(int x, int y, int z) {
+		long result = 0;
+		for (int i=0; i<MAX_DEPTH; i++) {
+			result |= ((long)((x >> i) & 1)) << (3 * i + 2);
+			result |= ((long)((y >> i) & 1)) << (3 * i + 1);
+			result |= ((long)((z >> i) & 1)) << (3 * i);
+		}
+		return result;
+	}
+}
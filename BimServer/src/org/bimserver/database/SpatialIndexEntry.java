@@ -0,0 +1,106 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+
+import org.bimserver.shared.HashMapWrappedVirtualObject;
+
+/**
+ * Axis aligned bounds (in mm) and density of one product, as stored in the {@link SpatialIndex}
+ */
+public class SpatialIndexEntry {
+	static final int VALUE_SIZE = 6 * 8 + 4;
+
+	private final long oid;
+	private final float density;
+	private final double minX;
+	private final double minY;
+	private final double minZ;
+	private final double maxX;
+	private final double maxY;
+	private final double maxZ;
+
+	public SpatialIndexEntry(long oid, float density, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		this.oid = oid;
+		this.density = density;
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+
+	/**
+	 * @param boundsMm A geometry Bounds object
+	 */
+	public static SpatialIndexEntry create(long oid, float density, HashMapWrappedVirtualObject boundsMm) {
+		HashMapWrappedVirtualObject min = (HashMapWrappedVirtualObject) boundsMm.eGet("min");
+		HashMapWrappedVirtualObject max = (HashMapWrappedVirtualObject) boundsMm.eGet("max");
+		return new SpatialIndexEntry(oid, density, (double)min.eGet("x"), (double)min.eGet("y"), (double)min.eGet("z"), (double)max.eGet("x"), (double)max.eGet("y"), (double)max.eGet("z"));
+	}
+
+	static SpatialIndexEntry read(long oid, ByteBuffer value) {
+		return new SpatialIndexEntry(oid, value.getFloat(48), value.getDouble(0), value.getDouble(8), value.getDouble(16), value.getDouble(24), value.getDouble(32), value.getDouble(40));
+	}
+
+	byte[] toValue() {
+		ByteBuffer buffer = ByteBuffer.allocate(VALUE_SIZE);
+		buffer.putDouble(minX);
+		buffer.putDouble(minY);
+		buffer.putDouble(minZ);
+		buffer.putDouble(maxX);
+		buffer.putDouble(maxY);
+		buffer.putDouble(maxZ);
+		buffer.putFloat(density);
+		return buffer.array();
+	}
+
+	public long getOid() {
+		return oid;
+	}
+
+	public float getDensity() {
+		return density;
+	}
+
+	public double getMinX() {
+		return minX;
+	}
+
+	public double getMinY() {
+		return minY;
+	}
+
+	public double getMinZ() {
+		return minZ;
+	}
+
+	public double getMaxX() {
+		return maxX;
+	}
+
+	public double getMaxY() {
+		return maxY;
+	}
+
+	public double getMaxZ() {
+		return maxZ;
+	}
+}
@@ -0,0 +1,121 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Walks the octree of a {@link SpatialIndex} depth first. Cells of which the loose bounds are completely within the queried cells are read with one range scan, for cells that are partially within only the entries stored at the cell itself
+ * are read, after which the overlapping child cells are visited (when the cell has any descendants at all)
+ */
+public class SpatialIndexIterator {
+	private final SearchingRecordIterator recordIterator;
+	private final int[] minCell;
+	private final int[] maxCell;
+	private final Deque<int[]> cells = new ArrayDeque<>();
+	private final ByteBuffer seekBuffer = ByteBuffer.allocate(16);
+	private Record record;
+	private long scanStart;
+	private long scanEnd;
+	private int[] partialCell;
+	private long partialCellEnd;
+
+	SpatialIndexIterator(SearchingRecordIterator recordIterator, int pid, int rid, int[] minCell, int[] maxCell, boolean intersects) {
+		this.recordIterator = recordIterator;
+		this.minCell = minCell;
+		this.maxCell = maxCell;
+		seekBuffer.putInt(pid);
+		seekBuffer.putInt(rid);
+		if (intersects) {
+			cells.push(new int[]{0, 0, 0, 0});
+		}
+	}
+
+	/**
+	 * @return The next candidate, or null when there are no more
+	 */
+	public SpatialIndexEntry next() throws BimserverLockConflictException {
+		while (true) {
+			if (record != null) {
+				ByteBuffer keyBuffer = record.getKeyBuffer();
+				if (keyBuffer.capacity() == SpatialIndex.ENTRY_KEY_SIZE) {
+					long code = keyBuffer.getLong(8);
+					if (code >= scanStart && code < scanEnd) {
+						SpatialIndexEntry entry = SpatialIndexEntry.read(keyBuffer.getLong(16), record.getValueBuffer());
+						record = recordIterator.next();
+						return entry;
+					}
+					if (partialCell != null && code >= scanEnd && code < partialCellEnd) {
+						pushOverlappingChildren(partialCell);
+					}
+				}
+				record = null;
+			}
+			// When the table has no more records, the children of a partially overlapping cell are empty as well
+			partialCell = null;
+			int[] cell = cells.poll();
+			if (cell == null) {
+				return null;
+			}
+			int level = cell[0];
+			scanStart = SpatialIndex.getSubtreeStart(level, cell[1], cell[2], cell[3]) | level;
+			long subtreeEnd = SpatialIndex.getSubtreeEnd(level, cell[1], cell[2], cell[3]);
+			if (level == SpatialIndex.MAX_DEPTH || isContained(cell)) {
+				scanEnd = subtreeEnd;
+			} else {
+				scanEnd = scanStart + 1;
+				partialCell = cell;
+				partialCellEnd = subtreeEnd;
+			}
+			seekBuffer.putLong(8, scanStart);
+			record = recordIterator.next(seekBuffer);
+		}
+	}
+
+	private boolean isContained(int[] cell) {
+		for (int i=0; i<3; i++) {
+			if (SpatialIndex.getLooseMin(cell[0], cell[i + 1]) < minCell[i] || SpatialIndex.getLooseMax(cell[0], cell[i + 1]) > maxCell[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void pushOverlappingChildren(int[] cell) {
+		int level = cell[0] + 1;
+		// Pushed in reverse order so the children are visited in key order
+		for (int child=7; child>=0; child--) {
+			int x = (cell[1] << 1) | ((child >> 2) & 1);
+			int y = (cell[2] << 1) | ((child >> 1) & 1);
+			int z = (cell[3] << 1) | (child & 1);
+			if (overlaps(level, x, 0) && overlaps(level, y, 1) && overlaps(level, z, 2)) {
+				cells.push(new int[]{level, x, y, z});
+			}
+		}
+	}
+
+	private boolean overlaps(int level, int coordinate, int axis) {
+		return SpatialIndex.getLooseMin(level, coordinate) <= maxCell[axis] && SpatialIndex.getLooseMax(level, coordinate) >= minCell[axis];
+	}
+
+	public void close() {
+		recordIterator.close();
+	}
+}
@@ -0,0 +1,257 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bimserver.shared.HashMapVirtualObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+
+/**
+ * Cache of the HashMapVirtualObjects a DatabaseSession has read, bounded by the estimated size of the objects. The bound can be shared by the caches of all sessions, when the total is over the maximum a cache evicts its own
+ * least recently used objects. Readers are expected to read an object again from the database when it is not in the cache anymore.
+ * 
+ * Objects that cannot be read again (for example geometry that is still being generated) or that have state that reading them again would not restore (for example direct references set by a query) have to be pinned,
+ * see {@link #pin(HashMapVirtualObject)}. Pinned objects are never evicted and do not count towards the maximum size until they are unpinned again, see {@link #unpin(HashMapVirtualObject)}.
+ * 
+ * The cache is split in segments with their own lock, so concurrent readers mostly do not wait for each other.
+ */
+public class VirtualObjectCache {
+	private static final int SEGMENTS = 16;
+	private final Segment[] segments = new Segment[SEGMENTS];
+	private final Map<Long, HashMapVirtualObject> pinned = new ConcurrentHashMap<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param maxWeight The maximum estimated size in bytes of the (not pinned) objects in this cache
+	 */
+	public VirtualObjectCache(long maxWeight) {
+		this(maxWeight, new AtomicLong());
+	}
+
+	/**
+	 * @param maxWeight The maximum estimated size in bytes of the (not pinned) objects in all caches that share totalWeight
+	 * @param totalWeight The estimated size of the (not pinned) objects in all caches that share the bound, caches have to be closed to give their share back
+	 */
+	public VirtualObjectCache(long maxWeight, AtomicLong totalWeight) {
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(Math.max(1, maxWeight), totalWeight);
+		}
+	}
+
+	public void put(HashMapVirtualObject object) {
+		if (pinned.containsKey(object.getOid())) {
+			return;
+		}
+		int evicted = getSegment(object.getOid()).put(object.getOid(), object, estimateWeight(object));
+		if (evicted > 0) {
+			evictions.add(evicted);
+		}
+	}
+
+	public void pin(HashMapVirtualObject object) {
+		if (pinned.put(object.getOid(), object) == object) {
+			return;
+		}
+		// Pinned objects do not count towards the maximum
+		getSegment(object.getOid()).remove(object.getOid());
+	}
+
+	/**
+	 * Turns a pinned object into a normal cached object, that counts towards the maximum and can be evicted
+	 */
+	public void unpin(HashMapVirtualObject object) {
+		if (pinned.remove(object.getOid(), object)) {
+			put(object);
+		}
+	}
+
+	public HashMapVirtualObject get(long oid) {
+		HashMapVirtualObject object = getSegment(oid).get(oid);
+		if (object == null) {
+			object = pinned.get(oid);
+		}
+		if (object == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return object;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getWeight() {
+		long weight = 0;
+		for (Segment segment : segments) {
+			weight += segment.getWeight();
+		}
+		return weight;
+	}
+
+	public int getNrPinned() {
+		return pinned.size();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		size += pinned.size();
+		return size;
+	}
+
+	/**
+	 * Removes all objects, and gives the weight of this cache back to the shared total. Objects added after this are not cached anymore
+	 */
+	public void close() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+		pinned.clear();
+	}
+
+	@Override
+	public String toString() {
+		return size() + " objects, " + (getWeight() / 1024) + " KB, " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions";
+	}
+
+	private Segment getSegment(long oid) {
+		// The lower 16 bits of an oid are the cid, so the oid needs to be mixed first
+		return segments[(int) (HashCommon.mix(oid) & (SEGMENTS - 1))];
+	}
+
+	/**
+	 * A rough estimate of the heap usage of an object: the object and its map, plus the values of the features that are set
+	 */
+	static int estimateWeight(HashMapVirtualObject object) {
+		long weight = 96;
+		for (EStructuralFeature eStructuralFeature : object.eClass().getEAllStructuralFeatures()) {
+			Object value = object.eGet(eStructuralFeature);
+			if (value == null) {
+				continue;
+			}
+			weight += 40;
+			if (value instanceof byte[]) {
+				weight += ((byte[]) value).length;
+			} else if (value instanceof String) {
+				weight += 40 + ((String) value).length();
+			} else if (value instanceof List) {
+				weight += 24 + 24 * ((List<?>) value).size();
+			} else if (!(value instanceof Number || value instanceof Boolean || value instanceof Enum)) {
+				// Wrapped values and other embedded objects
+				weight += 64;
+			}
+		}
+		return (int) Math.min(weight, Integer.MAX_VALUE);
+	}
+
+	private static class Segment {
+		private final Long2ObjectLinkedOpenHashMap<Entry> map = new Long2ObjectLinkedOpenHashMap<>();
+		private final long maxWeight;
+		private final AtomicLong totalWeight;
+		private long weight;
+		private boolean closed;
+
+		Segment(long maxWeight, AtomicLong totalWeight) {
+			this.maxWeight = maxWeight;
+			this.totalWeight = totalWeight;
+		}
+
+		synchronized HashMapVirtualObject get(long oid) {
+			Entry entry = map.getAndMoveToLast(oid);
+			return entry == null ? null : entry.object;
+		}
+
+		/**
+		 * @return The number of objects evicted
+		 */
+		synchronized int put(long oid, HashMapVirtualObject object, int objectWeight) {
+			if (closed) {
+				// Readers that are still running when the session closes should not add to the shared total anymore
+				return 0;
+			}
+			Entry old = map.putAndMoveToLast(oid, new Entry(object, objectWeight));
+			long added = objectWeight - (old == null ? 0 : old.weight);
+			weight += added;
+			long total = totalWeight.addAndGet(added);
+			int evicted = 0;
+			// The object that was just added is never evicted, even when it is larger than the maximum
+			while (total > maxWeight && map.size() > 1) {
+				Entry eldest = map.removeFirst();
+				weight -= eldest.weight;
+				total = totalWeight.addAndGet(-eldest.weight);
+				evicted++;
+			}
+			return evicted;
+		}
+
+		synchronized void remove(long oid) {
+			Entry entry = map.remove(oid);
+			if (entry != null) {
+				weight -= entry.weight;
+				totalWeight.addAndGet(-entry.weight);
+			}
+		}
+
+		synchronized void clear() {
+			closed = true;
+			map.clear();
+			totalWeight.addAndGet(-weight);
+			weight = 0;
+		}
+
+		synchronized long getWeight() {
+			return weight;
+		}
+
+		synchronized int size() {
+			return map.size();
+		}
+	}
+
+	private static class Entry {
+		private final HashMapVirtualObject object;
+		private final int weight;
+
+		Entry(HashMapVirtualObject object, int weight) {
+			this.object = object;
+			this.weight = weight;
+		}
+	}
+}
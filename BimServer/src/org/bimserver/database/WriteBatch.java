@@ -0,0 +1,146 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Collects writes for multiple tables so a KeyValueStore can apply them in one go, per table and in key order.
+ * Keys and values are copied when added, so callers can reuse their buffers. Deletes are part of the batch as well, so a batch is applied as a whole or not at all (within the transaction of the session).
+ */
+public class WriteBatch {
+	private static final Comparator<byte[]> KEY_COMPARATOR = UnsignedBytes.lexicographicalComparator();
+	private final Map<String, List<Entry>> tables = new LinkedHashMap<>();
+	private int size;
+	private long sizeInBytes;
+
+	public static class Entry {
+		private final byte[] key;
+		private final byte[] value;
+		private final boolean overwrite;
+		private final boolean delete;
+
+		public Entry(byte[] key, byte[] value, boolean overwrite, boolean delete) {
+			this.key = key;
+			this.value = value;
+			this.overwrite = overwrite;
+			this.delete = delete;
+		}
+
+		public byte[] getKey() {
+			return key;
+		}
+
+		public byte[] getValue() {
+			return value;
+		}
+
+		public boolean isOverwrite() {
+			return overwrite;
+		}
+
+		/**
+		 * @return Whether this entry deletes the key, for tables with duplicates only the duplicate given by getValue is deleted
+		 */
+		public boolean isDelete() {
+			return delete;
+		}
+	}
+
+	public void store(String tableName, byte[] key, byte[] value, int offset, int length) {
+		add(tableName, key, value, offset, length, true);
+	}
+
+	public void store(String tableName, byte[] key, byte[] value) {
+		add(tableName, key, value, 0, value.length, true);
+	}
+
+	public void storeNoOverwrite(String tableName, byte[] key, byte[] value, int offset, int length) {
+		add(tableName, key, value, offset, length, false);
+	}
+
+	public void storeNoOverwrite(String tableName, byte[] key, byte[] value) {
+		add(tableName, key, value, 0, value.length, false);
+	}
+
+	/**
+	 * Deletes the given value of key in an index table (a table with duplicates), entries are applied in the order in which they were added, so a delete followed by a store of the same key and value leaves the value in place
+	 */
+	public void delete(String tableName, byte[] key, byte[] value) {
+		add(tableName, key, value, 0, value.length, true, true);
+	}
+
+	private void add(String tableName, byte[] key, byte[] value, int offset, int length, boolean overwrite) {
+		add(tableName, key, value, offset, length, overwrite, false);
+	}
+
+	private void add(String tableName, byte[] key, byte[] value, int offset, int length, boolean overwrite, boolean delete) {
+		List<Entry> entries = tables.get(tableName);
+		if (entries == null) {
+			entries = new ArrayList<>();
+			tables.put(tableName, entries);
+		}
+		byte[] valueCopy = new byte[length];
+		System.arraycopy(value, offset, valueCopy, 0, length);
+		entries.add(new Entry(key.clone(), valueCopy, overwrite, delete));
+		size++;
+		sizeInBytes += key.length + length;
+	}
+
+	public Set<String> getTableNames() {
+		return tables.keySet();
+	}
+
+	/**
+	 * @return The entries for the given table, sorted by key in the same (unsigned) order the store uses. The sort is stable, so writes to the same key keep the order in which they were added
+	 */
+	public List<Entry> getSortedEntries(String tableName) {
+		List<Entry> entries = tables.get(tableName);
+		if (entries == null) {
+			return Collections.emptyList();
+		}
+		Collections.sort(entries, (o1, o2) -> KEY_COMPARATOR.compare(o1.getKey(), o2.getKey()));
+		return entries;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getSizeInBytes() {
+		return sizeInBytes;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		tables.clear();
+		size = 0;
+		sizeInBytes = 0;
+	}
+}
@@ -27,6 +27,8 @@ import org.bimserver.GeometryGeneratingException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.emf.IdEObject;
 import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.geometry.GeometryDataEncoding;
+import org.bimserver.models.geometry.Buffer;
 import org.bimserver.models.geometry.GeometryInfo;
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.store.ConcreteRevision;
@@ -75,15 +77,18 @@ public abstract class AbstractDownloadDatabaseAction<T> extends BimDatabaseActio
 						}
 						if (needsGeometry.contains("indices")) {
 							geometryInfo.getData().getIndices().forceLoad();
+							decode(geometryInfo.getData().getIndices());
 						}
 						if (needsGeometry.contains("normals")) {
 							geometryInfo.getData().getNormals().forceLoad();
+							decode(geometryInfo.getData().getNormals());
 						}
 						if (needsGeometry.contains("normalsQuantized")) {
 							geometryInfo.getData().getNormalsQuantized().forceLoad();
 						}
 						if (needsGeometry.contains("vertices")) {
 							geometryInfo.getData().getVertices().forceLoad();
+							decode(geometryInfo.getData().getVertices());
 						}
 						if (needsGeometry.contains("verticesQuantized")) {
 							geometryInfo.getData().getVerticesQuantized().forceLoad();
@@ -99,6 +104,14 @@ public abstract class AbstractDownloadDatabaseAction<T> extends BimDatabaseActio
 		}
 	}
 
+	private void decode(Buffer buffer) {
+		// Serializers get the original layout, also when the geometry has been stored with GeometryDataEncoding
+		if (buffer.getEncoding() != GeometryDataEncoding.NONE) {
+			buffer.setData(GeometryDataEncoding.decode(buffer.getEncoding(), buffer.getData()));
+			buffer.setEncoding(GeometryDataEncoding.NONE);
+		}
+	}
+
 	public BimServer getBimServer() {
 		return bimServer;
 	}
@@ -18,8 +18,12 @@ package org.bimserver.database.actions;
  *****************************************************************************/
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.bimserver.BimServer;
 import org.bimserver.BimserverDatabaseException;
@@ -28,6 +32,7 @@ import org.bimserver.GeometryGeneratingException;
 import org.bimserver.SummaryMap;
 import org.bimserver.changes.Change;
 import org.bimserver.changes.CreateObjectChange;
+import org.bimserver.changes.InverseUpdater;
 import org.bimserver.changes.RemoveObjectChange;
 import org.bimserver.changes.Transaction;
 import org.bimserver.database.BimserverLockConflictException;
@@ -37,9 +42,14 @@ import org.bimserver.database.OldQuery;
 import org.bimserver.database.OldQuery.Deep;
 import org.bimserver.database.OperationType;
 import org.bimserver.database.PostCommitAction;
+import org.bimserver.database.PropertyIndex;
+import org.bimserver.database.SpatialIndexEntry;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.emf.PackageMetaData;
+import org.bimserver.geometry.AffectedProductsFinder;
+import org.bimserver.geometry.Density;
 import org.bimserver.geometry.GeometryGenerationReport;
+import org.bimserver.geometry.GeometryScheduler;
 import org.bimserver.geometry.StreamingGeometryGenerator;
 import org.bimserver.interfaces.SConverter;
 import org.bimserver.mail.MailSystem;
@@ -190,6 +200,13 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 			}
 		}
 
+		setProgress("Generating inverses/opposites...", -1);
+		try {
+			new InverseUpdater(transaction).update();
+		} catch (QueryException | IOException e) {
+			throw new BimserverDatabaseException(e);
+		}
+
 		for (HashMapVirtualObject object : transaction.getCreated()) {
 			getDatabaseSession().save(object);
 		}
@@ -200,14 +217,7 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 			getDatabaseSession().delete(object, concreteRevision.getId());
 		}
 		
-		setProgress("Generating inverses/opposites...", -1);
 		Revision newRevision = result.getRevisions().get(0);
-		long newRoid = newRevision.getOid();
-		try {
-			fixInverses(packageMetaData, newRoid, summaryMap.getSummaryMap());
-		} catch (QueryException | IOException e1) {
-			e1.printStackTrace();
-		}
 
 		int highestStopId = AbstractDownloadDatabaseAction.findHighestStopRid(concreteRevision.getProject(), concreteRevision);
 		QueryContext queryContext = new QueryContext(getDatabaseSession(), packageMetaData, project.getId(), concreteRevision.getId(), concreteRevision.getRevisions().get(0).getOid(), concreteRevision.getOid(), highestStopId);
@@ -229,54 +239,30 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 		queryContext.setOidCounters(originalOidCounters);
 		concreteRevision.setOidCounters(originalOidCounters == null ? null : originalOidCounters.getBytes());
 
+		updatePropertyIndex(packageMetaData, transaction, previousConcreteRevision, queryContext);
+
 		if (getBimServer().getServerSettingsCache().getServerSettings().isGenerateGeometryOnCheckin()) {
 			if (regenerateAllGeometry) {
-				setProgress("Generating Geometry...", -1);
-				try {
-					GeometryGenerationReport report = new GeometryGenerationReport();
-	
-					report.setOriginalDeserializer("No deserializer, low level call");
-					report.setOriginalIfcFileName("No file, low level call");
-					report.setOriginalIfcFileSize(-1);
-					
-					StreamingGeometryGenerator streamingGeometryGenerator = new StreamingGeometryGenerator(getBimServer(), null, -1L, report);
-	
-					GenerateGeometryResult generateGeometry = streamingGeometryGenerator.generateGeometry(authorization.getUoid(), getDatabaseSession(), queryContext, summaryMap.count());
-					
-					concreteRevision.setMultiplierToMm(generateGeometry.getMultiplierToMm());
-					concreteRevision.setBounds(generateGeometry.getBounds());
-					concreteRevision.setBoundsUntransformed(generateGeometry.getBoundsUntransformed());
-					
-					generateDensityAndBounds(result, generateGeometry, concreteRevision);
-	
-					final GeometryGenerationReport finalReport = report;
-					
-					getDatabaseSession().addPostCommitAction(new PostCommitAction() {
-						@Override
-						public void execute() throws UserException {
-							if (finalReport != null) {
-								byte[] htmlBytes = finalReport.toHtml().getBytes(Charsets.UTF_8);
-								byte[] jsonBytes = finalReport.toJson().toString().getBytes(Charsets.UTF_8);
-								try (DatabaseSession tmpSession = getBimServer().getDatabase().createSession(OperationType.POSSIBLY_WRITE)) {
-									AddGeometryReports addGeometryReports = new AddGeometryReports(tmpSession, AccessMethod.INTERNAL, htmlBytes, jsonBytes, finalReport.getTimeToGenerateMs(), authorization.getUoid(), revision.getOid());
-									try {
-										tmpSession.executeAndCommitAction(addGeometryReports);
-									} catch (ServerException e1) {
-										LOGGER.error("", e1);
-									}
-								} catch (BimserverDatabaseException e1) {
-									LOGGER.error("", e1);
-								}
-							}
-							getBimServer().getNotificationsManager().notify(new NewRevisionNotification(getBimServer(), project.getOid(), revision.getOid(), authorization));
-						}
-					});
-				} catch (GeometryGeneratingException e) {
-					throw new UserException(e);
-				}
+				generateGeometry(result, concreteRevision, queryContext, summaryMap.count(), null, null);
 				revision.setHasGeometry(true);
-			} else {
-				if (previousRevision != null) {
+				prepareOctree(null, null);
+			} else if (previousRevision != null) {
+				AffectedProductsFinder affectedProductsFinder = null;
+				if (previousRevision.isHasGeometry()) {
+					setProgress("Determining changed geometry...", -1);
+					affectedProductsFinder = new AffectedProductsFinder(getBimServer(), getDatabaseSession(), queryContext);
+					try {
+						affectedProductsFinder.find(transaction);
+					} catch (QueryException | IOException e) {
+						throw new BimserverDatabaseException(e);
+					}
+				}
+				if (affectedProductsFinder != null && !affectedProductsFinder.getProductOids().isEmpty()) {
+					LOGGER.info("Regenerating geometry of " + affectedProductsFinder.getProductOids().size() + " products");
+					generateGeometry(result, concreteRevision, queryContext, summaryMap.count(), affectedProductsFinder, previousRevision);
+					revision.setHasGeometry(true);
+					prepareOctree(previousRevision.getOid(), affectedProductsFinder.getProductOids());
+				} else {
 					byte[] htmlBytes = null;
 					byte[] jsonBytes = null;
 					long timeToGenerate = -1;
@@ -314,9 +300,17 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 					newRevision.setBoundsMm(previousRevision.getBoundsMm());
 					newRevision.setBoundsUntransformedMm(previousRevision.getBoundsUntransformedMm());
 					
-					// TODO validate this, contains ids?
+					// No geometry changed, so the density entries (which refer to GeometryInfo objects) of the previous revision are still valid
 					newRevision.setDensityCollection(previousRevision.getDensityCollection());
+					
+					List<SpatialIndexEntry> spatialIndexEntries = getBimServer().getDatabase().getSpatialIndex().readAll(project.getId(), previousConcreteRevision.getId(), getDatabaseSession());
+					if (spatialIndexEntries != null) {
+						getBimServer().getDatabase().getSpatialIndex().write(project.getId(), concreteRevision.getId(), spatialIndexEntries, getDatabaseSession());
+					}
 					revision.setHasGeometry(true);
+					if (affectedProductsFinder != null) {
+						prepareOctree(previousRevision.getOid(), Collections.<Long>emptySet());
+					}
 				}
 			}
 		}
@@ -328,6 +322,147 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 		return concreteRevision;
 	}
 
+	/**
+	 * The index of the previous revision is copied when this transaction did not change anything the index is built from, otherwise it is built again. When the previous revision has no index, the new revision does not get one
+	 * either, queries on it keep using the scan.
+	 */
+	private void updatePropertyIndex(PackageMetaData packageMetaData, Transaction transaction, ConcreteRevision previousConcreteRevision, QueryContext queryContext) throws BimserverDatabaseException {
+		PropertyIndex propertyIndex = getBimServer().getDatabase().getPropertyIndex();
+		if (previousConcreteRevision == null || !propertyIndex.hasIndex(queryContext.getPid(), previousConcreteRevision.getId(), getDatabaseSession())) {
+			return;
+		}
+		if (affectsPropertyIndex(packageMetaData, transaction)) {
+			setProgress("Generating property index...", -1);
+			try {
+				createPropertyIndex(packageMetaData, revision.getOid(), queryContext);
+			} catch (QueryException | IOException e) {
+				throw new BimserverDatabaseException(e);
+			}
+		} else {
+			propertyIndex.copy(queryContext.getPid(), previousConcreteRevision.getId(), queryContext.getRid(), getDatabaseSession());
+		}
+	}
+
+	/**
+	 * Changed IsDefinedBy references always come with a changed relation object, so only changes to the classes the index is built from and created or deleted objects (which can be objects without properties) matter
+	 */
+	private boolean affectsPropertyIndex(PackageMetaData packageMetaData, Transaction transaction) {
+		EClass[] indexedClasses = new EClass[] {
+			packageMetaData.getEClass("IfcPropertySingleValue"),
+			packageMetaData.getEClass("IfcPropertySet"),
+			packageMetaData.getEClass("IfcTypeObject"),
+			packageMetaData.getEClass("IfcRelDefinesByProperties"),
+			packageMetaData.getEClass("IfcRelDefinesByType")
+		};
+		EClass objectClass = packageMetaData.getEClass("IfcObject");
+		for (HashMapVirtualObject object : transaction.getUpdated()) {
+			if (isInstance(object.eClass(), indexedClasses)) {
+				return true;
+			}
+		}
+		return containsObjectOrInstance(transaction.getCreated(), objectClass, indexedClasses) || containsObjectOrInstance(transaction.getDeleted(), objectClass, indexedClasses);
+	}
+
+	private boolean containsObjectOrInstance(Collection<HashMapVirtualObject> objects, EClass objectClass, EClass[] indexedClasses) {
+		for (HashMapVirtualObject object : objects) {
+			if (objectClass.isSuperTypeOf(object.eClass()) || isInstance(object.eClass(), indexedClasses)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isInstance(EClass eClass, EClass[] eClasses) {
+		for (EClass superClass : eClasses) {
+			if (superClass.isSuperTypeOf(eClass)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lets the geometry accellerator prepare the octree of the new revision once it has been committed, derived from the previous revision's octree when only some products changed
+	 */
+	private void prepareOctree(Long previousRoid, Set<Long> changedProductOids) {
+		getDatabaseSession().addPostCommitAction(new PostCommitAction() {
+			@Override
+			public void execute() throws UserException {
+				getBimServer().getGeometryAccellerator().revisionCreated(revision.getOid(), previousRoid, changedProductOids);
+			}
+		});
+	}
+
+	/**
+	 * @param affectedProductsFinder When not null, only the geometry of the affected products is generated, all other products keep the geometry of the previous revision
+	 */
+	private void generateGeometry(CreateRevisionResult result, ConcreteRevision concreteRevision, QueryContext queryContext, long nrObjects, AffectedProductsFinder affectedProductsFinder, Revision previousRevision) throws UserException, BimserverDatabaseException {
+		setProgress("Generating Geometry...", -1);
+		try {
+			GeometryGenerationReport report = new GeometryGenerationReport();
+
+			report.setOriginalDeserializer("No deserializer, low level call");
+			report.setOriginalIfcFileName("No file, low level call");
+			report.setOriginalIfcFileSize(-1);
+			
+			StreamingGeometryGenerator streamingGeometryGenerator = new StreamingGeometryGenerator(getBimServer(), null, -1L, report);
+			if (affectedProductsFinder != null) {
+				streamingGeometryGenerator.setIncremental(affectedProductsFinder.getProductOids(), previousRevision.getConcreteRevisions().get(0));
+				// Usually a small amount of jobs for an interactive edit, these should not wait for full checkins to finish
+				streamingGeometryGenerator.setPriority(GeometryScheduler.HIGH_PRIORITY);
+			}
+
+			GenerateGeometryResult generateGeometry = streamingGeometryGenerator.generateGeometry(authorization.getUoid(), getDatabaseSession(), queryContext, nrObjects);
+			if (streamingGeometryGenerator.boundsGrown(generateGeometry)) {
+				LOGGER.info("Bounds have grown, quantizing the vertices of the unchanged products again");
+				try {
+					streamingGeometryGenerator.requantize(getDatabaseSession(), queryContext, generateGeometry.getBoundsUntransformed(), generateGeometry.getMultiplierToMm());
+				} catch (QueryException | IOException e) {
+					throw new GeometryGeneratingException(e);
+				}
+			}
+			
+			if (affectedProductsFinder != null && previousRevision.getDensityCollection() != null) {
+				for (org.bimserver.models.store.Density density : previousRevision.getDensityCollection().getDensities()) {
+					if (!affectedProductsFinder.getGeometryInfoOids().contains(density.getGeometryInfoId())) {
+						generateGeometry.addDensity(new Density(density));
+					}
+				}
+			}
+			
+			concreteRevision.setMultiplierToMm(generateGeometry.getMultiplierToMm());
+			concreteRevision.setBounds(generateGeometry.getBounds());
+			concreteRevision.setBoundsUntransformed(generateGeometry.getBoundsUntransformed());
+			
+			generateDensityAndBounds(result, generateGeometry, concreteRevision);
+
+			final GeometryGenerationReport finalReport = report;
+			
+			getDatabaseSession().addPostCommitAction(new PostCommitAction() {
+				@Override
+				public void execute() throws UserException {
+					if (finalReport != null) {
+						byte[] htmlBytes = finalReport.toHtml().getBytes(Charsets.UTF_8);
+						byte[] jsonBytes = finalReport.toJson().toString().getBytes(Charsets.UTF_8);
+						try (DatabaseSession tmpSession = getBimServer().getDatabase().createSession(OperationType.POSSIBLY_WRITE)) {
+							AddGeometryReports addGeometryReports = new AddGeometryReports(tmpSession, AccessMethod.INTERNAL, htmlBytes, jsonBytes, finalReport.getTimeToGenerateMs(), authorization.getUoid(), revision.getOid());
+							try {
+								tmpSession.executeAndCommitAction(addGeometryReports);
+							} catch (ServerException e1) {
+								LOGGER.error("", e1);
+							}
+						} catch (BimserverDatabaseException e1) {
+							LOGGER.error("", e1);
+						}
+					}
+					getBimServer().getNotificationsManager().notify(new NewRevisionNotification(getBimServer(), concreteRevision.getProject().getOid(), revision.getOid(), authorization));
+				}
+			});
+		} catch (GeometryGeneratingException e) {
+			throw new UserException(e);
+		}
+	}
+
 	public Revision getRevision() {
 		return revision;
 	}
@@ -18,6 +18,8 @@ package org.bimserver.database.actions;
  *****************************************************************************/
 
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.bimserver.BimServer;
 import org.bimserver.BimserverDatabaseException;
@@ -29,6 +31,7 @@ import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.log.ProjectDeleted;
 import org.bimserver.models.store.ObjectState;
 import org.bimserver.models.store.Project;
+import org.bimserver.models.store.Revision;
 import org.bimserver.models.store.User;
 import org.bimserver.models.store.UserType;
 import org.bimserver.shared.exceptions.UserException;
@@ -52,7 +55,8 @@ public class DeleteProjectDatabaseAction extends BimDatabaseAction<Boolean> {
 		User actingUser = getUserByUoid(authorization.getUoid());
 		final Project project = getProjectByPoid(poid);
 		if (actingUser.getUserType() == UserType.ADMIN || (actingUser.getHasRightsOn().contains(project) && bimServer.getServerSettingsCache().getServerSettings().isAllowUsersToCreateTopLevelProjects())) {
-			delete(project);
+			final Set<Long> roids = new HashSet<>();
+			delete(project, roids);
 			final ProjectDeleted projectDeleted = getDatabaseSession().create(ProjectDeleted.class);
 			projectDeleted.setAccessMethod(getAccessMethod());
 			projectDeleted.setDate(new Date());
@@ -62,6 +66,8 @@ public class DeleteProjectDatabaseAction extends BimDatabaseAction<Boolean> {
 				@Override
 				public void execute() throws UserException {
 					bimServer.getNotificationsManager().notify(new SConverter().convertToSObject(projectDeleted));
+					// Cached octrees are only a cache, they are generated again when the project is undeleted
+					bimServer.getGeometryAccellerator().invalidate(roids);
 				}
 			});
 			getDatabaseSession().store(project);
@@ -71,10 +77,13 @@ public class DeleteProjectDatabaseAction extends BimDatabaseAction<Boolean> {
 		}
 	}
 	
-	private void delete(Project project) {
+	private void delete(Project project, Set<Long> roids) {
 		project.setState(ObjectState.DELETED);
+		for (Revision revision : project.getRevisions()) {
+			roids.add(revision.getOid());
+		}
 		for (Project subProject : project.getSubProjects()) {
-			delete(subProject);
+			delete(subProject, roids);
 		}
 	}
 }
\ No newline at end of file
@@ -52,6 +52,7 @@ import org.bimserver.BimserverDatabaseException;
 import org.bimserver.GenerateGeometryResult;
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.PropertyIndex;
 import org.bimserver.database.queries.QueryObjectProvider;
 import org.bimserver.database.queries.QueryTypeStackFrame;
 import org.bimserver.database.queries.om.Include;
@@ -74,6 +75,8 @@ import org.bimserver.models.store.StoreFactory;
 import org.bimserver.models.store.StorePackage;
 import org.bimserver.models.store.User;
 import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.HashMapWrappedVirtualObject;
+import org.bimserver.shared.QueryContext;
 import org.bimserver.shared.exceptions.UserException;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EReference;
@@ -367,10 +370,12 @@ public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<Con
 		}
 	}
 	
+	/**
+	 * Generates the inverses/opposites of all references in the new revision. The references are collected as (target, source) tuples in an {@link InverseBuilder}, which spills them to disk when there are many,
+	 * after that every target object is read, updated and written exactly once, in oid order. Only one target object is in memory at a time.
+	 */
 	@SuppressWarnings("unchecked")
 	protected void fixInverses(PackageMetaData packageMetaData, long newRoid, Map<EClass, Integer> summaryMap) throws QueryException, JsonParseException, JsonMappingException, IOException, BimserverDatabaseException {
-		// TODO remove cache, this is essentially a big part of the model in memory again
-		Map<Long, HashMapVirtualObject> cache = new HashMap<Long, HashMapVirtualObject>();
 		Query query = new Query("Inverses fixer", packageMetaData);
 		
 		int nrTypes = 0;
@@ -389,71 +394,204 @@ public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<Con
 			}
 		}
 		
-		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(getDatabaseSession(), bimServer, query, Collections.singleton(newRoid), packageMetaData);
-		HashMapVirtualObject next = queryObjectProvider.next();
-		EClass lastEClass = null;
-		int currentType = 0;
-		while (next != null) {
-			if (next.eClass() != lastEClass && uniqueTypes.contains(next.eClass()) && queryObjectProvider.getStackFrame() instanceof QueryTypeStackFrame) {
-				lastEClass = next.eClass();
-				currentType++;
-				setProgress("Generating inverses", (100 * currentType / nrTypes));
-			}
-			if (packageMetaData.hasInverses(next.eClass())) {
-				for (EReference eReference : packageMetaData.getAllHasInverseReferences(next.eClass())) {
-					Object reference = next.eGet(eReference);
-					if (reference != null) {
-						if (eReference.isMany()) {
-							List<Long> references = (List<Long>)reference;
-							for (Long refOid : references) {
-								fixInverses(packageMetaData, newRoid, cache, next, eReference, refOid);
+		// The tuples refer to the opposite references by index in this list
+		List<EReference> oppositeReferences = new ArrayList<>();
+		Map<EReference, Integer> oppositeReferenceIndices = new HashMap<>();
+		
+		try (InverseBuilder inverseBuilder = new InverseBuilder(bimServer.getHomeDir().resolve("tmp"))) {
+			QueryObjectProvider queryObjectProvider = new QueryObjectProvider(getDatabaseSession(), bimServer, query, Collections.singleton(newRoid), packageMetaData);
+			HashMapVirtualObject next = queryObjectProvider.next();
+			EClass lastEClass = null;
+			int currentType = 0;
+			while (next != null) {
+				if (next.eClass() != lastEClass && uniqueTypes.contains(next.eClass()) && queryObjectProvider.getStackFrame() instanceof QueryTypeStackFrame) {
+					lastEClass = next.eClass();
+					currentType++;
+					setProgress("Generating inverses", (100 * currentType / nrTypes));
+				}
+				if (packageMetaData.hasInverses(next.eClass())) {
+					for (EReference eReference : packageMetaData.getAllHasInverseReferences(next.eClass())) {
+						Object reference = next.eGet(eReference);
+						if (reference != null) {
+							if (eReference.isMany()) {
+								List<Long> references = (List<Long>)reference;
+								for (Long refOid : references) {
+									addInverse(packageMetaData, inverseBuilder, oppositeReferences, oppositeReferenceIndices, next, eReference, refOid);
+								}
+							} else {
+								addInverse(packageMetaData, inverseBuilder, oppositeReferences, oppositeReferenceIndices, next, eReference, (Long)reference);
 							}
-						} else {
-							fixInverses(packageMetaData, newRoid, cache, next, eReference, (Long)reference);
 						}
 					}
 				}
+				next = queryObjectProvider.next();
+			}
+			
+			setProgress("Storing data", -1);
+			
+			inverseBuilder.sort();
+			HashMapVirtualObject referencedObject = null;
+			while (inverseBuilder.next()) {
+				long refOid = inverseBuilder.getTargetOid();
+				long sourceOid = inverseBuilder.getSourceOid();
+				EClass sourceEClass = getDatabaseSession().getEClassForOid(sourceOid);
+				if (referencedObject == null || referencedObject.getOid() != refOid) {
+					if (referencedObject != null) {
+						referencedObject.saveOverwrite();
+					}
+					referencedObject = getByOid(packageMetaData, getDatabaseSession(), newRoid, refOid);
+					if (referencedObject == null) {
+						throw new BimserverDatabaseException("Referenced object with oid " + refOid + " (" + getDatabaseSession().getEClassForOid(refOid).getName() + ")" + ", referenced from " + sourceEClass.getName() + " not found");
+					}
+				}
+				EReference oppositeReference = oppositeReferences.get(inverseBuilder.getReferenceIndex());
+				if (oppositeReference.isMany()) {
+					Object existingList = referencedObject.eGet(oppositeReference);
+					if (existingList != null) {
+						int currentSize = ((List<?>)existingList).size();
+						referencedObject.setListItemReference(oppositeReference, currentSize, sourceEClass, sourceOid, 0);
+					} else {
+						referencedObject.setListItemReference(oppositeReference, 0, sourceEClass, sourceOid, 0);
+					}
+				} else {
+					referencedObject.setReference(oppositeReference, sourceOid, 0);
+				}
+			}
+			if (referencedObject != null) {
+				referencedObject.saveOverwrite();
 			}
-			next = queryObjectProvider.next();
-		}
-		
-		setProgress("Storing data", -1);
-		
-		for (HashMapVirtualObject referencedObject : cache.values()) {
-			referencedObject.saveOverwrite();
 		}
 	}
 	
-	private void fixInverses(PackageMetaData packageMetaData, long newRoid, Map<Long, HashMapVirtualObject> cache, HashMapVirtualObject next, EReference eReference, long refOid)
-			throws JsonParseException, JsonMappingException, IOException, QueryException, BimserverDatabaseException {
-		HashMapVirtualObject referencedObject = cache.get(refOid);
-		if (referencedObject == null) {
-			referencedObject = getByOid(packageMetaData, getDatabaseSession(), newRoid, refOid);
-			if (referencedObject == null) {
-				throw new BimserverDatabaseException("Referenced object with oid " + refOid + " (" + getDatabaseSession().getEClassForOid(refOid).getName() + ")" + ", referenced from " + next.eClass().getName() + " not found");
-			}
-			cache.put(refOid, referencedObject);
-		}
-		EReference oppositeReference = packageMetaData.getInverseOrOpposite(referencedObject.eClass(), eReference);
+	private void addInverse(PackageMetaData packageMetaData, InverseBuilder inverseBuilder, List<EReference> oppositeReferences, Map<EReference, Integer> oppositeReferenceIndices, HashMapVirtualObject next, EReference eReference, long refOid) throws IOException, BimserverDatabaseException {
+		EClass referencedEClass = getDatabaseSession().getEClassForOid(refOid);
+		EReference oppositeReference = packageMetaData.getInverseOrOpposite(referencedEClass, eReference);
 		if (oppositeReference == null) {
-			if (eReference.getName().equals("RelatedElements") && referencedObject.eClass().getName().equals("IfcSpace")) {
+			if (eReference.getName().equals("RelatedElements") && referencedEClass.getName().equals("IfcSpace")) {
 				// Ignore, IfcSpace should have  a field called RelatedElements, but it doesn't.
 			} else {
 //				LOGGER.error("No opposite " + eReference.getName() + " found");
 			}
-		} else {
-			if (oppositeReference.isMany()) {
-				Object existingList = referencedObject.eGet(oppositeReference);
-				if (existingList != null) {
-					int currentSize = ((List<?>)existingList).size();
-					referencedObject.setListItemReference(oppositeReference, currentSize, next.eClass(), next.getOid(), 0);
-				} else {
-					referencedObject.setListItemReference(oppositeReference, 0, next.eClass(), next.getOid(), 0);
+			return;
+		}
+		Integer index = oppositeReferenceIndices.get(oppositeReference);
+		if (index == null) {
+			index = oppositeReferences.size();
+			oppositeReferences.add(oppositeReference);
+			oppositeReferenceIndices.put(oppositeReference, index);
+		}
+		inverseBuilder.add(refOid, next.getOid(), index);
+	}
+	
+	/**
+	 * Fills the property index of the new revision, which is used by the query language for "properties" filters. Has to be called after the inverses have been generated.
+	 */
+	@SuppressWarnings("unchecked")
+	protected void createPropertyIndex(PackageMetaData packageMetaData, long newRoid, QueryContext queryContext) throws QueryException, IOException, BimserverDatabaseException {
+		EClass singleValueClass = packageMetaData.getEClass("IfcPropertySingleValue");
+		EClass propertySetClass = packageMetaData.getEClass("IfcPropertySet");
+		EClass typeObjectClass = packageMetaData.getEClass("IfcTypeObject");
+		EClass relDefinesByPropertiesClass = packageMetaData.getEClass("IfcRelDefinesByProperties");
+		EClass relDefinesByTypeClass = packageMetaData.getEClass("IfcRelDefinesByType");
+		EClass objectClass = packageMetaData.getEClass("IfcObject");
+		
+		// Properties of types are only found by queries when the type relation is part of IsDefinedBy (IFC2x3), in IFC4 it is IsTypedBy
+		boolean includeTypes = packageMetaData.getEReference("IfcObject", "IsDefinedBy").getEReferenceType().isSuperTypeOf(relDefinesByTypeClass);
+		
+		Query query = new Query("Property index", packageMetaData);
+		query.createQueryPart().addType(singleValueClass, true);
+		query.createQueryPart().addType(propertySetClass, true);
+		query.createQueryPart().addType(relDefinesByPropertiesClass, true);
+		if (includeTypes) {
+			query.createQueryPart().addType(typeObjectClass, true);
+			query.createQueryPart().addType(relDefinesByTypeClass, true);
+		}
+		query.createQueryPart().addType(objectClass, true);
+		
+		Map<Long, String[]> singleValues = new HashMap<>();
+		Map<Long, String> propertySetNames = new HashMap<>();
+		Map<Long, List<Long>> propertySetProperties = new HashMap<>();
+		Map<Long, List<Long>> typePropertySets = new HashMap<>();
+		Map<Long, List<Long>> objectPropertySets = new HashMap<>();
+		List<Long> oidsWithoutProperties = new ArrayList<>();
+		
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(getDatabaseSession(), bimServer, query, Collections.singleton(newRoid), packageMetaData);
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			EClass eClass = next.eClass();
+			if (singleValueClass.isSuperTypeOf(eClass)) {
+				String name = (String) next.get("Name");
+				HashMapWrappedVirtualObject value = (HashMapWrappedVirtualObject) next.get("NominalValue");
+				if (name != null && value != null) {
+					String encodedValue = PropertyIndex.encodeValue(value.eClass().getName(), value.eGet(value.eClass().getEStructuralFeature("wrappedValue")));
+					if (encodedValue != null) {
+						singleValues.put(next.getOid(), new String[]{name, encodedValue});
+					}
 				}
-			} else {
-				referencedObject.setReference(oppositeReference, next.getOid(), 0);
+			} else if (propertySetClass.isSuperTypeOf(eClass)) {
+				String name = (String) next.get("Name");
+				List<Long> properties = (List<Long>) next.get("HasProperties");
+				if (name != null && properties != null) {
+					propertySetNames.put(next.getOid(), name);
+					propertySetProperties.put(next.getOid(), properties);
+				}
+			} else if (typeObjectClass.isSuperTypeOf(eClass)) {
+				List<Long> propertySets = (List<Long>) next.get("HasPropertySets");
+				if (propertySets != null) {
+					typePropertySets.put(next.getOid(), propertySets);
+				}
+			} else if (relDefinesByPropertiesClass.isSuperTypeOf(eClass) || relDefinesByTypeClass.isSuperTypeOf(eClass)) {
+				Object relating = next.get(relDefinesByTypeClass.isSuperTypeOf(eClass) ? "RelatingType" : "RelatingPropertyDefinition");
+				List<Long> relatedObjects = (List<Long>) next.get("RelatedObjects");
+				if (relating instanceof Long && relatedObjects != null) {
+					for (Long relatedObject : relatedObjects) {
+						List<Long> list = objectPropertySets.get(relatedObject);
+						if (list == null) {
+							list = new ArrayList<>();
+							objectPropertySets.put(relatedObject, list);
+						}
+						list.add((Long) relating);
+					}
+				}
+			} else if (objectClass.isSuperTypeOf(eClass)) {
+				// Same condition as the scan in QueryPropertiesAndTypesStackFrame
+				if (next.get("IsDefinedBy") == null) {
+					oidsWithoutProperties.add(next.getOid());
+				}
+			}
+			next = queryObjectProvider.next();
+		}
+		
+		Map<Long, List<byte[]>> hashesPerPropertySet = new HashMap<>();
+		for (Long propertySetOid : propertySetNames.keySet()) {
+			String propertySetName = propertySetNames.get(propertySetOid);
+			List<byte[]> hashes = new ArrayList<>();
+			for (Long propertyOid : propertySetProperties.get(propertySetOid)) {
+				String[] singleValue = singleValues.get(propertyOid);
+				if (singleValue != null) {
+					hashes.add(PropertyIndex.hash(propertySetName, singleValue[0], singleValue[1]));
+				}
+			}
+			hashesPerPropertySet.put(propertySetOid, hashes);
+		}
+		
+		Map<Long, List<byte[]>> hashesPerOid = new HashMap<>();
+		for (Long oid : objectPropertySets.keySet()) {
+			List<byte[]> hashes = new ArrayList<>();
+			for (Long relatingOid : objectPropertySets.get(oid)) {
+				List<Long> propertySets = typePropertySets.containsKey(relatingOid) ? typePropertySets.get(relatingOid) : Collections.singletonList(relatingOid);
+				for (Long propertySetOid : propertySets) {
+					List<byte[]> propertySetHashes = hashesPerPropertySet.get(propertySetOid);
+					if (propertySetHashes != null) {
+						hashes.addAll(propertySetHashes);
+					}
+				}
+			}
+			if (!hashes.isEmpty()) {
+				hashesPerOid.put(oid, hashes);
 			}
 		}
+		bimServer.getDatabase().getPropertyIndex().write(queryContext.getPid(), queryContext.getRid(), hashesPerOid, oidsWithoutProperties, getDatabaseSession());
 	}
 	
 	public HashMapVirtualObject getByOid(PackageMetaData packageMetaData, DatabaseSession databaseSession, long roid, long oid) throws JsonParseException, JsonMappingException, IOException, QueryException, BimserverDatabaseException {
@@ -0,0 +1,213 @@
+package org.bimserver.database.actions;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects (targetOid, sourceOid, reference) tuples and returns them grouped by target, without keeping more than a fixed number of them in memory.
+ * 
+ * Tuples are buffered and, once the buffer is full, sorted by target and spilled to a run file in the given directory. After {@link #sort()} the runs are merged, {@link #next()} then walks over all tuples ordered by target.
+ * Tuples for the same target come out in the order in which they were added, so lists built from them keep the order of a single pass over the sources.
+ */
+public class InverseBuilder implements AutoCloseable {
+	public static final int DEFAULT_MAX_TUPLES_IN_MEMORY = 500000;
+	private static final Comparator<Tuple> TARGET_COMPARATOR = (o1, o2) -> Long.compare(o1.targetOid, o2.targetOid);
+
+	private final Path tmpDir;
+	private final Tuple[] buffer;
+	private final List<Path> runFiles = new ArrayList<>();
+	private final List<Run> runs = new ArrayList<>();
+	private PriorityQueue<Run> mergeQueue;
+	private int bufferSize;
+	private int bufferPosition = -1;
+	private Tuple current;
+	private boolean sorted;
+
+	private static class Tuple {
+		private final long targetOid;
+		private final long sourceOid;
+		private final int referenceIndex;
+
+		public Tuple(long targetOid, long sourceOid, int referenceIndex) {
+			this.targetOid = targetOid;
+			this.sourceOid = sourceOid;
+			this.referenceIndex = referenceIndex;
+		}
+	}
+
+	private static class Run {
+		private final int index;
+		private final DataInputStream inputStream;
+		private long remaining;
+		private Tuple head;
+
+		public Run(int index, DataInputStream inputStream) {
+			this.index = index;
+			this.inputStream = inputStream;
+		}
+
+		public void open() throws IOException {
+			remaining = inputStream.readLong();
+		}
+
+		public boolean advance() throws IOException {
+			if (remaining == 0) {
+				head = null;
+				return false;
+			}
+			remaining--;
+			head = new Tuple(inputStream.readLong(), inputStream.readLong(), inputStream.readInt());
+			return true;
+		}
+	}
+
+	public InverseBuilder(Path tmpDir) {
+		this(tmpDir, DEFAULT_MAX_TUPLES_IN_MEMORY);
+	}
+
+	public InverseBuilder(Path tmpDir, int maxTuplesInMemory) {
+		this.tmpDir = tmpDir;
+		this.buffer = new Tuple[maxTuplesInMemory];
+	}
+
+	/**
+	 * @param referenceIndex Identifies the (inverse) reference on the target, the meaning is up to the caller
+	 */
+	public void add(long targetOid, long sourceOid, int referenceIndex) throws IOException {
+		if (sorted) {
+			throw new IllegalStateException("Cannot add tuples after sort() has been called");
+		}
+		buffer[bufferSize++] = new Tuple(targetOid, sourceOid, referenceIndex);
+		if (bufferSize == buffer.length) {
+			spill();
+		}
+	}
+
+	private void spill() throws IOException {
+		// Arrays.sort on objects is stable, which keeps the order of tuples for the same target
+		Arrays.sort(buffer, 0, bufferSize, TARGET_COMPARATOR);
+		if (!Files.exists(tmpDir)) {
+			Files.createDirectories(tmpDir);
+		}
+		Path runFile = Files.createTempFile(tmpDir, "inverses", ".run");
+		runFiles.add(runFile);
+		try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), 65536))) {
+			outputStream.writeLong(bufferSize);
+			for (int i = 0; i < bufferSize; i++) {
+				Tuple tuple = buffer[i];
+				outputStream.writeLong(tuple.targetOid);
+				outputStream.writeLong(tuple.sourceOid);
+				outputStream.writeInt(tuple.referenceIndex);
+				buffer[i] = null;
+			}
+		}
+		bufferSize = 0;
+	}
+
+	/**
+	 * Ends the adding of tuples, when nothing had to be spilled the tuples are sorted in memory, otherwise the runs are opened for merging
+	 */
+	public void sort() throws IOException {
+		sorted = true;
+		if (runFiles.isEmpty()) {
+			Arrays.sort(buffer, 0, bufferSize, TARGET_COMPARATOR);
+			return;
+		}
+		if (bufferSize > 0) {
+			spill();
+		}
+		// On equal targets the older run goes first, together with the stable in-run sort this makes the merge stable
+		mergeQueue = new PriorityQueue<>(runFiles.size(), (o1, o2) -> {
+			int result = Long.compare(o1.head.targetOid, o2.head.targetOid);
+			return result != 0 ? result : Integer.compare(o1.index, o2.index);
+		});
+		for (Path runFile : runFiles) {
+			DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), 65536));
+			Run run = new Run(runs.size(), inputStream);
+			runs.add(run);
+			run.open();
+			if (run.advance()) {
+				mergeQueue.add(run);
+			}
+		}
+	}
+
+	/**
+	 * Moves to the next tuple, ordered by target oid
+	 * 
+	 * @return false when there are no more tuples
+	 */
+	public boolean next() throws IOException {
+		if (!sorted) {
+			throw new IllegalStateException("sort() has to be called first");
+		}
+		if (mergeQueue == null) {
+			bufferPosition++;
+			if (bufferPosition >= bufferSize) {
+				current = null;
+				return false;
+			}
+			current = buffer[bufferPosition];
+			return true;
+		}
+		Run run = mergeQueue.poll();
+		if (run == null) {
+			current = null;
+			return false;
+		}
+		current = run.head;
+		if (run.advance()) {
+			mergeQueue.add(run);
+		}
+		return true;
+	}
+
+	public long getTargetOid() {
+		return current.targetOid;
+	}
+
+	public long getSourceOid() {
+		return current.sourceOid;
+	}
+
+	public int getReferenceIndex() {
+		return current.referenceIndex;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Run run : runs) {
+			run.inputStream.close();
+		}
+		for (Path runFile : runFiles) {
+			Files.deleteIfExists(runFile);
+		}
+	}
+}
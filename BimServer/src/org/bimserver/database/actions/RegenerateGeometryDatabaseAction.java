@@ -26,9 +26,10 @@ import org.bimserver.GeometryGeneratingException;
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.OldQuery;
+import org.bimserver.database.PostCommitAction;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.geometry.GeometryGenerationReport;
-import org.bimserver.geometry.StreamingGeometryGenerator;
+import org.bimserver.geometry.ResumableGeometryGenerator;
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.store.ConcreteRevision;
 import org.bimserver.models.store.ExtendedData;
@@ -49,14 +50,23 @@ public class RegenerateGeometryDatabaseAction extends ProjectBasedDatabaseAction
 	private long poid;
 	private String renderEngineName;
 	private Long eoid;
+	private boolean onlyMissing;
 
 	public RegenerateGeometryDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod, long poid, long roid, long uoid, Long eoid) {
+		this(bimServer, databaseSession, accessMethod, poid, roid, uoid, eoid, false);
+	}
+
+	/**
+	 * @param onlyMissing Only generate geometry for the products that have a representation but no geometry
+	 */
+	public RegenerateGeometryDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod, long poid, long roid, long uoid, Long eoid, boolean onlyMissing) {
 		super(databaseSession, accessMethod);
 		this.bimServer = bimServer;
 		this.poid = poid;
 		this.roid = roid;
 		this.uoid = uoid;
 		this.eoid = eoid;
+		this.onlyMissing = onlyMissing;
 	}
 
 	@Override
@@ -74,7 +84,8 @@ public class RegenerateGeometryDatabaseAction extends ProjectBasedDatabaseAction
 		report.setOriginalIfcFileSize(-1);
 		report.setOriginalDeserializer("rerun");
 		
-		StreamingGeometryGenerator streamingGeometryGenerator = new StreamingGeometryGenerator(bimServer, progressListener, eoid, report);
+		// Geometry is generated and committed in parts, so an interrupted generation continues where it was when this action is run again
+		ResumableGeometryGenerator resumableGeometryGenerator = new ResumableGeometryGenerator(bimServer, progressListener, eoid, report);
 		Revision revision = getDatabaseSession().get(roid, OldQuery.getDefault());
 		ConcreteRevision concreteRevision = revision.getConcreteRevisions().get(0);
 		PackageMetaData packageMetaData = bimServer.getMetaDataManager().getPackageMetaData(revision.getProject().getSchema());
@@ -82,7 +93,12 @@ public class RegenerateGeometryDatabaseAction extends ProjectBasedDatabaseAction
 
 		QueryContext queryContext = new QueryContext(getDatabaseSession(), packageMetaData, revision.getProject().getId(), revision.getId(), roid, concreteRevision.getOid(), highestStopId);
 		try {
-			GenerateGeometryResult generateGeometry = streamingGeometryGenerator.generateGeometry(uoid, getDatabaseSession(), queryContext, 1000); // TODO get the actual amount of products
+			resumableGeometryGenerator.generateParts(uoid, roid, onlyMissing);
+			GenerateGeometryResult generateGeometry = resumableGeometryGenerator.finish(getDatabaseSession(), queryContext);
+			if (generateGeometry == null) {
+				// Nothing was missing
+				return null;
+			}
 			
 			for (Revision other : concreteRevision.getRevisions()) {
 				other.setHasGeometry(true);
@@ -101,7 +117,17 @@ public class RegenerateGeometryDatabaseAction extends ProjectBasedDatabaseAction
 			getDatabaseSession().store(revision);
 			getDatabaseSession().store(concreteRevision);
 			
-			renderEngineName = streamingGeometryGenerator.getRenderEngineName();
+			getDatabaseSession().addPostCommitAction(new PostCommitAction() {
+				@Override
+				public void execute() throws UserException {
+					// Octrees (in memory and on disk) of these revisions have been built on the old geometry
+					for (Revision other : concreteRevision.getRevisions()) {
+						bimServer.getGeometryAccellerator().invalidate(other.getOid());
+					}
+				}
+			});
+			
+			renderEngineName = resumableGeometryGenerator.getRenderEngineName();
 		} catch (GeometryGeneratingException e) {
 			e.printStackTrace();
 		}
@@ -134,6 +160,9 @@ public class RegenerateGeometryDatabaseAction extends ProjectBasedDatabaseAction
 	}
 	
 	public String doneMessage() {
+		if (renderEngineName == null) {
+			return "No geometry to regenerate";
+		}
 		return "Geometry successfully regenerated using " + renderEngineName;
 	}
 
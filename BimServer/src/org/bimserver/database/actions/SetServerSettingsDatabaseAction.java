@@ -41,6 +41,7 @@ public class SetServerSettingsDatabaseAction extends BimDatabaseAction<Void> {
 	public Void execute() throws UserException, BimserverLockConflictException, BimserverDatabaseException {
 		ServerSettings existingServerSettings = getDatabaseSession().getSingle(StorePackage.eINSTANCE.getServerSettings(), OldQuery.getDefault());
 		existingServerSettings.getWhitelistedDomains().clear();
+		existingServerSettings.getIndexedFeatures().clear();
 		new SConverter().convertFromSObject(serverSettings, existingServerSettings, getDatabaseSession());
 		getDatabaseSession().store(existingServerSettings);
 		return null;
@@ -31,12 +31,17 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.bimserver.BimServer;
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.GenerateGeometryResult;
+import org.bimserver.GeometryGeneratingException;
 import org.bimserver.SummaryMap;
+import org.bimserver.changes.DeltaCheckinBuilder;
+import org.bimserver.changes.InverseUpdater;
+import org.bimserver.changes.Transaction;
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.OidCounters;
 import org.bimserver.database.OldQuery;
 import org.bimserver.database.OperationType;
+import org.bimserver.database.PipelinedDatabaseInterface;
 import org.bimserver.database.PostCommitAction;
 import org.bimserver.database.Record;
 import org.bimserver.database.RecordIterator;
@@ -46,6 +51,8 @@ import org.bimserver.database.queries.om.Include;
 import org.bimserver.database.queries.om.Query;
 import org.bimserver.database.queries.om.QueryPart;
 import org.bimserver.emf.PackageMetaData;
+import org.bimserver.geometry.AffectedProductsFinder;
+import org.bimserver.geometry.Density;
 import org.bimserver.geometry.GeometryGenerationReport;
 import org.bimserver.geometry.Matrix;
 import org.bimserver.geometry.StreamingGeometryGenerator;
@@ -173,6 +180,10 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 //				}
 //			}
 			
+			// A delta checkin only stores the differences with the previous revision, which has to be a revision of this project only
+			Revision previousRevision = project.getLastRevision();
+			boolean deltaCheckin = getBimServer().getConfig().isDeltaCheckin() && previousRevision != null && previousRevision.getConcreteRevisions().size() == 1 && previousRevision.getLastConcreteRevision().getOidCounters() != null;
+			
 			CreateRevisionResult result = createNewConcreteRevision(getDatabaseSession(), -1, project, user, comment.trim());
 
 			newRevision = result.getRevisions().get(0);
@@ -193,7 +204,16 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 			});
 			
 			// This will read the full stream of objects and write to the database directly
-			long size = deserializer.read(inputStream, fileName, fileSize, queryContext);
+			long size;
+			if (getBimServer().getConfig().isPipelinedCheckin()) {
+				try (PipelinedDatabaseInterface pipelinedDatabaseInterface = new PipelinedDatabaseInterface(getDatabaseSession())) {
+					QueryContext readContext = new QueryContext(pipelinedDatabaseInterface, packageMetaData, queryContext.getPid(), queryContext.getRid(), newRoid, queryContext.getCroid(), -1);
+					size = deserializer.read(inputStream, fileName, fileSize, readContext);
+					pipelinedDatabaseInterface.finish();
+				}
+			} else {
+				size = deserializer.read(inputStream, fileName, fileSize, queryContext);
+			}
 			
 			Set<EClass> eClasses = deserializer.getSummaryMap().keySet();
 			Map<String, Long> startOids = getDatabaseSession().getStartOids();
@@ -212,9 +232,39 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 			concreteRevision = result.getConcreteRevision();
 			concreteRevision.setOidCounters(oidCounters.getBytes());
 
-			setProgress("Generating inverses/opposites...", -1);
+			Transaction deltaTransaction = null;
+			OidCounters previousOidCounters = null;
+			if (deltaCheckin) {
+				setProgress("Comparing with previous revision...", -1);
+				deltaTransaction = new DeltaCheckinBuilder(getBimServer(), getDatabaseSession(), packageMetaData, previousRevision, newRoid, project, concreteRevision).build();
+				
+				setProgress("Generating inverses/opposites...", -1);
+				new InverseUpdater(deltaTransaction).update();
+				
+				for (HashMapVirtualObject object : deltaTransaction.getCreated()) {
+					getDatabaseSession().save(object);
+				}
+				for (HashMapVirtualObject object : deltaTransaction.getUpdated()) {
+					getDatabaseSession().save(object, concreteRevision.getId());
+				}
+				for (HashMapVirtualObject object : deltaTransaction.getDeleted()) {
+					getDatabaseSession().delete(object, concreteRevision.getId());
+				}
+				
+				// Unchanged objects are only stored in earlier revisions, so this revision has to be read from the oids of the previous revision onwards
+				previousOidCounters = new OidCounters(getDatabaseSession(), previousRevision.getLastConcreteRevision().getOidCounters());
+				addPreviousOidCounters(oidCounters, previousOidCounters);
+				concreteRevision.setOidCounters(oidCounters.getBytes());
+				ConcreteRevisionStackFrame.clearCache(concreteRevision.getOid());
+			} else {
+				setProgress("Generating inverses/opposites...", -1);
+				
+				fixInverses(packageMetaData, newRoid, deserializer.getSummaryMap());
+			}
 			
-			fixInverses(packageMetaData, newRoid, deserializer.getSummaryMap());
+			setProgress("Generating property index...", -1);
+			
+			createPropertyIndex(packageMetaData, newRoid, queryContext);
 
 			ProgressListener progressListener = new ProgressListener() {
 				@Override
@@ -231,20 +281,53 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 				report.setNumberOfObjects(size);
 				report.setOriginalDeserializer(pluginBundleVersion.getGroupId() + "." + pluginBundleVersion.getArtifactId() + ":" + pluginBundleVersion.getVersion());
 				StreamingGeometryGenerator geometryGenerator = new StreamingGeometryGenerator(getBimServer(), progressListener, -1L, report);
+				AffectedProductsFinder affectedProductsFinder = null;
+				if (deltaTransaction != null && previousRevision.isHasGeometry()) {
+					setProgress("Determining changed geometry...", -1);
+					affectedProductsFinder = new AffectedProductsFinder(getBimServer(), getDatabaseSession(), queryContext);
+					affectedProductsFinder.find(deltaTransaction);
+					geometryGenerator.setIncremental(affectedProductsFinder.getProductOids(), previousRevision.getConcreteRevisions().get(0));
+				}
 				setProgress("Generating geometry...", 0);
 
-				GenerateGeometryResult generateGeometry = geometryGenerator.generateGeometry(getActingUid(), getDatabaseSession(), queryContext, size);
-			
-				for (Revision other : concreteRevision.getRevisions()) {
-					other.setHasGeometry(true);
-				}
-				concreteRevision.setMultiplierToMm(generateGeometry.getMultiplierToMm());
-				concreteRevision.setBounds(generateGeometry.getBounds());
-				concreteRevision.setBoundsUntransformed(generateGeometry.getBoundsUntransformed());
-				
-				// TODO terrible code, but had to get it going quickly, will cleanup later
+				try {
+					GenerateGeometryResult generateGeometry = geometryGenerator.generateGeometry(getActingUid(), getDatabaseSession(), queryContext, size);
+					if (geometryGenerator.boundsGrown(generateGeometry)) {
+						LOGGER.info("Bounds have grown, quantizing the vertices of the unchanged products again");
+						geometryGenerator.requantize(getDatabaseSession(), queryContext, generateGeometry.getBoundsUntransformed(), generateGeometry.getMultiplierToMm());
+					}
+					
+					if (affectedProductsFinder != null && previousRevision.getDensityCollection() != null) {
+						for (org.bimserver.models.store.Density density : previousRevision.getDensityCollection().getDensities()) {
+							if (!affectedProductsFinder.getGeometryInfoOids().contains(density.getGeometryInfoId())) {
+								generateGeometry.addDensity(new Density(density));
+							}
+						}
+					}
 				
-				generateDensityAndBounds(result, generateGeometry, concreteRevision);
+					for (Revision other : concreteRevision.getRevisions()) {
+						other.setHasGeometry(true);
+					}
+					concreteRevision.setMultiplierToMm(generateGeometry.getMultiplierToMm());
+					concreteRevision.setBounds(generateGeometry.getBounds());
+					concreteRevision.setBoundsUntransformed(generateGeometry.getBoundsUntransformed());
+					
+					// TODO terrible code, but had to get it going quickly, will cleanup later
+					
+					generateDensityAndBounds(result, generateGeometry, concreteRevision);
+				} catch (GeometryGeneratingException e) {
+					// Database problems (lock conflicts etc...) are not geometry problems, the transaction has to fail (and possibly be retried) for those
+					Throwable cause = e.getCause();
+					while (cause != null) {
+						if (cause instanceof BimserverDatabaseException) {
+							throw (BimserverDatabaseException) cause;
+						}
+						cause = cause.getCause();
+					}
+					// The data itself is fine, so the checkin continues without geometry, regenerateMissingGeometry can generate it later
+					LOGGER.error("Geometry generation failed, checking in without geometry", e);
+					geometryGenerator.rollback(getDatabaseSession(), queryContext);
+				}
 			}
 			
 			final GeometryGenerationReport finalReport = report;
@@ -288,6 +371,10 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 				oidCounters.put(GeometryPackage.eINSTANCE.getBuffer(), startOids.get(fullname(GeometryPackage.eINSTANCE.getBuffer())));
 			}
 			
+			if (previousOidCounters != null) {
+				addPreviousOidCounters(oidCounters, previousOidCounters);
+			}
+			
 			concreteRevision = result.getConcreteRevision();
 			concreteRevision.setOidCounters(oidCounters.getBytes());
 			
@@ -351,7 +438,7 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 //				}
 //			}
 
-			if (nrConcreteRevisionsBefore != 0) {
+			if (nrConcreteRevisionsBefore != 0 && deltaTransaction == null) {
 				// There already was a revision, lets delete it (only when not merging)
 				concreteRevision.setClear(true);
 			}
@@ -383,6 +470,10 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 							LOGGER.error("", e1);
 						}
 					}
+					if (revision.isHasGeometry()) {
+						// Viewers usually open a new revision right away, prepare its octree while the notification goes out
+						getBimServer().getGeometryAccellerator().revisionCreated(revision.getOid(), null, null);
+					}
 					getBimServer().getNotificationsManager().notify(new NewRevisionNotification(getBimServer(), project.getOid(), revision.getOid(), authorization));
 				}
 			});
@@ -418,6 +509,15 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 		return eClass.getEPackage().getName() + "." + eClass.getName();
 	}
 
+	private void addPreviousOidCounters(OidCounters oidCounters, OidCounters previousOidCounters) {
+		for (EClass eClass : previousOidCounters.keySet()) {
+			long previousOid = previousOidCounters.get(eClass);
+			if (!oidCounters.containsKey(eClass) || previousOid < oidCounters.get(eClass)) {
+				oidCounters.put(eClass, previousOid);
+			}
+		}
+	}
+
 	private void generateQuantizedVertices(DatabaseSession databaseSession, Revision revision, float[] quantizationMatrix, float multiplierToMm) {
 		PackageMetaData packageMetaData = getBimServer().getMetaDataManager().getPackageMetaData(revision.getProject().getSchema());
 		Query query = new Query(packageMetaData);
@@ -41,6 +41,7 @@ import org.bimserver.database.KeyValueStore;
 import org.bimserver.database.Record;
 import org.bimserver.database.RecordIterator;
 import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.WriteBatch;
 import org.bimserver.utils.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -551,17 +552,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 			if (putNoOverwrite == OperationStatus.KEYEXIST) {
 				// TODO temporary test
 				tableWrapper.getDatabase().put(getTransaction(databaseSession, tableWrapper), dbKey, dbValue);
-				ByteBuffer keyBuffer = ByteBuffer.wrap(key);
-				if (key.length == 16) {
-					int pid = keyBuffer.getInt();
-					long oid = keyBuffer.getLong();
-					int rid = -keyBuffer.getInt();
-//					LOGGER.warn("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid + ", " + databaseSession.getEClassForOid(oid).getName());
-					throw new BimserverConcurrentModificationDatabaseException("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid);
-				} else {
-					LOGGER.warn("Key exists");
-//					throw new BimserverConcurrentModificationDatabaseException("Key exists: " );
-				}
+				keyExists(key);
 			}
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
@@ -569,6 +560,54 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 			throw new BimserverDatabaseException("", e);
 		}
 	}
+
+	private void keyExists(byte[] key) throws BimserverConcurrentModificationDatabaseException {
+		ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+		if (key.length == 16) {
+			int pid = keyBuffer.getInt();
+			long oid = keyBuffer.getLong();
+			int rid = -keyBuffer.getInt();
+//			LOGGER.warn("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid + ", " + databaseSession.getEClassForOid(oid).getName());
+			throw new BimserverConcurrentModificationDatabaseException("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid);
+		} else {
+			LOGGER.warn("Key exists");
+//			throw new BimserverConcurrentModificationDatabaseException("Key exists: " );
+		}
+	}
+
+	@Override
+	public void write(WriteBatch writeBatch, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException, BimserverConcurrentModificationDatabaseException {
+		for (String tableName : writeBatch.getTableNames()) {
+			TableWrapper tableWrapper = getTableWrapper(tableName);
+			try {
+				// One cursor per table, the entries are sorted so consecutive puts mostly end up in the same (cached) BIN instead of descending the tree for every record
+				Cursor cursor = tableWrapper.getDatabase().openCursor(getTransaction(databaseSession, tableWrapper), getCursorConfig(tableWrapper));
+				try {
+					DatabaseEntry dbKey = new DatabaseEntry();
+					DatabaseEntry dbValue = new DatabaseEntry();
+					for (WriteBatch.Entry entry : writeBatch.getSortedEntries(tableName)) {
+						dbKey.setData(entry.getKey());
+						dbValue.setData(entry.getValue());
+						if (entry.isDelete()) {
+							if (cursor.getSearchBoth(dbKey, dbValue, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
+								cursor.delete();
+							}
+						} else if (entry.isOverwrite()) {
+							cursor.put(dbKey, dbValue);
+						} else if (cursor.putNoOverwrite(dbKey, dbValue) == OperationStatus.KEYEXIST) {
+							keyExists(entry.getKey());
+						}
+					}
+				} finally {
+					cursor.close();
+				}
+			} catch (LockConflictException e) {
+				throw new BimserverLockConflictException(e);
+			} catch (DatabaseException e) {
+				throw new BimserverDatabaseException("", e);
+			}
+		}
+	}
 	
 	@Override
 	public String getType() {
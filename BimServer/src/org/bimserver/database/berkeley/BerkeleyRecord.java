@@ -17,17 +17,35 @@ package org.bimserver.database.berkeley;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import org.bimserver.database.Record;
 
 import com.sleepycat.je.DatabaseEntry;
 
 public class BerkeleyRecord implements Record {
-	final byte[] key;
-	final byte[] value;
+	byte[] key;
+	byte[] value;
+	private ByteBuffer keyBuffer;
+	private ByteBuffer valueBuffer;
 	
+	BerkeleyRecord() {
+	}
+
 	public BerkeleyRecord(DatabaseEntry key, DatabaseEntry value) {
+		set(key, value);
+	}
+
+	/**
+	 * Used by iterators that hand out one instance for every record, BDB gives us new arrays on every read so the arrays returned earlier stay valid
+	 */
+	BerkeleyRecord set(DatabaseEntry key, DatabaseEntry value) {
 		this.key = key.getData();
 		this.value = value.getData();
+		this.keyBuffer = null;
+		this.valueBuffer = null;
+		return this;
 	}
 
 	@Override
@@ -39,4 +57,24 @@ public class BerkeleyRecord implements Record {
 	public byte[] getValue() {
 		return value;
 	}
+
+	@Override
+	public ByteBuffer getKeyBuffer() {
+		if (keyBuffer == null) {
+			keyBuffer = ByteBuffer.wrap(key).asReadOnlyBuffer();
+		}
+		keyBuffer.clear();
+		keyBuffer.order(ByteOrder.BIG_ENDIAN);
+		return keyBuffer;
+	}
+
+	@Override
+	public ByteBuffer getValueBuffer() {
+		if (valueBuffer == null) {
+			valueBuffer = ByteBuffer.wrap(value).asReadOnlyBuffer();
+		}
+		valueBuffer.clear();
+		valueBuffer.order(ByteOrder.BIG_ENDIAN);
+		return valueBuffer;
+	}
 }
\ No newline at end of file
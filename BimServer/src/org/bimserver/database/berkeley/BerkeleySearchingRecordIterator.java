@@ -17,7 +17,7 @@ package org.bimserver.database.berkeley;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.Record;
@@ -41,6 +41,12 @@ public class BerkeleySearchingRecordIterator implements SearchingRecordIterator
 	private long cursorId;
 	private BerkeleyKeyValueStore berkeleyKeyValueStore;
 	private boolean onlyKeys;
+	
+	// Reused for every cursor operation, BDB replaces the data arrays of these entries on every read, so arrays handed out are not affected
+	private final DatabaseEntry key = new DatabaseEntry();
+	private final DatabaseEntry value = new DatabaseEntry();
+	// Every record this iterator returns is this instance, pointed at the arrays of the last read
+	private final BerkeleyRecord record = new BerkeleyRecord();
 
 	public BerkeleySearchingRecordIterator(Cursor cursor, BerkeleyKeyValueStore berkeleyKeyValueStore, long cursorId, byte[] mustStartWith, byte[] startSearchingAt, boolean onlyKeys) throws BimserverLockConflictException {
 		this.cursor = cursor;
@@ -49,6 +55,9 @@ public class BerkeleySearchingRecordIterator implements SearchingRecordIterator
 		this.mustStartWith = mustStartWith;
 		this.nextStartSearchingAt = startSearchingAt;
 		this.onlyKeys = onlyKeys;
+		if (onlyKeys) {
+			value.setPartial(0, 0, true);
+		}
 	}
 
 	public long getCursorId() {
@@ -56,21 +65,15 @@ public class BerkeleySearchingRecordIterator implements SearchingRecordIterator
 	}
 	
 	private Record getFirstNext(byte[] startSearchingAt) throws BimserverLockConflictException {
+		key.setData(startSearchingAt);
+		return getFirstNext();
+	}
+
+	private Record getFirstNext() throws BimserverLockConflictException {
 		this.nextStartSearchingAt = null;
-		DatabaseEntry key = new DatabaseEntry(startSearchingAt);
-		DatabaseEntry value = new DatabaseEntry();
-		if (onlyKeys) {
-			value.setPartial(0, 0, true);
-		}
 		try {
 			OperationStatus next = cursor.getSearchKeyRange(key, value, LockMode.DEFAULT);
-			if (next == OperationStatus.SUCCESS) {
-				byte[] firstBytes = new byte[mustStartWith.length];
-				System.arraycopy(key.getData(), 0, firstBytes, 0, mustStartWith.length);
-				if (Arrays.equals(firstBytes, mustStartWith)) {
-					return new BerkeleyRecord(key, value);
-				}
-			}
+			return createRecordIfMatches(next);
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
 		} catch (DatabaseException e) {
@@ -79,25 +82,33 @@ public class BerkeleySearchingRecordIterator implements SearchingRecordIterator
 		return null;
 	}
 
+	private Record createRecordIfMatches(OperationStatus operationStatus) {
+		if (operationStatus == OperationStatus.SUCCESS && startsWith(key.getData())) {
+			return record.set(key, value);
+		}
+		return null;
+	}
+
+	private boolean startsWith(byte[] data) {
+		if (data.length < mustStartWith.length) {
+			return false;
+		}
+		for (int i=0; i<mustStartWith.length; i++) {
+			if (data[i] != mustStartWith[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public Record next() throws BimserverLockConflictException {
 		if (nextStartSearchingAt != null) {
 			return getFirstNext(nextStartSearchingAt);
 		}
-		DatabaseEntry key = new DatabaseEntry();
-		DatabaseEntry value = new DatabaseEntry();
-		if (onlyKeys) {
-			value.setPartial(0, 0, true);
-		}
 		try {
 			OperationStatus next = cursor.getNext(key, value, LockMode.DEFAULT);
-			if (next == OperationStatus.SUCCESS) {
-				byte[] firstBytes = new byte[mustStartWith.length];
-				System.arraycopy(key.getData(), 0, firstBytes, 0, mustStartWith.length);
-				if (Arrays.equals(firstBytes, mustStartWith)) {
-					return new BerkeleyRecord(key, value);
-				}
-			}
+			return createRecordIfMatches(next);
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
 		} catch (DatabaseException e) {
@@ -120,26 +131,29 @@ public class BerkeleySearchingRecordIterator implements SearchingRecordIterator
 	public Record next(byte[] startSearchingAt) throws BimserverLockConflictException {
 		return getFirstNext(startSearchingAt);
 	}
+	
+	@Override
+	public Record next(ByteBuffer startSearchingAt) throws BimserverLockConflictException {
+		if (startSearchingAt.hasArray()) {
+			// BDB only reads the search key and replaces the entry's data with the key it finds, so the caller's array can be used directly
+			key.setData(startSearchingAt.array(), startSearchingAt.arrayOffset(), startSearchingAt.limit());
+			return getFirstNext();
+		}
+		byte[] startSearchingAtBytes = new byte[startSearchingAt.limit()];
+		ByteBuffer source = startSearchingAt.duplicate();
+		source.position(0);
+		source.get(startSearchingAtBytes);
+		return getFirstNext(startSearchingAtBytes);
+	}
 
 	@Override
 	public Record last() throws BimserverLockConflictException {
 		if (nextStartSearchingAt != null) {
 			return getFirstNext(nextStartSearchingAt);
 		}
-		DatabaseEntry key = new DatabaseEntry();
-		DatabaseEntry value = new DatabaseEntry();
-		if (onlyKeys) {
-			value.setPartial(0, 0, true);
-		}
 		try {
 			OperationStatus next = cursor.getLast(key, value, LockMode.DEFAULT);
-			if (next == OperationStatus.SUCCESS) {
-				byte[] firstBytes = new byte[mustStartWith.length];
-				System.arraycopy(key.getData(), 0, firstBytes, 0, mustStartWith.length);
-				if (Arrays.equals(firstBytes, mustStartWith)) {
-					return new BerkeleyRecord(key, value);
-				}
-			}
+			return createRecordIfMatches(next);
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
 		} catch (DatabaseException e) {
@@ -0,0 +1,751 @@
+package org.bimserver.database.lmdb;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.BimTransaction;
+import org.bimserver.database.BimserverLockConflictException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.KeyValueStore;
+import org.bimserver.database.Record;
+import org.bimserver.database.RecordIterator;
+import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.WriteBatch;
+import org.bimserver.database.berkeley.BimserverConcurrentModificationDatabaseException;
+import org.bimserver.database.berkeley.DatabaseInitException;
+import org.bimserver.database.lmdb.PendingTable.PendingKey;
+import org.bimserver.database.lmdb.PendingTable.PendingValue;
+import org.bimserver.utils.PathUtils;
+import org.lmdbjava.Cursor;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.DbiFlags;
+import org.lmdbjava.Env;
+import org.lmdbjava.EnvFlags;
+import org.lmdbjava.EnvInfo;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.PutFlags;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Stat;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * KeyValueStore on top of LMDB, a memory-mapped B+tree. Reads are served directly from the OS page cache, iterators hand out zero-copy views (see LmdbRecord).
+ * 
+ * Supported properties (all optional): mapSize (in bytes), maxReaders and maxTables
+ * 
+ * Writes are only applied on commit (see LmdbTransaction), so there are no locks to conflict on. Instead every commit checks whether a transaction that committed after it started wrote one of the same keys
+ * (in a transactional table), in which case it fails with a BimserverLockConflictException and DatabaseSession retries it, just like it does for a Berkeley lock conflict.
+ * 
+ * LMDB limits the size of keys (511 bytes by default). Keys of index tables that are longer are shortened to a prefix plus a hash of the complete key, lookups of the complete key find them, other tables do not accept longer keys.
+ */
+public class LmdbKeyValueStore implements KeyValueStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LmdbKeyValueStore.class);
+	private static final long DEFAULT_MAP_SIZE = 1024L * 1024 * 1024 * 1024;
+	private static final int DEFAULT_MAX_READERS = 1024;
+	private static final int DEFAULT_MAX_TABLES = 8192;
+	private static final PutFlags[] NO_FLAGS = new PutFlags[0];
+	private static final boolean MONITOR_CURSOR_STACK_TRACES = false;
+	private static final HashFunction LONG_KEY_HASH = Hashing.murmur3_128();
+	private static final int LONG_KEY_HASH_LENGTH = 16;
+	private final Path dataDir;
+	private final Env<ByteBuffer> env;
+	private final Map<String, LmdbTable> tables = new ConcurrentHashMap<>();
+	private final ThreadLocal<ByteBuffer> keyBuffers;
+	private final Object writeLock = new Object();
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong cursorCounter = new AtomicLong();
+	private final Map<Long, StackTraceElement[]> openCursors = new ConcurrentHashMap<>();
+	
+	// Start generations of the transactions that have not committed or rolled back yet
+	private final Map<LmdbTransaction, Long> activeTransactions = new ConcurrentHashMap<>();
+	
+	// Keys written to transactional tables by recent commits, only to be used when holding the writeLock
+	private final Deque<CommittedKeys> recentCommits = new ArrayDeque<>();
+	private final int maxKeySize;
+	private ByteBuffer valueBuffer = ByteBuffer.allocateDirect(65536);
+	private boolean isNew;
+	private long committedWrites;
+	private long reads;
+	private long lastPrintedReads = 0;
+	private long lastPrintedCommittedWrites = 0;
+
+	private static class CommittedKeys {
+		private final long generation;
+		private final Map<String, NavigableSet<PendingKey>> keys;
+
+		public CommittedKeys(long generation, Map<String, NavigableSet<PendingKey>> keys) {
+			this.generation = generation;
+			this.keys = keys;
+		}
+	}
+
+	public LmdbKeyValueStore(Path dataDir, Properties properties) throws DatabaseInitException {
+		this.dataDir = dataDir;
+		try {
+			if (Files.isDirectory(dataDir)) {
+				List<Path> files = PathUtils.list(dataDir);
+				for (Path file : files) {
+					if (file.getFileName().toString().endsWith(".jdb")) {
+						throw new DatabaseInitException("Database directory \"" + dataDir.toString() + "\" contains a Berkeley DB database, cannot open it as LMDB database");
+					}
+				}
+				isNew = !Files.exists(dataDir.resolve("data.mdb"));
+			} else {
+				isNew = true;
+				LOGGER.info("No database directory found, creating \"" + dataDir.toString() + "\"");
+				Files.createDirectory(dataDir);
+			}
+		} catch (IOException e) {
+			throw new DatabaseInitException(e);
+		}
+		long mapSize = DEFAULT_MAP_SIZE;
+		int maxReaders = DEFAULT_MAX_READERS;
+		int maxTables = DEFAULT_MAX_TABLES;
+		if (properties != null) {
+			mapSize = Long.parseLong(properties.getProperty("mapSize", "" + DEFAULT_MAP_SIZE));
+			maxReaders = Integer.parseInt(properties.getProperty("maxReaders", "" + DEFAULT_MAX_READERS));
+			maxTables = Integer.parseInt(properties.getProperty("maxTables", "" + DEFAULT_MAX_TABLES));
+		}
+		try {
+			// MDB_NOTLS, because read transactions are bound to DatabaseSessions/iterators, not to threads
+			env = Env.create().setMapSize(mapSize).setMaxReaders(maxReaders).setMaxDbs(maxTables).open(dataDir.toFile(), EnvFlags.MDB_NOTLS);
+		} catch (LmdbException e) {
+			throw new DatabaseInitException("A database initialisation error has occured (" + e.getMessage() + ")");
+		}
+		maxKeySize = env.getMaxKeySize();
+		keyBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(maxKeySize));
+	}
+
+	Env<ByteBuffer> getEnv() {
+		return env;
+	}
+
+	long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * @return A direct buffer containing the given key, the buffer is reused per thread so it is only valid until the next call
+	 */
+	ByteBuffer toKeyBuffer(byte[] key) {
+		ByteBuffer keyBuffer = keyBuffers.get();
+		if (key.length > keyBuffer.capacity()) {
+			throw new IllegalArgumentException("Key of " + key.length + " bytes is larger than the maximum LMDB key size of " + keyBuffer.capacity() + " bytes");
+		}
+		keyBuffer.clear();
+		keyBuffer.put(key);
+		keyBuffer.flip();
+		return keyBuffer;
+	}
+
+	/**
+	 * @return The key as stored in LMDB, keys of index tables that are too long are shortened to a prefix followed by a hash of the complete key
+	 */
+	byte[] toLmdbKey(LmdbTable table, byte[] key) throws BimserverDatabaseException {
+		if (key.length <= maxKeySize) {
+			return key;
+		}
+		if (!table.hasDuplicates()) {
+			throw new BimserverDatabaseException("Key of " + key.length + " bytes for table " + table.getName() + " is larger than the maximum LMDB key size of " + maxKeySize + " bytes");
+		}
+		byte[] shortened = Arrays.copyOf(key, maxKeySize);
+		LONG_KEY_HASH.hashBytes(key).writeBytesTo(shortened, maxKeySize - LONG_KEY_HASH_LENGTH, LONG_KEY_HASH_LENGTH);
+		return shortened;
+	}
+
+	/**
+	 * @return The key truncated to the maximum key size, seeking to a truncated key never skips entries that start with the complete key
+	 */
+	byte[] toSeekKey(byte[] key) {
+		return key.length <= maxKeySize ? key : Arrays.copyOf(key, maxKeySize);
+	}
+
+	/**
+	 * Only to be called when holding the writeLock
+	 */
+	private ByteBuffer toValueBuffer(byte[] value) {
+		if (valueBuffer.capacity() < value.length) {
+			valueBuffer = ByteBuffer.allocateDirect(Math.max(value.length, valueBuffer.capacity() * 2));
+		}
+		valueBuffer.clear();
+		valueBuffer.put(value);
+		valueBuffer.flip();
+		return valueBuffer;
+	}
+
+	private LmdbTransaction getTransaction(DatabaseSession databaseSession) {
+		if (databaseSession != null) {
+			BimTransaction bimTransaction = databaseSession.getBimTransaction();
+			if (bimTransaction instanceof LmdbTransaction) {
+				return (LmdbTransaction) bimTransaction;
+			}
+		}
+		return null;
+	}
+
+	private LmdbTable getTable(String tableName) throws BimserverDatabaseException {
+		LmdbTable table = tables.get(tableName);
+		if (table == null) {
+			throw new BimserverDatabaseException("Table " + tableName + " not found");
+		}
+		return table;
+	}
+
+	@Override
+	public boolean isNew() {
+		return isNew;
+	}
+
+	@Override
+	public BimTransaction startTransaction() {
+		synchronized (writeLock) {
+			// Registered while holding the writeLock, so every commit after the start generation knows this transaction is running
+			LmdbTransaction transaction = new LmdbTransaction(this, generation.get());
+			activeTransactions.put(transaction, transaction.getStartGeneration());
+			return transaction;
+		}
+	}
+
+	/**
+	 * Called when a transaction has been committed or rolled back, the keys of commits no running transaction can conflict with are forgotten
+	 */
+	void transactionFinished(LmdbTransaction transaction) {
+		activeTransactions.remove(transaction);
+		synchronized (writeLock) {
+			long oldestStart = Long.MAX_VALUE;
+			for (long startGeneration : activeTransactions.values()) {
+				oldestStart = Math.min(oldestStart, startGeneration);
+			}
+			while (!recentCommits.isEmpty() && recentCommits.peekFirst().generation <= oldestStart) {
+				recentCommits.pollFirst();
+			}
+		}
+	}
+
+	/**
+	 * Writes the pending tables of a transaction, unless a transaction that committed after it started has written one of the same keys to a transactional table
+	 */
+	void commit(LmdbTransaction transaction, Collection<PendingTable> pendingTables) throws BimserverDatabaseException {
+		synchronized (writeLock) {
+			for (CommittedKeys committedKeys : recentCommits) {
+				if (committedKeys.generation <= transaction.getStartGeneration()) {
+					continue;
+				}
+				for (PendingTable pendingTable : pendingTables) {
+					NavigableSet<PendingKey> keys = committedKeys.keys.get(pendingTable.getTable().getName());
+					if (keys != null) {
+						for (PendingKey pendingKey : pendingTable.getEntries().keySet()) {
+							if (keys.contains(pendingKey)) {
+								throw new BimserverLockConflictException("Transaction " + transaction.getId() + " conflicts with a concurrent write to table " + pendingTable.getTable().getName());
+							}
+						}
+					}
+				}
+			}
+			write(pendingTables);
+		}
+	}
+
+	private boolean openTable(String tableName, boolean transactional, boolean duplicates, boolean create) throws BimserverDatabaseException {
+		if (tables.containsKey(tableName)) {
+			throw new BimserverDatabaseException("Table " + tableName + " already " + (create ? "created" : "opened"));
+		}
+		if (!create && !containsTable(tableName)) {
+			throw new BimserverDatabaseException("Table " + tableName + " not found in database");
+		}
+		List<DbiFlags> flags = new ArrayList<>();
+		if (create) {
+			flags.add(DbiFlags.MDB_CREATE);
+		}
+		if (duplicates) {
+			flags.add(DbiFlags.MDB_DUPSORT);
+		}
+		try {
+			Dbi<ByteBuffer> dbi;
+			synchronized (writeLock) {
+				// Opening a named database uses a write transaction
+				dbi = env.openDbi(tableName, flags.toArray(new DbiFlags[flags.size()]));
+				generation.incrementAndGet();
+			}
+			tables.put(tableName, new LmdbTable(tableName, dbi, transactional, duplicates));
+			return true;
+		} catch (LmdbException e) {
+			throw new BimserverDatabaseException("", e);
+		}
+	}
+
+	@Override
+	public boolean createTable(String tableName, DatabaseSession databaseSession, boolean transactional) throws BimserverDatabaseException {
+		return openTable(tableName, transactional, false, true);
+	}
+
+	@Override
+	public boolean createIndexTable(String tableName, DatabaseSession databaseSession, boolean transactional) throws BimserverDatabaseException {
+		return openTable(tableName, transactional, true, true);
+	}
+
+	@Override
+	public boolean openTable(DatabaseSession databaseSession, String tableName, boolean transactional) throws BimserverDatabaseException {
+		return openTable(tableName, transactional, false, false);
+	}
+
+	@Override
+	public void openIndexTable(DatabaseSession databaseSession, String tableName, boolean transactional) throws BimserverDatabaseException {
+		openTable(tableName, transactional, true, false);
+	}
+
+	@Override
+	public boolean containsTable(String tableName) {
+		return getAllTableNames().contains(tableName);
+	}
+
+	@Override
+	public Set<String> getAllTableNames() {
+		Set<String> result = new HashSet<>();
+		try {
+			for (byte[] name : env.getDbiNames()) {
+				result.add(new String(name, StandardCharsets.UTF_8));
+			}
+		} catch (LmdbException e) {
+			LOGGER.error("", e);
+		}
+		return result;
+	}
+
+	@Override
+	public boolean isTransactional(DatabaseSession databaseSession, String tableName) throws BimserverDatabaseException {
+		return getTable(tableName).isTransactional() ? getTransaction(databaseSession) != null : false;
+	}
+
+	private byte[] read(Txn<ByteBuffer> txn, LmdbTable table, byte[] key) {
+		ByteBuffer value = table.getDbi().get(txn, toKeyBuffer(key));
+		if (value == null) {
+			return null;
+		}
+		byte[] result = new byte[value.remaining()];
+		value.get(result);
+		return result;
+	}
+
+	@Override
+	public byte[] get(String tableName, byte[] key, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		LmdbTable table = getTable(tableName);
+		key = toLmdbKey(table, key);
+		if (table.hasDuplicates()) {
+			List<byte[]> duplicates = getDuplicates(tableName, key, databaseSession);
+			return duplicates.isEmpty() ? null : duplicates.get(0);
+		}
+		LmdbTransaction transaction = getTransaction(databaseSession);
+		try {
+			if (transaction == null) {
+				try (Txn<ByteBuffer> txn = env.txnRead()) {
+					return read(txn, table, key);
+				}
+			}
+			transaction.lockShared();
+			try {
+				PendingTable pendingTable = transaction.getPendingTable(tableName);
+				if (pendingTable != null) {
+					PendingValue pendingValue = pendingTable.get(key);
+					if (pendingValue != null) {
+						return pendingValue.isDeleted() ? null : pendingValue.getValue();
+					}
+				}
+				return read(transaction.getReadTxn(), table, key);
+			} finally {
+				transaction.unlockShared();
+			}
+		} catch (LmdbException e) {
+			throw new BimserverDatabaseException("", e);
+		}
+	}
+
+	@Override
+	public List<byte[]> getDuplicates(String tableName, byte[] key, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		LmdbTable table = getTable(tableName);
+		key = toLmdbKey(table, key);
+		LmdbTransaction transaction = getTransaction(databaseSession);
+		try {
+			if (transaction == null) {
+				try (Txn<ByteBuffer> txn = env.txnRead()) {
+					return readDuplicates(txn, table, key);
+				}
+			}
+			transaction.lockShared();
+			try {
+				List<byte[]> result = readDuplicates(transaction.getReadTxn(), table, key);
+				PendingTable pendingTable = transaction.getPendingTable(tableName);
+				if (pendingTable != null) {
+					for (Map.Entry<PendingKey, PendingValue> entry : pendingTable.getDuplicates(key).entrySet()) {
+						byte[] duplicate = entry.getKey().getDuplicate();
+						result.removeIf(existing -> Arrays.equals(existing, duplicate));
+						if (!entry.getValue().isDeleted()) {
+							result.add(duplicate);
+						}
+					}
+					Collections.sort(result, PendingTable.COMPARATOR);
+				}
+				return result;
+			} finally {
+				transaction.unlockShared();
+			}
+		} catch (LmdbException e) {
+			throw new BimserverDatabaseException("", e);
+		}
+	}
+
+	private List<byte[]> readDuplicates(Txn<ByteBuffer> txn, LmdbTable table, byte[] key) {
+		List<byte[]> result = new ArrayList<>();
+		try (Cursor<ByteBuffer> cursor = table.getDbi().openCursor(txn)) {
+			boolean found = cursor.get(toKeyBuffer(key), GetOp.MDB_SET_KEY);
+			while (found) {
+				ByteBuffer value = cursor.val();
+				byte[] duplicate = new byte[value.remaining()];
+				value.get(duplicate);
+				result.add(duplicate);
+				found = cursor.seek(SeekOp.MDB_NEXT_DUP);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public RecordIterator getRecordIterator(String tableName, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		return getRecordIterator(tableName, null, null, databaseSession, false);
+	}
+
+	@Override
+	public SearchingRecordIterator getRecordIterator(String tableName, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		return getRecordIterator(tableName, mustStartWith, startSearchingAt, databaseSession, false);
+	}
+
+	@Override
+	public SearchingRecordIterator getRecordIterator(String tableName, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession, boolean keysOnly) throws BimserverLockConflictException, BimserverDatabaseException {
+		// keysOnly is ignored, values are not copied unless asked for
+		try {
+			LmdbRecordIterator recordIterator = new LmdbRecordIterator(this, getTable(tableName), getTransaction(databaseSession), cursorCounter.incrementAndGet(), mustStartWith, startSearchingAt);
+			if (MONITOR_CURSOR_STACK_TRACES) {
+				openCursors.put(recordIterator.getCursorId(), new Exception().getStackTrace());
+			}
+			return recordIterator;
+		} catch (LmdbException e) {
+			throw new BimserverDatabaseException("", e);
+		}
+	}
+
+	@Override
+	public byte[] getFirstStartingWith(String tableName, byte[] key, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		SearchingRecordIterator recordIterator = getRecordIterator(tableName, key, key, databaseSession);
+		try {
+			Record record = recordIterator.next(key);
+			if (record == null) {
+				return null;
+			}
+			return record.getValue();
+		} finally {
+			recordIterator.close();
+		}
+	}
+
+	@Override
+	public long count(String tableName) {
+		try (Txn<ByteBuffer> txn = env.txnRead()) {
+			Stat stat = getTable(tableName).getDbi().stat(txn);
+			return stat.entries;
+		} catch (LmdbException | BimserverDatabaseException e) {
+			LOGGER.error("", e);
+		}
+		return -1;
+	}
+
+	@Override
+	public void store(String tableName, byte[] key, byte[] value, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		store(tableName, key, value, 0, value.length, databaseSession);
+	}
+
+	@Override
+	public void store(String tableName, byte[] key, byte[] value, int offset, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
+		put(getTable(tableName), key.clone(), Arrays.copyOfRange(value, offset, offset + length), true, databaseSession);
+	}
+
+	@Override
+	public void storeNoOverwrite(String tableName, byte[] key, byte[] value, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException, BimserverConcurrentModificationDatabaseException {
+		storeNoOverwrite(tableName, key, value, 0, value.length, databaseSession);
+	}
+
+	@Override
+	public void storeNoOverwrite(String tableName, byte[] key, byte[] value, int offset, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
+		put(getTable(tableName), key.clone(), Arrays.copyOfRange(value, offset, offset + length), false, databaseSession);
+	}
+
+	@Override
+	public void write(WriteBatch writeBatch, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException, BimserverConcurrentModificationDatabaseException {
+		for (String tableName : writeBatch.getTableNames()) {
+			LmdbTable table = getTable(tableName);
+			for (WriteBatch.Entry entry : writeBatch.getSortedEntries(tableName)) {
+				if (entry.isDelete()) {
+					delete(tableName, entry.getKey(), entry.getValue(), databaseSession);
+				} else {
+					put(table, entry.getKey(), entry.getValue(), entry.isOverwrite(), databaseSession);
+				}
+			}
+		}
+	}
+
+	private void put(LmdbTable table, byte[] key, byte[] value, boolean overwrite, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		key = toLmdbKey(table, key);
+		LmdbTransaction transaction = getTransaction(databaseSession);
+		if (transaction == null) {
+			PendingTable pendingTable = new PendingTable(table);
+			pendingTable.put(key, value, overwrite);
+			write(Collections.singleton(pendingTable));
+			return;
+		}
+		if (!overwrite && !table.hasDuplicates() && get(table.getName(), key, databaseSession) != null) {
+			keyExists(key);
+			overwrite = true;
+		}
+		transaction.put(table, key, value, overwrite);
+	}
+
+	private void keyExists(byte[] key) throws BimserverConcurrentModificationDatabaseException {
+		if (key.length == 16) {
+			ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+			int pid = keyBuffer.getInt();
+			long oid = keyBuffer.getLong();
+			int rid = -keyBuffer.getInt();
+			throw new BimserverConcurrentModificationDatabaseException("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid);
+		} else {
+			LOGGER.warn("Key exists");
+		}
+	}
+
+	@Override
+	public void delete(String tableName, byte[] key, DatabaseSession databaseSession) throws BimserverLockConflictException {
+		try {
+			LmdbTable table = getTable(tableName);
+			LmdbTransaction transaction = getTransaction(databaseSession);
+			key = toLmdbKey(table, key);
+			if (table.hasDuplicates()) {
+				for (byte[] duplicate : getDuplicates(tableName, key, databaseSession)) {
+					delete(tableName, key, duplicate, databaseSession);
+				}
+			} else if (transaction == null) {
+				PendingTable pendingTable = new PendingTable(table);
+				pendingTable.delete(key.clone());
+				write(Collections.singleton(pendingTable));
+			} else {
+				transaction.delete(table, key.clone());
+			}
+		} catch (BimserverLockConflictException e) {
+			throw e;
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	@Override
+	public void delete(String indexTableName, byte[] key, byte[] value, DatabaseSession databaseSession) throws BimserverLockConflictException {
+		try {
+			LmdbTable table = getTable(indexTableName);
+			LmdbTransaction transaction = getTransaction(databaseSession);
+			key = toLmdbKey(table, key);
+			if (transaction == null) {
+				PendingTable pendingTable = new PendingTable(table);
+				pendingTable.delete(key.clone(), value.clone());
+				write(Collections.singleton(pendingTable));
+			} else {
+				transaction.delete(table, key.clone(), value.clone());
+			}
+		} catch (BimserverLockConflictException e) {
+			throw e;
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	/**
+	 * Writes the given pending tables in one LMDB write transaction, each table with one cursor in key order
+	 */
+	void write(Collection<PendingTable> pendingTables) throws BimserverDatabaseException {
+		synchronized (writeLock) {
+			Map<String, NavigableSet<PendingKey>> committedKeys = new HashMap<>();
+			try (Txn<ByteBuffer> txn = env.txnWrite()) {
+				for (PendingTable pendingTable : pendingTables) {
+					LmdbTable table = pendingTable.getTable();
+					Dbi<ByteBuffer> dbi = table.getDbi();
+					if (table.isTransactional()) {
+						committedKeys.put(table.getName(), pendingTable.getEntries().navigableKeySet());
+					}
+					try (Cursor<ByteBuffer> cursor = dbi.openCursor(txn)) {
+						for (Map.Entry<PendingKey, PendingValue> entry : pendingTable.getEntries().entrySet()) {
+							ByteBuffer key = toKeyBuffer(entry.getKey().getKey());
+							PendingValue pendingValue = entry.getValue();
+							if (table.hasDuplicates()) {
+								ByteBuffer duplicate = toValueBuffer(entry.getKey().getDuplicate());
+								if (pendingValue.isDeleted()) {
+									dbi.delete(txn, key, duplicate);
+								} else {
+									cursor.put(key, duplicate, NO_FLAGS);
+								}
+							} else if (pendingValue.isDeleted()) {
+								dbi.delete(txn, key);
+							} else if (pendingValue.isOverwrite()) {
+								cursor.put(key, toValueBuffer(pendingValue.getValue()), NO_FLAGS);
+							} else if (!cursor.put(key, toValueBuffer(pendingValue.getValue()), PutFlags.MDB_NOOVERWRITE)) {
+								// Another transaction has written this key since it was stored in this transaction
+								keyExists(entry.getKey().getKey());
+							}
+						}
+					}
+				}
+				txn.commit();
+				long committedGeneration = generation.incrementAndGet();
+				if (!committedKeys.isEmpty() && !activeTransactions.isEmpty()) {
+					recentCommits.addLast(new CommittedKeys(committedGeneration, committedKeys));
+				}
+			} catch (LmdbException e) {
+				throw new BimserverDatabaseException("", e);
+			}
+		}
+	}
+
+	@Override
+	public void commit(DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
+		LmdbTransaction transaction = getTransaction(databaseSession);
+		if (transaction != null) {
+			transaction.commit();
+		}
+	}
+
+	@Override
+	public void sync() {
+		try {
+			env.sync(true);
+		} catch (LmdbException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			env.close();
+		} catch (LmdbException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	@Override
+	public String getLocation() {
+		return dataDir.toAbsolutePath().toString();
+	}
+
+	@Override
+	public String getStats() {
+		try {
+			Stat stat = env.stat();
+			EnvInfo info = env.info();
+			return "pageSize: " + stat.pageSize + ", depth: " + stat.depth + ", branchPages: " + stat.branchPages + ", leafPages: " + stat.leafPages + ", overflowPages: " + stat.overflowPages + ", entries: " + stat.entries
+					+ ", mapSize: " + info.mapSize + ", lastPageNumber: " + info.lastPageNumber + ", maxReaders: " + info.maxReaders + ", numReaders: " + info.numReaders;
+		} catch (LmdbException e) {
+			LOGGER.error("", e);
+		}
+		return null;
+	}
+
+	@Override
+	public String getType() {
+		return "LMDB";
+	}
+
+	@Override
+	public long getDatabaseSizeInBytes() {
+		long size = 0;
+		File[] files = dataDir.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				size += file.length();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public synchronized void incrementReads(long reads) {
+		this.reads += reads;
+		if (this.reads / 1000000 != lastPrintedReads) {
+			LOGGER.info("reads: " + this.reads);
+			lastPrintedReads = this.reads / 1000000;
+		}
+	}
+
+	@Override
+	public synchronized void incrementCommittedWrites(long committedWrites) {
+		this.committedWrites += committedWrites;
+		if (this.committedWrites / 1000000 != lastPrintedCommittedWrites) {
+			lastPrintedCommittedWrites = this.committedWrites / 1000000;
+			LOGGER.info("writes: " + this.committedWrites);
+		}
+	}
+
+	public void removeOpenCursor(long cursorId) {
+		if (MONITOR_CURSOR_STACK_TRACES) {
+			openCursors.remove(cursorId);
+		}
+	}
+
+	@Override
+	public void dumpOpenCursors() {
+		for (StackTraceElement[] ste : openCursors.values()) {
+			LOGGER.info("Open cursor");
+			for (StackTraceElement stackTraceElement : ste) {
+				LOGGER.info("\t" + stackTraceElement.getClassName() + ":" + stackTraceElement.getLineNumber() + "." + stackTraceElement.getMethodName());
+			}
+		}
+	}
+}
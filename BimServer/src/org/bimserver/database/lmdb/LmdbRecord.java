@@ -0,0 +1,128 @@
+package org.bimserver.database.lmdb;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.bimserver.database.Record;
+
+/**
+ * A record either backed by the cursor's views on the memory-mapped LMDB pages or by byte arrays (for records that have not been written to LMDB yet).
+ * 
+ * An iterator keeps one instance and re-points it on every call, so neither the record nor its buffers are valid after the iterator has moved on. getKey and getValue return copies that stay valid.
+ */
+public class LmdbRecord implements Record {
+	private ByteBuffer keyView;
+	private ByteBuffer valueView;
+	private byte[] key;
+	private byte[] value;
+	private byte[] wrappedKey;
+	private byte[] wrappedValue;
+	private ByteBuffer keyArrayView;
+	private ByteBuffer valueArrayView;
+
+	LmdbRecord() {
+	}
+
+	/**
+	 * LMDB re-points the cursor's buffers on every cursor operation, we hand out those buffers as they are (the mapping is read-only, so they cannot be used to modify the database)
+	 */
+	LmdbRecord set(ByteBuffer keyView, ByteBuffer valueView) {
+		this.keyView = keyView;
+		this.valueView = valueView;
+		this.key = null;
+		this.value = null;
+		return this;
+	}
+
+	LmdbRecord set(byte[] key, byte[] value) {
+		this.keyView = null;
+		this.valueView = null;
+		this.key = key;
+		this.value = value;
+		return this;
+	}
+
+	@Override
+	public byte[] getKey() {
+		if (key == null) {
+			key = copy(keyView);
+		}
+		return key;
+	}
+
+	@Override
+	public byte[] getValue() {
+		if (value == null) {
+			value = copy(valueView);
+		}
+		return value;
+	}
+
+	/**
+	 * @return A zero-copy view on the key, only valid until the next call on the iterator
+	 */
+	@Override
+	public ByteBuffer getKeyBuffer() {
+		if (keyView != null) {
+			return rewind(keyView);
+		}
+		if (wrappedKey != key) {
+			wrappedKey = key;
+			keyArrayView = ByteBuffer.wrap(key).asReadOnlyBuffer();
+		}
+		return rewind(keyArrayView);
+	}
+
+	/**
+	 * @return A zero-copy view on the value, only valid until the next call on the iterator
+	 */
+	@Override
+	public ByteBuffer getValueBuffer() {
+		if (valueView != null) {
+			return rewind(valueView);
+		}
+		if (wrappedValue != value) {
+			wrappedValue = value;
+			valueArrayView = ByteBuffer.wrap(value).asReadOnlyBuffer();
+		}
+		return rewind(valueArrayView);
+	}
+
+	/**
+	 * Callers move the position and change the byte order of the buffers they get, the same buffer is handed out again so both are reset
+	 */
+	private static ByteBuffer rewind(ByteBuffer buffer) {
+		buffer.clear();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		return buffer;
+	}
+
+	static byte[] copy(ByteBuffer view) {
+		// The caller might be reading the same buffer, so its position and limit are left as they were
+		int position = view.position();
+		int limit = view.limit();
+		byte[] result = new byte[view.capacity()];
+		view.clear();
+		view.get(result);
+		view.limit(limit);
+		view.position(position);
+		return result;
+	}
+}
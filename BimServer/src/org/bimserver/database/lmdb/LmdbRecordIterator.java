@@ -0,0 +1,313 @@
+package org.bimserver.database.lmdb;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.bimserver.database.BimserverLockConflictException;
+import org.bimserver.database.Record;
+import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.lmdb.PendingTable.PendingKey;
+import org.bimserver.database.lmdb.PendingTable.PendingValue;
+import org.lmdbjava.Cursor;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterates over the records of one table, merging the records stored in LMDB with the pending writes of the (optional) LmdbTransaction. Records that come from LMDB are zero-copy views on the memory-mapped pages.
+ */
+public class LmdbRecordIterator implements SearchingRecordIterator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LmdbRecordIterator.class);
+	private static final byte[] EMPTY = new byte[0];
+	private final LmdbKeyValueStore keyValueStore;
+	private final LmdbTable table;
+	private final LmdbTransaction transaction;
+	private final byte[] mustStartWith;
+	private final long cursorId;
+	private final Txn<ByteBuffer> txn;
+	private final Cursor<ByteBuffer> cursor;
+	private byte[] nextStartSearchingAt;
+	private NavigableMap<PendingKey, PendingValue> pending;
+	private int flushes;
+
+	// The cursor is positioned on a record that has not been returned yet
+	private boolean cursorHasCandidate;
+	// The cursor is positioned on the record that was returned last, it has to move before it can be used again
+	private boolean cursorNeedsAdvance;
+	private Map.Entry<PendingKey, PendingValue> pendingCandidate;
+	private byte[] lastSeek;
+	private byte[] reusableSeekKey;
+	private LmdbRecord lastReturned;
+	// Every record this iterator returns is this instance, re-pointed
+	private final LmdbRecord reusableRecord = new LmdbRecord();
+
+	public LmdbRecordIterator(LmdbKeyValueStore keyValueStore, LmdbTable table, LmdbTransaction transaction, long cursorId, byte[] mustStartWith, byte[] startSearchingAt) {
+		this.keyValueStore = keyValueStore;
+		this.table = table;
+		this.transaction = transaction;
+		this.cursorId = cursorId;
+		this.mustStartWith = mustStartWith == null ? EMPTY : mustStartWith;
+		this.nextStartSearchingAt = startSearchingAt == null ? EMPTY : startSearchingAt;
+		this.txn = keyValueStore.getEnv().txnRead();
+		this.cursor = table.getDbi().openCursor(txn);
+		if (transaction != null) {
+			this.flushes = transaction.getFlushes();
+			this.pending = getPendingEntries();
+		}
+	}
+
+	public long getCursorId() {
+		return cursorId;
+	}
+
+	private NavigableMap<PendingKey, PendingValue> getPendingEntries() {
+		PendingTable pendingTable = transaction.getPendingTable(table.getName());
+		return pendingTable == null ? null : pendingTable.getEntries();
+	}
+
+	private void seek(byte[] startSearchingAt) {
+		lastSeek = startSearchingAt;
+		lastReturned = null;
+		cursorNeedsAdvance = false;
+		if (startSearchingAt.length == 0) {
+			cursorHasCandidate = cursor.first();
+		} else {
+			cursorHasCandidate = cursor.get(keyValueStore.toKeyBuffer(keyValueStore.toSeekKey(startSearchingAt)), GetOp.MDB_SET_RANGE);
+		}
+		pendingCandidate = pending == null ? null : pending.ceilingEntry(new PendingKey(startSearchingAt, null));
+	}
+
+	/**
+	 * Pending writes to non-transactional tables can be flushed to LMDB while iterating, in that case our snapshot does not contain them anymore, so we renew it and continue after the last returned record
+	 */
+	private void checkFlushed() {
+		if (transaction == null || table.isTransactional() || transaction.getFlushes() == flushes) {
+			return;
+		}
+		flushes = transaction.getFlushes();
+		PendingKey position = null;
+		if (lastReturned != null) {
+			position = new PendingKey(lastReturned.getKey(), table.hasDuplicates() ? lastReturned.getValue() : null);
+		}
+		byte[] seek = lastSeek;
+		txn.reset();
+		txn.renew();
+		cursor.renew(txn);
+		pending = getPendingEntries();
+		if (position != null) {
+			seek(position.getKey());
+			lastReturned = null;
+			while (cursorHasCandidate && compareCursorTo(position) <= 0) {
+				cursorHasCandidate = cursor.next();
+			}
+			while (pendingCandidate != null && pendingCandidate.getKey().compareTo(position) <= 0) {
+				pendingCandidate = pending.higherEntry(pendingCandidate.getKey());
+			}
+		} else if (seek != null) {
+			seek(seek);
+		}
+	}
+
+	private int compareCursorTo(PendingKey pendingKey) {
+		int compare = compare(cursor.key(), pendingKey.getKey());
+		if (compare != 0 || !table.hasDuplicates()) {
+			return compare;
+		}
+		if (pendingKey.getDuplicate() == null) {
+			return 1;
+		}
+		return compare(cursor.val(), pendingKey.getDuplicate());
+	}
+
+	static int compare(ByteBuffer buffer, byte[] bytes) {
+		int length = buffer.remaining();
+		int position = buffer.position();
+		int min = Math.min(length, bytes.length);
+		for (int i = 0; i < min; i++) {
+			int compare = (buffer.get(position + i) & 0xFF) - (bytes[i] & 0xFF);
+			if (compare != 0) {
+				return compare;
+			}
+		}
+		return length - bytes.length;
+	}
+
+	private boolean startsWith(ByteBuffer buffer) {
+		if (buffer.remaining() < mustStartWith.length) {
+			return false;
+		}
+		int position = buffer.position();
+		for (int i = 0; i < mustStartWith.length; i++) {
+			if (buffer.get(position + i) != mustStartWith[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private LmdbRecord nextMerged() {
+		if (cursorNeedsAdvance) {
+			cursorHasCandidate = cursor.next();
+			cursorNeedsAdvance = false;
+		}
+		while (true) {
+			if (pendingCandidate == null) {
+				if (!cursorHasCandidate) {
+					return null;
+				}
+				cursorNeedsAdvance = true;
+				return reusableRecord.set(cursor.key(), cursor.val());
+			}
+			int compare = cursorHasCandidate ? compareCursorTo(pendingCandidate.getKey()) : 1;
+			if (compare < 0) {
+				cursorNeedsAdvance = true;
+				return reusableRecord.set(cursor.key(), cursor.val());
+			}
+			Map.Entry<PendingKey, PendingValue> current = pendingCandidate;
+			pendingCandidate = pending.higherEntry(current.getKey());
+			if (compare == 0) {
+				// The pending write replaces (or deletes) the stored record
+				cursorHasCandidate = cursor.next();
+			}
+			if (!current.getValue().isDeleted()) {
+				return toRecord(current);
+			}
+		}
+	}
+
+	private LmdbRecord toRecord(Map.Entry<PendingKey, PendingValue> entry) {
+		if (table.hasDuplicates()) {
+			return reusableRecord.set(entry.getKey().getKey(), entry.getKey().getDuplicate());
+		}
+		return reusableRecord.set(entry.getKey().getKey(), entry.getValue().getValue());
+	}
+
+	private Record nextWithPrefix() {
+		if (transaction != null) {
+			transaction.lockShared();
+		}
+		try {
+			checkFlushed();
+			LmdbRecord record = nextMerged();
+			if (record == null || !startsWith(record.getKeyBuffer())) {
+				lastReturned = null;
+				return null;
+			}
+			lastReturned = record;
+			return record;
+		} catch (LmdbException e) {
+			LOGGER.error("", e);
+		} finally {
+			if (transaction != null) {
+				transaction.unlockShared();
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public Record next() throws BimserverLockConflictException {
+		if (nextStartSearchingAt != null) {
+			seek(nextStartSearchingAt);
+			nextStartSearchingAt = null;
+		}
+		return nextWithPrefix();
+	}
+
+	@Override
+	public Record next(byte[] startSearchingAt) throws BimserverLockConflictException {
+		nextStartSearchingAt = null;
+		seek(startSearchingAt);
+		return nextWithPrefix();
+	}
+
+	@Override
+	public Record next(ByteBuffer startSearchingAt) throws BimserverLockConflictException {
+		// Seek keys are small and of fixed length per caller, so one array per iterator suffices (the previous seek key is not needed anymore once we seek again)
+		if (reusableSeekKey == null || reusableSeekKey.length != startSearchingAt.limit()) {
+			reusableSeekKey = new byte[startSearchingAt.limit()];
+		}
+		ByteBuffer source = startSearchingAt.duplicate();
+		source.position(0);
+		source.get(reusableSeekKey);
+		return next(reusableSeekKey);
+	}
+
+	@Override
+	public Record last() throws BimserverLockConflictException {
+		if (nextStartSearchingAt != null && nextStartSearchingAt.length > 0) {
+			return next();
+		}
+		if (transaction != null) {
+			transaction.lockShared();
+		}
+		try {
+			checkFlushed();
+			boolean cursorHasLast = cursor.last();
+			while (cursorHasLast && isDeleted()) {
+				cursorHasLast = cursor.prev();
+			}
+			Map.Entry<PendingKey, PendingValue> pendingLast = pending == null ? null : pending.lastEntry();
+			while (pendingLast != null && pendingLast.getValue().isDeleted()) {
+				pendingLast = pending.lowerEntry(pendingLast.getKey());
+			}
+			LmdbRecord record = null;
+			if (cursorHasLast && (pendingLast == null || compareCursorTo(pendingLast.getKey()) > 0)) {
+				record = reusableRecord.set(cursor.key(), cursor.val());
+			} else if (pendingLast != null) {
+				record = toRecord(pendingLast);
+			}
+			if (record == null || !startsWith(record.getKeyBuffer())) {
+				return null;
+			}
+			return record;
+		} catch (LmdbException e) {
+			LOGGER.error("", e);
+		} finally {
+			if (transaction != null) {
+				transaction.unlockShared();
+			}
+		}
+		return null;
+	}
+
+	private boolean isDeleted() {
+		if (pending == null) {
+			return false;
+		}
+		PendingValue pendingValue = pending.get(new PendingKey(LmdbRecord.copy(cursor.key()), table.hasDuplicates() ? LmdbRecord.copy(cursor.val()) : null));
+		return pendingValue != null && pendingValue.isDeleted();
+	}
+
+	@Override
+	public void close() {
+		try {
+			cursor.close();
+			txn.close();
+			keyValueStore.removeOpenCursor(cursorId);
+		} catch (LmdbException e) {
+			LOGGER.error("", e);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package org.bimserver.database.lmdb;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+
+import org.lmdbjava.Dbi;
+
+public class LmdbTable {
+	private final String name;
+	private final Dbi<ByteBuffer> dbi;
+	private final boolean transactional;
+	private final boolean duplicates;
+
+	public LmdbTable(String name, Dbi<ByteBuffer> dbi, boolean transactional, boolean duplicates) {
+		this.name = name;
+		this.dbi = dbi;
+		this.transactional = transactional;
+		this.duplicates = duplicates;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Dbi<ByteBuffer> getDbi() {
+		return dbi;
+	}
+
+	/**
+	 * Non-transactional tables behave like the deferred-write tables of the Berkeley implementation, writes are flushed before the DatabaseSession commits and are not rolled back
+	 */
+	public boolean isTransactional() {
+		return transactional;
+	}
+
+	public boolean hasDuplicates() {
+		return duplicates;
+	}
+}
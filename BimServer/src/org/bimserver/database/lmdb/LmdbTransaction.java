@@ -0,0 +1,241 @@
+package org.bimserver.database.lmdb;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.BimTransaction;
+import org.bimserver.database.BimserverLockConflictException;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LMDB only allows one write transaction at a time, and a write transaction is bound to the thread that started it. DatabaseSessions are long-lived and are used by multiple threads (geometry generation for example), so
+ * instead of keeping an LMDB write transaction open for the lifetime of the session, all writes are kept in PendingTables and written in one short LMDB write transaction on commit.
+ * 
+ * Writes to non-transactional tables (the IFC tables) are flushed in between when they grow too large, which is the same behaviour as the deferred-write tables of the Berkeley implementation.
+ * 
+ * Reads use a read-only LMDB transaction per thread.
+ */
+public class LmdbTransaction implements BimTransaction {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LmdbTransaction.class);
+	private static final AtomicLong TRANSACTION_COUNTER = new AtomicLong();
+	private static final long MAX_PENDING_NON_TRANSACTIONAL_BYTES = 32 * 1024 * 1024;
+	private final LmdbKeyValueStore keyValueStore;
+	private final long id = TRANSACTION_COUNTER.incrementAndGet();
+	private final long startGeneration;
+	private final Map<String, PendingTable> pendingTables = new ConcurrentHashMap<>();
+	private final Map<Thread, ReadTransaction> readTransactions = new ConcurrentHashMap<>();
+	private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+	private final AtomicLong pendingNonTransactionalBytes = new AtomicLong();
+	private volatile int flushes;
+	private boolean transactionAlive = true;
+	private long updates;
+	private String name;
+
+	private static class ReadTransaction {
+		private final Txn<ByteBuffer> txn;
+		private long generation;
+
+		public ReadTransaction(Txn<ByteBuffer> txn, long generation) {
+			this.txn = txn;
+			this.generation = generation;
+		}
+	}
+
+	public LmdbTransaction(LmdbKeyValueStore keyValueStore, long startGeneration) {
+		this.keyValueStore = keyValueStore;
+		this.startGeneration = startGeneration;
+	}
+
+	/**
+	 * @return The generation of the store when this transaction started, commits after that generation can conflict with this transaction
+	 */
+	long getStartGeneration() {
+		return startGeneration;
+	}
+
+	/**
+	 * @return A read-only transaction for the current thread, renewed when something has been committed since it was last used
+	 */
+	Txn<ByteBuffer> getReadTxn() {
+		Thread thread = Thread.currentThread();
+		ReadTransaction readTransaction = readTransactions.get(thread);
+		long generation = keyValueStore.getGeneration();
+		if (readTransaction == null) {
+			readTransaction = new ReadTransaction(keyValueStore.getEnv().txnRead(), generation);
+			readTransactions.put(thread, readTransaction);
+		} else if (readTransaction.generation != generation) {
+			readTransaction.txn.reset();
+			readTransaction.txn.renew();
+			readTransaction.generation = generation;
+		}
+		return readTransaction.txn;
+	}
+
+	PendingTable getPendingTable(String tableName) {
+		return pendingTables.get(tableName);
+	}
+
+	void lockShared() {
+		flushLock.readLock().lock();
+	}
+
+	void unlockShared() {
+		flushLock.readLock().unlock();
+	}
+
+	int getFlushes() {
+		return flushes;
+	}
+
+	void put(LmdbTable table, byte[] key, byte[] value, boolean overwrite) throws BimserverDatabaseException {
+		lockShared();
+		try {
+			pendingTables.computeIfAbsent(table.getName(), k -> new PendingTable(table)).put(key, value, overwrite);
+		} finally {
+			unlockShared();
+		}
+		written(table, key.length + value.length);
+	}
+
+	void delete(LmdbTable table, byte[] key) throws BimserverDatabaseException {
+		lockShared();
+		try {
+			pendingTables.computeIfAbsent(table.getName(), k -> new PendingTable(table)).delete(key);
+		} finally {
+			unlockShared();
+		}
+		written(table, key.length);
+	}
+
+	void delete(LmdbTable table, byte[] key, byte[] duplicate) throws BimserverDatabaseException {
+		lockShared();
+		try {
+			pendingTables.computeIfAbsent(table.getName(), k -> new PendingTable(table)).delete(key, duplicate);
+		} finally {
+			unlockShared();
+		}
+		written(table, key.length + duplicate.length);
+	}
+
+	private void written(LmdbTable table, long bytes) throws BimserverDatabaseException {
+		if (!table.isTransactional() && pendingNonTransactionalBytes.addAndGet(bytes) > MAX_PENDING_NON_TRANSACTIONAL_BYTES) {
+			flushNonTransactional();
+		}
+	}
+
+	private void flushNonTransactional() throws BimserverDatabaseException {
+		flushLock.writeLock().lock();
+		try {
+			if (pendingNonTransactionalBytes.get() <= MAX_PENDING_NON_TRANSACTIONAL_BYTES) {
+				// Another thread already flushed
+				return;
+			}
+			List<PendingTable> toFlush = new ArrayList<>();
+			for (PendingTable pendingTable : pendingTables.values()) {
+				if (!pendingTable.getTable().isTransactional()) {
+					toFlush.add(pendingTable);
+				}
+			}
+			keyValueStore.write(toFlush);
+			for (PendingTable pendingTable : toFlush) {
+				pendingTables.remove(pendingTable.getTable().getName());
+			}
+			pendingNonTransactionalBytes.set(0);
+			flushes++;
+		} finally {
+			flushLock.writeLock().unlock();
+		}
+	}
+
+	public void incUpdates(long updates) {
+		this.updates += updates;
+	}
+
+	@Override
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void close() {
+		if (transactionAlive) {
+			rollback();
+		}
+	}
+
+	@Override
+	public void rollback() {
+		// Flushed non-transactional writes stay, just like with Berkeley's deferred-write tables, the stale records are cleaned up by the checkin code
+		pendingTables.clear();
+		closeReadTransactions();
+		transactionAlive = false;
+		keyValueStore.transactionFinished(this);
+	}
+
+	@Override
+	public void commit() throws BimserverLockConflictException, BimserverDatabaseException {
+		flushLock.writeLock().lock();
+		try {
+			keyValueStore.commit(this, pendingTables.values());
+			pendingTables.clear();
+			transactionAlive = false;
+		} finally {
+			flushLock.writeLock().unlock();
+		}
+		closeReadTransactions();
+		keyValueStore.transactionFinished(this);
+	}
+
+	private void closeReadTransactions() {
+		for (ReadTransaction readTransaction : readTransactions.values()) {
+			try {
+				readTransaction.txn.close();
+			} catch (LmdbException e) {
+				LOGGER.error("", e);
+			}
+		}
+		readTransactions.clear();
+	}
+
+	@Override
+	public long getId() {
+		return id;
+	}
+
+	@Override
+	public long updates() {
+		return updates;
+	}
+}
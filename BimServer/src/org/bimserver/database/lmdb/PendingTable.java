@@ -0,0 +1,149 @@
+package org.bimserver.database.lmdb;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.google.common.primitives.UnsignedBytes;
+
+/**
+ * Writes of one LmdbTransaction to one table that have not been written to LMDB yet. Entries are kept in the same order LMDB uses (unsigned bytes, duplicates sorted by value) so they can be merged with cursors and written sequentially.
+ */
+public class PendingTable {
+	static final Comparator<byte[]> COMPARATOR = UnsignedBytes.lexicographicalComparator();
+	static final PendingValue DELETED = new PendingValue(null, true, true);
+
+	private final LmdbTable table;
+	private final ConcurrentSkipListMap<PendingKey, PendingValue> entries = new ConcurrentSkipListMap<>();
+
+	public static class PendingKey implements Comparable<PendingKey> {
+		private final byte[] key;
+		private final byte[] duplicate;
+
+		/**
+		 * @param duplicate The value for tables with sorted duplicates, null otherwise (or when used as a search key, null sorts before all duplicates of a key)
+		 */
+		public PendingKey(byte[] key, byte[] duplicate) {
+			this.key = key;
+			this.duplicate = duplicate;
+		}
+
+		public byte[] getKey() {
+			return key;
+		}
+
+		public byte[] getDuplicate() {
+			return duplicate;
+		}
+
+		@Override
+		public int compareTo(PendingKey o) {
+			int compare = COMPARATOR.compare(key, o.key);
+			if (compare != 0) {
+				return compare;
+			}
+			if (duplicate == null) {
+				return o.duplicate == null ? 0 : -1;
+			}
+			if (o.duplicate == null) {
+				return 1;
+			}
+			return COMPARATOR.compare(duplicate, o.duplicate);
+		}
+	}
+
+	public static class PendingValue {
+		private final byte[] value;
+		private final boolean overwrite;
+		private final boolean deleted;
+
+		public PendingValue(byte[] value, boolean overwrite, boolean deleted) {
+			this.value = value;
+			this.overwrite = overwrite;
+			this.deleted = deleted;
+		}
+
+		public byte[] getValue() {
+			return value;
+		}
+
+		public boolean isOverwrite() {
+			return overwrite;
+		}
+
+		public boolean isDeleted() {
+			return deleted;
+		}
+	}
+
+	public PendingTable(LmdbTable table) {
+		this.table = table;
+	}
+
+	public LmdbTable getTable() {
+		return table;
+	}
+
+	public void put(byte[] key, byte[] value, boolean overwrite) {
+		if (table.hasDuplicates()) {
+			entries.put(new PendingKey(key, value), new PendingValue(null, true, false));
+		} else {
+			entries.put(new PendingKey(key, null), new PendingValue(value, overwrite, false));
+		}
+	}
+
+	public void delete(byte[] key) {
+		entries.put(new PendingKey(key, null), DELETED);
+	}
+
+	public void delete(byte[] key, byte[] duplicate) {
+		entries.put(new PendingKey(key, duplicate), DELETED);
+	}
+
+	/**
+	 * @return null when there is no pending write for this key (tables without duplicates only)
+	 */
+	public PendingValue get(byte[] key) {
+		return entries.get(new PendingKey(key, null));
+	}
+
+	/**
+	 * @return All pending entries (including deletes) for the given key, only useful for tables with duplicates
+	 */
+	public NavigableMap<PendingKey, PendingValue> getDuplicates(byte[] key) {
+		NavigableMap<PendingKey, PendingValue> result = new ConcurrentSkipListMap<>();
+		for (Map.Entry<PendingKey, PendingValue> entry : entries.tailMap(new PendingKey(key, null), true).entrySet()) {
+			if (COMPARATOR.compare(entry.getKey().getKey(), key) != 0) {
+				break;
+			}
+			result.put(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	public NavigableMap<PendingKey, PendingValue> getEntries() {
+		return entries;
+	}
+
+	public boolean isEmpty() {
+		return entries.isEmpty();
+	}
+}
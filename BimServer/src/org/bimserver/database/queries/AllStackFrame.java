@@ -28,6 +28,9 @@ public class AllStackFrame extends DatabaseReadingStackFrame {
 	boolean process() throws BimserverDatabaseException, QueryException, JsonParseException, JsonMappingException, IOException {
 		if (typeIterator.hasNext()) {
 			EClass eClass = typeIterator.next();
+			if (!getQueryObjectProvider().claim(getReusable().getCroid(), getQueryObjectProvider().getQuery(), eClass)) {
+				return !typeIterator.hasNext();
+			}
 			getQueryObjectProvider().push(new QueryTypeStackFrame(getQueryObjectProvider(), eClass, getReusable(), null));
 		}
 		return !typeIterator.hasNext();
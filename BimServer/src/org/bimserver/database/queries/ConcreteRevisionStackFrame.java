@@ -62,6 +62,7 @@ public class ConcreteRevisionStackFrame extends StackFrame {
 				}
 			}
 		}
+		queryObjectProvider.addQueryContext(queryContext);
 	}
 	
 	public static void clearCache(long croid) {
@@ -27,6 +27,7 @@ import java.util.UUID;
 
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.database.DatabaseSession.GetResult;
+import org.bimserver.database.GeometryLod;
 import org.bimserver.database.Record;
 import org.bimserver.database.SearchingRecordIterator;
 import org.bimserver.database.queries.om.CanInclude;
@@ -35,10 +36,15 @@ import org.bimserver.database.queries.om.Include.TypeDef;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
 import org.bimserver.database.queries.om.Reference;
+import org.bimserver.database.queries.om.Tiles;
 import org.bimserver.emf.PackageMetaData;
+import org.bimserver.geometry.GeometryDataEncoding;
+import org.bimserver.geometry.accellerator.Octree;
+import org.bimserver.models.geometry.GeometryPackage;
 import org.bimserver.shared.HashMapVirtualObject;
 import org.bimserver.shared.HashMapWrappedVirtualObject;
 import org.bimserver.shared.QueryContext;
+import org.bimserver.shared.ReferenceList;
 import org.bimserver.shared.WrappedVirtualObject;
 import org.bimserver.utils.BinUtils;
 import org.eclipse.emf.ecore.EAttribute;
@@ -88,6 +94,16 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 		return queryPart;
 	}
 	
+	/**
+	 * For frames that get their oids from an index instead of from the tables of the revision itself, objects of other revisions are filtered out with the oid counters
+	 */
+	protected boolean isInRevision(EClass eClass, long oid) {
+		if (reusable.getOidCounters() == null) {
+			return true;
+		}
+		return reusable.getOidCounters().containsKey(eClass) && oid > reusable.getOidCounters().get(eClass);
+	}
+	
 	protected void processPossibleIncludes(HashMapVirtualObject object, EClass previousType, CanInclude canInclude) throws QueryException, BimserverDatabaseException {
 		if (object != null && canInclude != null) {
 			if (canInclude.hasReferences()) {
@@ -134,12 +150,20 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 			for (EReference eReference : include.getFieldsDirect()) {
 				Object ref = object.get(eReference.getName());
 				if (ref != null) {
+					// Direct references are only set by this query, they would be lost when the object is evicted from the cache and read again
+					getQueryObjectProvider().pin(object);
 					if (ref instanceof List) {
-						for (Long r : (List<Long>)ref) {
+						List<?> list = (List<?>)ref;
+						for (int i = 0; i < list.size(); i++) {
+							long r = ReferenceList.getLong(list, i);
+							if (r == -1) {
+								continue;
+							}
 							HashMapVirtualObject byOid = getByOid(r, true);
 							int index = object.addDirectListReference(eReference, byOid);
 							object.addUseForSerialization(eReference, index);
 							processPossibleIncludes(byOid, byOid.eClass(), include);
+							getQueryObjectProvider().embedded(byOid);
 						}
 					} else {
 						if (ref instanceof Long) {
@@ -150,6 +174,7 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 							object.setDirectReference(eReference, byOid);
 							object.addUseForSerialization(eReference);
 							processPossibleIncludes(byOid, byOid.eClass(), include);
+							getQueryObjectProvider().embedded(byOid);
 						} else {
 							object.setDirectReference(eReference, (HashMapWrappedVirtualObject)ref);
 						}
@@ -161,6 +186,7 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 			for (EStructuralFeature eStructuralFeature : include.getFields()) {
 				object.addUseForSerialization(eStructuralFeature);
 			}
+			getQueryObjectProvider().pin(object);
 		}
 
 		getQueryObjectProvider().push(new QueryIncludeStackFrame(getQueryObjectProvider(), getReusable(), previousInclude, include, object, queryPart));
@@ -288,6 +314,12 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 					throw new BimserverDatabaseException("Reading " + eClass.getName() + "." + feature.getName(), e);
 				}
 			}
+			if (requestsLod(eClass)) {
+				applyLod(idEObject);
+			}
+			if (eClass == GeometryPackage.eINSTANCE.getBuffer() && !queryObjectProvider.getQuery().isEncodedGeometry()) {
+				decode(idEObject);
+			}
 			return idEObject;
 		} catch (BufferUnderflowException e) {
 			throw new BimserverDatabaseException("Reading " + eClass.getName(), e);
@@ -483,16 +515,59 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 		return null;
 	}
 	
+	/**
+	 * @return The level of detail the tiles of the query part ask for, 0 for the full resolution
+	 */
+	private int getRequestedLod() {
+		if (queryPart == null || !queryPart.hasTiles()) {
+			return 0;
+		}
+		Tiles tiles = queryPart.getTiles();
+		if (tiles.getLods().isEmpty() || tiles.getTileIds().isEmpty()) {
+			return 0;
+		}
+		// The tiling implementation supports one tile id per query part
+		int level = Octree.getLevelOfId(tiles.getTileIds().iterator().next());
+		return tiles.getLods().get(Math.min(level, tiles.getLods().size() - 1));
+	}
+
+	private boolean requestsLod(EClass eClass) {
+		return eClass == GeometryPackage.eINSTANCE.getGeometryData() && getRequestedLod() > 0;
+	}
+
+	private void applyLod(HashMapVirtualObject geometryData) throws BimserverDatabaseException {
+		GeometryLod geometryLod = queryObjectProvider.getBimServer().getDatabase().getGeometryLodStore().read(reusable.getPid(), geometryData.getOid(), reusable.getRid(), getRequestedLod(), queryObjectProvider.getDatabaseSession());
+		if (geometryLod != null) {
+			geometryLod.apply(geometryData);
+			queryObjectProvider.addLodObject(geometryData);
+		}
+	}
+
+	/**
+	 * Replaces encoded data of the given Buffer by the data in its original layout, the encoding is reset so the object stays consistent
+	 */
+	private void decode(HashMapVirtualObject buffer) {
+		Object encoding = buffer.eGet(GeometryPackage.eINSTANCE.getBuffer_Encoding());
+		if (encoding == null || (Integer) encoding == GeometryDataEncoding.NONE) {
+			return;
+		}
+		byte[] data = (byte[]) buffer.eGet(GeometryPackage.eINSTANCE.getBuffer_Data());
+		buffer.setAttribute(GeometryPackage.eINSTANCE.getBuffer_Data(), GeometryDataEncoding.decode((Integer) encoding, data));
+		buffer.setAttribute(GeometryPackage.eINSTANCE.getBuffer_Encoding(), GeometryDataEncoding.NONE);
+	}
+
 	public HashMapVirtualObject getByOid(long oid) throws BimserverDatabaseException {
 		return getByOid(oid, false);
 	}
 	
 	public HashMapVirtualObject getByOid(long oid, boolean useCache) throws BimserverDatabaseException {
-		HashMapVirtualObject byOid = getQueryObjectProvider().getFromCache((long)oid);
+		EClass eClass = getQueryObjectProvider().getDatabaseSession().getEClassForOid(oid);
+		// A level of detail only applies to this query part, so these objects are not shared through the cache
+		boolean lod = requestsLod(eClass);
+		HashMapVirtualObject byOid = lod ? null : getQueryObjectProvider().getFromCache((long)oid);
 		if (byOid != null) {
 			return byOid;
 		}
-		EClass eClass = getQueryObjectProvider().getDatabaseSession().getEClassForOid(oid);
 		ByteBuffer mustStartWith = ByteBuffer.wrap(new byte[12]);
 		mustStartWith.putInt(reusable.getPid());
 		mustStartWith.putLong(oid);
@@ -509,8 +584,8 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 				return null;
 			}
 			getQueryObjectProvider().incReads();
-			ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
-			ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+			ByteBuffer keyBuffer = record.getKeyBuffer();
+			ByteBuffer valueBuffer = record.getValueBuffer();
 			keyBuffer.getInt(); // pid
 			long keyOid = keyBuffer.getLong();
 			int keyRid = -keyBuffer.getInt();
@@ -521,7 +596,7 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 					// deleted entity
 				} else {
 					byOid = convertByteArrayToObject(eClass, keyOid, valueBuffer, keyRid);
-					if (byOid != null && useCache) {
+					if (byOid != null && useCache && !lod) {
 						getQueryObjectProvider().cache(byOid);
 					}
 					return byOid;
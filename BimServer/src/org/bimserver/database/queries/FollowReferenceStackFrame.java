@@ -77,8 +77,8 @@ public class FollowReferenceStackFrame extends DatabaseReadingStackFrame impleme
 				return true;
 			}
 			getQueryObjectProvider().incReads();
-			ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
-			ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+			ByteBuffer keyBuffer = record.getKeyBuffer();
+			ByteBuffer valueBuffer = record.getValueBuffer();
 			keyBuffer.getInt(); // pid
 			long keyOid = keyBuffer.getLong();
 			int keyRid = -keyBuffer.getInt();
@@ -101,6 +101,7 @@ public class FollowReferenceStackFrame extends DatabaseReadingStackFrame impleme
 							} else {
 								currentObject.addUseForSerialization(opposite);
 							}
+							getQueryObjectProvider().pin(currentObject);
 						}
 					}
 					
@@ -0,0 +1,301 @@
+package org.bimserver.database.queries;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bimserver.BimServer;
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.queries.om.Include;
+import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.database.queries.om.Reference;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.plugins.serializers.ObjectProvider;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.eclipse.emf.ecore.EClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Runs a query on multiple threads. Every worker is a {@link QueryObjectProvider} with its own (read only) DatabaseSession, so its own cursors, that walks the same stack frames. Before a type of a query part is scanned the
+ * worker claims it, so every type is scanned by exactly one worker and workers that finish early continue with the types nobody claimed yet. Objects found by includes are de-duplicated with a set that is shared by all
+ * workers, so like the sequential provider an object is returned only once.
+ * 
+ * Results are handed to the consumer through a bounded queue, the order in which objects are returned is not defined.
+ */
+public class ParallelQueryObjectProvider implements ObjectProvider {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParallelQueryObjectProvider.class);
+	private static final int QUEUE_SIZE = 10000;
+	private final DatabaseSession databaseSession;
+	private final BimServer bimServer;
+	private final Query query;
+	private final Set<Long> roids;
+	private final PackageMetaData packageMetaData;
+	private final ExecutorService pool;
+	private final int nrWorkers;
+	private final Set<Long> oidsRead = ConcurrentHashMap.newKeySet();
+	private final Set<ScanClaim> claims = ConcurrentHashMap.newKeySet();
+	private final BlockingQueue<HashMapVirtualObject> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private final AtomicInteger runningWorkers = new AtomicInteger();
+	private final AtomicReference<Exception> error = new AtomicReference<>();
+	private volatile boolean cancelled;
+	private boolean started;
+
+	/**
+	 * @param databaseSession Only used for the object cache and class lookups, the workers create their own sessions
+	 * @param pool Executor for the workers, they block while the consumer is not reading so this should not be a ForkJoinPool
+	 */
+	public ParallelQueryObjectProvider(DatabaseSession databaseSession, BimServer bimServer, Query query, Set<Long> roids, PackageMetaData packageMetaData, ExecutorService pool, int nrWorkers) {
+		this.databaseSession = databaseSession;
+		this.bimServer = bimServer;
+		this.query = query;
+		this.roids = roids;
+		this.packageMetaData = packageMetaData;
+		this.pool = pool;
+		this.nrWorkers = nrWorkers;
+	}
+
+	/**
+	 * Queries with tiles are answered from the octree by a single frame, and includes with direct fields embed objects in the object that refers to them, which depends on the order in which objects are read. Those queries
+	 * should use the sequential {@link QueryObjectProvider}.
+	 */
+	public static boolean supports(Query query) {
+		Set<Include> done = Collections.newSetFromMap(new IdentityHashMap<Include, Boolean>());
+		for (QueryPart queryPart : query.getQueryParts()) {
+			if (queryPart.hasTiles()) {
+				return false;
+			}
+			if (queryPart.hasIncludes()) {
+				for (Include include : queryPart.getIncludes()) {
+					if (hasDirectFields(include, done)) {
+						return false;
+					}
+				}
+			}
+			if (queryPart.hasReferences()) {
+				for (Reference reference : queryPart.getReferences()) {
+					if (hasDirectFields(reference.getInclude(), done)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean hasDirectFields(Include include, Set<Include> done) {
+		if (!done.add(include)) {
+			return false;
+		}
+		if (include.hasDirectFields()) {
+			return true;
+		}
+		if (include.hasIncludes()) {
+			for (Include child : include.getIncludes()) {
+				if (hasDirectFields(child, done)) {
+					return true;
+				}
+			}
+		}
+		if (include.hasReferences()) {
+			for (Reference reference : include.getReferences()) {
+				if (hasDirectFields(reference.getInclude(), done)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public HashMapVirtualObject next() throws BimserverDatabaseException {
+		if (!started) {
+			started = true;
+			runningWorkers.set(nrWorkers);
+			for (int i = 0; i < nrWorkers; i++) {
+				pool.execute(this::runWorker);
+			}
+		}
+		try {
+			while (true) {
+				HashMapVirtualObject next = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (next != null) {
+					return next;
+				}
+				throwError();
+				if (runningWorkers.get() == 0) {
+					// Workers offer their last object before they stop, so whatever is left is in the queue now
+					next = queue.poll();
+					if (next == null) {
+						throwError();
+					}
+					return next;
+				}
+			}
+		} catch (InterruptedException e) {
+			cancel();
+			throw new BimserverDatabaseException(e);
+		}
+	}
+
+	/**
+	 * Stops the workers, for consumers that stop reading before the query is done
+	 */
+	public void cancel() {
+		cancelled = true;
+		queue.clear();
+	}
+
+	private void throwError() throws BimserverDatabaseException {
+		Exception exception = error.get();
+		if (exception != null) {
+			if (exception instanceof BimserverDatabaseException) {
+				throw (BimserverDatabaseException) exception;
+			}
+			throw new BimserverDatabaseException(exception);
+		}
+	}
+
+	private void runWorker() {
+		try (DatabaseSession workerSession = bimServer.getDatabase().createSession(OperationType.READ_ONLY)) {
+			QueryObjectProvider worker = new QueryObjectProvider(workerSession, bimServer, query, roids, packageMetaData, this);
+			HashMapVirtualObject next = worker.next();
+			while (next != null && !cancelled) {
+				while (!queue.offer(next, 1, TimeUnit.SECONDS)) {
+					if (cancelled) {
+						return;
+					}
+				}
+				next = worker.next();
+			}
+		} catch (Exception e) {
+			if (error.compareAndSet(null, e)) {
+				LOGGER.error("", e);
+			}
+			cancelled = true;
+		} finally {
+			runningWorkers.decrementAndGet();
+		}
+	}
+
+	Set<Long> getOidsRead() {
+		return oidsRead;
+	}
+
+	boolean claim(long croid, Object part, EClass eClass) {
+		return claims.add(new ScanClaim(croid, part, eClass));
+	}
+
+	@Override
+	public ObjectProvider copy() throws IOException, QueryException {
+		return new ParallelQueryObjectProvider(databaseSession, bimServer, query, roids, packageMetaData, pool, nrWorkers);
+	}
+
+	@Override
+	public HashMapVirtualObject getByOid(long oid) {
+		return databaseSession.getFromCache(oid);
+	}
+
+	@Override
+	public EClass getEClassForOid(long oid) {
+		try {
+			return databaseSession.getEClassForOid(oid);
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+		}
+		return null;
+	}
+
+	@Override
+	public EClass getEClassForCid(short cid) {
+		try {
+			return databaseSession.getEClass(cid);
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+		}
+		return null;
+	}
+
+	@Override
+	public ObjectNode getQueryNode() {
+		if (query.getOriginalJson() != null) {
+			return query.getOriginalJson();
+		}
+		return new JsonQueryObjectModelConverter(packageMetaData).toJson(query);
+	}
+
+	@Override
+	public void cache(HashMapVirtualObject object) {
+		databaseSession.cache(object);
+	}
+
+	void pin(HashMapVirtualObject object) {
+		databaseSession.cachePinned(object);
+	}
+
+	void unpin(HashMapVirtualObject object) {
+		databaseSession.unpin(object);
+	}
+
+	private static final class ScanClaim {
+		private final long croid;
+		private final Object part;
+		private final EClass eClass;
+
+		ScanClaim(long croid, Object part, EClass eClass) {
+			this.croid = croid;
+			this.part = part;
+			this.eClass = eClass;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = Long.hashCode(croid);
+			result = 31 * result + System.identityHashCode(part);
+			result = 31 * result + (eClass == null ? 0 : eClass.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ScanClaim)) {
+				return false;
+			}
+			ScanClaim other = (ScanClaim) obj;
+			// All workers share the same query, so parts can be compared by identity
+			return croid == other.croid && part == other.part && eClass == other.eClass;
+		}
+	}
+}
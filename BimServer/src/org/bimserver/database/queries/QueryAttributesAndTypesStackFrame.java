@@ -0,0 +1,101 @@
+package org.bimserver.database.queries;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.ConfiguredIndices;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.shared.QueryContext;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+/**
+ * Answers the "attributes" of a query part (for example Tag, ObjectType or PredefinedType) from the indices declared in the server settings. All given attributes have to match, for one attribute any of the given values can match.
+ */
+public class QueryAttributesAndTypesStackFrame extends StackFrame {
+
+	private EClass eClass;
+	private QueryObjectProvider queryObjectProvider;
+	private Set<Long> oids;
+	private QueryContext reusable;
+	private QueryPart jsonQuery;
+	private boolean converted;
+
+	public QueryAttributesAndTypesStackFrame(QueryObjectProvider queryObjectProvider, EClass eClass, QueryPart jsonQuery, QueryContext reusable, Map<String, Set<Object>> attributes) throws BimserverDatabaseException, QueryException {
+		this.queryObjectProvider = queryObjectProvider;
+		this.eClass = eClass;
+		this.jsonQuery = jsonQuery;
+		this.reusable = reusable;
+
+		ConfiguredIndices configuredIndices = queryObjectProvider.getBimServer().getDatabase().getConfiguredIndices();
+		for (String attributeName : attributes.keySet()) {
+			EStructuralFeature eStructuralFeature = eClass.getEStructuralFeature(attributeName);
+			if (eStructuralFeature == null) {
+				// Objects of this type can never match
+				oids = Collections.emptySet();
+				break;
+			}
+			if (!configuredIndices.isQueryable(eClass, eStructuralFeature)) {
+				if (configuredIndices.isConfigured(eClass, eStructuralFeature)) {
+					throw new BimserverDatabaseException("The index on " + eClass.getName() + "." + attributeName + " is still being built, try again later");
+				}
+				throw new BimserverDatabaseException("Attribute queries need an index, add \"" + eStructuralFeature.getEContainingClass().getName() + "." + attributeName + "\" to the indexed features in the server settings");
+			}
+			Set<Long> oidsOfAttribute = new HashSet<>();
+			for (Object value : attributes.get(attributeName)) {
+				byte[] valueBytes = ConfiguredIndices.getIndexBytes(eStructuralFeature, value);
+				if (valueBytes == null) {
+					throw new QueryException("\"" + value + "\" is not a valid value for " + eClass.getName() + "." + attributeName);
+				}
+				oidsOfAttribute.addAll(configuredIndices.query(eClass, eStructuralFeature, valueBytes, reusable.getPid(), reusable.getRid(), reusable.getStopRid(), queryObjectProvider.getDatabaseSession()));
+			}
+			if (oids == null) {
+				oids = oidsOfAttribute;
+			} else {
+				oids.retainAll(oidsOfAttribute);
+			}
+			if (oids.isEmpty()) {
+				break;
+			}
+		}
+		if (oids == null || oids.isEmpty()) {
+			converted = true;
+		}
+	}
+
+	@Override
+	public boolean process() throws BimserverDatabaseException, QueryException {
+		if (converted) {
+			return true;
+		} else {
+			converted = true;
+			List<Long> sortedOids = new ArrayList<>(oids);
+			Collections.sort(sortedOids);
+			queryObjectProvider.push(new QueryOidsAndTypesStackFrame(queryObjectProvider, eClass, jsonQuery, reusable, sortedOids));
+			return false;
+		}
+	}
+}
@@ -36,6 +36,7 @@ public class QueryBoundingBoxStackFrame extends DatabaseReadingStackFrame implem
 	private EClass eClass;
 	private SearchingRecordIterator typeRecordIterator;
 	private Record record;
+	private final ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 	private InBoundingBox inBoundingBox;
 
 	public QueryBoundingBoxStackFrame(QueryObjectProvider queryObjectProvider, EClass eClass, QueryPart queryPart, QueryContext reusable, InBoundingBox inBoundingBox) throws BimserverDatabaseException {
@@ -74,19 +75,18 @@ public class QueryBoundingBoxStackFrame extends DatabaseReadingStackFrame implem
 
 		currentObject = null;
 		
-		ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 		getQueryObjectProvider().incReads();
-		ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+		ByteBuffer keyBuffer = record.getKeyBuffer();
 		int keyPid = keyBuffer.getInt();
 		long keyOid = keyBuffer.getLong();
 		int keyRid = -keyBuffer.getInt();
-		ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+		ByteBuffer valueBuffer = record.getValueBuffer();
 		GetResult map = getMap(eClass, eClass, valueBuffer, keyPid, keyOid, keyRid);
 		if (map == GetResult.CONTINUE_WITH_NEXT_OID) {
 			nextKeyStart.position(0);
 			nextKeyStart.putInt(getReusable().getPid());
 			nextKeyStart.putLong(keyOid + 1);
-			record = typeRecordIterator.next(nextKeyStart.array());
+			record = typeRecordIterator.next(nextKeyStart);
 		} else {
 			record = typeRecordIterator.next();
 		}
@@ -97,20 +97,12 @@ public class QueryBoundingBoxStackFrame extends DatabaseReadingStackFrame implem
 				HashMapVirtualObject geometryInfo = getByOid(geometryInfoId);
 				
 				// TODO the querying party should be able to force the units used
-				// TODO use some spatial indexing, this is getting slow now that it's actually used
+				// This full scan is only used for revisions without a spatial index, see QuerySpatialIndexStackFrame
 
 				boolean hasAny = !Double.isNaN(inBoundingBox.getX()) || !Double.isNaN(inBoundingBox.getY()) || !Double.isNaN(inBoundingBox.getZ()) || !Double.isNaN(inBoundingBox.getWidth()) || !Double.isNaN(inBoundingBox.getHeight()) || !Double.isNaN(inBoundingBox.getDepth());
 				
-				if (inBoundingBox.getDensityLowerThreshold() != null) {
-					float density = (float) geometryInfo.get("density");
-					if (density > inBoundingBox.getDensityLowerThreshold()) {
-						currentObject = null;
-						return false;
-					}
-				}
-				if (inBoundingBox.getDensityUpperThreshold() != null) {
-					float density = (float) geometryInfo.get("density");
-					if (density <= inBoundingBox.getDensityUpperThreshold()) {
+				if (inBoundingBox.getDensityLowerThreshold() != null || inBoundingBox.getDensityUpperThreshold() != null) {
+					if (!matchesDensity(inBoundingBox, (float) geometryInfo.get("density"))) {
 						currentObject = null;
 						return false;
 					}
@@ -126,7 +118,38 @@ public class QueryBoundingBoxStackFrame extends DatabaseReadingStackFrame implem
 					double maxY = (double) maxBounds.eGet("y");
 					double maxZ = (double) maxBounds.eGet("z");
 					
-					if (inBoundingBox.isPartial()) {
+					if (!matchesBounds(inBoundingBox, minX, minY, minZ, maxX, maxY, maxZ)) {
+						currentObject = null;
+					}
+				}
+			} else {
+				currentObject = null;
+			}
+		}
+		
+		processPossibleIncludes(currentObject, eClass, getQueryPart());
+		
+		return false;
+	}
+	
+	/**
+	 * Checks the density thresholds of the given query, used by both the scanning and the spatial index based frames
+	 */
+	static boolean matchesDensity(InBoundingBox inBoundingBox, float density) {
+		if (inBoundingBox.getDensityLowerThreshold() != null && density > inBoundingBox.getDensityLowerThreshold()) {
+			return false;
+		}
+		if (inBoundingBox.getDensityUpperThreshold() != null && density <= inBoundingBox.getDensityUpperThreshold()) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the given bounds (in mm) against the given query, used by both the scanning and the spatial index based frames
+	 */
+	static boolean matchesBounds(InBoundingBox inBoundingBox, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		if (inBoundingBox.isPartial()) {
 //						if ((maxX >= inBoundingBox.getX() && inBoundingBox.getX() + inBoundingBox.getWidth() >= minX) &&
 //							(maxY >= inBoundingBox.getY() && inBoundingBox.getY() + inBoundingBox.getHeight() >= minY) &&
 //							(maxZ >= inBoundingBox.getZ() && inBoundingBox.getZ() + inBoundingBox.getDepth() >= minZ)) {
@@ -134,85 +157,76 @@ public class QueryBoundingBoxStackFrame extends DatabaseReadingStackFrame implem
 //						} else {
 //							currentObject = null;
 //						}
-						if (minX >= inBoundingBox.getX() &&
-						minY >= inBoundingBox.getY() &&
-						minZ >= inBoundingBox.getZ() &&
-						maxX <= inBoundingBox.getX() + inBoundingBox.getWidth() &&
-						maxY <= inBoundingBox.getY() + inBoundingBox.getHeight() &&
-						maxZ <= inBoundingBox.getZ() + inBoundingBox.getDepth()) {
-							// OK
-						} else if (minX <= inBoundingBox.getX() &&
-								minY <= inBoundingBox.getY() &&
-								minZ <= inBoundingBox.getZ() &&
-								maxX >= inBoundingBox.getX() + inBoundingBox.getWidth() &&
-								maxY >= inBoundingBox.getY() + inBoundingBox.getHeight() &&
-								maxZ >= inBoundingBox.getZ() + inBoundingBox.getDepth()) {
-							// OK
-						} else {
-							if (
-								(minX <= inBoundingBox.getX() + inBoundingBox.getWidth() && maxX >= inBoundingBox.getX()) &&
-								(minY <= inBoundingBox.getY() + inBoundingBox.getHeight() && maxY >= inBoundingBox.getY()) &&
-								(minZ <= inBoundingBox.getZ() + inBoundingBox.getDepth() && maxZ >= inBoundingBox.getZ())) {
-								// OK
-							} else {
-								currentObject = null;
-							}
-						}
-					} else if (inBoundingBox.isUseCenterPoint()) {
-						double centerX = (minX + maxX) / 2f;
-						double centerY = (minY + maxY) / 2f;
-						double centerZ = (minZ + maxZ) / 2f;
-						if (
-								centerX > inBoundingBox.getX() &&
-								centerY > inBoundingBox.getY() &&
-								centerZ > inBoundingBox.getZ() &&
-								centerX <= inBoundingBox.getX() + inBoundingBox.getWidth() &&
-								centerY <= inBoundingBox.getY() + inBoundingBox.getHeight() &&
-								centerZ <= inBoundingBox.getZ() + inBoundingBox.getDepth()) {
-						} else {
-							currentObject = null;
-						}
-					} else {
-						if (
-							minX > inBoundingBox.getX() &&
-							minY > inBoundingBox.getY() &&
-							minZ > inBoundingBox.getZ() &&
-							maxX <= inBoundingBox.getX() + inBoundingBox.getWidth() &&
-							maxY <= inBoundingBox.getY() + inBoundingBox.getHeight() &&
-							maxZ <= inBoundingBox.getZ() + inBoundingBox.getDepth()) {
-							if (inBoundingBox.isExcludeOctants()) {
-								for (int x=0; x<2; x++) {
-									for (int y=0; y<2; y++) {
-										for (int z=0; z<2; z++) {
-											if (
-												minX > inBoundingBox.getX() + (x * inBoundingBox.getWidth() / 2) &&
-												minY > inBoundingBox.getY() + (y * inBoundingBox.getHeight() / 2) &&
-												minZ > inBoundingBox.getZ() + (z * inBoundingBox.getDepth() / 2) &&
-												maxX < inBoundingBox.getX() + ((x == 0 ? 0.5f : 1f) * inBoundingBox.getWidth()) &&
-												maxY < inBoundingBox.getY() + ((y == 0 ? 0.5f : 1f) * inBoundingBox.getHeight()) &&
-												maxZ < inBoundingBox.getZ() + ((z == 0 ? 0.5f : 1f) * inBoundingBox.getDepth())) {
-												currentObject = null;
-												break;
-											}
-										}
-									}
+			if (minX >= inBoundingBox.getX() &&
+			minY >= inBoundingBox.getY() &&
+			minZ >= inBoundingBox.getZ() &&
+			maxX <= inBoundingBox.getX() + inBoundingBox.getWidth() &&
+			maxY <= inBoundingBox.getY() + inBoundingBox.getHeight() &&
+			maxZ <= inBoundingBox.getZ() + inBoundingBox.getDepth()) {
+				// OK
+			} else if (minX <= inBoundingBox.getX() &&
+					minY <= inBoundingBox.getY() &&
+					minZ <= inBoundingBox.getZ() &&
+					maxX >= inBoundingBox.getX() + inBoundingBox.getWidth() &&
+					maxY >= inBoundingBox.getY() + inBoundingBox.getHeight() &&
+					maxZ >= inBoundingBox.getZ() + inBoundingBox.getDepth()) {
+				// OK
+			} else {
+				if (
+					(minX <= inBoundingBox.getX() + inBoundingBox.getWidth() && maxX >= inBoundingBox.getX()) &&
+					(minY <= inBoundingBox.getY() + inBoundingBox.getHeight() && maxY >= inBoundingBox.getY()) &&
+					(minZ <= inBoundingBox.getZ() + inBoundingBox.getDepth() && maxZ >= inBoundingBox.getZ())) {
+					// OK
+				} else {
+					return false;
+				}
+			}
+		} else if (inBoundingBox.isUseCenterPoint()) {
+			double centerX = (minX + maxX) / 2f;
+			double centerY = (minY + maxY) / 2f;
+			double centerZ = (minZ + maxZ) / 2f;
+			if (
+					centerX > inBoundingBox.getX() &&
+					centerY > inBoundingBox.getY() &&
+					centerZ > inBoundingBox.getZ() &&
+					centerX <= inBoundingBox.getX() + inBoundingBox.getWidth() &&
+					centerY <= inBoundingBox.getY() + inBoundingBox.getHeight() &&
+					centerZ <= inBoundingBox.getZ() + inBoundingBox.getDepth()) {
+			} else {
+				return false;
+			}
+		} else {
+			if (
+				minX > inBoundingBox.getX() &&
+				minY > inBoundingBox.getY() &&
+				minZ > inBoundingBox.getZ() &&
+				maxX <= inBoundingBox.getX() + inBoundingBox.getWidth() &&
+				maxY <= inBoundingBox.getY() + inBoundingBox.getHeight() &&
+				maxZ <= inBoundingBox.getZ() + inBoundingBox.getDepth()) {
+				if (inBoundingBox.isExcludeOctants()) {
+					for (int x=0; x<2; x++) {
+						for (int y=0; y<2; y++) {
+							for (int z=0; z<2; z++) {
+								if (
+									minX > inBoundingBox.getX() + (x * inBoundingBox.getWidth() / 2) &&
+									minY > inBoundingBox.getY() + (y * inBoundingBox.getHeight() / 2) &&
+									minZ > inBoundingBox.getZ() + (z * inBoundingBox.getDepth() / 2) &&
+									maxX < inBoundingBox.getX() + ((x == 0 ? 0.5f : 1f) * inBoundingBox.getWidth()) &&
+									maxY < inBoundingBox.getY() + ((y == 0 ? 0.5f : 1f) * inBoundingBox.getHeight()) &&
+									maxZ < inBoundingBox.getZ() + ((z == 0 ? 0.5f : 1f) * inBoundingBox.getDepth())) {
+									return false;
 								}
-							} else {
-								// OK
 							}
-						} else {
-							currentObject = null;
 						}
 					}
+				} else {
+					// OK
 				}
 			} else {
-				currentObject = null;
+				return false;
 			}
 		}
-		
-		processPossibleIncludes(currentObject, eClass, getQueryPart());
-		
-		return false;
+		return true;
 	}
 	
 	public HashMapVirtualObject getCurrentObject() {
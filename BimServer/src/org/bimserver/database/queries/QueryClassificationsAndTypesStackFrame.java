@@ -49,6 +49,7 @@ public class QueryClassificationsAndTypesStackFrame extends DatabaseReadingStack
 	private EClass eClass;
 	private SearchingRecordIterator typeRecordIterator;
 	private Record record;
+	private final ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 	private Set<Long> allowedOids = new HashSet<>();
 
 	@SuppressWarnings("unchecked")
@@ -168,19 +169,18 @@ public class QueryClassificationsAndTypesStackFrame extends DatabaseReadingStack
 
 		currentObject = null;
 
-		ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 		getQueryObjectProvider().incReads();
-		ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+		ByteBuffer keyBuffer = record.getKeyBuffer();
 		int keyPid = keyBuffer.getInt();
 		long keyOid = keyBuffer.getLong();
 		int keyRid = -keyBuffer.getInt();
-		ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+		ByteBuffer valueBuffer = record.getValueBuffer();
 		GetResult map = getMap(eClass, eClass, valueBuffer, keyPid, keyOid, keyRid);
 		if (map == GetResult.CONTINUE_WITH_NEXT_OID) {
 			nextKeyStart.position(0);
 			nextKeyStart.putInt(getReusable().getPid());
 			nextKeyStart.putLong(keyOid + 1);
-			record = typeRecordIterator.next(nextKeyStart.array());
+			record = typeRecordIterator.next(nextKeyStart);
 		} else {
 			record = typeRecordIterator.next();
 		}
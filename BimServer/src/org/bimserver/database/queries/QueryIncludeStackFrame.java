@@ -30,6 +30,7 @@ import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
 import org.bimserver.shared.HashMapVirtualObject;
 import org.bimserver.shared.QueryContext;
+import org.bimserver.shared.ReferenceList;
 import org.bimserver.shared.WrappedVirtualObject;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EReference;
@@ -96,16 +97,19 @@ public class QueryIncludeStackFrame extends DatabaseReadingStackFrame {
 		Object value = currentObject.eGet(feature);
 		if (value != null) {
 			if (feature.isMany()) {
-				List<Long> list = (List<Long>)value;
-				for (Object r : list) {
-					if (r instanceof Long) {
+				List<?> list = (List<?>)value;
+				for (int i = 0; i < list.size(); i++) {
+					long r = ReferenceList.getLong(list, i);
+					if (r != -1) {
 						if (directFeatureSet != null && directFeatureSet.contains(feature)) {
-							HashMapVirtualObject byOid = getByOid((long)r, true);
+							HashMapVirtualObject byOid = getByOid(r, true);
 							getQueryObjectProvider().addRead(byOid.getOid());
 							currentObject.addDirectListReference(feature, byOid);
+							getQueryObjectProvider().pin(currentObject);
 							processPossibleIncludes(byOid, byOid.eClass(), include);
+							getQueryObjectProvider().embedded(byOid);
 						} else {
-							processReference((Long)r);
+							processReference(r);
 						}
 					} else {
 						// ??
@@ -118,7 +122,9 @@ public class QueryIncludeStackFrame extends DatabaseReadingStackFrame {
 						HashMapVirtualObject byOid = getByOid((Long)refOid, true);
 						getQueryObjectProvider().addRead(byOid.getOid());
 						currentObject.setDirectReference(feature, byOid);
+						getQueryObjectProvider().pin(currentObject);
 						processPossibleIncludes(byOid, byOid.eClass(), include);
+						getQueryObjectProvider().embedded(byOid);
 					} else {
 						processReference(refOid);
 					}
@@ -17,18 +17,15 @@ package org.bimserver.database.queries;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 
 import org.bimserver.BimserverDatabaseException;
-import org.bimserver.database.ObjectIdentifier;
+import org.bimserver.database.ConfiguredIndices;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
-import org.bimserver.plugins.deserializers.DatabaseInterface;
 import org.bimserver.shared.QueryContext;
-import org.bimserver.utils.BinUtils;
 import org.eclipse.emf.ecore.EAttribute;
 import org.eclipse.emf.ecore.EClass;
 
@@ -51,16 +48,20 @@ public class QueryNamesAndTypesStackFrame extends DatabaseReadingStackFrame {
 		this.reusable = reusable;
 		
 		oids = new HashSet<>();
-		for (String name : names) {
-			EAttribute nameFeature = (EAttribute) eClass.getEStructuralFeature("Name");
-			if (nameFeature == null) {
-				converted = true;
-//				throw new BimserverDatabaseException(eClass.getName() + " does not have a GlobalId feature");
-			} else {
-				ObjectIdentifier oidOfName = getOidOfGuidAlternative(eClass, nameFeature, name, reusable.getDatabaseInterface(), reusable.getPid(), reusable.getRid());
-				if (oidOfName != null) {
-					oids.add(oidOfName.getOid());
+		EAttribute nameFeature = (EAttribute) eClass.getEStructuralFeature("Name");
+		if (nameFeature == null) {
+			converted = true;
+//			throw new BimserverDatabaseException(eClass.getName() + " does not have a GlobalId feature");
+		} else {
+			ConfiguredIndices configuredIndices = queryObjectProvider.getBimServer().getDatabase().getConfiguredIndices();
+			if (!configuredIndices.isQueryable(eClass, nameFeature)) {
+				if (configuredIndices.isConfigured(eClass, nameFeature)) {
+					throw new BimserverDatabaseException("The index on " + eClass.getName() + ".Name is still being built, try again later");
 				}
+				throw new BimserverDatabaseException("Name queries need an index, add \"" + nameFeature.getEContainingClass().getName() + ".Name\" to the indexed features in the server settings");
+			}
+			for (String name : names) {
+				oids.addAll(configuredIndices.query(eClass, nameFeature, name.getBytes(Charsets.UTF_8), reusable.getPid(), reusable.getRid(), reusable.getStopRid(), queryObjectProvider.getDatabaseSession()));
 			}
 		}
 		if (oids.isEmpty()) {
@@ -68,35 +69,6 @@ public class QueryNamesAndTypesStackFrame extends DatabaseReadingStackFrame {
 		}
 	}
 
-	public ObjectIdentifier getOidOfGuidAlternative(EClass eClass, EAttribute attribute, Object value, DatabaseInterface databaseInterface, int pid, int rid) throws BimserverDatabaseException {
-		if (attribute.getEAnnotation("singleindex") != null) {
-			String indexTableName = attribute.getEContainingClass().getEPackage().getName() + "_" + eClass.getName() + "_" + attribute.getName();
-			byte[] queryBytes = null;
-			if (value instanceof String) {
-				queryBytes = ((String)value).getBytes(Charsets.UTF_8);
-			} else if (value instanceof Integer) {
-				queryBytes = BinUtils.intToByteArray((Integer)value);
-			} else {
-				throw new BimserverDatabaseException("Unsupported type " + value);
-			}
-			ByteBuffer valueBuffer = ByteBuffer.allocate(queryBytes.length + 8);
-			valueBuffer.putInt(pid);
-			valueBuffer.putInt(-rid);
-			valueBuffer.put(queryBytes);
-			byte[] firstDuplicate = databaseInterface.get(indexTableName, valueBuffer.array());
-			if (firstDuplicate != null) {
-				ByteBuffer buffer = ByteBuffer.wrap(firstDuplicate);
-				buffer.getInt(); // pid
-				long oid = buffer.getLong();
-				
-				return new ObjectIdentifier(oid, (short)oid);
-			}
-		} else {
-			throw new BimserverDatabaseException("Name queries are not implemented yet");
-		}
-		return null;
-	}
-	
 //	public ObjectIdentifier getOidOfName(String schema, String name, int pid, int rid) throws BimserverDatabaseException {
 //		for (EClass eClass : reusable.getPackageMetaData().getAllSubClasses(reusable.getPackageMetaData().getEClass("IfcRoot"))) {
 //			RecordIterator recordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), BinUtils.intToByteArray(pid),
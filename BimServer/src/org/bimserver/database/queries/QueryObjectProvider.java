@@ -19,8 +19,10 @@ package org.bimserver.database.queries;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import org.bimserver.BimServer;
@@ -35,6 +37,7 @@ import org.bimserver.emf.MetaDataManager;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.plugins.serializers.ObjectProvider;
 import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.QueryContext;
 import org.eclipse.emf.ecore.EClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +48,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 
 public class QueryObjectProvider implements ObjectProvider {
@@ -60,12 +64,14 @@ public class QueryObjectProvider implements ObjectProvider {
 	private DatabaseSession databaseSession;
 	private BimServer bimServer;
 	
-	private final Set<Long> oidsRead = new LongOpenHashSet();
+	private final Set<Long> oidsRead;
 	private Deque<StackFrame> stack;
 	private long start = -1;
 	private long reads = 0;
 	private long stackFramesProcessed = 0;
 	private final Set<Long> goingToRead = new LongOpenHashSet();
+	// Objects that have been embedded in the object that refers to them, they are not pinned anymore
+	private final Set<Long> oidsEmbedded = new LongOpenHashSet();
 	private Query query;
 	private StackFrame stackFrame;
 
@@ -73,12 +79,31 @@ public class QueryObjectProvider implements ObjectProvider {
 
 	private final PackageMetaData packageMetaData;
 
+	// Only set when this provider is one of the workers of a parallel query
+	private final ParallelQueryObjectProvider parallelQueryObjectProvider;
+	private final List<QueryContext> queryContexts = new ArrayList<>();
+	// GeometryData objects read at a level of detail, these are only valid for this query and never go into the cache of the session
+	private final Long2ObjectOpenHashMap<HashMapVirtualObject> lodObjects = new Long2ObjectOpenHashMap<>();
+
 	public QueryObjectProvider(DatabaseSession databaseSession, BimServer bimServer, Query query, Set<Long> roids, PackageMetaData packageMetaData) throws IOException, QueryException {
+		this(databaseSession, bimServer, query, roids, packageMetaData, null);
+	}
+
+	/**
+	 * Creates a worker for a parallel query, all workers share the set of objects read and only scan the types they claim, see {@link #claim(long, Object, EClass)}
+	 */
+	QueryObjectProvider(DatabaseSession databaseSession, BimServer bimServer, Query query, Set<Long> roids, PackageMetaData packageMetaData, ParallelQueryObjectProvider parallelQueryObjectProvider) throws IOException, QueryException {
 		this.databaseSession = databaseSession;
 		this.bimServer = bimServer;
 		this.query = query;
 		this.roids = roids;
 		this.packageMetaData = packageMetaData;
+		this.parallelQueryObjectProvider = parallelQueryObjectProvider;
+		if (parallelQueryObjectProvider == null) {
+			oidsRead = new LongOpenHashSet();
+		} else {
+			oidsRead = parallelQueryObjectProvider.getOidsRead();
+		}
 		
 		stack = new ArrayDeque<StackFrame>();
 		stack.push(new StartFrame(this, roids));
@@ -91,16 +116,88 @@ public class QueryObjectProvider implements ObjectProvider {
 	}
 	
 	public void cache(HashMapVirtualObject object) {
-		databaseSession.cache(object);
+		if (parallelQueryObjectProvider != null) {
+			parallelQueryObjectProvider.cache(object);
+		} else {
+			databaseSession.cache(object);
+		}
+	}
+
+	/**
+	 * Keeps an object in the cache until it has been returned by {@link #next()} or embedded in the object that refers to it, for objects that got state from this query (direct references, features to serialize) that reading the object again would not restore
+	 */
+	public void pin(HashMapVirtualObject object) {
+		if (lodObjects.get(object.getOid()) == object) {
+			// Already kept by this provider
+			return;
+		}
+		if (oidsRead.contains(object.getOid()) || oidsEmbedded.contains(object.getOid())) {
+			// Already returned or embedded, state that is added later does not have to survive an eviction
+			return;
+		}
+		if (parallelQueryObjectProvider != null) {
+			parallelQueryObjectProvider.pin(object);
+		} else {
+			databaseSession.cachePinned(object);
+		}
+	}
+
+	/**
+	 * Releases an object that has been embedded in the object that refers to it, the referrer keeps it from then on
+	 */
+	public void embedded(HashMapVirtualObject object) {
+		oidsEmbedded.add(object.getOid());
+		unpin(object);
+	}
+
+	private void unpin(HashMapVirtualObject object) {
+		if (parallelQueryObjectProvider != null) {
+			parallelQueryObjectProvider.unpin(object);
+		} else {
+			databaseSession.unpin(object);
+		}
+	}
+
+	/**
+	 * Keeps a GeometryData object that has been read at a level of detail, so getByOid returns it instead of reading the full resolution again
+	 */
+	public void addLodObject(HashMapVirtualObject geometryData) {
+		lodObjects.put(geometryData.getOid(), geometryData);
 	}
 
 	public HashMapVirtualObject getFromCache(long oid) {
+		if (parallelQueryObjectProvider != null) {
+			return parallelQueryObjectProvider.getByOid(oid);
+		}
 		return databaseSession.getFromCache(oid);
 	}
 	
+	public void addQueryContext(QueryContext queryContext) {
+		queryContexts.add(queryContext);
+	}
+	
 	@Override
 	public HashMapVirtualObject getByOid(long oid) {
-		return getFromCache(oid);
+		HashMapVirtualObject object = lodObjects.get(oid);
+		if (object != null) {
+			return object;
+		}
+		object = getFromCache(oid);
+		if (object != null || parallelQueryObjectProvider != null) {
+			return object;
+		}
+		// The object cache is bounded, so objects that have been evicted are read again
+		for (QueryContext queryContext : queryContexts) {
+			try {
+				object = new GetByOidStackFrame(queryContext, this, null, oid).getByOid(oid, true);
+				if (object != null) {
+					return object;
+				}
+			} catch (BimserverDatabaseException e) {
+				LOGGER.error("", e);
+			}
+		}
+		return null;
 	}
 	
 	public QueryObjectProvider copy() throws IOException, QueryException {
@@ -170,8 +267,10 @@ public class QueryObjectProvider implements ObjectProvider {
 				if (stackFrame instanceof ObjectProvidingStackFrame) {
 					HashMapVirtualObject currentObject = ((ObjectProvidingStackFrame) stackFrame).getCurrentObject();
 					if (currentObject != null) {
-						if (!oidsRead.contains(currentObject.getOid())) {
-							oidsRead.add(currentObject.getOid());
+						// Checked and added in one call, other workers of a parallel query might read the same object
+						if (oidsRead.add(currentObject.getOid())) {
+							// The caller has the object now, so the cache does not have to keep it anymore
+							unpin(currentObject);
 							return currentObject;
 						}
 					}
@@ -231,6 +330,19 @@ public class QueryObjectProvider implements ObjectProvider {
 		return oidsRead.contains(oid);
 	}
 
+	/**
+	 * Frames that start scanning a type (or for example an index) of a query part call this first. In a parallel query the first worker to claim a scan does it and the others skip it, for sequential queries this always returns true.
+	 * 
+	 * @param part The query part (or the query for frames that are not part of a query part)
+	 * @param eClass The type, or null for a scan that covers the whole query part
+	 */
+	public boolean claim(long croid, Object part, EClass eClass) {
+		if (parallelQueryObjectProvider == null) {
+			return true;
+		}
+		return parallelQueryObjectProvider.claim(croid, part, eClass);
+	}
+
 	public void push(StackFrame stackFrame) {
 		if (!stackFrame.isDone()) {
 			stack.push(stackFrame);
@@ -38,6 +38,7 @@ public class QueryOidsAndTypesStackFrame extends DatabaseReadingStackFrame imple
 	private EClass eClass;
 	private SearchingRecordIterator typeRecordIterator;
 	private Record record;
+	private final ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 	private Iterator<Long> oidIterator;
 
 	public QueryOidsAndTypesStackFrame(QueryObjectProvider queryObjectProvider, EClass eClass, QueryPart queryPart, QueryContext reusable, List<Long> oids) throws BimserverLockConflictException, BimserverDatabaseException, QueryException {
@@ -94,20 +95,19 @@ public class QueryOidsAndTypesStackFrame extends DatabaseReadingStackFrame imple
 
 		currentObject = null;
 		
-		ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 		getQueryObjectProvider().incReads();
-		ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+		ByteBuffer keyBuffer = record.getKeyBuffer();
 		int keyPid = keyBuffer.getInt();
 		long keyOid = keyBuffer.getLong();
 		int keyRid = -keyBuffer.getInt();
-		ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+		ByteBuffer valueBuffer = record.getValueBuffer();
 		GetResult map = getMap(eClass, eClass, valueBuffer, keyPid, keyOid, keyRid);
 		if (map == GetResult.CONTINUE_WITH_NEXT_OID) {
 			if (oidIterator.hasNext()) {
 				nextKeyStart.position(0);
 				nextKeyStart.putInt(getReusable().getPid());
 				nextKeyStart.putLong(oidIterator.next());
-				record = typeRecordIterator.next(nextKeyStart.array());
+				record = typeRecordIterator.next(nextKeyStart);
 			} else {
 				record = null;
 			}
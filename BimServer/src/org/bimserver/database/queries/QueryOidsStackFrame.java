@@ -72,11 +72,11 @@ public class QueryOidsStackFrame extends DatabaseReadingStackFrame implements Ob
 
 		currentObject = null;
 		
-		ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+		ByteBuffer keyBuffer = record.getKeyBuffer();
 		int keyPid = keyBuffer.getInt();
 		long keyOid = keyBuffer.getLong();
 		int keyRid = -keyBuffer.getInt();
-		ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+		ByteBuffer valueBuffer = record.getValueBuffer();
 		EClass eClass = getReusable().getDatabaseInterface().getEClassForOid(keyOid);
 		
 		getMap(eClass, eClass, valueBuffer, keyPid, keyOid, keyRid);
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.SpatialIndexIterator;
 import org.bimserver.database.queries.om.InBoundingBox;
 import org.bimserver.database.queries.om.Include;
 import org.bimserver.database.queries.om.Include.TypeDef;
@@ -51,6 +52,8 @@ public class QueryPartStackFrame extends StackFrame {
 	private InBoundingBox inBoundingBox;
 	private Set<String> classifications;
 	private Tiles tiles;
+	private boolean spatialIndexChecked;
+	private boolean propertyIndexChecked;
 
 	public QueryPartStackFrame(QueryObjectProvider queryObjectProvider, QueryPart partialQuery, QueryContext reusable) throws BimserverDatabaseException, QueryException {
 		this.queryObjectProvider = queryObjectProvider;
@@ -130,6 +133,9 @@ public class QueryPartStackFrame extends StackFrame {
 			return true;
 		}
 		if (tiles != null) {
+			if (!queryObjectProvider.claim(reusable.getCroid(), partialQuery, null)) {
+				return true;
+			}
 			List<Long> oids = new ArrayList<>();
 			List<Long> oidsFiltered = new ArrayList<>();
 
@@ -144,8 +150,47 @@ public class QueryPartStackFrame extends StackFrame {
 			}
 			return true;
 		}
+		if (!spatialIndexChecked) {
+			spatialIndexChecked = true;
+			if (canUseSpatialIndex()) {
+				SpatialIndexIterator spatialIndexIterator = queryObjectProvider.getBimServer().getDatabase().getSpatialIndex().query(reusable.getPid(), reusable.getRid(), inBoundingBox.getX(), inBoundingBox.getY(), inBoundingBox.getZ(),
+						inBoundingBox.getX() + inBoundingBox.getWidth(), inBoundingBox.getY() + inBoundingBox.getHeight(), inBoundingBox.getZ() + inBoundingBox.getDepth(), queryObjectProvider.getDatabaseSession());
+				if (spatialIndexIterator != null) {
+					if (!queryObjectProvider.claim(reusable.getCroid(), partialQuery, null)) {
+						spatialIndexIterator.close();
+						return true;
+					}
+					Set<EClass> eClasses = new HashSet<>();
+					while (typeIterator.hasNext()) {
+						eClasses.add(typeIterator.next());
+					}
+					queryObjectProvider.push(new QuerySpatialIndexStackFrame(queryObjectProvider, eClasses, partialQuery, reusable, inBoundingBox, spatialIndexIterator));
+					return true;
+				}
+			}
+		}
+		if (!propertyIndexChecked) {
+			propertyIndexChecked = true;
+			if (canUsePropertyIndex()) {
+				List<Long> indexedOids = queryObjectProvider.getBimServer().getDatabase().getPropertyIndex().query(reusable.getPid(), reusable.getRid(), properties, queryObjectProvider.getDatabaseSession());
+				if (indexedOids != null) {
+					if (!queryObjectProvider.claim(reusable.getCroid(), partialQuery, null)) {
+						return true;
+					}
+					Set<EClass> eClasses = new HashSet<>();
+					while (typeIterator.hasNext()) {
+						eClasses.add(typeIterator.next());
+					}
+					queryObjectProvider.push(new QueryPropertyIndexStackFrame(queryObjectProvider, eClasses, partialQuery, reusable, indexedOids));
+					return true;
+				}
+			}
+		}
 		if (typeIterator.hasNext()) {
 			EClass eClass = typeIterator.next();
+			if (!queryObjectProvider.claim(reusable.getCroid(), partialQuery, eClass)) {
+				return false;
+			}
 			if (oids != null) {
 				List<Long> oids2 = oids.get(eClass);
 				if (oids2 != null) {
@@ -155,6 +200,8 @@ public class QueryPartStackFrame extends StackFrame {
 				queryObjectProvider.push(new QueryGuidsAndTypesStackFrame(queryObjectProvider, eClass, partialQuery, reusable, guids));
 			} else if (names != null) {
 				queryObjectProvider.push(new QueryNamesAndTypesStackFrame(queryObjectProvider, eClass, partialQuery, reusable, names));
+			} else if (partialQuery.hasAttributes()) {
+				queryObjectProvider.push(new QueryAttributesAndTypesStackFrame(queryObjectProvider, eClass, partialQuery, reusable, partialQuery.getAttributes()));
 			} else if (properties != null) {
 				queryObjectProvider.push(new QueryPropertiesAndTypesStackFrame(queryObjectProvider, eClass, partialQuery, reusable, properties));
 			} else if (classifications != null) {
@@ -169,6 +216,31 @@ public class QueryPartStackFrame extends StackFrame {
 		return true;
 	}
 	
+	/**
+	 * The spatial index only knows about the bounds of the products, other filters still need the type specific frames
+	 */
+	private boolean canUseSpatialIndex() {
+		if (inBoundingBox == null || oids != null || guids != null || names != null || partialQuery.hasAttributes() || properties != null || classifications != null) {
+			return false;
+		}
+		return !Double.isNaN(inBoundingBox.getX()) && !Double.isNaN(inBoundingBox.getY()) && !Double.isNaN(inBoundingBox.getZ()) && !Double.isNaN(inBoundingBox.getWidth()) && !Double.isNaN(inBoundingBox.getHeight()) && !Double.isNaN(inBoundingBox.getDepth());
+	}
+
+	/**
+	 * Properties are only used when there are no oids, guids, names or attributes in the query part, predefined property sets (for example IfcDoorLiningProperties) are not in the property index
+	 */
+	private boolean canUsePropertyIndex() {
+		if (properties == null || oids != null || guids != null || names != null || partialQuery.hasAttributes()) {
+			return false;
+		}
+		for (String propertySetName : properties.keySet()) {
+			if (reusable.getPackageMetaData().getEClassifier(propertySetName) != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	private QueryPart createFilteredQueryPart(QueryPart input) throws QueryException {
 		QueryPart result = new QueryPart(input.getPackageMetaData());
 		for (TypeDef typeDef : input.getTypes()) {
@@ -34,6 +34,7 @@ import org.bimserver.database.queries.om.QueryPart;
 import org.bimserver.shared.HashMapVirtualObject;
 import org.bimserver.shared.HashMapWrappedVirtualObject;
 import org.bimserver.shared.QueryContext;
+import org.bimserver.shared.ReferenceList;
 import org.bimserver.utils.BinUtils;
 import org.eclipse.emf.common.util.Enumerator;
 import org.eclipse.emf.ecore.EClass;
@@ -46,6 +47,7 @@ public class QueryPropertiesAndTypesStackFrame extends DatabaseReadingStackFrame
 	private EClass eClass;
 	private SearchingRecordIterator typeRecordIterator;
 	private Record record;
+	private final ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 	private Map<String, Properties> properties;
 
 	public QueryPropertiesAndTypesStackFrame(QueryObjectProvider queryObjectProvider, EClass eClass, QueryPart queryPart, QueryContext reusable, Map<String, Properties> properties) throws BimserverDatabaseException {
@@ -71,7 +73,6 @@ public class QueryPropertiesAndTypesStackFrame extends DatabaseReadingStackFrame
 		}
 	}
 	
-	@SuppressWarnings("unchecked")
 	@Override
 	public boolean process() throws BimserverDatabaseException, QueryException {
 		if (typeRecordIterator == null) {
@@ -85,33 +86,33 @@ public class QueryPropertiesAndTypesStackFrame extends DatabaseReadingStackFrame
 
 		currentObject = null;
 		
-		ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 		getQueryObjectProvider().incReads();
-		ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+		ByteBuffer keyBuffer = record.getKeyBuffer();
 		int keyPid = keyBuffer.getInt();
 		long keyOid = keyBuffer.getLong();
 		int keyRid = -keyBuffer.getInt();
-		ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+		ByteBuffer valueBuffer = record.getValueBuffer();
 		GetResult map = getMap(eClass, eClass, valueBuffer, keyPid, keyOid, keyRid);
 		if (map == GetResult.CONTINUE_WITH_NEXT_OID) {
 			nextKeyStart.position(0);
 			nextKeyStart.putInt(getReusable().getPid());
 			nextKeyStart.putLong(keyOid + 1);
-			record = typeRecordIterator.next(nextKeyStart.array());
+			record = typeRecordIterator.next(nextKeyStart);
 		} else {
 			record = typeRecordIterator.next();
 		}
 
 		if (currentObject != null) {
 			DatabaseSession databaseSession = getQueryObjectProvider().getDatabaseSession();
-			List<Long> isDefinedByOids = (List<Long>) currentObject.get("IsDefinedBy");
+			List<?> isDefinedByOids = (List<?>) currentObject.get("IsDefinedBy");
 			int totalQueryProperties = 0;
 			for (String key : this.properties.keySet()) {
 				totalQueryProperties += this.properties.get(key).count();
 			}
 			if (isDefinedByOids != null) {
 				Set<String> propertyKeysMatched = new HashSet<>();
-				for (Long definedByOid : isDefinedByOids) {
+				for (int i = 0; i < isDefinedByOids.size(); i++) {
+					long definedByOid = ReferenceList.getLong(isDefinedByOids, i);
 					EClass eClass = databaseSession.getEClassForOid(definedByOid);
 					if (getPackageMetaData().getEClass("IfcRelDefinesByProperties").isSuperTypeOf(eClass)) {
 						HashMapVirtualObject ifcRelDefinesByProperties = getByOid(definedByOid);
@@ -123,10 +124,10 @@ public class QueryPropertiesAndTypesStackFrame extends DatabaseReadingStackFrame
 						EClass eClassForOid = databaseSession.getEClassForOid(relatingTypeId);
 						if (getPackageMetaData().getEClass("IfcTypeObject").isSuperTypeOf(eClassForOid)) {
 							HashMapVirtualObject ifcTypeObject = getByOid(relatingTypeId);
-							List<Long> propertySets = (List<Long>) ifcTypeObject.get("HasPropertySets");
+							List<?> propertySets = (List<?>) ifcTypeObject.get("HasPropertySets");
 							if (propertySets != null) {
-								for (Long propertySetId : propertySets) {
-									processPropertySet(databaseSession, propertyKeysMatched, propertySetId);
+								for (int j = 0; j < propertySets.size(); j++) {
+									processPropertySet(databaseSession, propertyKeysMatched, ReferenceList.getLong(propertySets, j));
 								}
 							}
 						}
@@ -146,16 +147,16 @@ public class QueryPropertiesAndTypesStackFrame extends DatabaseReadingStackFrame
 		return false;
 	}
 
-	@SuppressWarnings("unchecked")
-	private void processPropertySet(DatabaseSession databaseSession, Set<String> propertyKeysMatched, Long ifcPropertySetDefinition) throws BimserverDatabaseException {
+	private void processPropertySet(DatabaseSession databaseSession, Set<String> propertyKeysMatched, long ifcPropertySetDefinition) throws BimserverDatabaseException {
 		EClass eClassForOid = databaseSession.getEClassForOid(ifcPropertySetDefinition);
 		if (getPackageMetaData().getEClass("IfcPropertySet").isSuperTypeOf(eClassForOid)) {
 			HashMapVirtualObject ifcPropertySet = getByOid(ifcPropertySetDefinition);
 			String propertySetName = (String) ifcPropertySet.get("Name");
 			Properties propertiesObject = (Properties)properties.get(propertySetName);
 			if (propertiesObject != null) {
-				List<Long> properties = (List<Long>) ifcPropertySet.get("HasProperties");
-				for (long propertyOid : properties) {
+				List<?> properties = (List<?>) ifcPropertySet.get("HasProperties");
+				for (int i = 0; i < properties.size(); i++) {
+					long propertyOid = ReferenceList.getLong(properties, i);
 					if (getPackageMetaData().getEClass("IfcPropertySingleValue").isSuperTypeOf(databaseSession.getEClassForOid(propertyOid))) {
 						HashMapVirtualObject property = getByOid(propertyOid);
 						String name = (String) property.get("Name");
@@ -0,0 +1,65 @@
+package org.bimserver.database.queries;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.QueryContext;
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Provides the objects found in the property index for a "properties" filter, the index already guarantees all properties match
+ */
+public class QueryPropertyIndexStackFrame extends DatabaseReadingStackFrame implements ObjectProvidingStackFrame {
+	private final Set<EClass> eClasses;
+	private final Iterator<Long> oidIterator;
+
+	public QueryPropertyIndexStackFrame(QueryObjectProvider queryObjectProvider, Set<EClass> eClasses, QueryPart queryPart, QueryContext reusable, List<Long> oids) {
+		super(reusable, queryObjectProvider, queryPart);
+		this.eClasses = eClasses;
+		this.oidIterator = oids.iterator();
+	}
+
+	@Override
+	public boolean process() throws BimserverDatabaseException, QueryException {
+		currentObject = null;
+		if (!oidIterator.hasNext()) {
+			return true;
+		}
+		getQueryObjectProvider().incReads();
+		long oid = oidIterator.next();
+		EClass eClass = getQueryObjectProvider().getDatabaseSession().getEClassForOid(oid);
+		if (eClasses.contains(eClass) && isInRevision(eClass, oid) && !getQueryObjectProvider().hasRead(oid)) {
+			currentObject = getByOid(oid);
+		}
+		
+		processPossibleIncludes(currentObject, eClass, getQueryPart());
+		
+		return false;
+	}
+
+	public HashMapVirtualObject getCurrentObject() {
+		return currentObject;
+	}
+}
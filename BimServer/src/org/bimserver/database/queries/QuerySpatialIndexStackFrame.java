@@ -0,0 +1,76 @@
+package org.bimserver.database.queries;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.Set;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.SpatialIndexEntry;
+import org.bimserver.database.SpatialIndexIterator;
+import org.bimserver.database.queries.om.InBoundingBox;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.QueryContext;
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Answers an InBoundingBox query with range lookups on the spatial index of the revision instead of reading all objects of all queried types. Handles all types of the query part at once, the same
+ * matching rules as {@link QueryBoundingBoxStackFrame} apply.
+ */
+public class QuerySpatialIndexStackFrame extends DatabaseReadingStackFrame implements ObjectProvidingStackFrame {
+	private final Set<EClass> eClasses;
+	private final InBoundingBox inBoundingBox;
+	private SpatialIndexIterator spatialIndexIterator;
+
+	public QuerySpatialIndexStackFrame(QueryObjectProvider queryObjectProvider, Set<EClass> eClasses, QueryPart queryPart, QueryContext reusable, InBoundingBox inBoundingBox, SpatialIndexIterator spatialIndexIterator) {
+		super(reusable, queryObjectProvider, queryPart);
+		this.eClasses = eClasses;
+		this.inBoundingBox = inBoundingBox;
+		this.spatialIndexIterator = spatialIndexIterator;
+	}
+
+	@Override
+	public boolean process() throws BimserverDatabaseException, QueryException {
+		currentObject = null;
+		SpatialIndexEntry entry = spatialIndexIterator.next();
+		if (entry == null) {
+			spatialIndexIterator.close();
+			return true;
+		}
+		getQueryObjectProvider().incReads();
+		long oid = entry.getOid();
+		EClass eClass = getQueryObjectProvider().getDatabaseSession().getEClassForOid(oid);
+		if (eClasses.contains(eClass) && isInRevision(eClass, oid) && !getQueryObjectProvider().hasRead(oid)) {
+			if (QueryBoundingBoxStackFrame.matchesDensity(inBoundingBox, entry.getDensity()) && QueryBoundingBoxStackFrame.matchesBounds(inBoundingBox, entry.getMinX(), entry.getMinY(), entry.getMinZ(), entry.getMaxX(), entry.getMaxY(), entry.getMaxZ())) {
+				HashMapVirtualObject object = getByOid(oid);
+				if (object != null && object.has("geometry")) {
+					currentObject = object;
+				}
+			}
+		}
+		
+		processPossibleIncludes(currentObject, eClass, getQueryPart());
+		
+		return false;
+	}
+
+	public HashMapVirtualObject getCurrentObject() {
+		return currentObject;
+	}
+}
@@ -0,0 +1,315 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.BimServer;
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.changes.Transaction;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.QueryContext;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Determines which products of a new revision need new geometry after a transaction has been applied. A product is affected when it has been changed itself, or when an object reachable from its Representation or
+ * ObjectPlacement (following the same references the geometry queries follow) has been changed. Changed material associations and openings also affect the products they are related to.
+ * 
+ * To avoid reading the whole model, references are only followed when the type of the referenced object can (directly or indirectly) reference the type of one of the changed objects.
+ */
+public class AffectedProductsFinder {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AffectedProductsFinder.class);
+	private final BimServer bimServer;
+	private final DatabaseSession databaseSession;
+	private final QueryContext queryContext;
+	private final PackageMetaData packageMetaData;
+	private final EClass productClass;
+	private final EReference geometryFeature;
+	private final Set<Long> changedOids = new HashSet<>();
+	private final Set<Long> productOids = new HashSet<>();
+	private final Set<Long> geometryInfoOids = new HashSet<>();
+	private final Map<Long, Boolean> dirty = new HashMap<>();
+	private final Map<Long, Integer> inspecting = new HashMap<>();
+	private int lowestCycleDepth = Integer.MAX_VALUE;
+	private Set<EClass> leadingToChange;
+	private QueryObjectProvider objectProvider;
+
+	public AffectedProductsFinder(BimServer bimServer, DatabaseSession databaseSession, QueryContext queryContext) {
+		this.bimServer = bimServer;
+		this.databaseSession = databaseSession;
+		this.queryContext = queryContext;
+		this.packageMetaData = queryContext.getPackageMetaData();
+		this.productClass = packageMetaData.getEClass("IfcProduct");
+		this.geometryFeature = (EReference) productClass.getEStructuralFeature("geometry");
+	}
+
+	public void find(Transaction transaction) throws BimserverDatabaseException, QueryException, IOException {
+		objectProvider = getAll("IfcProduct");
+		objectProvider.addQueryContext(queryContext);
+
+		EClass relVoidsElement = packageMetaData.getEClass("IfcRelVoidsElement");
+		EClass relAssociatesMaterial = packageMetaData.getEClass("IfcRelAssociatesMaterial");
+		Set<EClass> changedClasses = new HashSet<>();
+		for (Collection<HashMapVirtualObject> objects : Arrays.asList(transaction.getCreated(), transaction.getUpdated(), transaction.getDeleted())) {
+			for (HashMapVirtualObject object : objects) {
+				changedOids.add(object.getOid());
+				changedClasses.add(object.eClass());
+				if (productClass.isSuperTypeOf(object.eClass())) {
+					addProduct(object);
+				} else if (relVoidsElement.isSuperTypeOf(object.eClass())) {
+					addProduct(object.get("RelatingBuildingElement"));
+				} else if (relAssociatesMaterial.isSuperTypeOf(object.eClass())) {
+					addProduct(object.get("RelatedObjects"));
+				}
+			}
+		}
+		int directlyChanged = productOids.size();
+
+		leadingToChange = getClassesLeadingTo(changedClasses);
+		
+		if (leadsToChange(packageMetaData.getEReference("IfcProduct", "Representation")) || leadsToChange(packageMetaData.getEReference("IfcProduct", "ObjectPlacement"))) {
+			QueryObjectProvider queryObjectProvider = getAll("IfcProduct");
+			HashMapVirtualObject next = queryObjectProvider.next();
+			while (next != null) {
+				if (!productOids.contains(next.getOid()) && (isDirty(next.get("Representation")) || isDirty(next.get("ObjectPlacement")))) {
+					addProduct(next);
+				}
+				next = queryObjectProvider.next();
+			}
+		}
+		
+		if (leadsToChange(packageMetaData.getEReference("IfcRelAssociatesMaterial", "RelatingMaterial"))) {
+			QueryObjectProvider queryObjectProvider = getAll("IfcRelAssociatesMaterial");
+			HashMapVirtualObject next = queryObjectProvider.next();
+			while (next != null) {
+				if (isDirty(next.get("RelatingMaterial"))) {
+					addProduct(next.get("RelatedObjects"));
+				}
+				next = queryObjectProvider.next();
+			}
+		}
+		
+		// Openings are products as well, when one of them is affected, so is the element it voids
+		if (!productOids.isEmpty()) {
+			QueryObjectProvider queryObjectProvider = getAll("IfcRelVoidsElement");
+			HashMapVirtualObject next = queryObjectProvider.next();
+			while (next != null) {
+				Object opening = next.get("RelatedOpeningElement");
+				if (opening instanceof Long && productOids.contains(opening)) {
+					addProduct(next.get("RelatingBuildingElement"));
+				}
+				next = queryObjectProvider.next();
+			}
+		}
+		LOGGER.debug(productOids.size() + " products affected (" + directlyChanged + " directly changed), " + dirty.size() + " objects inspected");
+	}
+
+	/**
+	 * @return The oids of the affected products, including products that have been deleted
+	 */
+	public Set<Long> getProductOids() {
+		return productOids;
+	}
+
+	/**
+	 * @return The oids of the GeometryInfo objects the affected products had before the transaction
+	 */
+	public Set<Long> getGeometryInfoOids() {
+		return geometryInfoOids;
+	}
+
+	private QueryObjectProvider getAll(String className) throws IOException, QueryException {
+		Query query = new Query("Affected products " + className, packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(packageMetaData.getEClass(className), true);
+		return new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(queryContext.getRoid()), packageMetaData);
+	}
+
+	/**
+	 * @param value A product, the oid of a product or a list of those, values of other types are ignored
+	 */
+	private void addProduct(Object value) throws BimserverDatabaseException {
+		if (value instanceof List) {
+			for (Object item : (List<?>) value) {
+				addProduct(item);
+			}
+		} else if (value instanceof HashMapVirtualObject) {
+			addProduct((HashMapVirtualObject) value);
+		} else if (value instanceof Long) {
+			long oid = (Long) value;
+			if (productOids.contains(oid) || !productClass.isSuperTypeOf(databaseSession.getEClassForOid(oid))) {
+				return;
+			}
+			HashMapVirtualObject product = objectProvider.getByOid(oid);
+			if (product == null) {
+				productOids.add(oid);
+			} else {
+				addProduct(product);
+			}
+		}
+	}
+
+	private void addProduct(HashMapVirtualObject product) {
+		productOids.add(product.getOid());
+		Object geometryInfo = product.eGet(geometryFeature);
+		if (geometryInfo instanceof Long) {
+			geometryInfoOids.add((Long) geometryInfo);
+		} else if (geometryInfo instanceof HashMapVirtualObject) {
+			geometryInfoOids.add(((HashMapVirtualObject) geometryInfo).getOid());
+		}
+	}
+
+	private boolean isDirty(Object value) throws BimserverDatabaseException {
+		if (value instanceof Long) {
+			return isDirty((long) (Long) value);
+		} else if (value instanceof HashMapVirtualObject) {
+			return isDirty(((HashMapVirtualObject) value).getOid());
+		} else if (value instanceof List) {
+			for (Object item : (List<?>) value) {
+				if (isDirty(item)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean isDirty(long oid) throws BimserverDatabaseException {
+		Boolean result = dirty.get(oid);
+		if (result != null) {
+			return result;
+		}
+		Integer depth = inspecting.get(oid);
+		if (depth != null) {
+			// A cycle (through StyledByItem), whether this object is dirty is decided by the call that is still inspecting it
+			lowestCycleDepth = Math.min(lowestCycleDepth, depth);
+			return false;
+		}
+		if (changedOids.contains(oid)) {
+			dirty.put(oid, true);
+			return true;
+		}
+		EClass eClass = databaseSession.getEClassForOid(oid);
+		if (!leadingToChange.contains(eClass)) {
+			return false;
+		}
+		int ownDepth = inspecting.size();
+		inspecting.put(oid, ownDepth);
+		int outerCycleDepth = lowestCycleDepth;
+		lowestCycleDepth = Integer.MAX_VALUE;
+		HashMapVirtualObject object = objectProvider.getByOid(oid);
+		boolean isDirty = false;
+		if (object != null) {
+			for (EReference eReference : eClass.getEAllReferences()) {
+				if (follow(eReference) && isDirty(object.eGet(eReference))) {
+					isDirty = true;
+					break;
+				}
+			}
+		}
+		inspecting.remove(oid);
+		if (isDirty || lowestCycleDepth >= ownDepth) {
+			dirty.put(oid, isDirty);
+			lowestCycleDepth = outerCycleDepth;
+		} else {
+			// Clean so far, but only because an object that is still being inspected was taken to be clean, that object can still turn out to be dirty
+			lowestCycleDepth = Math.min(outerCycleDepth, lowestCycleDepth);
+		}
+		return isDirty;
+	}
+
+	private boolean leadsToChange(EReference eReference) {
+		for (EClass eClass : packageMetaData.getAllSubClassesIncludingSelf(eReference.getEReferenceType())) {
+			if (leadingToChange.contains(eClass)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The given classes, and all classes from which one of them can be reached by following references
+	 */
+	private Set<EClass> getClassesLeadingTo(Set<EClass> eClasses) {
+		Map<EClass, Set<EClass>> referencedBy = new HashMap<>();
+		for (EClass eClass : packageMetaData.getEClasses()) {
+			if (eClass.getEAnnotation("wrapped") != null || eClass.getName().startsWith("ListOf")) {
+				// Wrapped values and the containers of two dimensional lists are embedded, they are never read as separate objects
+				continue;
+			}
+			for (EReference eReference : eClass.getEAllReferences()) {
+				if (follow(eReference)) {
+					for (EClass referenced : packageMetaData.getAllSubClassesIncludingSelf(eReference.getEReferenceType())) {
+						Set<EClass> set = referencedBy.get(referenced);
+						if (set == null) {
+							set = new HashSet<>();
+							referencedBy.put(referenced, set);
+						}
+						set.add(eClass);
+					}
+				}
+			}
+		}
+		Set<EClass> result = new HashSet<>(eClasses);
+		Deque<EClass> todo = new ArrayDeque<>(eClasses);
+		while (!todo.isEmpty()) {
+			Set<EClass> set = referencedBy.get(todo.pop());
+			if (set != null) {
+				for (EClass eClass : set) {
+					if (result.add(eClass)) {
+						todo.push(eClass);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Same references as the ones followed by the generated geometry queries (see GenerateGeometryLibrary)
+	 */
+	private boolean follow(EReference eReference) {
+		EClass eType = eReference.getEReferenceType();
+		if (eType.getEPackage() != packageMetaData.getEPackage() || eType.getEAnnotation("wrapped") != null || eReference.getEAnnotation("twodimensionalarray") != null) {
+			return false;
+		}
+		if (eReference.getEContainingClass().getName().contentEquals("IfcRepresentationItem") && eReference.getName().contentEquals("StyledByItem")) {
+			return true;
+		}
+		return !packageMetaData.isInverse(eReference);
+	}
+}
@@ -31,6 +31,13 @@ public class Density {
 		this.nrPrimitives = nrPrimitives;
 		this.geometryInfoId = geometryInfoId;
 	}
+
+	/**
+	 * Recreates a density from a stored one, the stored density value is used to derive the biggest face area
+	 */
+	public Density(org.bimserver.models.store.Density density) {
+		this(density.getType(), density.getVolume(), density.getDensity() == 0f ? 0f : density.getTrianglesBelow() / density.getDensity() * 1000000f, density.getTrianglesBelow(), density.getGeometryInfoId());
+	}
 	
 	public String getType() {
 		return type;
@@ -29,11 +29,13 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -44,12 +46,15 @@ import org.bimserver.BimserverDatabaseException;
 import org.bimserver.Color4f;
 import org.bimserver.GenerateGeometryResult;
 import org.bimserver.GeometryGeneratingException;
+import org.bimserver.ListObjectProvider;
 import org.bimserver.ObjectListener;
 import org.bimserver.ObjectProviderProxy;
 import org.bimserver.ProductDef;
 import org.bimserver.Range;
 import org.bimserver.TemporaryGeometryData;
 import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.GeometryLod;
+import org.bimserver.database.SpatialIndexEntry;
 import org.bimserver.database.queries.QueryObjectProvider;
 import org.bimserver.database.queries.om.Query;
 import org.bimserver.database.queries.om.QueryPart;
@@ -57,6 +62,7 @@ import org.bimserver.models.geometry.GeometryPackage;
 import org.bimserver.plugins.PluginConfiguration;
 import org.bimserver.plugins.renderengine.EntityNotFoundException;
 import org.bimserver.plugins.renderengine.Metrics;
+import org.bimserver.plugins.renderengine.ObjectModelRenderEngine;
 import org.bimserver.plugins.renderengine.RenderEngine;
 import org.bimserver.plugins.renderengine.RenderEngineException;
 import org.bimserver.plugins.renderengine.RenderEngineFilter;
@@ -78,11 +84,15 @@ import org.eclipse.emf.ecore.EClass;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.HashCode;
 import com.google.common.primitives.UnsignedBytes;
 
 public class GeometryRunner implements Runnable {
 
 	private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(GeometryRunner.class);
+	// The fraction of the triangles kept for the levels of detail 1, 2 and 3
+	private static final float[] LOD_RATIOS = new float[] {0.5f, 0.25f, 0.1f};
+	private static final int MIN_LOD_TRIANGLES = 64;
 	private final StreamingGeometryGenerator streamingGeometryGenerator;
 	private EClass eClass;
 	private RenderEngineSettings renderEngineSettings;
@@ -125,7 +135,6 @@ public class GeometryRunner implements Runnable {
 
 	@Override
 	public void run() {
-		Thread.currentThread().setName("GeometryRunner");
 		long start = System.nanoTime();
 		job.setStartNanos(start);
 
@@ -143,6 +152,11 @@ public class GeometryRunner implements Runnable {
 		}
 		
 		try {
+			// Render engines that can read the objects directly get the objects of the first query, the others get an IFC file serialized from a second query
+			boolean objectModel = renderEnginePool.getRenderEngineFactory().supportsObjectModels();
+			final Set<HashMapVirtualObject> objects = new LinkedHashSet<>();
+			List<HashMapVirtualObject> allObjects = objectModel ? new ArrayList<>() : null;
+
 			HashMapVirtualObject next = objectProvider.next();
 			Query query = new Query("Double buffer query " + eClass.getName(), this.streamingGeometryGenerator.packageMetaData);
 			QueryPart queryPart = query.createQueryPart();
@@ -156,36 +170,35 @@ public class GeometryRunner implements Runnable {
 						}
 					}
 				}
+				if (objectModel) {
+					allObjects.add(next);
+					addIfGeometryObject(objects, next);
+				}
 				next = objectProvider.next();
 			}
 
-			objectProvider = new QueryObjectProvider(databaseSession, this.streamingGeometryGenerator.bimServer, query, Collections.singleton(queryContext.getRoid()), this.streamingGeometryGenerator.packageMetaData);
-
-			StreamingSerializer serializer = ifcSerializerPlugin.createSerializer(new PluginConfiguration());
+			StreamingSerializer serializer = null;
 			RenderEngine renderEngine = null;
+			boolean renderEngineFailed = false;
 			byte[] bytes = null;
 			try {
-				final Set<HashMapVirtualObject> objects = new LinkedHashSet<>();
-				ObjectProviderProxy proxy = new ObjectProviderProxy(objectProvider, new ObjectListener() {
-					@Override
-					public void newObject(HashMapVirtualObject next) {
-						if (eClass.isSuperTypeOf(next.eClass())) {
-							if (next.eGet(GeometryRunner.this.streamingGeometryGenerator.representationFeature) != null) {
-								for (QueryPart qp : originalQuery.getQueryParts()) {
-									if (qp.getOids().contains(next.getOid())) {
-										objects.add(next);
-									}
-								}
-							}
+				InputStream in = null;
+				if (!objectModel) {
+					objectProvider = new QueryObjectProvider(databaseSession, this.streamingGeometryGenerator.bimServer, query, Collections.singleton(queryContext.getRoid()), this.streamingGeometryGenerator.packageMetaData);
+					serializer = ifcSerializerPlugin.createSerializer(new PluginConfiguration());
+					ObjectProviderProxy proxy = new ObjectProviderProxy(objectProvider, new ObjectListener() {
+						@Override
+						public void newObject(HashMapVirtualObject next) {
+							addIfGeometryObject(objects, next);
 						}
-					}
-				});
-				serializer.init(proxy, null, null, this.streamingGeometryGenerator.bimServer.getPluginManager(), this.streamingGeometryGenerator.packageMetaData);
-
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				IOUtils.copy(serializer.getInputStream(), baos);
-				bytes = baos.toByteArray();
-				InputStream in = new ByteArrayInputStream(bytes);
+					});
+					serializer.init(proxy, null, null, this.streamingGeometryGenerator.bimServer.getPluginManager(), this.streamingGeometryGenerator.packageMetaData);
+	
+					ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					IOUtils.copy(serializer.getInputStream(), baos);
+					bytes = baos.toByteArray();
+					in = new ByteArrayInputStream(bytes);
+				}
 				Map<Long, HashMapVirtualObject> notFoundObjects = new HashMap<>();
 
 				Set<Range> reusableGeometryData = new HashSet<>();
@@ -194,13 +207,14 @@ public class GeometryRunner implements Runnable {
 				try {
 					if (!objects.isEmpty()) {
 						renderEngine = renderEnginePool.borrowObject();
-						try (RenderEngineModel renderEngineModel = renderEngine.openModel(in, bytes.length)) {
+						try (RenderEngineModel renderEngineModel = objectModel ? ((ObjectModelRenderEngine) renderEngine).openModel(new ListObjectProvider(objectProvider, allObjects), this.streamingGeometryGenerator.packageMetaData) : renderEngine.openModel(in, bytes.length)) {
 							renderEngineModel.setSettings(renderEngineSettings);
 							renderEngineModel.setFilter(renderEngineFilter);
 
 							try {
 								renderEngineModel.generateGeneralGeometry();
 							} catch (RenderEngineException e) {
+								renderEngineFailed = true;
 								if (e.getCause() instanceof java.io.EOFException) {
 									if (objects.isEmpty() || eClass.getName().equals("IfcAnnotation")) {
 										// SKIP
@@ -210,15 +224,15 @@ public class GeometryRunner implements Runnable {
 								}
 							}
 
-							OidConvertingSerializer oidConvertingSerializer = (OidConvertingSerializer) serializer;
-							Map<Long, Long> oidToEid = oidConvertingSerializer.getOidToEid();
+							// Models opened from objects use the oids as express ids
+							Map<Long, Long> oidToEid = objectModel ? null : ((OidConvertingSerializer) serializer).getOidToEid();
 							Map<Long, DebuggingInfo> debuggingInfo = new HashMap<>();
 
 							for (HashMapVirtualObject ifcProduct : objects) {
 								if (!this.streamingGeometryGenerator.running) {
 									return;
 								}
-								Long expressId = oidToEid.get(ifcProduct.getOid());
+								Long expressId = objectModel ? ifcProduct.getOid() : oidToEid.get(ifcProduct.getOid());
 								try {
 									RenderEngineInstance renderEngineInstance = renderEngineModel.getInstanceFromExpressId(expressId);
 									RenderEngineGeometry geometry = renderEngineInstance.generateGeometry();
@@ -297,9 +311,9 @@ public class GeometryRunner implements Runnable {
 										}
 
 										geometryData.setAttribute(GeometryPackage.eINSTANCE.getGeometryData_Reused(), 1);
-										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Indices(), createBuffer(queryContext, indices));
-										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Vertices(), createBuffer(queryContext, vertices));
-										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Normals(), createBuffer(queryContext, normals));
+										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Indices(), createIndicesBuffer(queryContext, indices));
+										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Vertices(), createVerticesBuffer(queryContext, vertices));
+										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Normals(), createNormalsBuffer(queryContext, normals));
 										
 										geometryData.set("nrIndices", indicesAsInt.capacity());
 										geometryData.set("nrVertices", verticesAsDouble.capacity());
@@ -307,7 +321,7 @@ public class GeometryRunner implements Runnable {
 										
 										ByteBuffer lineIndices = generateLineRendering(ifcProduct, indicesAsInt, verticesAsDouble, normalsAsFloat, 0.001f);
 										geometryData.set("nrLineIndices", lineIndices.capacity() / 4);
-										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_LineIndices(), createBuffer(queryContext, lineIndices));
+										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_LineIndices(), createIndicesBuffer(queryContext, lineIndices));
 										
 										geometryInfo.setAttribute(GeometryPackage.eINSTANCE.getGeometryInfo_PrimitiveCount(), indicesAsInt.capacity() / 3);
 										
@@ -425,8 +439,8 @@ public class GeometryRunner implements Runnable {
 										long size = this.streamingGeometryGenerator.getSize(geometryData);
 
 										for (int i = 0; i < indicesAsInt.capacity(); i++) {
-											this.streamingGeometryGenerator.processExtends(minBounds, maxBounds, productTranformationMatrix, verticesAsDouble, indicesAsInt.get(i) * 3, generateGeometryResult);
-											this.streamingGeometryGenerator.processExtendsUntranslated(geometryInfo, verticesAsDouble, indicesAsInt.get(i) * 3, generateGeometryResult);
+											StreamingGeometryGenerator.processExtends(minBounds, maxBounds, productTranformationMatrix, verticesAsDouble, indicesAsInt.get(i) * 3, generateGeometryResult);
+											StreamingGeometryGenerator.processExtendsUntranslated(geometryInfo, verticesAsDouble, indicesAsInt.get(i) * 3, generateGeometryResult);
 										}
 										
 										HashMapWrappedVirtualObject boundsUntransformedMm = createMmBounds(geometryInfo, boundsUntransformed, generateGeometryResult.getMultiplierToMm());
@@ -436,6 +450,10 @@ public class GeometryRunner implements Runnable {
 
 										ByteBuffer normalsQuantized = quantizeNormals(normalsAsFloat);
 										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_NormalsQuantized(), createBuffer(queryContext, normalsQuantized));
+
+										if (streamingGeometryGenerator.getLodLevels() > 0 && indicesAsInt.capacity() / 3 >= MIN_LOD_TRIANGLES) {
+											generateLods(queryContext, ifcProduct, geometryData, indicesAsInt, verticesAsDouble, normalsAsFloat, (int) geometryData.get("nrColors") > 0 ? colors : null);
+										}
 										
 										HashMapWrappedVirtualObject geometryDataBounds = new HashMapWrappedVirtualObject(GeometryPackage.eINSTANCE.getBounds());
 										WrappedVirtualObject geometryDataBoundsMin = new HashMapWrappedVirtualObject(GeometryPackage.eINSTANCE.getVector3f());
@@ -463,6 +481,7 @@ public class GeometryRunner implements Runnable {
 										geometryInfo.setAttribute(GeometryPackage.eINSTANCE.getGeometryInfo_Density(), density.getDensityValue());
 										
 										generateGeometryResult.addDensity(density);
+										generateGeometryResult.addSpatialIndexEntry(SpatialIndexEntry.create(ifcProduct.getOid(), density.getDensityValue(), boundsMm));
 
 										double[] mibu = new double[] { (double) minBoundsUntranslated.eGet(GeometryPackage.eINSTANCE.getVector3f_X()), (double) minBoundsUntranslated.eGet(GeometryPackage.eINSTANCE.getVector3f_Y()),
 												(double) minBoundsUntranslated.eGet(GeometryPackage.eINSTANCE.getVector3f_Z()), 1d };
@@ -473,7 +492,7 @@ public class GeometryRunner implements Runnable {
 											/* TODO It still happens that geometry that should be reused is not reused, one of the reasons is still concurrency:
 											 * 	- When the same geometry is processed concurrently they could both do the hash check at a time when there is no cached version, then they both think it's non-reused geometry
 											*/
-											int hash = this.streamingGeometryGenerator.hash(indices, vertices, normals, colors);
+											HashCode hash = StreamingGeometryGenerator.hash(indices, vertices, normals, colors);
 											int firstIndex = indicesAsInt.get(0);
 											int lastIndex = indicesAsInt.get(indicesAsInt.capacity() - 1);
 											double[] firstVertex = new double[] { verticesAsDouble.get(firstIndex), verticesAsDouble.get(firstIndex + 1), verticesAsDouble.get(firstIndex + 2) };
@@ -481,7 +500,7 @@ public class GeometryRunner implements Runnable {
 											Range range = new Range(firstVertex, lastVertex);
 											Long referenceOid = this.streamingGeometryGenerator.hashes.get(hash);
 											if (referenceOid != null) {
-												HashMapVirtualObject referencedData = databaseSession.getFromCache(referenceOid);
+												HashMapVirtualObject referencedData = this.streamingGeometryGenerator.getGeometryData(databaseSession, queryContext, referenceOid);
 												if (referencedData == null) {
 													LOGGER.error("Object not found in cache: " + referenceOid + " (hash: " + hash + ")");
 												}
@@ -542,7 +561,7 @@ public class GeometryRunner implements Runnable {
 
 													productToData.put(ifcProduct.getOid(), new TemporaryGeometryData(geometryData.getOid(), renderEngineInstance.getAdditionalData(), indicesAsInt.capacity() / 3, size, mibu, mabu, indicesAsInt, verticesAsDouble, hasTransparency, colors.capacity()));
 													geometryData.save();
-													databaseSession.cache((HashMapVirtualObject) geometryData);
+													databaseSession.cachePinned((HashMapVirtualObject) geometryData);
 												}
 											} else {
 												// if (sizes.containsKey(size)
@@ -568,13 +587,13 @@ public class GeometryRunner implements Runnable {
 												// By saving it before putting it in the cache/hashmap, we make sure we won't get a BimserverConcurrentModificationException
 												geometryData.save(); // TODO Why??
 
-												databaseSession.cache((HashMapVirtualObject) geometryData);
+												databaseSession.cachePinned((HashMapVirtualObject) geometryData);
 												this.streamingGeometryGenerator.hashes.put(hash, geometryData.getOid());
 												// sizes.put(size, ifcProduct);
 											}
 										} else {
 											geometryData.save();
-											databaseSession.cache((HashMapVirtualObject) geometryData);
+											databaseSession.cachePinned((HashMapVirtualObject) geometryData);
 										}
 
 										this.streamingGeometryGenerator.setTransformationMatrix(geometryInfo, productTranformationMatrix);
@@ -623,6 +642,9 @@ public class GeometryRunner implements Runnable {
 										notFoundObjects.put(expressId, ifcProduct);
 									}
 								} catch (BimserverDatabaseException | RenderEngineException e) {
+									if (e instanceof RenderEngineException) {
+										renderEngineFailed = true;
+									}
 									StreamingGeometryGenerator.LOGGER.error("", e);
 								}
 							}
@@ -752,7 +774,7 @@ public class GeometryRunner implements Runnable {
 
 											IntBuffer indices = masterGeometryData.getIndices();
 											for (int i = 0; i < indices.capacity(); i++) {
-												this.streamingGeometryGenerator.processExtends(minBounds, maxBounds, totalTranformationMatrix, masterGeometryData.getVertices(), indices.get(i) * 3, generateGeometryResult);
+												StreamingGeometryGenerator.processExtends(minBounds, maxBounds, totalTranformationMatrix, masterGeometryData.getVertices(), indices.get(i) * 3, generateGeometryResult);
 											}
 
 											HashMapWrappedVirtualObject boundsUntransformedMm = createMmBounds(geometryInfo, boundsUntransformed, generateGeometryResult.getMultiplierToMm());
@@ -767,6 +789,7 @@ public class GeometryRunner implements Runnable {
 											geometryInfo.setAttribute(GeometryPackage.eINSTANCE.getGeometryInfo_Density(), density.getDensityValue());
 											
 											generateGeometryResult.addDensity(density);
+											generateGeometryResult.addSpatialIndexEntry(SpatialIndexEntry.create(ifcProduct.getOid(), density.getDensityValue(), boundsMm));
 											
 											HashMapVirtualObject referencedData = databaseSession.getFromCache(masterGeometryData.getOid());
 											Integer currentValue = (Integer) referencedData.get("reused");
@@ -812,6 +835,9 @@ public class GeometryRunner implements Runnable {
 							}
 						}
 					}
+				} catch (RenderEngineException e) {
+					renderEngineFailed = true;
+					throw e;
 				} finally {
 					if (renderEngine != null) {
 						Metrics metrics = renderEngine.getMetrics();
@@ -819,7 +845,12 @@ public class GeometryRunner implements Runnable {
 							job.setCpuTimeMs(metrics.getCpuTimeMs());
 							job.setMaxMemoryBytes(metrics.getMaxMemoryBytes());
 						}
-						renderEnginePool.returnObject(renderEngine);
+						if (renderEngineFailed) {
+							// Never hand a render engine that failed on this job to the next one
+							renderEnginePool.invalidateObject(renderEngine);
+						} else {
+							renderEnginePool.returnObject(renderEngine);
+						}
 					}
 					try {
 						if (!notFoundObjects.isEmpty()) {
@@ -834,7 +865,9 @@ public class GeometryRunner implements Runnable {
 						} else if (writeOutputFiles) {
 							writeDebugFile(bytes, false, null);
 						}
-						in.close();
+						if (in != null) {
+							in.close();
+						}
 					} catch (Throwable e) {
 
 					} finally {
@@ -857,7 +890,7 @@ public class GeometryRunner implements Runnable {
 		job.setEndNanos(end);
 	}
 
-	private BufferSet appendInvertedGeometry(IntBuffer indicesAsInt, DoubleBuffer verticesAsDouble, FloatBuffer normalsAsFloat, IntBuffer colorIndices) {
+	static BufferSet appendInvertedGeometry(IntBuffer indicesAsInt, DoubleBuffer verticesAsDouble, FloatBuffer normalsAsFloat, IntBuffer colorIndices) {
 		indicesAsInt.position(0);
 		normalsAsFloat.position(0);
 		
@@ -1034,10 +1067,59 @@ public class GeometryRunner implements Runnable {
 	}
 	
 	private long createBuffer(QueryContext queryContext, ByteBuffer data) throws BimserverDatabaseException {
-		HashMapVirtualObject buffer = new HashMapVirtualObject(queryContext, GeometryPackage.eINSTANCE.getBuffer());
-		buffer.set("data", data.array());
-		buffer.save();
-		return buffer.getOid();
+		return streamingGeometryGenerator.createBuffer(databaseSession, queryContext, data.array());
+	}
+
+	private long createIndicesBuffer(QueryContext queryContext, ByteBuffer indices) throws BimserverDatabaseException {
+		if (streamingGeometryGenerator.isEncodeGeometry()) {
+			return streamingGeometryGenerator.createBuffer(databaseSession, queryContext, GeometryDataEncoding.encodeIndices(indices.array()), GeometryDataEncoding.COMPACT);
+		}
+		return createBuffer(queryContext, indices);
+	}
+
+	private long createVerticesBuffer(QueryContext queryContext, ByteBuffer vertices) throws BimserverDatabaseException {
+		if (streamingGeometryGenerator.isEncodeGeometry()) {
+			return streamingGeometryGenerator.createBuffer(databaseSession, queryContext, GeometryDataEncoding.encodeVertices(vertices.array(), true), GeometryDataEncoding.COMPACT);
+		}
+		return createBuffer(queryContext, vertices);
+	}
+
+	private long createNormalsBuffer(QueryContext queryContext, ByteBuffer normals) throws BimserverDatabaseException {
+		if (streamingGeometryGenerator.isEncodeGeometry()) {
+			return streamingGeometryGenerator.createBuffer(databaseSession, queryContext, GeometryDataEncoding.encodeNormals(normals.array()), GeometryDataEncoding.COMPACT);
+		}
+		return createBuffer(queryContext, normals);
+	}
+
+	/**
+	 * Stores decimated versions of the given mesh as levels of detail of the GeometryData, a level is only stored when it has clearly fewer triangles than the previous one
+	 * 
+	 * @param colors The vertex colors, or null when the GeometryData has none
+	 */
+	private void generateLods(QueryContext queryContext, HashMapVirtualObject ifcProduct, HashMapVirtualObject geometryData, IntBuffer indices, DoubleBuffer vertices, FloatBuffer normals, ByteBuffer colors) throws BimserverDatabaseException {
+		MeshDecimator meshDecimator = new MeshDecimator(indices, vertices, normals, colors);
+		List<GeometryLod> geometryLods = new ArrayList<>();
+		List<ByteBuffer> lodVertices = new ArrayList<>();
+		int previousNrIndices = indices.capacity();
+		for (int i = 0; i < Math.min(streamingGeometryGenerator.getLodLevels(), LOD_RATIOS.length); i++) {
+			BufferSet bufferSet = meshDecimator.decimate(LOD_RATIOS[i]);
+			int nrIndices = bufferSet.getIndicesByteBuffer().capacity() / 4;
+			if (nrIndices > previousNrIndices * 0.9) {
+				break;
+			}
+			previousNrIndices = nrIndices;
+			FloatBuffer lodNormals = bufferSet.getNormalsByteBuffer().asFloatBuffer();
+			long colorsQuantized = colors == null ? -1 : createBuffer(queryContext, bufferSet.getColorsByteBuffer());
+			ByteBuffer lineIndices = generateLineRendering(ifcProduct, bufferSet.getIndicesByteBuffer().asIntBuffer(), bufferSet.getVerticesByteBuffer().asDoubleBuffer(), lodNormals, 0.001f);
+			geometryLods.add(new GeometryLod(nrIndices, bufferSet.getVerticesByteBuffer().capacity() / 8, lodNormals.capacity(), bufferSet.getColorsByteBuffer().capacity(),
+				createIndicesBuffer(queryContext, bufferSet.getIndicesByteBuffer()), createVerticesBuffer(queryContext, bufferSet.getVerticesByteBuffer()),
+				createNormalsBuffer(queryContext, bufferSet.getNormalsByteBuffer()), createBuffer(queryContext, quantizeNormals(lodNormals)), colorsQuantized,
+				lineIndices.capacity() / 4, createIndicesBuffer(queryContext, lineIndices)));
+			lodVertices.add(bufferSet.getVerticesByteBuffer());
+		}
+		if (!geometryLods.isEmpty()) {
+			streamingGeometryGenerator.cacheGeometryLods(geometryData, geometryLods, lodVertices);
+		}
 	}
 
 	private ByteBuffer quantizeColors(byte[] vertex_colors) {
@@ -1049,7 +1131,7 @@ public class GeometryRunner implements Runnable {
 		return quantizedColors;
 	}
 
-	private ByteBuffer quantizeNormals(FloatBuffer normals) {
+	static ByteBuffer quantizeNormals(FloatBuffer normals) {
 		ByteBuffer quantizedNormals = ByteBuffer.wrap(new byte[normals.capacity()]);
 		quantizedNormals.order(ByteOrder.LITTLE_ENDIAN);
 		for (int i=0; i<normals.capacity(); i++) {
@@ -1239,8 +1321,21 @@ public class GeometryRunner implements Runnable {
 		return true;
 	}
 	
+	private void addIfGeometryObject(Set<HashMapVirtualObject> objects, HashMapVirtualObject next) {
+		if (eClass.isSuperTypeOf(next.eClass())) {
+			if (next.eGet(this.streamingGeometryGenerator.representationFeature) != null) {
+				for (QueryPart qp : originalQuery.getQueryParts()) {
+					if (qp.getOids().contains(next.getOid())) {
+						objects.add(next);
+					}
+				}
+			}
+		}
+	}
+	
 	private synchronized void writeDebugFile(byte[] bytes, boolean error, Map<Long, HashMapVirtualObject> notFoundObjects) throws FileNotFoundException, IOException {
-		boolean debug = true;
+		// There is no IFC file when the model was opened from objects
+		boolean debug = bytes != null;
 		if (debug) {
 			Path debugPath = this.streamingGeometryGenerator.bimServer.getHomeDir().resolve("debug");
 			if (!Files.exists(debugPath)) {
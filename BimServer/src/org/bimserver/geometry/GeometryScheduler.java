@@ -0,0 +1,427 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.bimserver.renderengine.RenderEnginePool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server wide scheduler for geometry generation jobs. All geometry generation runs (checkins, regenerations, transactions) submit their jobs to a batch of this scheduler, so the total amount of render engine processes
+ * does not depend on the amount of concurrent checkins.
+ * 
+ * - Every batch has a bounded queue, a batch submitting more jobs than that blocks until jobs have been started (backpressure on the query that is producing the jobs)
+ * - Free threads pick the batch with the lowest amount of running jobs relative to its priority, so a small checkin does not have to wait for a big one to finish
+ * - A job is only started when the render engine pool of its batch has an engine available, so threads never block on the pool while jobs of other pools could run
+ * - The amount of threads follows the renderEngineProcesses setting, see {@link #setNrThreads(int)}
+ */
+public class GeometryScheduler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GeometryScheduler.class);
+	public static final int DEFAULT_PRIORITY = 1;
+	public static final int HIGH_PRIORITY = 4;
+	private static final int QUEUE_SIZE_PER_THREAD = 64;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition jobAvailable = lock.newCondition();
+	private final Condition stateChanged = lock.newCondition();
+	private final List<Batch> batches = new ArrayList<>();
+	private final Map<RenderEnginePool, Integer> runningPerPool = new HashMap<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private final AtomicInteger batchCounter = new AtomicInteger();
+	private final ThreadFactory threadFactory = new ThreadFactory() {
+		private final AtomicInteger threadCounter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "GeometryRunner-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+	private int queueSize;
+	private int threadsToStop;
+	private boolean closed;
+	private long nextServed;
+
+	// Metrics, guarded by lock
+	private int queueDepth;
+	private int maxQueueDepth;
+	private int running;
+	private long completedJobs;
+	private long totalWaitNanos;
+	private long totalRunNanos;
+
+	public GeometryScheduler(int nrThreads) {
+		setNrThreads(nrThreads);
+		LOGGER.info("Geometry scheduler started with " + nrThreads + " threads");
+	}
+
+	/**
+	 * Starts or stops threads until there are nrThreads. Threads that are running a job stop when the job is done, jobs that have been started are never interrupted
+	 */
+	public void setNrThreads(int nrThreads) {
+		if (nrThreads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed, not " + nrThreads);
+		}
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			int current = threads.size() - threadsToStop;
+			if (nrThreads == current) {
+				return;
+			}
+			queueSize = nrThreads * QUEUE_SIZE_PER_THREAD;
+			if (nrThreads > current) {
+				int toStart = nrThreads - current;
+				// Threads that were about to stop can just keep running
+				int kept = Math.min(threadsToStop, toStart);
+				threadsToStop -= kept;
+				for (int i = kept; i < toStart; i++) {
+					Thread thread = threadFactory.newThread(new Runnable() {
+						@Override
+						public void run() {
+							work();
+						}
+					});
+					threads.add(thread);
+					thread.start();
+				}
+			} else {
+				threadsToStop += current - nrThreads;
+				jobAvailable.signalAll();
+			}
+			// Batches that were waiting for room in their queue might have some now
+			stateChanged.signalAll();
+			if (current > 0) {
+				LOGGER.info("Geometry scheduler resized from " + current + " to " + nrThreads + " threads");
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param priority Relative share of the threads this batch gets when other batches are running as well, at least 1
+	 * @param renderEnginePool The pool the jobs of this batch borrow their render engines from
+	 */
+	public Batch createBatch(String name, int priority, RenderEnginePool renderEnginePool) {
+		Batch batch = new Batch(name + " #" + batchCounter.incrementAndGet(), Math.max(1, priority), renderEnginePool);
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IllegalStateException("Geometry scheduler has been closed");
+			}
+			batches.add(batch);
+		} finally {
+			lock.unlock();
+		}
+		return batch;
+	}
+
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			for (Batch batch : batches) {
+				queueDepth -= batch.queue.size();
+				batch.queue.clear();
+			}
+			jobAvailable.signalAll();
+			stateChanged.signalAll();
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getNrThreads() {
+		lock.lock();
+		try {
+			return threads.size() - threadsToStop;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The amount of jobs waiting to be started, over all batches
+	 */
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return queueDepth;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getMaxQueueDepth() {
+		lock.lock();
+		try {
+			return maxQueueDepth;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getRunning() {
+		lock.lock();
+		try {
+			return running;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getNrBatches() {
+		lock.lock();
+		try {
+			return batches.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getCompletedJobs() {
+		lock.lock();
+		try {
+			return completedJobs;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The average time between submitting and starting a job, in milliseconds
+	 */
+	public long getAverageWaitMs() {
+		lock.lock();
+		try {
+			return completedJobs == 0 ? 0 : totalWaitNanos / completedJobs / 1000000;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The average running time of a job, in milliseconds
+	 */
+	public long getAverageRunMs() {
+		lock.lock();
+		try {
+			return completedJobs == 0 ? 0 : totalRunNanos / completedJobs / 1000000;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void work() {
+		while (true) {
+			Job job = null;
+			lock.lock();
+			try {
+				while (!closed && threadsToStop == 0 && (job = take()) == null) {
+					jobAvailable.await();
+				}
+				if (closed) {
+					return;
+				}
+				if (job == null) {
+					// The amount of threads has been lowered
+					threadsToStop--;
+					threads.remove(Thread.currentThread());
+					return;
+				}
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				lock.unlock();
+			}
+			long start = System.nanoTime();
+			try {
+				job.runnable.run();
+			} catch (Throwable e) {
+				LOGGER.error("", e);
+			}
+			long end = System.nanoTime();
+			lock.lock();
+			try {
+				Batch batch = job.batch;
+				batch.running--;
+				batch.completed++;
+				running--;
+				runningPerPool.put(batch.renderEnginePool, runningPerPool.get(batch.renderEnginePool) - 1);
+				completedJobs++;
+				totalWaitNanos += start - job.submitted;
+				totalRunNanos += end - start;
+				batch.totalWaitNanos += start - job.submitted;
+				batch.totalRunNanos += end - start;
+				// A thread and an engine of this pool are available again, and the batch might be done
+				jobAvailable.signalAll();
+				stateChanged.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Takes the next job, from the batch with the lowest amount of running jobs relative to its priority of which the render engine pool is not exhausted. Must be called with the lock held.
+	 */
+	private Job take() {
+		Batch selected = null;
+		for (Batch batch : batches) {
+			if (batch.queue.isEmpty()) {
+				continue;
+			}
+			Integer runningInPool = runningPerPool.get(batch.renderEnginePool);
+			if (runningInPool != null && runningInPool >= batch.renderEnginePool.getMaxSize()) {
+				continue;
+			}
+			if (selected == null) {
+				selected = batch;
+			} else {
+				// Compare running / priority without dividing
+				long compare = (long) batch.running * selected.priority - (long) selected.running * batch.priority;
+				if (compare < 0 || (compare == 0 && batch.lastServed < selected.lastServed)) {
+					selected = batch;
+				}
+			}
+		}
+		if (selected == null) {
+			return null;
+		}
+		Job job = selected.queue.poll();
+		selected.running++;
+		selected.lastServed = nextServed++;
+		queueDepth--;
+		running++;
+		Integer runningInPool = runningPerPool.get(selected.renderEnginePool);
+		runningPerPool.put(selected.renderEnginePool, runningInPool == null ? 1 : runningInPool + 1);
+		// There is room in the queue of this batch again
+		stateChanged.signalAll();
+		return job;
+	}
+
+	private static class Job {
+		private final Batch batch;
+		private final Runnable runnable;
+		private final long submitted = System.nanoTime();
+
+		Job(Batch batch, Runnable runnable) {
+			this.batch = batch;
+			this.runnable = runnable;
+		}
+	}
+
+	/**
+	 * The jobs of one geometry generation run
+	 */
+	public class Batch implements AutoCloseable {
+		private final String name;
+		private final int priority;
+		private final RenderEnginePool renderEnginePool;
+		private final ArrayDeque<Job> queue = new ArrayDeque<>();
+		private final long created = System.nanoTime();
+		private int running;
+		private long lastServed = -1;
+		private long submitted;
+		private long completed;
+		private long totalWaitNanos;
+		private long totalRunNanos;
+		private boolean batchClosed;
+
+		private Batch(String name, int priority, RenderEnginePool renderEnginePool) {
+			this.name = name;
+			this.priority = priority;
+			this.renderEnginePool = renderEnginePool;
+		}
+
+		/**
+		 * Queues a job, blocks when the queue of this batch is full
+		 */
+		public void submit(Runnable runnable) throws InterruptedException {
+			lock.lock();
+			try {
+				while (queue.size() >= queueSize && !closed && !batchClosed) {
+					stateChanged.await();
+				}
+				if (closed || batchClosed) {
+					throw new IllegalStateException("Batch " + name + " has been closed");
+				}
+				queue.add(new Job(this, runnable));
+				submitted++;
+				queueDepth++;
+				maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+				jobAvailable.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits until all submitted jobs have been executed
+		 */
+		public void awaitTermination() throws InterruptedException {
+			lock.lock();
+			try {
+				while ((!queue.isEmpty() || running > 0) && !closed) {
+					stateChanged.await();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Removes this batch from the scheduler, jobs that have not been started yet are dropped
+		 */
+		@Override
+		public void close() {
+			lock.lock();
+			try {
+				if (batchClosed) {
+					return;
+				}
+				batchClosed = true;
+				queueDepth -= queue.size();
+				queue.clear();
+				batches.remove(this);
+				stateChanged.signalAll();
+				if (completed > 0) {
+					LOGGER.debug("Batch " + name + ": " + completed + "/" + submitted + " jobs in " + (System.nanoTime() - created) / 1000000 + "ms, average wait " + totalWaitNanos / completed / 1000000 + "ms, average run " + totalRunNanos / completed / 1000000 + "ms");
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces the number of triangles of a mesh with quadric error metrics (Garland and Heckbert).
+ * 
+ * Collapses are half-edge collapses: one of the two positions of an edge is moved onto the other, so no new positions are introduced. The cost of a collapse is
+ * the sum of the squared distances from the new location to the planes of the triangles around both positions, weighted by their area. Positions on boundary
+ * edges, edges that do not have exactly two triangles, are never moved so openings and outlines are kept, and collapses that would flip a triangle are skipped.
+ * For every side of the bounding box one position on that side is never moved either, since positions only move onto other positions the result keeps the bounds of
+ * the original mesh, also for closed meshes that have no boundary edges.
+ * A vertex that has been moved takes the normal and color of the vertex at its new position with the most similar normal.
+ */
+public class MeshDecimator {
+	private static final int MAX_PASSES = 16;
+
+	private final IntBuffer indices;
+	private final DoubleBuffer vertices;
+	private final FloatBuffer normals;
+	private final ByteBuffer colors;
+	private final int nrVertices;
+	private final int nrTriangles;
+	private final int[] positionOfVertex;
+	private final int[] nextVertexAtPosition;
+	private int[] firstVertexAtPosition;
+	private final List<double[]> positions = new ArrayList<>();
+	private boolean[] locked;
+	private double[][] quadrics;
+	private List<List<Integer>> trianglesOfPosition;
+
+	/**
+	 * @param colors 4 bytes per vertex, or null/empty when the mesh has no vertex colors
+	 */
+	public MeshDecimator(IntBuffer indices, DoubleBuffer vertices, FloatBuffer normals, ByteBuffer colors) {
+		this.indices = indices;
+		this.vertices = vertices;
+		this.normals = normals;
+		this.colors = colors == null || colors.capacity() == 0 ? null : colors;
+		this.nrVertices = vertices.capacity() / 3;
+		this.nrTriangles = indices.capacity() / 3;
+		this.positionOfVertex = new int[nrVertices];
+		this.nextVertexAtPosition = new int[nrVertices];
+		weld();
+		computeQuadrics();
+	}
+
+	public int getNrTriangles() {
+		return nrTriangles;
+	}
+
+	/**
+	 * Render engines duplicate vertices that have different normals, edges are collapsed between the distinct positions
+	 */
+	private void weld() {
+		Map<Position, Integer> positionIds = new HashMap<>();
+		for (int i = 0; i < nrVertices; i++) {
+			Position position = new Position(vertices.get(i * 3), vertices.get(i * 3 + 1), vertices.get(i * 3 + 2));
+			Integer id = positionIds.get(position);
+			if (id == null) {
+				id = positions.size();
+				positionIds.put(position, id);
+				positions.add(position.coordinates);
+			}
+			positionOfVertex[i] = id;
+		}
+		firstVertexAtPosition = new int[positions.size()];
+		Arrays.fill(firstVertexAtPosition, -1);
+		for (int i = nrVertices - 1; i >= 0; i--) {
+			nextVertexAtPosition[i] = firstVertexAtPosition[positionOfVertex[i]];
+			firstVertexAtPosition[positionOfVertex[i]] = i;
+		}
+	}
+
+	/**
+	 * Sums the plane quadrics of the triangles around every position and locks the positions on boundary edges and on the sides of the bounding box
+	 */
+	private void computeQuadrics() {
+		quadrics = new double[positions.size()][10];
+		trianglesOfPosition = new ArrayList<>(positions.size());
+		for (int i = 0; i < positions.size(); i++) {
+			trianglesOfPosition.add(new ArrayList<>());
+		}
+		Map<Long, Integer> edgeTriangles = new HashMap<>();
+		for (int i = 0; i < nrTriangles; i++) {
+			int a = positionOfVertex[indices.get(i * 3)];
+			int b = positionOfVertex[indices.get(i * 3 + 1)];
+			int c = positionOfVertex[indices.get(i * 3 + 2)];
+			if (a == b || b == c || a == c) {
+				continue;
+			}
+			edgeTriangles.merge(edge(a, b), 1, Integer::sum);
+			edgeTriangles.merge(edge(b, c), 1, Integer::sum);
+			edgeTriangles.merge(edge(a, c), 1, Integer::sum);
+			trianglesOfPosition.get(a).add(i);
+			trianglesOfPosition.get(b).add(i);
+			trianglesOfPosition.get(c).add(i);
+			double[] normal = normal(a, b, c);
+			double length = Math.sqrt(dot(normal, normal));
+			if (length == 0) {
+				continue;
+			}
+			double[] point = positions.get(a);
+			double nx = normal[0] / length;
+			double ny = normal[1] / length;
+			double nz = normal[2] / length;
+			double d = -(nx * point[0] + ny * point[1] + nz * point[2]);
+			// The length of the cross product is twice the area of the triangle
+			double area = length / 2;
+			for (int position : new int[] {a, b, c}) {
+				addPlane(quadrics[position], nx, ny, nz, d, area);
+			}
+		}
+		locked = new boolean[positions.size()];
+		for (Map.Entry<Long, Integer> entry : edgeTriangles.entrySet()) {
+			if (entry.getValue() != 2) {
+				locked[(int) (entry.getKey() >>> 32)] = true;
+				locked[(int) (long) entry.getKey()] = true;
+			}
+		}
+		// Only one position per side is locked, locking all of them would freeze the flat sides of boxes and extrusions
+		int[] extremes = new int[] {-1, -1, -1, -1, -1, -1};
+		for (int i = 0; i < positions.size(); i++) {
+			if (trianglesOfPosition.get(i).isEmpty()) {
+				continue;
+			}
+			double[] position = positions.get(i);
+			for (int j = 0; j < 3; j++) {
+				if (extremes[j] == -1 || position[j] < positions.get(extremes[j])[j]) {
+					extremes[j] = i;
+				}
+				if (extremes[j + 3] == -1 || position[j] > positions.get(extremes[j + 3])[j]) {
+					extremes[j + 3] = i;
+				}
+			}
+		}
+		for (int extreme : extremes) {
+			if (extreme != -1) {
+				locked[extreme] = true;
+			}
+		}
+	}
+
+	/**
+	 * @param ratio The fraction of the triangles to keep, the result can have more triangles when not enough edges can be collapsed
+	 * @return The decimated mesh, indices as ints, vertices as doubles and normals as floats, all little endian, the colors buffer is empty when the mesh has no vertex colors
+	 */
+	public BufferSet decimate(float ratio) {
+		int target = (int) (nrTriangles * ratio);
+		int[] parent = new int[positions.size()];
+		double[][] quadrics = new double[this.quadrics.length][];
+		List<List<Integer>> triangles = new ArrayList<>(parent.length);
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+			quadrics[i] = this.quadrics[i].clone();
+			triangles.add(new ArrayList<>(trianglesOfPosition.get(i)));
+		}
+		for (int pass = 0; pass < MAX_PASSES; pass++) {
+			Map<Long, Integer> edgeTriangles = new HashMap<>();
+			int live = 0;
+			for (int i = 0; i < nrTriangles; i++) {
+				int a = find(parent, positionOfVertex[indices.get(i * 3)]);
+				int b = find(parent, positionOfVertex[indices.get(i * 3 + 1)]);
+				int c = find(parent, positionOfVertex[indices.get(i * 3 + 2)]);
+				if (a == b || b == c || a == c) {
+					continue;
+				}
+				live++;
+				edgeTriangles.merge(edge(a, b), 1, Integer::sum);
+				edgeTriangles.merge(edge(b, c), 1, Integer::sum);
+				edgeTriangles.merge(edge(a, c), 1, Integer::sum);
+			}
+			if (live <= target) {
+				break;
+			}
+			List<Long> edges = new ArrayList<>();
+			List<Double> costs = new ArrayList<>();
+			List<Integer> froms = new ArrayList<>();
+			for (long edge : edgeTriangles.keySet()) {
+				int a = (int) (edge >>> 32);
+				int b = (int) edge;
+				if (locked[a] && locked[b]) {
+					continue;
+				}
+				double[] quadric = sum(quadrics[a], quadrics[b]);
+				double costOntoA = locked[b] ? Double.MAX_VALUE : error(quadric, positions.get(a));
+				double costOntoB = locked[a] ? Double.MAX_VALUE : error(quadric, positions.get(b));
+				edges.add(edge);
+				costs.add(Math.min(costOntoA, costOntoB));
+				froms.add(costOntoA <= costOntoB ? b : a);
+			}
+			Integer[] order = new Integer[edges.size()];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (o1, o2) -> Double.compare(costs.get(o1), costs.get(o2)));
+
+			// Positions are collapsed at most once per pass, so the costs used for sorting stay valid
+			boolean[] touched = new boolean[positions.size()];
+			int removed = 0;
+			for (int index : order) {
+				if (live - removed <= target) {
+					break;
+				}
+				long edge = edges.get(index);
+				int from = froms.get(index);
+				int to = from == (int) (edge >>> 32) ? (int) edge : (int) (edge >>> 32);
+				if (touched[from] || touched[to] || flips(parent, triangles.get(from), from, to)) {
+					continue;
+				}
+				parent[from] = to;
+				quadrics[to] = sum(quadrics[from], quadrics[to]);
+				triangles.get(to).addAll(triangles.get(from));
+				touched[from] = true;
+				touched[to] = true;
+				removed += edgeTriangles.get(edge);
+			}
+			if (removed == 0) {
+				break;
+			}
+		}
+		return build(parent);
+	}
+
+	/**
+	 * @return Whether moving position from onto position to turns one of the remaining triangles around from upside down
+	 */
+	private boolean flips(int[] parent, List<Integer> triangles, int from, int to) {
+		for (int triangle : triangles) {
+			int a = find(parent, positionOfVertex[indices.get(triangle * 3)]);
+			int b = find(parent, positionOfVertex[indices.get(triangle * 3 + 1)]);
+			int c = find(parent, positionOfVertex[indices.get(triangle * 3 + 2)]);
+			if (a == b || b == c || a == c || a == to || b == to || c == to) {
+				// Already gone, or removed by this collapse
+				continue;
+			}
+			double[] before = normal(a, b, c);
+			double[] after = normal(a == from ? to : a, b == from ? to : b, c == from ? to : c);
+			if (dot(before, after) <= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private BufferSet build(int[] parent) {
+		int[] newVertexIds = new int[nrVertices];
+		Arrays.fill(newVertexIds, -1);
+		int nrNewVertices = 0;
+		List<Integer> newIndices = new ArrayList<>();
+		for (int i = 0; i < nrTriangles; i++) {
+			int v1 = indices.get(i * 3);
+			int v2 = indices.get(i * 3 + 1);
+			int v3 = indices.get(i * 3 + 2);
+			int a = find(parent, positionOfVertex[v1]);
+			int b = find(parent, positionOfVertex[v2]);
+			int c = find(parent, positionOfVertex[v3]);
+			if (a == b || b == c || a == c) {
+				continue;
+			}
+			for (int v : new int[] {representative(v1, a), representative(v2, b), representative(v3, c)}) {
+				if (newVertexIds[v] == -1) {
+					newVertexIds[v] = nrNewVertices++;
+				}
+				newIndices.add(newVertexIds[v]);
+			}
+		}
+
+		ByteBuffer indicesBuffer = ByteBuffer.allocate(newIndices.size() * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < newIndices.size(); i++) {
+			indicesBuffer.putInt(i * 4, newIndices.get(i));
+		}
+		ByteBuffer verticesBuffer = ByteBuffer.allocate(nrNewVertices * 3 * 8).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer normalsBuffer = ByteBuffer.allocate(nrNewVertices * 3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer colorsBuffer = ByteBuffer.allocate(colors == null ? 0 : nrNewVertices * 4);
+		for (int v = 0; v < nrVertices; v++) {
+			int newId = newVertexIds[v];
+			if (newId == -1) {
+				continue;
+			}
+			double[] position = positions.get(positionOfVertex[v]);
+			for (int j = 0; j < 3; j++) {
+				verticesBuffer.putDouble((newId * 3 + j) * 8, position[j]);
+				normalsBuffer.putFloat((newId * 3 + j) * 4, normals.get(v * 3 + j));
+			}
+			if (colors != null) {
+				for (int j = 0; j < 4; j++) {
+					colorsBuffer.put(newId * 4 + j, colors.get(v * 4 + j));
+				}
+			}
+		}
+		return new BufferSet(indicesBuffer, verticesBuffer, normalsBuffer, colorsBuffer);
+	}
+
+	/**
+	 * @return The vertex at the given position with the normal closest to the normal of the given vertex
+	 */
+	private int representative(int vertex, int position) {
+		if (positionOfVertex[vertex] == position) {
+			return vertex;
+		}
+		int best = -1;
+		float bestDot = -Float.MAX_VALUE;
+		for (int candidate = firstVertexAtPosition[position]; candidate != -1; candidate = nextVertexAtPosition[candidate]) {
+			float dot = 0;
+			for (int j = 0; j < 3; j++) {
+				dot += normals.get(vertex * 3 + j) * normals.get(candidate * 3 + j);
+			}
+			if (dot > bestDot) {
+				bestDot = dot;
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return The cross product of the edges of the triangle, its length is twice the area of the triangle
+	 */
+	private double[] normal(int a, int b, int c) {
+		double[] p1 = positions.get(a);
+		double[] p2 = positions.get(b);
+		double[] p3 = positions.get(c);
+		double ux = p2[0] - p1[0];
+		double uy = p2[1] - p1[1];
+		double uz = p2[2] - p1[2];
+		double vx = p3[0] - p1[0];
+		double vy = p3[1] - p1[1];
+		double vz = p3[2] - p1[2];
+		return new double[] {uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx};
+	}
+
+	private static double dot(double[] v1, double[] v2) {
+		return v1[0] * v2[0] + v1[1] * v2[1] + v1[2] * v2[2];
+	}
+
+	/**
+	 * Quadrics are stored as the upper triangle of the symmetric 4x4 matrix: aa, ab, ac, ad, bb, bc, bd, cc, cd, dd
+	 */
+	private static void addPlane(double[] quadric, double a, double b, double c, double d, double weight) {
+		quadric[0] += weight * a * a;
+		quadric[1] += weight * a * b;
+		quadric[2] += weight * a * c;
+		quadric[3] += weight * a * d;
+		quadric[4] += weight * b * b;
+		quadric[5] += weight * b * c;
+		quadric[6] += weight * b * d;
+		quadric[7] += weight * c * c;
+		quadric[8] += weight * c * d;
+		quadric[9] += weight * d * d;
+	}
+
+	private static double[] sum(double[] q1, double[] q2) {
+		double[] result = new double[10];
+		for (int i = 0; i < 10; i++) {
+			result[i] = q1[i] + q2[i];
+		}
+		return result;
+	}
+
+	private static double error(double[] q, double[] p) {
+		double x = p[0];
+		double y = p[1];
+		double z = p[2];
+		return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y + q[7] * z * z + 2 * q[8] * z + q[9];
+	}
+
+	private static long edge(int a, int b) {
+		return a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+	}
+
+	private static int find(int[] parent, int position) {
+		while (parent[position] != position) {
+			parent[position] = parent[parent[position]];
+			position = parent[position];
+		}
+		return position;
+	}
+
+	private static class Position {
+		private final double[] coordinates;
+
+		public Position(double x, double y, double z) {
+			this.coordinates = new double[] {x, y, z};
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(coordinates);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Position && Arrays.equals(coordinates, ((Position) obj).coordinates);
+		}
+	}
+}
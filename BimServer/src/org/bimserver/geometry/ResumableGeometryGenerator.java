@@ -0,0 +1,276 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bimserver.BimServer;
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.GenerateGeometryResult;
+import org.bimserver.GeometryGeneratingException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.GeometryCheckpoint;
+import org.bimserver.database.GeometryCheckpointStore;
+import org.bimserver.database.OldQuery;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.SpatialIndexEntry;
+import org.bimserver.database.actions.AbstractDownloadDatabaseAction;
+import org.bimserver.database.actions.ProgressListener;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Include;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.models.geometry.Bounds;
+import org.bimserver.models.geometry.GeometryFactory;
+import org.bimserver.models.geometry.GeometryPackage;
+import org.bimserver.models.geometry.Vector3f;
+import org.bimserver.models.store.ConcreteRevision;
+import org.bimserver.models.store.Revision;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.HashMapWrappedVirtualObject;
+import org.bimserver.shared.QueryContext;
+import org.bimserver.shared.exceptions.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates the geometry of a stored revision in parts of at most PRODUCTS_PER_PART products. Every part is committed in its own transaction, together with a checkpoint in the {@link GeometryCheckpointStore}
+ * describing which products are done and which meshes have been generated. When a generation gets interrupted (server restart, crash), running it again for the same revision continues with the
+ * products that are not done yet, the way it was started.
+ */
+public class ResumableGeometryGenerator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ResumableGeometryGenerator.class);
+	private static final int PRODUCTS_PER_PART = 5000;
+
+	private final BimServer bimServer;
+	private final ProgressListener progressListener;
+	private final Long eoid;
+	private final GeometryGenerationReport report;
+	private String renderEngineName;
+
+	public ResumableGeometryGenerator(BimServer bimServer, ProgressListener progressListener, Long eoid, GeometryGenerationReport report) {
+		this.bimServer = bimServer;
+		this.progressListener = progressListener;
+		this.eoid = eoid;
+		this.report = report;
+	}
+
+	/**
+	 * Generates and commits the geometry of all products that are not done yet, call {@link #finish(DatabaseSession, QueryContext)} afterwards
+	 * 
+	 * @param onlyMissing Only generate geometry for products that have a representation but no geometry, instead of for all products with a representation. Ignored when an unfinished generation is resumed
+	 */
+	public void generateParts(long uoid, long roid, boolean onlyMissing) throws BimserverDatabaseException, GeometryGeneratingException {
+		GeometryCheckpointStore geometryCheckpointStore = bimServer.getDatabase().getGeometryCheckpointStore();
+		GeometryCheckpoint geometryCheckpoint;
+		List<Long> todo;
+		try (DatabaseSession databaseSession = bimServer.getDatabase().createSession(OperationType.READ_ONLY)) {
+			QueryContext queryContext = createQueryContext(databaseSession, roid);
+			geometryCheckpoint = geometryCheckpointStore.read(queryContext.getPid(), queryContext.getRid(), databaseSession);
+			Set<Long> done = Collections.emptySet();
+			if (geometryCheckpoint == null) {
+				geometryCheckpoint = new GeometryCheckpoint();
+				geometryCheckpoint.setOnlyMissing(onlyMissing);
+				ConcreteRevision concreteRevision = ((Revision) databaseSession.get(roid, OldQuery.getDefault())).getConcreteRevisions().get(0);
+				if (onlyMissing && concreteRevision.getBounds() != null && concreteRevision.getBoundsUntransformed() != null) {
+					// The existing geometry has been quantized with these bounds
+					setBounds(geometryCheckpoint, concreteRevision.getBounds(), concreteRevision.getBoundsUntransformed());
+				}
+			} else {
+				done = geometryCheckpointStore.readProductOids(queryContext.getPid(), queryContext.getRid(), databaseSession);
+				LOGGER.info("Resuming geometry generation of revision " + roid + ", " + done.size() + " products already done");
+			}
+			todo = findProducts(databaseSession, queryContext, geometryCheckpoint.isOnlyMissing(), done);
+		} catch (IOException | QueryException e) {
+			throw new GeometryGeneratingException(e);
+		}
+
+		int nrParts = (todo.size() + PRODUCTS_PER_PART - 1) / PRODUCTS_PER_PART;
+		for (int part = 0; part < nrParts; part++) {
+			Set<Long> productOids = new HashSet<>(todo.subList(part * PRODUCTS_PER_PART, Math.min(todo.size(), (part + 1) * PRODUCTS_PER_PART)));
+			int partNumber = part;
+			ProgressListener partProgressListener = new ProgressListener() {
+				@Override
+				public void updateProgress(String state, int percentage) {
+					if (progressListener != null) {
+						progressListener.updateProgress(state, (int) ((100L * partNumber + percentage) / nrParts));
+					}
+				}
+			};
+			try (DatabaseSession databaseSession = bimServer.getDatabase().createSession(OperationType.POSSIBLY_WRITE)) {
+				QueryContext queryContext = createQueryContext(databaseSession, roid);
+				if (part == 0 && !bimServer.getDatabase().getSpatialIndex().hasIndex(queryContext.getPid(), queryContext.getRid(), databaseSession)) {
+					// Every part adds its products to the spatial index of the revision, that only works when the products that already have geometry are in there
+					seedSpatialIndex(databaseSession, queryContext);
+				}
+				StreamingGeometryGenerator streamingGeometryGenerator = new StreamingGeometryGenerator(bimServer, partProgressListener, eoid, report);
+				if (geometryCheckpoint.hasBounds()) {
+					streamingGeometryGenerator.setIncremental(productOids, queryContext.getRid(), toBounds(geometryCheckpoint.getMin(), geometryCheckpoint.getMax()), toBounds(geometryCheckpoint.getMinUntransformed(), geometryCheckpoint.getMaxUntransformed()));
+				} else {
+					streamingGeometryGenerator.setIncremental(productOids, queryContext.getRid(), null, null);
+				}
+				streamingGeometryGenerator.preloadHashes(geometryCheckpointStore.readHashes(queryContext.getPid(), queryContext.getRid(), databaseSession));
+				GenerateGeometryResult generateGeometryResult = streamingGeometryGenerator.generateGeometry(uoid, databaseSession, queryContext, productOids.size());
+				renderEngineName = streamingGeometryGenerator.getRenderEngineName();
+
+				if (generateGeometryResult.getMinX() <= generateGeometryResult.getMaxX()) {
+					if (geometryCheckpoint.hasBounds() && grown(geometryCheckpoint, generateGeometryResult)) {
+						// Vertices quantized by earlier parts do not fit the bounds anymore
+						geometryCheckpoint.setRequantize(true);
+					}
+					geometryCheckpoint.setBounds(generateGeometryResult.getMin().clone(), generateGeometryResult.getMax().clone(),
+						new double[] { generateGeometryResult.getUntranslatedMinX(), generateGeometryResult.getUntranslatedMinY(), generateGeometryResult.getUntranslatedMinZ() },
+						new double[] { generateGeometryResult.getUntranslatedMaxX(), generateGeometryResult.getUntranslatedMaxY(), generateGeometryResult.getUntranslatedMaxZ() });
+				}
+				geometryCheckpoint.setMultiplierToMm(generateGeometryResult.getMultiplierToMm());
+				geometryCheckpointStore.write(queryContext.getPid(), queryContext.getRid(), geometryCheckpoint, productOids, streamingGeometryGenerator.getNewHashes(), databaseSession);
+				databaseSession.commit();
+				LOGGER.debug("Committed part " + (part + 1) + " of " + nrParts + " (" + productOids.size() + " products)");
+			} catch (IOException | QueryException | ServiceException e) {
+				throw new GeometryGeneratingException(e);
+			}
+		}
+	}
+
+	/**
+	 * Completes the generation in the given session: quantizes the vertices again when the bounds have grown while generating and removes the checkpoint
+	 * 
+	 * @return The bounds and unit of all geometry of the revision, or null when there was nothing to generate
+	 */
+	public GenerateGeometryResult finish(DatabaseSession databaseSession, QueryContext queryContext) throws BimserverDatabaseException, GeometryGeneratingException {
+		GeometryCheckpointStore geometryCheckpointStore = bimServer.getDatabase().getGeometryCheckpointStore();
+		GeometryCheckpoint geometryCheckpoint = geometryCheckpointStore.read(queryContext.getPid(), queryContext.getRid(), databaseSession);
+		if (geometryCheckpoint == null) {
+			return null;
+		}
+		GenerateGeometryResult generateGeometryResult = new GenerateGeometryResult();
+		generateGeometryResult.setMultiplierToMm(geometryCheckpoint.getMultiplierToMm());
+		if (geometryCheckpoint.hasBounds()) {
+			Bounds boundsUntransformed = toBounds(geometryCheckpoint.getMinUntransformed(), geometryCheckpoint.getMaxUntransformed());
+			generateGeometryResult.includeBounds(toBounds(geometryCheckpoint.getMin(), geometryCheckpoint.getMax()), boundsUntransformed);
+			if (geometryCheckpoint.isRequantize()) {
+				LOGGER.info("Bounds have grown during geometry generation, quantizing vertices again");
+				try {
+					new StreamingGeometryGenerator(bimServer, null, eoid, report).requantize(databaseSession, queryContext, boundsUntransformed, geometryCheckpoint.getMultiplierToMm());
+				} catch (IOException | QueryException e) {
+					throw new GeometryGeneratingException(e);
+				}
+			}
+		}
+		geometryCheckpointStore.delete(queryContext.getPid(), queryContext.getRid(), databaseSession);
+		return generateGeometryResult;
+	}
+
+	public String getRenderEngineName() {
+		return renderEngineName;
+	}
+
+	private QueryContext createQueryContext(DatabaseSession databaseSession, long roid) throws BimserverDatabaseException {
+		Revision revision = databaseSession.get(roid, OldQuery.getDefault());
+		ConcreteRevision concreteRevision = revision.getConcreteRevisions().get(0);
+		PackageMetaData packageMetaData = bimServer.getMetaDataManager().getPackageMetaData(revision.getProject().getSchema());
+		int highestStopId = AbstractDownloadDatabaseAction.findHighestStopRid(concreteRevision.getProject(), concreteRevision);
+		return new QueryContext(databaseSession, packageMetaData, revision.getProject().getId(), revision.getId(), roid, concreteRevision.getOid(), highestStopId);
+	}
+
+	/**
+	 * @return The oids of the products with a representation that are not done yet, in oid order
+	 */
+	private List<Long> findProducts(DatabaseSession databaseSession, QueryContext queryContext, boolean onlyMissing, Set<Long> done) throws BimserverDatabaseException, IOException, QueryException {
+		PackageMetaData packageMetaData = queryContext.getPackageMetaData();
+		Query query = new Query("Products", packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(queryContext.getRoid()), packageMetaData);
+		List<Long> result = new ArrayList<>();
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			if (next.get("Representation") != null && !done.contains(next.getOid()) && (!onlyMissing || next.get("geometry") == null)) {
+				result.add(next.getOid());
+			}
+			next = queryObjectProvider.next();
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Writes a spatial index of the revision with the products that already have geometry, nothing is written when there are none
+	 */
+	private void seedSpatialIndex(DatabaseSession databaseSession, QueryContext queryContext) throws BimserverDatabaseException, IOException, QueryException {
+		PackageMetaData packageMetaData = queryContext.getPackageMetaData();
+		Query query = new Query("Spatial index", packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+		Include include = queryPart.createInclude();
+		include.addType(packageMetaData.getEClass("IfcProduct"), true);
+		include.addField("geometry");
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(queryContext.getRoid()), packageMetaData);
+		List<SpatialIndexEntry> entries = new ArrayList<>();
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			if (next.eClass() == GeometryPackage.eINSTANCE.getGeometryInfo()) {
+				HashMapWrappedVirtualObject boundsMm = (HashMapWrappedVirtualObject) next.eGet(GeometryPackage.eINSTANCE.getGeometryInfo_BoundsMm());
+				Float density = (Float) next.eGet(GeometryPackage.eINSTANCE.getGeometryInfo_Density());
+				if (boundsMm != null) {
+					entries.add(SpatialIndexEntry.create((Long) next.eGet(GeometryPackage.eINSTANCE.getGeometryInfo_IfcProductOid()), density == null ? 0 : density, boundsMm));
+				}
+			}
+			next = queryObjectProvider.next();
+		}
+		LOGGER.debug("Seeding spatial index with " + entries.size() + " products");
+		bimServer.getDatabase().getSpatialIndex().write(queryContext.getPid(), queryContext.getRid(), entries, databaseSession);
+	}
+
+	private boolean grown(GeometryCheckpoint geometryCheckpoint, GenerateGeometryResult generateGeometryResult) {
+		double[] minUntransformed = geometryCheckpoint.getMinUntransformed();
+		double[] maxUntransformed = geometryCheckpoint.getMaxUntransformed();
+		return generateGeometryResult.getUntranslatedMinX() < minUntransformed[0] || generateGeometryResult.getUntranslatedMinY() < minUntransformed[1] || generateGeometryResult.getUntranslatedMinZ() < minUntransformed[2]
+			|| generateGeometryResult.getUntranslatedMaxX() > maxUntransformed[0] || generateGeometryResult.getUntranslatedMaxY() > maxUntransformed[1] || generateGeometryResult.getUntranslatedMaxZ() > maxUntransformed[2];
+	}
+
+	private void setBounds(GeometryCheckpoint geometryCheckpoint, Bounds bounds, Bounds boundsUntransformed) {
+		geometryCheckpoint.setBounds(toArray(bounds.getMin()), toArray(bounds.getMax()), toArray(boundsUntransformed.getMin()), toArray(boundsUntransformed.getMax()));
+	}
+
+	private double[] toArray(Vector3f vector) {
+		return new double[] { vector.getX(), vector.getY(), vector.getZ() };
+	}
+
+	private Bounds toBounds(double[] min, double[] max) {
+		Bounds bounds = GeometryFactory.eINSTANCE.createBounds();
+		Vector3f minVector = GeometryFactory.eINSTANCE.createVector3f();
+		minVector.setX(min[0]);
+		minVector.setY(min[1]);
+		minVector.setZ(min[2]);
+		Vector3f maxVector = GeometryFactory.eINSTANCE.createVector3f();
+		maxVector.setX(max[0]);
+		maxVector.setY(max[1]);
+		maxVector.setZ(max[2]);
+		bounds.setMin(minVector);
+		bounds.setMax(maxVector);
+		return bounds;
+	}
+}
@@ -34,10 +34,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -49,7 +46,10 @@ import org.bimserver.GenericGeometryGenerator;
 import org.bimserver.GeometryGeneratingException;
 import org.bimserver.ProductDef;
 import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.GeometryBufferStore;
+import org.bimserver.database.GeometryLod;
 import org.bimserver.database.OldQuery;
+import org.bimserver.database.SpatialIndexEntry;
 import org.bimserver.database.actions.ProgressListener;
 import org.bimserver.database.queries.QueryObjectProvider;
 import org.bimserver.database.queries.om.Include;
@@ -62,6 +62,7 @@ import org.bimserver.emf.Schema;
 import org.bimserver.models.geometry.Bounds;
 import org.bimserver.models.geometry.GeometryPackage;
 import org.bimserver.models.geometry.Vector3f;
+import org.bimserver.models.store.ConcreteRevision;
 import org.bimserver.models.store.RenderEnginePluginConfiguration;
 import org.bimserver.models.store.User;
 import org.bimserver.models.store.UserSettings;
@@ -88,11 +89,22 @@ import org.eclipse.emf.ecore.EStructuralFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	static final Logger LOGGER = LoggerFactory.getLogger(StreamingGeometryGenerator.class);
 	
 	final BimServer bimServer;
-	final Map<Integer, Long> hashes = new ConcurrentHashMap<>();
+	final Map<HashCode, Long> hashes = new ConcurrentHashMap<>();
+	// Hashes of meshes generated by an earlier, checkpointed part of this generation, the GeometryData they refer to are read when they are first reused
+	private final Set<HashCode> preloadedHashes = new HashSet<>();
+	private QueryObjectProvider geometryDataProvider;
+	
+	// Hash to oid of the Buffers read or stored during this run, and the ones that have been stored and need to be added to the GeometryBufferStore
+	private final Map<ByteBuffer, Long> bufferHashes = new ConcurrentHashMap<>();
+	private final Map<ByteBuffer, Long> newBufferHashes = new ConcurrentHashMap<>();
 
 	private EClass productClass;
 	EReference geometryFeature;
@@ -102,6 +114,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	AtomicLong bytesSavedByHash = new AtomicLong();
 	private AtomicLong bytesSavedByTransformation = new AtomicLong();
 	AtomicLong bytesSavedByMapping = new AtomicLong();
+	private AtomicLong bytesSavedByBufferReuse = new AtomicLong();
 	AtomicLong totalBytes = new AtomicLong();
 
 	AtomicInteger jobsDone = new AtomicInteger();
@@ -131,17 +144,130 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	
 	private final Map<Long, Tuple<HashMapVirtualObject, ByteBuffer>> geometryDataMap = new ConcurrentHashMap<>();
 
+	// Levels of detail per GeometryData oid, their vertices are kept to quantize them with the bounds of the whole model at the end
+	private final Map<Long, List<GeometryLod>> geometryLods = new ConcurrentHashMap<>();
+	private final Map<GeometryLod, ByteBuffer> geometryLodVertices = new ConcurrentHashMap<>();
+
 	private GeometryGenerationDebugger geometryGenerationDebugger = new GeometryGenerationDebugger();
 
 	private boolean applyLayerSets;
 
 	private boolean calculateQuantities;
 
+	// When set, only the geometry of these products is generated, the other products keep the geometry of the previous revision
+	private Set<Long> productOids;
+	private int previousRid = -1;
+	private Bounds previousBounds;
+	private Bounds previousBoundsUntransformed;
+	private int priority = GeometryScheduler.DEFAULT_PRIORITY;
+	private final boolean encodeGeometry;
+	private final int lodLevels;
+
 	public StreamingGeometryGenerator(final BimServer bimServer, ProgressListener progressListener, Long eoid, GeometryGenerationReport report) {
 		this.bimServer = bimServer;
 		this.progressListener = progressListener;
 		this.eoid = eoid;
 		this.report = report;
+		this.encodeGeometry = bimServer.getConfig().isEncodeGeometry();
+		this.lodLevels = bimServer.getConfig().getLodLevels();
+	}
+	
+	/**
+	 * Only generate geometry for the given products, the geometry of all other products is the geometry they had in the given previous revision. The bounds of the result are grown from the bounds of the previous revision
+	 * and the spatial index of the previous revision is copied (without the given products)
+	 */
+	public void setIncremental(Set<Long> productOids, ConcreteRevision previousConcreteRevision) {
+		setIncremental(productOids, previousConcreteRevision.getId(), previousConcreteRevision.getBounds(), previousConcreteRevision.getBoundsUntransformed());
+	}
+
+	/**
+	 * @param previousRid The revision to copy the spatial index from, this can be the revision geometry is generated for when it is generated in parts
+	 * @param bounds The bounds to grow the bounds of the result from, or null
+	 */
+	public void setIncremental(Set<Long> productOids, int previousRid, Bounds bounds, Bounds boundsUntransformed) {
+		this.productOids = productOids;
+		this.previousRid = previousRid;
+		this.previousBounds = bounds;
+		this.previousBoundsUntransformed = boundsUntransformed;
+	}
+
+	/**
+	 * @return Whether the bounds of the result of an incremental generation exceed the bounds it has been started from. The products that have not been generated again were quantized with those bounds, so the vertices have
+	 *         to be quantized again with {@link #requantize(DatabaseSession, QueryContext, Bounds, float)}
+	 */
+	public boolean boundsGrown(GenerateGeometryResult generateGeometryResult) {
+		if (productOids == null || generateGeometryResult.getMinX() > generateGeometryResult.getMaxX()) {
+			return false;
+		}
+		if (previousBoundsUntransformed == null) {
+			// Unknown with what bounds the reused geometry has been quantized
+			return true;
+		}
+		Vector3f min = previousBoundsUntransformed.getMin();
+		Vector3f max = previousBoundsUntransformed.getMax();
+		return generateGeometryResult.getUntranslatedMinX() < min.getX() || generateGeometryResult.getUntranslatedMinY() < min.getY() || generateGeometryResult.getUntranslatedMinZ() < min.getZ()
+			|| generateGeometryResult.getUntranslatedMaxX() > max.getX() || generateGeometryResult.getUntranslatedMaxY() > max.getY() || generateGeometryResult.getUntranslatedMaxZ() > max.getZ();
+	}
+
+	/**
+	 * Makes meshes generated by an earlier part of the same generation available for reuse by hash
+	 * 
+	 * @param hashes Hash of a mesh to the oid of the GeometryData it has been stored in
+	 */
+	public void preloadHashes(Map<ByteBuffer, Long> hashes) {
+		for (Map.Entry<ByteBuffer, Long> entry : hashes.entrySet()) {
+			HashCode hashCode = HashCode.fromBytes(entry.getKey().array());
+			this.hashes.put(hashCode, entry.getValue());
+			preloadedHashes.add(hashCode);
+		}
+	}
+
+	/**
+	 * @return The hashes of the meshes stored by this run (see {@link #preloadHashes(Map)}), only available after {@link #generateGeometry(long, DatabaseSession, QueryContext, long)}
+	 */
+	public Map<ByteBuffer, Long> getNewHashes() {
+		Map<ByteBuffer, Long> result = new HashMap<>();
+		for (Map.Entry<HashCode, Long> entry : hashes.entrySet()) {
+			if (!preloadedHashes.contains(entry.getKey())) {
+				result.put(ByteBuffer.wrap(entry.getKey().asBytes()), entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return The GeometryData with the given oid that has been stored for a mesh with the same hash, which is read from the database when it was stored by an earlier part of the generation
+	 */
+	HashMapVirtualObject getGeometryData(DatabaseSession databaseSession, QueryContext queryContext, long oid) throws BimserverDatabaseException {
+		HashMapVirtualObject geometryData = databaseSession.getFromCache(oid);
+		if (geometryData != null || preloadedHashes.isEmpty()) {
+			return geometryData;
+		}
+		synchronized (preloadedHashes) {
+			geometryData = databaseSession.getFromCache(oid);
+			if (geometryData == null) {
+				try {
+					if (geometryDataProvider == null) {
+						geometryDataProvider = new QueryObjectProvider(databaseSession, bimServer, new Query("GeometryData", packageMetaData), Collections.singleton(queryContext.getRoid()), packageMetaData);
+						geometryDataProvider.addQueryContext(queryContext);
+					}
+				} catch (IOException | QueryException e) {
+					throw new BimserverDatabaseException(e);
+				}
+				geometryData = geometryDataProvider.getByOid(oid);
+				if (geometryData != null) {
+					databaseSession.cachePinned(geometryData);
+				}
+			}
+			return geometryData;
+		}
+	}
+	
+	/**
+	 * @param priority The share of the geometry threads this run gets while other runs are active, see GeometryScheduler
+	 */
+	public void setPriority(int priority) {
+		this.priority = priority;
 	}
 	
 	void updateProgress() {
@@ -160,6 +286,10 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	@SuppressWarnings("unchecked")
 	public GenerateGeometryResult generateGeometry(long uoid, final DatabaseSession databaseSession, QueryContext queryContext, long nrObjects) throws BimserverDatabaseException, GeometryGeneratingException {
 		GenerateGeometryResult generateGeometryResult = new GenerateGeometryResult();
+		if (previousBounds != null && previousBoundsUntransformed != null) {
+			// Keeps the quantization of the reused geometry valid as long as the changed products stay within the old bounds
+			generateGeometryResult.includeBounds(previousBounds, previousBoundsUntransformed);
+		}
 		packageMetaData = queryContext.getPackageMetaData();
 		productClass = packageMetaData.getEClass("IfcProduct");
 		geometryFeature = (EReference) productClass.getEStructuralFeature("geometry");
@@ -190,6 +320,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		report.setUseMappingOptimization(optimizeMappedItems);
 		report.setReuseGeometry(reuseGeometry);
 
+		GeometryScheduler.Batch batch = null;
 		try {
 			final StreamingSerializerPlugin ifcSerializerPlugin = (StreamingSerializerPlugin) bimServer.getPluginManager().getPlugin(pluginName, true);
 			if (ifcSerializerPlugin == null) {
@@ -215,11 +346,6 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 
 			int availableProcessors = Runtime.getRuntime().availableProcessors();
 			report.setAvailableProcessors(availableProcessors);
-			
-			int maxSimultanousThreads = Math.min(bimServer.getServerSettingsCache().getServerSettings().getRenderEngineProcesses(), availableProcessors);
-			if (maxSimultanousThreads < 1) {
-				maxSimultanousThreads = 1;
-			}
 
 			final RenderEngineSettings settings = new RenderEngineSettings();
 			settings.setPrecision(Precision.SINGLE);
@@ -250,9 +376,8 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 				renderEnginePool.returnObject(engine);
 			}
 			
-			// TODO reuse, pool the pools :) Or something smarter
-			// TODO reuse queue, or try to determine a realistic size, or don't use a fixed-size queue
-			ThreadPoolExecutor executor = new ThreadPoolExecutor(maxSimultanousThreads, maxSimultanousThreads, 24, TimeUnit.HOURS, new ArrayBlockingQueue<Runnable>(10000000));
+			// The threads are shared with all other geometry generation runs of this server
+			batch = bimServer.getGeometryScheduler().createBatch(debugIdentifier, priority, renderEnginePool);
 
 			JsonQueryObjectModelConverter jsonQueryObjectModelConverter = new JsonQueryObjectModelConverter(packageMetaData);
 			String queryNameSpace = packageMetaData.getSchema().name().toLowerCase() + "-stdlib";
@@ -266,6 +391,20 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 			} else {
 				classes = packageMetaData.getEClasses();
 			}
+			Map<EClass, Set<Long>> productOidsPerClass = null;
+			if (productOids != null) {
+				productOidsPerClass = new HashMap<>();
+				for (long oid : productOids) {
+					EClass eClass = databaseSession.getEClassForOid(oid);
+					Set<Long> set = productOidsPerClass.get(eClass);
+					if (set == null) {
+						set = new HashSet<>();
+						productOidsPerClass.put(eClass, set);
+					}
+					set.add(oid);
+				}
+				classes = productOidsPerClass.keySet();
+			}
 
 			float multiplierToMm = processUnits(databaseSession, queryContext);
 			generateGeometryResult.setMultiplierToMm(multiplierToMm);
@@ -288,6 +427,9 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 					Query query2 = new Query(eClass.getName() + "Main query", packageMetaData);
 					QueryPart queryPart2 = query2.createQueryPart();
 					queryPart2.addType(eClass, false);
+					if (productOidsPerClass != null) {
+						queryPart2.addOids(productOidsPerClass.get(eClass));
+					}
 					Include representationInclude = queryPart2.createInclude();
 					representationInclude.addType(eClass, false);
 					representationInclude.addFieldDirect("Representation");
@@ -527,7 +669,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 
 //							queryPart3.addInclude(jsonQueryObjectModelConverter.getDefineFromFile("ifc2x3tc1-stdlib:IfcMappedItem"));
 							
-							processQuery(databaseSession, queryContext, generateGeometryResult, ifcSerializerPlugin, settings, renderEngineFilter, renderEnginePool, executor, eClass, query, queryPart, true, map, map.size(), representationOids);
+							processQuery(databaseSession, queryContext, generateGeometryResult, ifcSerializerPlugin, settings, renderEngineFilter, renderEnginePool, batch, eClass, query, queryPart, true, map, map.size(), representationOids);
 						}
 					}
 					
@@ -555,6 +697,9 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 				Query query3 = new Query("Remaining " + eClass.getName(), packageMetaData);
 				QueryPart queryPart3 = query3.createQueryPart();
 				queryPart3.addType(eClass, false);
+				if (productOidsPerClass != null) {
+					queryPart3.addOids(productOidsPerClass.get(eClass));
+				}
 				Include include3 = queryPart3.createInclude();
 				include3.addType(eClass, false);
 				include3.addFieldDirect("Representation");
@@ -592,7 +737,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 											representationOids.addAll(goForIt2);
 											written++;
 											if (written >= maxObjectsPerFile) {
-												processQuery(databaseSession, queryContext, generateGeometryResult, ifcSerializerPlugin, settings, renderEngineFilter, renderEnginePool, executor, eClass, query, queryPart, false, null, written, representationOids);
+												processQuery(databaseSession, queryContext, generateGeometryResult, ifcSerializerPlugin, settings, renderEngineFilter, renderEnginePool, batch, eClass, query, queryPart, false, null, written, representationOids);
 												query = new Query("Main " + eClass.getName(), packageMetaData);
 												query.setDoubleBuffer(true);
 												queryPart = query.createQueryPart();
@@ -608,15 +753,13 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 					next = queryObjectProvider2.next();
 				}
 				if (written > 0) {
-					processQuery(databaseSession, queryContext, generateGeometryResult, ifcSerializerPlugin, settings, renderEngineFilter, renderEnginePool, executor, eClass, query, queryPart, false, null, written, representationOids);
+					processQuery(databaseSession, queryContext, generateGeometryResult, ifcSerializerPlugin, settings, renderEngineFilter, renderEnginePool, batch, eClass, query, queryPart, false, null, written, representationOids);
 				}
 			}
 			
 			allJobsPushed = true;
 			
-			executor.shutdown();
-			executor.awaitTermination(24, TimeUnit.HOURS);
-//			LOGGER.info(executor.getCompletedTaskCount() + " jobs executed");
+			batch.awaitTermination();
 			
 			// Need total bounds
 //			float[] quantizationMatrix = createQuantizationMatrixFromBounds(boundsMm);
@@ -631,14 +774,9 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 				for (Long id : geometryDataMap.keySet()) {
 					Tuple<HashMapVirtualObject, ByteBuffer> tuple = geometryDataMap.get(id);
 					
-					HashMapVirtualObject buffer = new HashMapVirtualObject(queryContext, GeometryPackage.eINSTANCE.getBuffer());
-//				Buffer buffer = databaseSession.create(Buffer.class);
-					buffer.set("data", quantizeVertices(tuple.getB().asDoubleBuffer(), quantizationMatrix, multiplierToMm).array());
-//				buffer.setData(quantizeVertices(tuple.getB(), quantizationMatrix, multiplierToMm).array());
-//				databaseSession.store(buffer);
-					buffer.save();
+					long bufferOid = createBuffer(databaseSession, queryContext, quantizeVertices(tuple.getB().asDoubleBuffer(), quantizationMatrix, multiplierToMm).array());
 					HashMapVirtualObject geometryData = tuple.getA();
-					geometryData.set("verticesQuantized", buffer.getOid());
+					geometryData.set("verticesQuantized", bufferOid);
 					int reused = (int) geometryData.eGet(GeometryPackage.eINSTANCE.getGeometryData_Reused());
 					int nrTriangles = (int) geometryData.eGet(GeometryPackage.eINSTANCE.getGeometryData_NrIndices()) / 3;
 					int saveableTriangles = Math.max(0, (reused - 1)) * nrTriangles;
@@ -648,11 +786,42 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 //				}
 					geometryData.saveOverwrite();
 				}
+				for (Map.Entry<GeometryLod, ByteBuffer> entry : geometryLodVertices.entrySet()) {
+					entry.getKey().setVerticesQuantized(createBuffer(databaseSession, queryContext, quantizeVertices(entry.getValue().asDoubleBuffer(), quantizationMatrix, multiplierToMm).array()));
+				}
+			}
+
+			boolean writeSpatialIndex = true;
+			if (productOids != null) {
+				List<SpatialIndexEntry> previousEntries = bimServer.getDatabase().getSpatialIndex().readAll(queryContext.getPid(), previousRid, databaseSession);
+				if (previousEntries == null) {
+					if (previousRid != queryContext.getRid()) {
+						// An index with only the changed products would hide all other products from bounding box queries
+						writeSpatialIndex = false;
+					}
+					// When generating a revision in parts, the index of the revision itself contains all other products with geometry (see ResumableGeometryGenerator), no index means there are none
+				} else {
+					for (SpatialIndexEntry entry : previousEntries) {
+						if (!productOids.contains(entry.getOid())) {
+							generateGeometryResult.addSpatialIndexEntry(entry);
+						}
+					}
+				}
+			}
+			if (writeSpatialIndex) {
+				LOGGER.debug("Writing spatial index (" + generateGeometryResult.getSpatialIndexEntries().size() + " products)");
+				bimServer.getDatabase().getSpatialIndex().write(queryContext.getPid(), queryContext.getRid(), generateGeometryResult.getSpatialIndexEntries(), databaseSession);
 			}
+			
+			LOGGER.debug("Writing geometry buffer hashes (" + newBufferHashes.size() + " buffers)");
+			bimServer.getDatabase().getGeometryBufferStore().write(queryContext.getPid(), queryContext.getRid(), newBufferHashes, databaseSession);
+
+			LOGGER.debug("Writing levels of detail (" + geometryLods.size() + " meshes)");
+			bimServer.getDatabase().getGeometryLodStore().write(queryContext.getPid(), queryContext.getRid(), geometryLods, databaseSession);
 
 			long end = System.nanoTime();
 			long total = totalBytes.get() - (bytesSavedByHash.get() + bytesSavedByTransformation.get() + bytesSavedByMapping.get());
-			LOGGER.info("Rendertime: " + Formatters.nanosToString(end - start) + ", " + "Reused (by hash): " + Formatters.bytesToString(bytesSavedByHash.get()) + ", Reused (by transformation): " + Formatters.bytesToString(bytesSavedByTransformation.get()) + ", Reused (by mapping): " + Formatters.bytesToString(bytesSavedByMapping.get()) + ", Total: " + Formatters.bytesToString(totalBytes.get()) + ", Final: " + Formatters.bytesToString(total));
+			LOGGER.info("Rendertime: " + Formatters.nanosToString(end - start) + ", " + "Reused (by hash): " + Formatters.bytesToString(bytesSavedByHash.get()) + ", Reused (by transformation): " + Formatters.bytesToString(bytesSavedByTransformation.get()) + ", Reused (by mapping): " + Formatters.bytesToString(bytesSavedByMapping.get()) + ", Reused buffers: " + Formatters.bytesToString(bytesSavedByBufferReuse.get()) + ", Total: " + Formatters.bytesToString(totalBytes.get()) + ", Final: " + Formatters.bytesToString(total));
 			if (report.getNumberOfDebugFiles() > 0) {
 				LOGGER.error("[" + report.getOriginalIfcFileName() + "] Number of erroneous files: " + report.getNumberOfDebugFiles());
 			}
@@ -672,6 +841,10 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 			LOGGER.error("", e);
 			report.setEnd(new GregorianCalendar());
 			throw new GeometryGeneratingException(e);
+		} finally {
+			if (batch != null) {
+				batch.close();
+			}
 		}
 		report.setEnd(new GregorianCalendar());
 		try {
@@ -684,6 +857,105 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		return generateGeometryResult;
 	}
 	
+	/**
+	 * Generates the quantized vertices of the GeometryData (and their levels of detail) of all products of the revision again. Needed when the geometry of a revision has been generated in parts
+	 * and the bounds have grown after some parts had already been quantized
+	 */
+	public void requantize(DatabaseSession databaseSession, QueryContext queryContext, Bounds boundsUntransformed, float multiplierToMm) throws BimserverDatabaseException, QueryException, IOException {
+		packageMetaData = queryContext.getPackageMetaData();
+		double[] quantizationMatrix = createQuantizationMatrixFromBounds(boundsUntransformed, multiplierToMm);
+
+		Query query = new Query("Requantize", packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+		Include geometryInclude = queryPart.createInclude();
+		geometryInclude.addType(packageMetaData.getEClass("IfcProduct"), true);
+		geometryInclude.addField("geometry");
+		Include dataInclude = geometryInclude.createInclude();
+		dataInclude.addType(GeometryPackage.eINSTANCE.getGeometryInfo(), false);
+		dataInclude.addField("data");
+
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(queryContext.getRoid()), packageMetaData);
+		queryObjectProvider.addQueryContext(queryContext);
+		Set<Long> done = new HashSet<>();
+		Map<Long, List<GeometryLod>> lods = new HashMap<>();
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			if (next.eClass() == GeometryPackage.eINSTANCE.getGeometryData() && done.add(next.getOid())) {
+				byte[] vertices = readBufferData(queryObjectProvider, next.get("vertices"));
+				if (vertices != null) {
+					next.set("verticesQuantized", createBuffer(databaseSession, queryContext, quantizeVertices(ByteBuffer.wrap(vertices).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer(), quantizationMatrix, multiplierToMm).array()));
+					next.saveOverwrite();
+				}
+				List<GeometryLod> geometryLods = bimServer.getDatabase().getGeometryLodStore().read(queryContext.getPid(), next.getOid(), queryContext.getRid(), databaseSession);
+				for (GeometryLod geometryLod : geometryLods) {
+					byte[] lodVertices = readBufferData(queryObjectProvider, geometryLod.getVertices());
+					if (lodVertices != null) {
+						geometryLod.setVerticesQuantized(createBuffer(databaseSession, queryContext, quantizeVertices(ByteBuffer.wrap(lodVertices).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer(), quantizationMatrix, multiplierToMm).array()));
+					}
+				}
+				if (!geometryLods.isEmpty()) {
+					lods.put(next.getOid(), geometryLods);
+				}
+			}
+			next = queryObjectProvider.next();
+		}
+		LOGGER.debug("Requantized " + done.size() + " GeometryData objects");
+		bimServer.getDatabase().getGeometryLodStore().write(queryContext.getPid(), queryContext.getRid(), lods, databaseSession);
+		bimServer.getDatabase().getGeometryBufferStore().write(queryContext.getPid(), queryContext.getRid(), newBufferHashes, databaseSession);
+	}
+
+	/**
+	 * Removes the geometry that has been written for the revision of the given context by a generateGeometry call that failed halfway, so the revision can be committed without geometry. Geometry of earlier
+	 * revisions (unchanged products of an incremental generation, reused buffers) is kept, products that got new geometry lose their geometry reference
+	 */
+	public void rollback(DatabaseSession databaseSession, QueryContext queryContext) throws BimserverDatabaseException, QueryException, IOException {
+		packageMetaData = queryContext.getPackageMetaData();
+		int pid = queryContext.getPid();
+		int rid = queryContext.getRid();
+
+		Set<Long> geometryInfoOids = databaseSession.deleteRecords(pid, rid, GeometryPackage.eINSTANCE.getGeometryInfo());
+		for (long geometryDataOid : databaseSession.deleteRecords(pid, rid, GeometryPackage.eINSTANCE.getGeometryData())) {
+			bimServer.getDatabase().getGeometryLodStore().delete(pid, geometryDataOid, rid, databaseSession);
+		}
+		databaseSession.deleteRecords(pid, rid, GeometryPackage.eINSTANCE.getBuffer());
+		databaseSession.deleteRecords(pid, rid, GeometryPackage.eINSTANCE.getColorPack());
+		bimServer.getDatabase().getSpatialIndex().delete(pid, rid, databaseSession);
+
+		Query query = new Query("Rollback", packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(queryContext.getRoid()), packageMetaData);
+		queryObjectProvider.addQueryContext(queryContext);
+		int products = 0;
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			EStructuralFeature feature = next.eClass().getEStructuralFeature("geometry");
+			Object geometryInfoOid = feature == null ? null : next.eGet(feature);
+			if (geometryInfoOid != null && geometryInfoOids.contains(geometryInfoOid)) {
+				next.unset(feature);
+				next.saveOverwrite();
+				products++;
+			}
+			next = queryObjectProvider.next();
+		}
+		LOGGER.info("Rolled back the geometry of " + geometryInfoOids.size() + " objects, " + products + " products");
+	}
+
+	/**
+	 * @return The data of the Buffer the given reference refers to, or null when there is none. Queries return decoded data, see {@link Query#isEncodedGeometry()}
+	 */
+	private byte[] readBufferData(QueryObjectProvider queryObjectProvider, Object reference) {
+		if (!(reference instanceof Long) || (Long) reference == -1) {
+			return null;
+		}
+		HashMapVirtualObject buffer = queryObjectProvider.getByOid((Long) reference);
+		if (buffer == null || buffer.get("data") == null) {
+			return null;
+		}
+		return (byte[]) buffer.get("data");
+	}
+
 	private double[] createQuantizationMatrixFromBounds(Bounds bounds, float multiplierToMm) {
 		double[] matrix = Matrix.identity();
 		double scale = 32768;
@@ -737,7 +1009,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		return matrix;
 	}
 
-	private ByteBuffer quantizeVertices(DoubleBuffer vertices, double[] quantizationMatrix, double multiplierToMm) {
+	static ByteBuffer quantizeVertices(DoubleBuffer vertices, double[] quantizationMatrix, double multiplierToMm) {
 		ByteBuffer quantizedBuffer = ByteBuffer.wrap(new byte[vertices.capacity() * 2]);
 		quantizedBuffer.order(ByteOrder.LITTLE_ENDIAN);
 		
@@ -907,7 +1179,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	}
 
 	private void processQuery(final DatabaseSession databaseSession, QueryContext queryContext, GenerateGeometryResult generateGeometryResult, final StreamingSerializerPlugin ifcSerializerPlugin, final RenderEngineSettings settings,
-			final RenderEngineFilter renderEngineFilter, RenderEnginePool renderEnginePool, ThreadPoolExecutor executor, EClass eClass, Query query, QueryPart queryPart, boolean geometryReused, Map<Long, ProductDef> map, int nrObjects, Set<Long> representationOids) throws QueryException, IOException {
+			final RenderEngineFilter renderEngineFilter, RenderEnginePool renderEnginePool, GeometryScheduler.Batch batch, EClass eClass, Query query, QueryPart queryPart, boolean geometryReused, Map<Long, ProductDef> map, int nrObjects, Set<Long> representationOids) throws QueryException, IOException, InterruptedException {
 		JsonQueryObjectModelConverter jsonQueryObjectModelConverter = new JsonQueryObjectModelConverter(packageMetaData);
 		
 		String lowerCasePackage = packageMetaData.getSchema().name().toLowerCase();
@@ -1036,12 +1308,12 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		
 		ReportJob job = report.newJob(eClass.getName(), nrObjects);
 		GeometryRunner runner = new GeometryRunner(this, eClass, renderEnginePool, databaseSession, settings, queryObjectProvider, ifcSerializerPlugin, renderEngineFilter, generateGeometryResult, queryContext, geometryReused, map, job, reuseGeometry, geometryGenerationDebugger, query);
-		executor.submit(runner);
+		batch.submit(runner);
 		jobsTotal.incrementAndGet();
 	}
 
 	private void processMappingQuery(final DatabaseSession databaseSession, QueryContext queryContext, GenerateGeometryResult generateGeometryResult, final StreamingSerializerPlugin ifcSerializerPlugin, final RenderEngineSettings settings,
-			final RenderEngineFilter renderEngineFilter, RenderEnginePool renderEnginePool, ThreadPoolExecutor executor, EClass eClass, Query query, QueryPart queryPart, boolean geometryReused, Map<Long, ProductDef> map, int nrObjects) throws QueryException, IOException {
+			final RenderEngineFilter renderEngineFilter, RenderEnginePool renderEnginePool, GeometryScheduler.Batch batch, EClass eClass, Query query, QueryPart queryPart, boolean geometryReused, Map<Long, ProductDef> map, int nrObjects) throws QueryException, IOException, InterruptedException {
 		JsonQueryObjectModelConverter jsonQueryObjectModelConverter = new JsonQueryObjectModelConverter(packageMetaData);
 		
 		String queryNameSpace = packageMetaData.getSchema().name().toLowerCase() + "-stdlib";
@@ -1081,7 +1353,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		
 		ReportJob job = report.newJob(eClass.getName(), nrObjects);
 		GeometryRunner runner = new GeometryRunner(this, eClass, renderEnginePool, databaseSession, settings, queryObjectProvider, ifcSerializerPlugin, renderEngineFilter, generateGeometryResult, queryContext, geometryReused, map, job, reuseGeometry, geometryGenerationDebugger, query);
-		executor.submit(runner);
+		batch.submit(runner);
 		jobsTotal.incrementAndGet();
 	}
 	
@@ -1135,14 +1407,49 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	}
 
 	// TODO add color??
-	int hash(ByteBuffer indices, ByteBuffer vertices, ByteBuffer normals, ByteBuffer colors) {
-		int hashCode = 0;
-		hashCode += indices.hashCode();
-		hashCode += vertices.hashCode();
-		hashCode += normals.hashCode();
-		hashCode += colors.hashCode();
-		
-		return hashCode;
+	static HashCode hash(ByteBuffer indices, ByteBuffer vertices, ByteBuffer normals, ByteBuffer colors) {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		for (ByteBuffer buffer : new ByteBuffer[] {indices, vertices, normals, colors}) {
+			// The length is included so the boundaries between the buffers are part of the hash
+			hasher.putInt(buffer.remaining());
+			hasher.putBytes(buffer.duplicate());
+		}
+		return hasher.hash();
+	}
+	
+	/**
+	 * Stores a Buffer with the given data, unless a Buffer with the same data has already been stored for this project
+	 * 
+	 * @return The oid of the Buffer
+	 */
+	long createBuffer(DatabaseSession databaseSession, QueryContext queryContext, byte[] data) throws BimserverDatabaseException {
+		return createBuffer(databaseSession, queryContext, data, GeometryDataEncoding.NONE);
+	}
+
+	/**
+	 * @param encoding The encoding of data, see {@link GeometryDataEncoding}
+	 */
+	long createBuffer(DatabaseSession databaseSession, QueryContext queryContext, byte[] data, int encoding) throws BimserverDatabaseException {
+		ByteBuffer hash = ByteBuffer.wrap(GeometryBufferStore.hash(data, encoding));
+		Long oid = bufferHashes.get(hash);
+		if (oid != null) {
+			bytesSavedByBufferReuse.addAndGet(data.length);
+			return oid;
+		}
+		long storedOid = bimServer.getDatabase().getGeometryBufferStore().find(queryContext.getPid(), queryContext.getRid(), hash.array(), data, encoding, queryContext.getPackageMetaData(), databaseSession);
+		if (storedOid != -1) {
+			bufferHashes.putIfAbsent(hash, storedOid);
+			bytesSavedByBufferReuse.addAndGet(data.length);
+			return storedOid;
+		}
+		HashMapVirtualObject buffer = new HashMapVirtualObject(queryContext, GeometryPackage.eINSTANCE.getBuffer());
+		buffer.set("data", data);
+		buffer.set("encoding", encoding);
+		buffer.save();
+		if (bufferHashes.putIfAbsent(hash, buffer.getOid()) == null) {
+			newBufferHashes.put(hash, buffer.getOid());
+		}
+		return buffer.getOid();
 	}
 	
 	int hash(VirtualObject geometryData) {
@@ -1172,7 +1479,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		return (byte[])((HashMapVirtualObject)buffer).get("data");
 	}
 
-	void processExtendsUntranslated(VirtualObject geometryInfo, DoubleBuffer vertices, int index, GenerateGeometryResult generateGeometryResult) throws BimserverDatabaseException {
+	static void processExtendsUntranslated(VirtualObject geometryInfo, DoubleBuffer vertices, int index, GenerateGeometryResult generateGeometryResult) throws BimserverDatabaseException {
 		double x = vertices.get(index);
 		double y = vertices.get(index + 1);
 		double z = vertices.get(index + 2);
@@ -1196,7 +1503,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		generateGeometryResult.setUntranslatedMaxZ(Math.max(z, generateGeometryResult.getUntranslatedMaxZ()));
 	}
 
-	void processExtends(HashMapWrappedVirtualObject minBounds, HashMapWrappedVirtualObject maxBounds, double[] transformationMatrix, DoubleBuffer vertices, int index, GenerateGeometryResult generateGeometryResult) throws BimserverDatabaseException {
+	static void processExtends(HashMapWrappedVirtualObject minBounds, HashMapWrappedVirtualObject maxBounds, double[] transformationMatrix, DoubleBuffer vertices, int index, GenerateGeometryResult generateGeometryResult) throws BimserverDatabaseException {
 		double x = vertices.get(index);
 		double y = vertices.get(index + 1);
 		double z = vertices.get(index + 2);
@@ -1241,6 +1548,17 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		geometryDataMap.put(geometryData.getOid(), new Tuple<>(geometryData, vertices));
 	}
 
+	/**
+	 * @param geometryLods The levels of detail of the given GeometryData, starting with level 1
+	 * @param vertices The vertices (little endian doubles) of every level
+	 */
+	public void cacheGeometryLods(HashMapVirtualObject geometryData, List<GeometryLod> geometryLods, List<ByteBuffer> vertices) {
+		this.geometryLods.put(geometryData.getOid(), geometryLods);
+		for (int i = 0; i < geometryLods.size(); i++) {
+			geometryLodVertices.put(geometryLods.get(i), vertices.get(i));
+		}
+	}
+
 	public String getDebugIdentifier() {
 		return debugIdentifier;
 	}
@@ -1248,4 +1566,12 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	public boolean isCalculateQuantities() {
 		return calculateQuantities;
 	}
+
+	public boolean isEncodeGeometry() {
+		return encodeGeometry;
+	}
+
+	public int getLodLevels() {
+		return lodLevels;
+	}
 }
\ No newline at end of file
@@ -19,13 +19,18 @@ package org.bimserver.geometry.accellerator;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.bimserver.BimServer;
@@ -56,10 +61,31 @@ import com.google.common.cache.LoadingCache;
 
 public class GeometryAccellerator {
 	private static final Logger LOGGER = LoggerFactory.getLogger(GeometryAccellerator.class);
+	
+	// An OctreeEntry with its two Bounds takes roughly 200 bytes, so this keeps the cached octree input of all revisions together at a few hundred MB
+	private static final long MAX_CACHED_OCTREE_ENTRIES = 2000000;
 	private final BimServer bimServer;
 	private final LoadingCache<OctreeKey, Octree> octrees;
 	private final LoadingCache<DensityThresholdKey, DensityThreshold> densityThresholds;
 	private final LoadingCache<ReuseKey, ReuseSet> reuseSets;
+	private final LoadingCache<Long, List<OctreeEntry>> octreeEntries;
+	private OctreeStore octreeStore;
+	private final Map<Long, Derivation> derivations = new ConcurrentHashMap<>();
+	private final ExecutorService warmupExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "OctreeWarmup");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static class Derivation {
+		private final long previousRoid;
+		private final Set<Long> changedProductOids;
+
+		public Derivation(long previousRoid, Set<Long> changedProductOids) {
+			this.previousRoid = previousRoid;
+			this.changedProductOids = changedProductOids;
+		}
+	}
 
 	/*
 	 * TODO
@@ -79,6 +105,14 @@ public class GeometryAccellerator {
 			}
 		});
 		
+		// One entry per revision, these are the expensive part of generating an octree. Weighed by the number of products, a limit on the number of revisions would allow
+		// anything from a few KB to many GB depending on the size of the models
+		octreeEntries = CacheBuilder.newBuilder().maximumWeight(MAX_CACHED_OCTREE_ENTRIES).weigher((Long roid, List<OctreeEntry> entries) -> entries.size()).build(new CacheLoader<Long, List<OctreeEntry>>() {
+			public List<OctreeEntry> load(Long roid) throws Exception {
+				return loadOctreeEntries(roid);
+			}
+		});
+		
 		reuseSets = CacheBuilder.newBuilder().maximumSize(10000).build(new CacheLoader<ReuseKey, ReuseSet>() {
 			public ReuseSet load(ReuseKey key) {
 				return generateReuseSet(key);
@@ -103,148 +137,51 @@ public class GeometryAccellerator {
 		}
 	}
 
-	private Octree generateOctree(OctreeKey key) {
-		LOGGER.info("Generating octree: " + key);
-		Long start = System.nanoTime();
-		try (DatabaseSession databaseSession = bimServer.getDatabase().createSession(OperationType.READ_ONLY)) {
-			Bounds totalBounds = new Bounds();
+	/**
+	 * Removes all cached (in memory and on disk) octrees that include the given revision, should be called whenever the geometry of a revision is (re)generated
+	 */
+	public void invalidate(long roid) {
+		invalidate(Collections.singleton(roid));
+	}
 
-			for (long roid : key.getRoids()) {
-				Revision revision = databaseSession.get(roid, OldQuery.getDefault());
-				totalBounds.integrate(revision.getBoundsMm());
+	/**
+	 * Removes all cached (in memory and on disk) octrees that include any of the given revisions, should also be called when revisions are removed
+	 */
+	public void invalidate(Collection<Long> roids) {
+		for (OctreeKey key : new ArrayList<>(octrees.asMap().keySet())) {
+			if (!Collections.disjoint(key.getRoids(), roids)) {
+				octrees.invalidate(key);
 			}
+		}
+		octreeEntries.invalidateAll(roids);
+		getOctreeStore().invalidate(roids);
+	}
 
-			Octree octree = new Octree(totalBounds, 9);
+	/**
+	 * The store is created on first use, the database (and so its UUID) is not available yet when this class is constructed
+	 */
+	private synchronized OctreeStore getOctreeStore() {
+		if (octreeStore == null) {
+			octreeStore = new OctreeStore(bimServer.getHomeDir().resolve("octrees"), bimServer.getDatabase().getUuid());
+		}
+		return octreeStore;
+	}
 
+	private Octree generateOctree(OctreeKey key) {
+		Long start = System.nanoTime();
+		try (DatabaseSession databaseSession = bimServer.getDatabase().createSession(OperationType.READ_ONLY)) {
 			// Assuming all given roids are of projects that all have the same
 			// schema
 			Revision revision = databaseSession.get(key.getRoids().iterator().next(), OldQuery.getDefault());
 			PackageMetaData packageMetaData = bimServer.getMetaDataManager().getPackageMetaData(revision.getProject().getSchema());
 
-			Set<EClass> excluded = new HashSet<>();
-			if (key.getExcludedClasses() != null) {
-				for (String exclude : key.getExcludedClasses()) {
-					excluded.add(packageMetaData.getEClass(exclude));
-				}
-			}
-
-			Query query = new Query(packageMetaData);
-
-			QueryPart queryPart = query.createQueryPart();
-			queryPart.addType(packageMetaData.getEClass("IfcProduct"), true, excluded);
-
-			Include product = queryPart.createInclude();
-			product.addType(packageMetaData.getEClass("IfcProduct"), true);
-			product.addFieldDirect("geometry");
-			Include geometryInfo = product.createInclude();
-			geometryInfo.addType(GeometryPackage.eINSTANCE.getGeometryInfo(), false);
-			geometryInfo.addFieldDirect("data");
-			geometryInfo.addFieldDirect("boundsMm");
-			Include boundsInclude = geometryInfo.createInclude();
-			boundsInclude.addType(GeometryPackage.eINSTANCE.getBounds(), false);
-			boundsInclude.addFieldDirect("min");
-			boundsInclude.addFieldDirect("max");
-			Include dataInclude = geometryInfo.createInclude();
-			dataInclude.addType(GeometryPackage.eINSTANCE.getGeometryData(), false);
-			dataInclude.addFieldDirect("boundsMm");
-			Include dataBoundsInclude = dataInclude.createInclude();
-			dataBoundsInclude.addType(GeometryPackage.eINSTANCE.getBounds(), false);
-			dataBoundsInclude.addFieldDirect("min");
-			dataBoundsInclude.addFieldDirect("max");
-
-			QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, bimServer, query, key.getRoids(), packageMetaData);
-			HashMapVirtualObject next = queryObjectProvider.next();
-			
-			Map<Long, GeometryDataObject> map = new HashMap<>();
-			
-			while (next != null) {
-				AbstractHashMapVirtualObject geometry = next.getDirectFeature(packageMetaData.getEReference("IfcProduct", "geometry"));
-				if (geometry != null) {
-					float density = (float) geometry.get("density");
-					long geometryDataId = (long) geometry.get("data");
-					AbstractHashMapVirtualObject boundsMm = geometry.getDirectFeature(GeometryPackage.eINSTANCE.getGeometryInfo_BoundsMm());
-					
-					GeometryDataObject geometryDataObject = null;
-					
-					if (key.getGeometryIdsToReuse().contains(geometryDataId)) {
-						// Special case, we now have to use the complete
-						// bounding box of all reused objects, instead of using
-						// the object's aabb
-						HashMapVirtualObject geometryData = (HashMapVirtualObject) geometry.getDirectFeature(GeometryPackage.eINSTANCE.getGeometryInfo_Data());
-						boundsMm = geometryData.getDirectFeature(GeometryPackage.eINSTANCE.getGeometryData_BoundsMm());
-						
-						geometryDataObject = map.get(geometryData.getOid());
-						if (geometryDataObject == null) {
-							geometryDataObject = new GeometryDataObject(geometryData);
-							map.put(geometryData.getOid(), geometryDataObject);
-						}
-					}
-					if (boundsMm != null) {
-						AbstractHashMapVirtualObject min = boundsMm.getDirectFeature(GeometryPackage.eINSTANCE.getBounds_Min());
-						AbstractHashMapVirtualObject max = boundsMm.getDirectFeature(GeometryPackage.eINSTANCE.getBounds_Max());
-
-						HashMapVirtualObject geometryData = (HashMapVirtualObject) geometry.getDirectFeature(GeometryPackage.eINSTANCE.getGeometryInfo_Data());
-						int saveableTriangles = (int)geometryData.get("saveableTriangles");
-						int reused = (int)geometryData.get("reused");
-						int triangles = (int)geometryData.get("nrIndices") / 3;
-
-						org.bimserver.database.queries.Bounds objectBounds = new org.bimserver.database.queries.Bounds((double) min.get("x"), (double) min.get("y"), (double) min.get("z"), (double) max.get("x"), (double) max.get("y"),
-								(double) max.get("z"));
-						GeometryObject geometryObject = new GeometryObject(next.getOid(), next.eClass(), next.getCroid(), saveableTriangles, reused, triangles, density, objectBounds);
-						Node node = octree.add(geometryObject);
-						geometryObject.setTileId(node.getId());
-						geometryObject.setTileLevel(node.getLevel());
-						geometryObject.setGeometryDataObject(geometryDataObject);
-					}
-				}
-				next = queryObjectProvider.next();
+			Octree octree = getOctreeStore().load(key, packageMetaData);
+			if (octree != null) {
+				LOGGER.info("Octree loaded from disk: " + key);
+			} else {
+				octree = generateOctree(key, databaseSession, packageMetaData);
 			}
-			
-			AtomicLong totalTriangles = new AtomicLong();
-			
-			octree.traverseBreathFirst(new Traverser() {
-				@Override
-				public void traverse(Node node) {
-					for (GeometryObject geometryObject : node.getValues()) {
-						totalTriangles.addAndGet(geometryObject.getTriangles());
-					}
-				}
-			});
-			
-			LOGGER.info("Total triangles: " + totalTriangles);
-			
-			octree.moveGeometryDown(new MoveGeometryDownDecider() {
-				@Override
-				public boolean shouldMoveDown(GeometryObject geometryObject) {
-					GeometryDataObject geometryDataObject = geometryObject.getGeometryDataObject();
-					if (geometryDataObject == null) {
-						// It's not reused at all
-						return false;
-					}
-					
-					// Maybe we should reason the other way around. Each tile can at max be X triangles big. If the amount of triangles is too large, we start moving reusable objects down by splitting them.
-					// If that in turn means that reuse in those tiles makes no sense anymore, stop applying reuse altogether.W
-					
-					// So we have already decided that reuse is going to be useful, but if moving the geometry down a level would result
-					
-					return false;
-				}});
-			
-			octree.moveUp(new MoveUpDecider() {
-				@Override
-				public boolean moveUp(Node node) {
-					// TODO use more heuristics
-					int totalTriangles = 0;
-					for (GeometryObject geometryObject : node.getValues()) {
-						totalTriangles += geometryObject.getTriangles();
-					}
-					if (totalTriangles < 1200) {
-						return true;
-					}
-					
-					return false;
-				}
-			});
+			balanceOctree(octree);
 			
 			long end = System.nanoTime();
 			LOGGER.info("Octree generated in " + ((end - start) / 1000000) + " ms");
@@ -260,6 +197,268 @@ public class GeometryAccellerator {
 		return null;
 	}
 
+	private Octree generateOctree(OctreeKey key, DatabaseSession databaseSession, PackageMetaData packageMetaData) throws BimserverDatabaseException, QueryException, IOException {
+		LOGGER.info("Generating octree: " + key);
+		Bounds totalBounds = new Bounds();
+
+		for (long roid : key.getRoids()) {
+			Revision revision = databaseSession.get(roid, OldQuery.getDefault());
+			totalBounds.integrate(revision.getBoundsMm());
+		}
+
+		Octree octree = new Octree(totalBounds, 9);
+
+		Set<EClass> excluded = new HashSet<>();
+		if (key.getExcludedClasses() != null) {
+			for (String exclude : key.getExcludedClasses()) {
+				excluded.add(packageMetaData.getEClass(exclude));
+			}
+		}
+
+		Map<Long, GeometryDataObject> map = new HashMap<>();
+		List<GeometryObject> geometryObjects = new ArrayList<>();
+		
+		for (long roid : key.getRoids()) {
+			for (OctreeEntry entry : getOctreeEntries(roid)) {
+				if (excluded.contains(entry.geteClass())) {
+					continue;
+				}
+				Bounds objectBounds = entry.getBounds();
+				GeometryDataObject geometryDataObject = null;
+				if (key.getGeometryIdsToReuse().contains(entry.getGeometryDataOid())) {
+					// Special case, we now have to use the complete
+					// bounding box of all reused objects, instead of using
+					// the object's aabb
+					objectBounds = entry.getGeometryDataBounds();
+					geometryDataObject = map.get(entry.getGeometryDataOid());
+					if (geometryDataObject == null) {
+						geometryDataObject = new GeometryDataObject(entry.getGeometryDataOid());
+						map.put(entry.getGeometryDataOid(), geometryDataObject);
+					}
+				}
+				if (objectBounds != null) {
+					GeometryObject geometryObject = new GeometryObject(entry.getOid(), entry.geteClass(), entry.getCroid(), entry.getSaveableTriangles(), entry.getReused(), entry.getTriangles(), entry.getDensity(), objectBounds);
+					Node node = octree.add(geometryObject);
+					geometryObject.setTileId(node.getId());
+					geometryObject.setTileLevel(node.getLevel());
+					geometryObject.setGeometryDataObject(geometryDataObject);
+					geometryObjects.add(geometryObject);
+				}
+			}
+		}
+		getOctreeStore().store(key, 9, totalBounds, geometryObjects);
+		return octree;
+	}
+
+	private List<OctreeEntry> getOctreeEntries(long roid) throws BimserverDatabaseException {
+		try {
+			return octreeEntries.get(roid);
+		} catch (ExecutionException e) {
+			throw new BimserverDatabaseException(e.getCause());
+		}
+	}
+
+	/**
+	 * Should be called after a new revision with geometry has been committed, prepares the octree entries of the revision in the background, so the first octree of the new revision can be built without
+	 * querying all products (or at least without waiting for all of them).
+	 * 
+	 * @param previousRoid The revision the new revision was derived from, or null when it has all new geometry
+	 * @param changedProductOids The products of which the geometry can differ from the previous revision (including added and removed products), when null the entries are generated from scratch
+	 */
+	public void revisionCreated(long roid, Long previousRoid, Set<Long> changedProductOids) {
+		if (previousRoid != null && changedProductOids != null) {
+			derivations.put(roid, new Derivation(previousRoid, changedProductOids));
+		}
+		warmupExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					octreeEntries.get(roid);
+				} catch (ExecutionException e) {
+					LOGGER.error("", e);
+				} finally {
+					derivations.remove(roid);
+				}
+			}
+		});
+	}
+
+	private List<OctreeEntry> loadOctreeEntries(long roid) throws BimserverDatabaseException, QueryException, IOException {
+		try (DatabaseSession databaseSession = bimServer.getDatabase().createSession(OperationType.READ_ONLY)) {
+			Revision revision = databaseSession.get(roid, OldQuery.getDefault());
+			PackageMetaData packageMetaData = bimServer.getMetaDataManager().getPackageMetaData(revision.getProject().getSchema());
+			List<OctreeEntry> entries = getOctreeStore().loadEntries(roid, packageMetaData);
+			if (entries != null) {
+				return entries;
+			}
+			long start = System.nanoTime();
+			Derivation derivation = derivations.get(roid);
+			List<OctreeEntry> previousEntries = null;
+			// Tiles are queried with the croid of the revision being read, a revision that combines several concrete revisions is not derived
+			if (derivation != null && revision.getConcreteRevisions().size() == 1) {
+				// Only when the previous entries are at hand, generating them first would not be faster than generating the new ones
+				previousEntries = octreeEntries.getIfPresent(derivation.previousRoid);
+				if (previousEntries == null) {
+					previousEntries = getOctreeStore().loadEntries(derivation.previousRoid, packageMetaData);
+				}
+			}
+			if (previousEntries != null) {
+				entries = new ArrayList<>(previousEntries.size());
+				long croid = revision.getLastConcreteRevision().getOid();
+				for (OctreeEntry previousEntry : previousEntries) {
+					if (!derivation.changedProductOids.contains(previousEntry.getOid())) {
+						// Unchanged products are read through the concrete revision of the new revision
+						entries.add(new OctreeEntry(previousEntry.getOid(), previousEntry.geteClass(), croid, previousEntry.getSaveableTriangles(), previousEntry.getReused(), previousEntry.getTriangles(), previousEntry.getDensity(),
+							previousEntry.getBounds(), previousEntry.getGeometryDataOid(), previousEntry.getGeometryDataBounds()));
+					}
+				}
+				if (!derivation.changedProductOids.isEmpty()) {
+					queryOctreeEntries(databaseSession, packageMetaData, roid, derivation.changedProductOids, entries);
+				}
+				LOGGER.info("Octree entries of revision " + roid + " derived from revision " + derivation.previousRoid + " (" + derivation.changedProductOids.size() + " changed products) in " + ((System.nanoTime() - start) / 1000000) + " ms");
+			} else {
+				entries = new ArrayList<>();
+				queryOctreeEntries(databaseSession, packageMetaData, roid, null, entries);
+				LOGGER.info("Octree entries of revision " + roid + " generated in " + ((System.nanoTime() - start) / 1000000) + " ms");
+			}
+			getOctreeStore().storeEntries(roid, entries);
+			return entries;
+		}
+	}
+
+	/**
+	 * @param productOids When not null, only these products are queried (the ones that do not exist in the revision are skipped)
+	 */
+	private void queryOctreeEntries(DatabaseSession databaseSession, PackageMetaData packageMetaData, long roid, Set<Long> productOids, List<OctreeEntry> entries) throws BimserverDatabaseException, QueryException, IOException {
+		EClass ifcProduct = packageMetaData.getEClass("IfcProduct");
+		if (productOids == null) {
+			Query query = new Query(packageMetaData);
+			QueryPart queryPart = query.createQueryPart();
+			queryPart.addType(ifcProduct, true);
+			addGeometryIncludes(queryPart, packageMetaData);
+			queryOctreeEntries(databaseSession, packageMetaData, roid, query, entries);
+		} else {
+			Map<EClass, Set<Long>> productOidsPerClass = new HashMap<>();
+			for (long oid : productOids) {
+				EClass eClass = databaseSession.getEClassForOid(oid);
+				if (ifcProduct.isSuperTypeOf(eClass)) {
+					Set<Long> set = productOidsPerClass.get(eClass);
+					if (set == null) {
+						set = new HashSet<>();
+						productOidsPerClass.put(eClass, set);
+					}
+					set.add(oid);
+				}
+			}
+			for (EClass eClass : productOidsPerClass.keySet()) {
+				Query query = new Query(packageMetaData);
+				QueryPart queryPart = query.createQueryPart();
+				queryPart.addType(eClass, false);
+				queryPart.addOids(productOidsPerClass.get(eClass));
+				addGeometryIncludes(queryPart, packageMetaData);
+				queryOctreeEntries(databaseSession, packageMetaData, roid, query, entries);
+			}
+		}
+	}
+
+	private void addGeometryIncludes(QueryPart queryPart, PackageMetaData packageMetaData) {
+		Include product = queryPart.createInclude();
+		product.addType(packageMetaData.getEClass("IfcProduct"), true);
+		product.addFieldDirect("geometry");
+		Include geometryInfo = product.createInclude();
+		geometryInfo.addType(GeometryPackage.eINSTANCE.getGeometryInfo(), false);
+		geometryInfo.addFieldDirect("data");
+		geometryInfo.addFieldDirect("boundsMm");
+		Include boundsInclude = geometryInfo.createInclude();
+		boundsInclude.addType(GeometryPackage.eINSTANCE.getBounds(), false);
+		boundsInclude.addFieldDirect("min");
+		boundsInclude.addFieldDirect("max");
+		Include dataInclude = geometryInfo.createInclude();
+		dataInclude.addType(GeometryPackage.eINSTANCE.getGeometryData(), false);
+		dataInclude.addFieldDirect("boundsMm");
+		Include dataBoundsInclude = dataInclude.createInclude();
+		dataBoundsInclude.addType(GeometryPackage.eINSTANCE.getBounds(), false);
+		dataBoundsInclude.addFieldDirect("min");
+		dataBoundsInclude.addFieldDirect("max");
+	}
+
+	private void queryOctreeEntries(DatabaseSession databaseSession, PackageMetaData packageMetaData, long roid, Query query, List<OctreeEntry> entries) throws BimserverDatabaseException, QueryException, IOException {
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(roid), packageMetaData);
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			AbstractHashMapVirtualObject geometry = next.getDirectFeature(packageMetaData.getEReference("IfcProduct", "geometry"));
+			if (geometry != null) {
+				float density = (float) geometry.get("density");
+				long geometryDataId = (long) geometry.get("data");
+				HashMapVirtualObject geometryData = (HashMapVirtualObject) geometry.getDirectFeature(GeometryPackage.eINSTANCE.getGeometryInfo_Data());
+				int saveableTriangles = (int)geometryData.get("saveableTriangles");
+				int reused = (int)geometryData.get("reused");
+				int triangles = (int)geometryData.get("nrIndices") / 3;
+				Bounds bounds = toBounds(geometry.getDirectFeature(GeometryPackage.eINSTANCE.getGeometryInfo_BoundsMm()));
+				Bounds geometryDataBounds = toBounds(geometryData.getDirectFeature(GeometryPackage.eINSTANCE.getGeometryData_BoundsMm()));
+				entries.add(new OctreeEntry(next.getOid(), next.eClass(), next.getCroid(), saveableTriangles, reused, triangles, density, bounds, geometryDataId, geometryDataBounds));
+			}
+			next = queryObjectProvider.next();
+		}
+	}
+
+	private Bounds toBounds(AbstractHashMapVirtualObject boundsMm) {
+		if (boundsMm == null) {
+			return null;
+		}
+		AbstractHashMapVirtualObject min = boundsMm.getDirectFeature(GeometryPackage.eINSTANCE.getBounds_Min());
+		AbstractHashMapVirtualObject max = boundsMm.getDirectFeature(GeometryPackage.eINSTANCE.getBounds_Max());
+		return new Bounds((double) min.get("x"), (double) min.get("y"), (double) min.get("z"), (double) max.get("x"), (double) max.get("y"), (double) max.get("z"));
+	}
+
+	private void balanceOctree(Octree octree) {
+		AtomicLong totalTriangles = new AtomicLong();
+		
+		octree.traverseBreathFirst(new Traverser() {
+			@Override
+			public void traverse(Node node) {
+				for (GeometryObject geometryObject : node.getValues()) {
+					totalTriangles.addAndGet(geometryObject.getTriangles());
+				}
+			}
+		});
+		
+		LOGGER.info("Total triangles: " + totalTriangles);
+		
+		octree.moveGeometryDown(new MoveGeometryDownDecider() {
+			@Override
+			public boolean shouldMoveDown(GeometryObject geometryObject) {
+				GeometryDataObject geometryDataObject = geometryObject.getGeometryDataObject();
+				if (geometryDataObject == null) {
+					// It's not reused at all
+					return false;
+				}
+				
+				// Maybe we should reason the other way around. Each tile can at max be X triangles big. If the amount of triangles is too large, we start moving reusable objects down by splitting them.
+				// If that in turn means that reuse in those tiles makes no sense anymore, stop applying reuse altogether.W
+				
+				// So we have already decided that reuse is going to be useful, but if moving the geometry down a level would result
+				
+				return false;
+			}});
+		
+		octree.moveUp(new MoveUpDecider() {
+			@Override
+			public boolean moveUp(Node node) {
+				// TODO use more heuristics
+				int totalTriangles = 0;
+				for (GeometryObject geometryObject : node.getValues()) {
+					totalTriangles += geometryObject.getTriangles();
+				}
+				if (totalTriangles < 1200) {
+					return true;
+				}
+				
+				return false;
+			}
+		});
+	}
+
 	private DensityThreshold generateDensityThreshold(DensityThresholdKey key) {
 		long start = System.nanoTime();
 		DensityThreshold densityThreshold = new DensityThreshold();
@@ -4,6 +4,17 @@ import org.bimserver.shared.HashMapVirtualObject;
 
 public class GeometryDataObject {
 
+	private final long oid;
+
 	public GeometryDataObject(HashMapVirtualObject geometryData) {
+		this(geometryData.getOid());
+	}
+
+	public GeometryDataObject(long oid) {
+		this.oid = oid;
+	}
+
+	public long getOid() {
+		return oid;
 	}
 }
@@ -0,0 +1,95 @@
+package org.bimserver.geometry.accellerator;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import org.bimserver.database.queries.Bounds;
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Everything an octree needs to know about one product of one revision, independent of the {@link OctreeKey} (excluded classes and reused geometry), so the octrees of all keys that include a revision can be built from
+ * the same list of entries
+ */
+public class OctreeEntry {
+	private final long oid;
+	private final EClass eClass;
+	private final long croid;
+	private final int saveableTriangles;
+	private final int reused;
+	private final int triangles;
+	private final float density;
+	private final Bounds bounds;
+	private final long geometryDataOid;
+	private final Bounds geometryDataBounds;
+
+	/**
+	 * @param bounds The bounds of the product's GeometryInfo, can be null
+	 * @param geometryDataBounds The bounds of the (shared) GeometryData, used when the geometry is reused, can be null
+	 */
+	public OctreeEntry(long oid, EClass eClass, long croid, int saveableTriangles, int reused, int triangles, float density, Bounds bounds, long geometryDataOid, Bounds geometryDataBounds) {
+		this.oid = oid;
+		this.eClass = eClass;
+		this.croid = croid;
+		this.saveableTriangles = saveableTriangles;
+		this.reused = reused;
+		this.triangles = triangles;
+		this.density = density;
+		this.bounds = bounds;
+		this.geometryDataOid = geometryDataOid;
+		this.geometryDataBounds = geometryDataBounds;
+	}
+
+	public long getOid() {
+		return oid;
+	}
+
+	public EClass geteClass() {
+		return eClass;
+	}
+
+	public long getCroid() {
+		return croid;
+	}
+
+	public int getSaveableTriangles() {
+		return saveableTriangles;
+	}
+
+	public int getReused() {
+		return reused;
+	}
+
+	public int getTriangles() {
+		return triangles;
+	}
+
+	public float getDensity() {
+		return density;
+	}
+
+	public Bounds getBounds() {
+		return bounds;
+	}
+
+	public long getGeometryDataOid() {
+		return geometryDataOid;
+	}
+
+	public Bounds getGeometryDataBounds() {
+		return geometryDataBounds;
+	}
+}
@@ -18,6 +18,7 @@ package org.bimserver.geometry.accellerator;
  *****************************************************************************/
 
 import java.util.Set;
+import java.util.TreeSet;
 
 import com.google.common.base.Joiner;
 
@@ -83,6 +84,21 @@ public class OctreeKey {
 		return true;
 	}
 
+	/**
+	 * @return A string that uniquely identifies this key, independent of the iteration order of the sets, used to find persisted octrees
+	 */
+	public String toCanonicalString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("roids:").append(Joiner.on(",").join(new TreeSet<>(roids)));
+		if (excludedClasses != null) {
+			builder.append(";excluded:").append(Joiner.on(",").join(new TreeSet<>(excludedClasses)));
+		}
+		if (geometryIdsToReuse != null) {
+			builder.append(";reuse:").append(Joiner.on(",").join(new TreeSet<>(geometryIdsToReuse)));
+		}
+		return builder.toString();
+	}
+
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
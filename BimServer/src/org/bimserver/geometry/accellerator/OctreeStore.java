@@ -0,0 +1,404 @@
+package org.bimserver.geometry.accellerator;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bimserver.database.queries.Bounds;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.utils.PathUtils;
+import org.eclipse.emf.ecore.EClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Stores the input of generated octrees (the total bounds and all geometry objects) on disk, so after a restart the octree of a set of revisions can be rebuilt from one memory-mapped file instead of querying all products and their
+ * geometry again. One file per {@link OctreeKey}, the name is a hash of the key and the complete key is stored in the file as well.
+ * 
+ * Next to that the {@link OctreeEntry}s of every revision are stored in one file per revision, these are used to build the octrees of new keys and to derive the entries of the next revision.
+ * 
+ * The files of a database are stored in a directory named after the database's UUID, so files from before a database reset never match the (reused) roids of the new database.
+ */
+public class OctreeStore {
+	private static final Logger LOGGER = LoggerFactory.getLogger(OctreeStore.class);
+	private static final int MAGIC = 0x4F435431; // "OCT1"
+	private static final int ENTRIES_MAGIC = 0x4F434531; // "OCE1"
+	private static final String EXTENSION = ".octree";
+	private static final String ENTRIES_EXTENSION = ".entries";
+	private static final String TMP_EXTENSION = ".__tmp";
+	private final Path dir;
+
+	public OctreeStore(Path baseDir, UUID databaseUuid) {
+		this.dir = baseDir.resolve(databaseUuid.toString());
+		try {
+			if (!Files.exists(dir)) {
+				Files.createDirectories(dir);
+			}
+			for (Path file : PathUtils.list(baseDir)) {
+				if (!file.equals(dir)) {
+					// Left behind by a previous database (or by a version that did not use a directory per database)
+					if (Files.isDirectory(file)) {
+						PathUtils.removeDirectoryWithContent(file);
+					} else {
+						Files.delete(file);
+					}
+				}
+			}
+			for (Path file : PathUtils.list(dir)) {
+				if (file.getFileName().toString().endsWith(TMP_EXTENSION)) {
+					Files.delete(file);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	public void store(OctreeKey key, int maxDepth, Bounds totalBounds, List<GeometryObject> geometryObjects) {
+		String canonicalKey = key.toCanonicalString();
+		Path file = getFile(canonicalKey);
+		Path tmpFile = file.resolveSibling(file.getFileName().toString() + TMP_EXTENSION);
+		Map<EClass, Integer> classIndices = new HashMap<>();
+		List<EClass> classes = new ArrayList<>();
+		for (GeometryObject geometryObject : geometryObjects) {
+			if (!classIndices.containsKey(geometryObject.geteClass())) {
+				classIndices.put(geometryObject.geteClass(), classes.size());
+				classes.add(geometryObject.geteClass());
+			}
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+			out.writeInt(MAGIC);
+			writeString(out, canonicalKey);
+			out.writeInt(key.getRoids().size());
+			for (long roid : key.getRoids()) {
+				out.writeLong(roid);
+			}
+			out.writeInt(maxDepth);
+			writeBounds(out, totalBounds);
+			out.writeInt(classes.size());
+			for (EClass eClass : classes) {
+				writeString(out, eClass.getName());
+			}
+			out.writeInt(geometryObjects.size());
+			for (GeometryObject geometryObject : geometryObjects) {
+				out.writeLong(geometryObject.getOid());
+				out.writeLong(geometryObject.getCroid());
+				out.writeShort(classIndices.get(geometryObject.geteClass()));
+				out.writeInt(geometryObject.getSaveableTriangles());
+				out.writeInt(geometryObject.getReused());
+				out.writeInt(geometryObject.getTriangles());
+				out.writeFloat(geometryObject.getDensity());
+				writeBounds(out, geometryObject.getBounds());
+				out.writeLong(geometryObject.getGeometryDataObject() == null ? -1 : geometryObject.getGeometryDataObject().getOid());
+			}
+		} catch (IOException e) {
+			LOGGER.error("", e);
+			return;
+		}
+		try {
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	/**
+	 * @return An octree with all geometry objects added (but not yet balanced), or null when there is no (valid) stored octree for this key
+	 */
+	public Octree load(OctreeKey key, PackageMetaData packageMetaData) {
+		String canonicalKey = key.toCanonicalString();
+		Path file = getFile(canonicalKey);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		MappedByteBuffer buffer = null;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || !canonicalKey.equals(readString(buffer))) {
+				return null;
+			}
+			int nrRoids = buffer.getInt();
+			buffer.position(buffer.position() + nrRoids * 8);
+			int maxDepth = buffer.getInt();
+			Octree octree = new Octree(readBounds(buffer), maxDepth);
+			int nrClasses = buffer.getInt();
+			EClass[] classes = new EClass[nrClasses];
+			for (int i=0; i<nrClasses; i++) {
+				classes[i] = packageMetaData.getEClass(readString(buffer));
+			}
+			int nrObjects = buffer.getInt();
+			Map<Long, GeometryDataObject> geometryDataObjects = new HashMap<>();
+			for (int i=0; i<nrObjects; i++) {
+				long oid = buffer.getLong();
+				long croid = buffer.getLong();
+				EClass eClass = classes[buffer.getShort()];
+				int saveableTriangles = buffer.getInt();
+				int reused = buffer.getInt();
+				int triangles = buffer.getInt();
+				float density = buffer.getFloat();
+				Bounds bounds = readBounds(buffer);
+				long geometryDataOid = buffer.getLong();
+				GeometryObject geometryObject = new GeometryObject(oid, eClass, croid, saveableTriangles, reused, triangles, density, bounds);
+				Node node = octree.add(geometryObject);
+				geometryObject.setTileId(node.getId());
+				geometryObject.setTileLevel(node.getLevel());
+				if (geometryDataOid != -1) {
+					GeometryDataObject geometryDataObject = geometryDataObjects.get(geometryDataOid);
+					if (geometryDataObject == null) {
+						geometryDataObject = new GeometryDataObject(geometryDataOid);
+						geometryDataObjects.put(geometryDataOid, geometryDataObject);
+					}
+					geometryObject.setGeometryDataObject(geometryDataObject);
+				}
+			}
+			return octree;
+		} catch (Exception e) {
+			// A corrupt or outdated file is not fatal, the octree will just be generated again
+			LOGGER.warn("Could not load octree from " + file, e);
+			return null;
+		} finally {
+			unmap(buffer);
+		}
+	}
+
+	public void storeEntries(long roid, List<OctreeEntry> entries) {
+		Path file = getEntriesFile(roid);
+		Path tmpFile = file.resolveSibling(file.getFileName().toString() + TMP_EXTENSION);
+		Map<EClass, Integer> classIndices = new HashMap<>();
+		List<EClass> classes = new ArrayList<>();
+		for (OctreeEntry entry : entries) {
+			if (!classIndices.containsKey(entry.geteClass())) {
+				classIndices.put(entry.geteClass(), classes.size());
+				classes.add(entry.geteClass());
+			}
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+			out.writeInt(ENTRIES_MAGIC);
+			out.writeLong(roid);
+			out.writeInt(classes.size());
+			for (EClass eClass : classes) {
+				writeString(out, eClass.getName());
+			}
+			out.writeInt(entries.size());
+			for (OctreeEntry entry : entries) {
+				out.writeLong(entry.getOid());
+				out.writeLong(entry.getCroid());
+				out.writeShort(classIndices.get(entry.geteClass()));
+				out.writeInt(entry.getSaveableTriangles());
+				out.writeInt(entry.getReused());
+				out.writeInt(entry.getTriangles());
+				out.writeFloat(entry.getDensity());
+				writeNullableBounds(out, entry.getBounds());
+				out.writeLong(entry.getGeometryDataOid());
+				writeNullableBounds(out, entry.getGeometryDataBounds());
+			}
+		} catch (IOException e) {
+			LOGGER.error("", e);
+			return;
+		}
+		try {
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	/**
+	 * @return The stored entries of the given revision, or null when there are no (valid) stored entries
+	 */
+	public List<OctreeEntry> loadEntries(long roid, PackageMetaData packageMetaData) {
+		Path file = getEntriesFile(roid);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		MappedByteBuffer buffer = null;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != ENTRIES_MAGIC || buffer.getLong() != roid) {
+				return null;
+			}
+			int nrClasses = buffer.getInt();
+			EClass[] classes = new EClass[nrClasses];
+			for (int i=0; i<nrClasses; i++) {
+				classes[i] = packageMetaData.getEClass(readString(buffer));
+			}
+			int nrEntries = buffer.getInt();
+			List<OctreeEntry> entries = new ArrayList<>(nrEntries);
+			for (int i=0; i<nrEntries; i++) {
+				long oid = buffer.getLong();
+				long croid = buffer.getLong();
+				EClass eClass = classes[buffer.getShort()];
+				int saveableTriangles = buffer.getInt();
+				int reused = buffer.getInt();
+				int triangles = buffer.getInt();
+				float density = buffer.getFloat();
+				Bounds bounds = readNullableBounds(buffer);
+				long geometryDataOid = buffer.getLong();
+				Bounds geometryDataBounds = readNullableBounds(buffer);
+				entries.add(new OctreeEntry(oid, eClass, croid, saveableTriangles, reused, triangles, density, bounds, geometryDataOid, geometryDataBounds));
+			}
+			return entries;
+		} catch (Exception e) {
+			LOGGER.warn("Could not load octree entries from " + file, e);
+			return null;
+		} finally {
+			unmap(buffer);
+		}
+	}
+
+	/**
+	 * Removes all stored octrees and the stored entries that include the given revision, to be called when the geometry of a revision changes
+	 */
+	public void invalidate(long roid) {
+		invalidate(Collections.singleton(roid));
+	}
+
+	/**
+	 * Removes all stored octrees and the stored entries that include any of the given revisions, to be called when the geometry of revisions changes or when revisions are removed
+	 */
+	public void invalidate(Collection<Long> roids) {
+		try {
+			for (long roid : roids) {
+				Files.deleteIfExists(getEntriesFile(roid));
+			}
+			for (Path file : PathUtils.list(dir)) {
+				if (file.getFileName().toString().endsWith(EXTENSION) && containsAnyRoid(file, roids)) {
+					Files.delete(file);
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	private boolean containsAnyRoid(Path file, Collection<Long> roids) throws IOException {
+		MappedByteBuffer buffer = null;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC) {
+				return true;
+			}
+			readString(buffer);
+			int nrRoids = buffer.getInt();
+			for (int i=0; i<nrRoids; i++) {
+				if (roids.contains(buffer.getLong())) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			unmap(buffer);
+		}
+	}
+
+	/**
+	 * A mapping is only released when its buffer is garbage collected, until then the file cannot be deleted or replaced on Windows. All reads decode what they need from the mapping directly, so it is released as soon as they are done.
+	 * The buffer must not be used anymore after this call.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			try {
+				// Java 9 and later
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} catch (NoSuchMethodException e) {
+				// Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if (cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			}
+		} catch (Exception e) {
+			// Not fatal, the mapping will be released when the buffer is garbage collected
+			LOGGER.debug("Could not unmap", e);
+		}
+	}
+
+	private Path getFile(String canonicalKey) {
+		return dir.resolve(Hashing.sha256().hashString(canonicalKey, StandardCharsets.UTF_8).toString() + EXTENSION);
+	}
+
+	private Path getEntriesFile(long roid) {
+		return dir.resolve("revision-" + roid + ENTRIES_EXTENSION);
+	}
+
+	private void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private void writeBounds(DataOutputStream out, Bounds bounds) throws IOException {
+		out.writeDouble(bounds.getMinX());
+		out.writeDouble(bounds.getMinY());
+		out.writeDouble(bounds.getMinZ());
+		out.writeDouble(bounds.getMaxX());
+		out.writeDouble(bounds.getMaxY());
+		out.writeDouble(bounds.getMaxZ());
+	}
+
+	private Bounds readBounds(ByteBuffer buffer) {
+		return new Bounds(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+	}
+
+	private void writeNullableBounds(DataOutputStream out, Bounds bounds) throws IOException {
+		out.writeBoolean(bounds != null);
+		if (bounds != null) {
+			writeBounds(out, bounds);
+		}
+	}
+
+	private Bounds readNullableBounds(ByteBuffer buffer) {
+		return buffer.get() == 0 ? null : readBounds(buffer);
+	}
+}
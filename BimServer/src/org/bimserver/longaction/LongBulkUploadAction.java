@@ -0,0 +1,163 @@
+package org.bimserver.longaction;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+
+import org.bimserver.BimServer;
+import org.bimserver.interfaces.objects.SProgressTopicType;
+import org.bimserver.models.log.AccessMethod;
+import org.bimserver.models.store.ActionState;
+import org.bimserver.shared.interfaces.ServiceInterface;
+import org.bimserver.webservices.authorization.Authorization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks in the files of a bulk upload on a bounded pool of worker threads.
+ * 
+ * Files are added while the archive is still being read, they have already been written to a temporary file. Checkins on the same project are
+ * serialized in the order the files were added (a project only accepts one checkin at a time), checkins on different projects run in parallel.
+ * Progress of the whole upload is reported on one progress topic, it is indeterminate (-1) until all files have been added.
+ * Every checkin gets its own service, the one of the servlet request can not be used anymore once the request has returned.
+ */
+public class LongBulkUploadAction extends LongAction<LongActionKey> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LongBulkUploadAction.class);
+
+	private final String token;
+	private final String comment;
+	private final ExecutorService executor;
+	
+	// Last scheduled checkin per project
+	private final Map<Long, CompletableFuture<Void>> lastCheckins = new HashMap<>();
+	private final List<CompletableFuture<Void>> checkins = new ArrayList<>();
+	private final CompletableFuture<Void> allAdded = new CompletableFuture<>();
+	private final AtomicInteger nrDone = new AtomicInteger();
+	private final AtomicInteger nrFailed = new AtomicInteger();
+
+	public LongBulkUploadAction(BimServer bimServer, String username, String userUsername, Authorization authorization, String token, String comment) {
+		super(bimServer, username, userUsername, authorization);
+		this.token = token;
+		this.comment = comment;
+		int nrThreads = Math.max(1, bimServer.getConfig().getBulkUploadThreads());
+		this.executor = new ThreadPoolExecutor(nrThreads, nrThreads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), runnable -> {
+			Thread thread = new Thread(runnable, "BulkUpload");
+			thread.setDaemon(true);
+			return thread;
+		});
+		setProgressTopic(bimServer.getNotificationsManager().createProgressTopic(SProgressTopicType.UPLOAD, "Bulk upload"));
+	}
+
+	/**
+	 * Schedules the checkin of file on project poid, the file is deleted after the checkin
+	 */
+	public synchronized void add(long poid, long deserializerOid, String fileName, Path file) {
+		CompletableFuture<Void> previous = lastCheckins.get(poid);
+		if (previous == null) {
+			previous = CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<Void> checkin = previous.thenRunAsync(() -> checkin(poid, deserializerOid, fileName, file), executor);
+		lastCheckins.put(poid, checkin);
+		checkins.add(checkin);
+	}
+
+	/**
+	 * Call when the whole archive has been read, execute finishes when all added checkins are done
+	 */
+	public void allAdded() {
+		allAdded.complete(null);
+		reportProgress();
+	}
+
+	private void checkin(long poid, long deserializerOid, String fileName, Path file) {
+		try {
+			ServiceInterface service = getBimServer().getServiceFactory().get(token, AccessMethod.INTERNAL).get(ServiceInterface.class);
+			service.checkinSync(poid, comment, deserializerOid, Files.size(file), fileName, new DataHandler(new FileDataSource(file.toFile())), false);
+		} catch (Exception e) {
+			LOGGER.error(e.getMessage() + " (" + fileName + ")");
+			nrFailed.incrementAndGet();
+			synchronized (this) {
+				getErrors().add(fileName + ": " + e.getMessage());
+			}
+		} finally {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				LOGGER.error("", e);
+			}
+			nrDone.incrementAndGet();
+			reportProgress();
+		}
+	}
+
+	private synchronized void reportProgress() {
+		int done = nrDone.get();
+		if (allAdded.isDone()) {
+			int total = getTotal();
+			updateProgress("Checked in " + done + " of " + total + " files", total == 0 ? 100 : done * 100 / total);
+		} else {
+			// The total is not known while the archive is still being read
+			updateProgress("Checked in " + done + " files", -1);
+		}
+	}
+
+	private synchronized int getTotal() {
+		return checkins.size();
+	}
+
+	@Override
+	public void execute() {
+		try {
+			allAdded.join();
+			CompletableFuture<Void> all;
+			synchronized (this) {
+				all = CompletableFuture.allOf(checkins.toArray(new CompletableFuture<?>[checkins.size()]));
+			}
+			all.join();
+		} catch (Exception e) {
+			LOGGER.error("", e);
+			error(e);
+		} finally {
+			executor.shutdown();
+			if (getActionState() != ActionState.AS_ERROR) {
+				changeActionState(ActionState.FINISHED, "Bulk upload of " + getTotal() + " files (" + nrFailed.get() + " failed)", 100);
+			}
+			done();
+		}
+	}
+
+	@Override
+	public String getDescription() {
+		return "Bulk upload";
+	}
+}
@@ -39,6 +39,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
@@ -51,6 +52,7 @@ import org.bimserver.cache.NewDiskCacheOutputStream;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.OldQuery;
 import org.bimserver.database.OperationType;
+import org.bimserver.database.queries.ParallelQueryObjectProvider;
 import org.bimserver.database.queries.QueryObjectProvider;
 import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
 import org.bimserver.database.queries.om.Query;
@@ -69,6 +71,7 @@ import org.bimserver.plugins.serializers.CacheStoringStreamingSerializerDataSour
 import org.bimserver.plugins.serializers.DoneListener;
 import org.bimserver.plugins.serializers.MessagingStreamingSerializer;
 import org.bimserver.plugins.serializers.MessagingStreamingSerializerPlugin;
+import org.bimserver.plugins.serializers.ObjectProvider;
 import org.bimserver.plugins.serializers.ProjectInfo;
 import org.bimserver.plugins.serializers.SerializerException;
 import org.bimserver.plugins.serializers.StreamingSerializer;
@@ -96,6 +99,7 @@ public class LongStreamingDownloadAction extends LongAction<StreamingDownloadKey
 	private Path cacheFile;
 	private String jsonQuery;
 	private DatabaseSession databaseSession;
+	private ParallelQueryObjectProvider parallelQueryObjectProvider;
 
 	public LongStreamingDownloadAction(BimServer bimServer, String username, String userUsername, Authorization authorization, Long serializerOid, String jsonQuery, Set<Long> roids) {
 		super(bimServer, username, userUsername, authorization);
@@ -173,6 +177,7 @@ public class LongStreamingDownloadAction extends LongAction<StreamingDownloadKey
 				} else {
 					if (query.isDoubleBuffer()) {
 						Query newQuery = new Query(packageMetaData);
+						newQuery.setEncodedGeometry(query.isEncodedGeometry());
 						QueryPart newQueryPart = newQuery.createQueryPart();
 						QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, getBimServer(), query, roids, packageMetaData);
 						HashMapVirtualObject next = queryObjectProvider.next();
@@ -189,7 +194,14 @@ public class LongStreamingDownloadAction extends LongAction<StreamingDownloadKey
 						}
 					}
 					// TODO passing a databasesession here, make sure it will be closed!!
-					QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, getBimServer(), query, roids, packageMetaData);
+					ObjectProvider queryObjectProvider;
+					ExecutorService queryPool = getBimServer().getQueryPool();
+					if (queryPool != null && ParallelQueryObjectProvider.supports(query)) {
+						parallelQueryObjectProvider = new ParallelQueryObjectProvider(databaseSession, getBimServer(), query, roids, packageMetaData, queryPool, getBimServer().getConfig().getQueryThreads());
+						queryObjectProvider = parallelQueryObjectProvider;
+					} else {
+						queryObjectProvider = new QueryObjectProvider(databaseSession, getBimServer(), query, roids, packageMetaData);
+					}
 					if (plugin instanceof MessagingStreamingSerializerPlugin) {
 						MessagingStreamingSerializerPlugin serializerPlugin = (MessagingStreamingSerializerPlugin)plugin;
 						messagingStreamingSerializer = serializerPlugin.createSerializer(pluginConfiguration);
@@ -284,9 +296,23 @@ public class LongStreamingDownloadAction extends LongAction<StreamingDownloadKey
 		return messagingStreamingSerializer;
 	}
 	
+	@Override
+	public void terminate() {
+		super.terminate();
+		cancelQuery();
+	}
+
 	@Override
 	public void stop() {
 		super.stop();
+		// Workers of a parallel query only stop by themselves when the query is done, not when the client stopped reading
+		cancelQuery();
 		databaseSession.close();
 	}
+
+	private void cancelQuery() {
+		if (parallelQueryObjectProvider != null) {
+			parallelQueryObjectProvider.cancel();
+		}
+	}
 }
\ No newline at end of file
@@ -40,6 +40,16 @@ public class NoPoolingRenderEnginePool implements RenderEnginePool {
 		renderEngine.close();
 	}
 
+	@Override
+	public void invalidateObject(RenderEngine renderEngine) throws RenderEngineException {
+		renderEngine.close();
+	}
+
+	@Override
+	public int getMaxSize() {
+		return Integer.MAX_VALUE;
+	}
+
 	@Override
 	public RenderEngineFactory getRenderEngineFactory() {
 		return renderEngineFactory;
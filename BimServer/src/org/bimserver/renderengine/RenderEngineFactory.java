@@ -17,6 +17,7 @@ package org.bimserver.renderengine;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import org.bimserver.emf.Schema;
 import org.bimserver.plugins.renderengine.RenderEngine;
 import org.bimserver.plugins.renderengine.RenderEngineException;
 import org.bimserver.plugins.renderengine.VersionInfo;
@@ -26,4 +27,13 @@ public interface RenderEngineFactory {
 	RenderEngine createRenderEngine() throws RenderEngineException;
 	
 	VersionInfo getVersionInfo();
+	
+	/**
+	 * @return The schema of the models the created render engines will open
+	 */
+	Schema getSchema();
+	
+	default boolean supportsObjectModels() {
+		return false;
+	}
 }
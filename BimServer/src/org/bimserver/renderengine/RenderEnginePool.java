@@ -27,4 +27,14 @@ public interface RenderEnginePool  {
 	RenderEngine borrowObject() throws RenderEngineException;
 
 	void returnObject(RenderEngine renderEngine) throws RenderEngineException;
+
+	/**
+	 * Give back a render engine that failed while it was borrowed, it will not be handed out again
+	 */
+	void invalidateObject(RenderEngine renderEngine) throws RenderEngineException;
+
+	/**
+	 * @return The maximum number of render engines that can be borrowed at the same time
+	 */
+	int getMaxSize();
 }
\ No newline at end of file
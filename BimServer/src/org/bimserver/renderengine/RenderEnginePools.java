@@ -74,6 +74,16 @@ public class RenderEnginePools {
 						@Override
 						public VersionInfo getVersionInfo() {
 							return renderEnginePlugin.getVersionInfo();
+						}
+
+						@Override
+						public Schema getSchema() {
+							return schema;
+						}
+
+						@Override
+						public boolean supportsObjectModels() {
+							return renderEnginePlugin.supportsObjectModels();
 						}});
 					map.put(className, renderEnginePool);
 					return renderEnginePool;
@@ -2,17 +2,20 @@ package org.bimserver.renderengine.pooled;
 
 import java.io.InputStream;
 
+import org.bimserver.emf.PackageMetaData;
 import org.bimserver.plugins.renderengine.Metrics;
+import org.bimserver.plugins.renderengine.ObjectModelRenderEngine;
 import org.bimserver.plugins.renderengine.RenderEngine;
 import org.bimserver.plugins.renderengine.RenderEngineException;
 import org.bimserver.plugins.renderengine.RenderEngineModel;
+import org.bimserver.plugins.serializers.ObjectProvider;
 import org.bimserver.renderengine.RenderEngineFactory;
 
 /*
  * Sole purpose of this wrapper is to create a completely new engine on init and destroy it on close, which is not how things are supposed to work eventually.
  * Ideally we want to keep using the same process for a while.
  */
-public class AlwaysClosingRenderEngineWrapper implements RenderEngine {
+public class AlwaysClosingRenderEngineWrapper implements ObjectModelRenderEngine {
 
 	private RenderEngineFactory renderEngineFactory;
 	private RenderEngine wrapped;
@@ -37,10 +40,20 @@ public class AlwaysClosingRenderEngineWrapper implements RenderEngine {
 		return wrapped.openModel(inputStream);
 	}
 
+	@Override
+	public RenderEngineModel openModel(ObjectProvider objectProvider, PackageMetaData packageMetaData) throws RenderEngineException {
+		if (!(wrapped instanceof ObjectModelRenderEngine)) {
+			throw new RenderEngineException(wrapped.getClass().getName() + " cannot open models from objects");
+		}
+		return ((ObjectModelRenderEngine) wrapped).openModel(objectProvider, packageMetaData);
+	}
+
 	@Override
 	public void close() throws RenderEngineException {
-		wrapped.close();
-		wrapped = null;
+		if (wrapped != null) {
+			wrapped.close();
+			wrapped = null;
+		}
 	}
 
 	@Override
@@ -25,13 +25,19 @@ import org.bimserver.renderengine.RenderEnginePoolFactory;
 public class CommonsPoolingRenderEnginePoolFactory implements RenderEnginePoolFactory {
 
 	private int nrRenderEngineProcesses;
+	private int maxUses;
 
 	public CommonsPoolingRenderEnginePoolFactory(int nrRenderEngineProcesses) {
+		this(nrRenderEngineProcesses, 1);
+	}
+
+	public CommonsPoolingRenderEnginePoolFactory(int nrRenderEngineProcesses, int maxUses) {
 		this.nrRenderEngineProcesses = nrRenderEngineProcesses;
+		this.maxUses = maxUses;
 	}
 	
 	@Override
 	public RenderEnginePool newRenderEnginePool(RenderEngineFactory renderEngineFactory) throws RenderEngineException {
-		return new CommonsRenderEnginePool(nrRenderEngineProcesses, renderEngineFactory);
+		return new CommonsRenderEnginePool(nrRenderEngineProcesses, maxUses, renderEngineFactory);
 	}
 }
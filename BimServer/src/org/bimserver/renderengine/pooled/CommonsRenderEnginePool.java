@@ -17,6 +17,9 @@ package org.bimserver.renderengine.pooled;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.PooledObjectFactory;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
@@ -30,17 +33,44 @@ import org.slf4j.LoggerFactory;
 
 public class CommonsRenderEnginePool implements RenderEnginePool {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CommonsRenderEnginePool.class);
+	private static final long PROBE_INTERVAL_MILLIS = 1000 * 60;
+	private static final long MAX_IDLE_MILLIS = 1000 * 60 * 10;
+	private static final int QUARANTINE_CRASHES = 3;
+	private static final long QUARANTINE_MILLIS = 1000 * 60 * 10;
 	private GenericObjectPool<RenderEngine> genericObjectPool;
 	private RenderEngineFactory renderEngineFactory;
+	private final int maxUses;
+	private final Deque<Long> crashes = new ArrayDeque<>();
+	private long quarantinedUntil;
 	
 	public CommonsRenderEnginePool(int poolSize, RenderEngineFactory renderEngineFactory) throws RenderEngineException {
-		LOGGER.info("Pool size: " + poolSize);
+		this(poolSize, 1, renderEngineFactory);
+	}
+
+	/**
+	 * @param maxUses The number of borrows a render engine survives, with 1 every borrow starts a new render engine and the pool only limits the amount of engines running simultaneously
+	 */
+	public CommonsRenderEnginePool(int poolSize, int maxUses, RenderEngineFactory renderEngineFactory) throws RenderEngineException {
+		LOGGER.info("Pool size: " + poolSize + ", max uses: " + maxUses);
 		this.renderEngineFactory = renderEngineFactory;
+		this.maxUses = maxUses;
 		
-		// This pool is currently only used for making sure there is a max amount of engines running simultaneously.
-		// It is not actually pooling the render engines because the render engines used are not stable enough to reuse at the moment.
+		genericObjectPool = new GenericObjectPool<RenderEngine>(maxUses > 1 ? createReusingFactory() : createAlwaysClosingFactory());
 		
-		PooledObjectFactory<RenderEngine> pooledObjectFactory = new PooledObjectFactory<RenderEngine>() {
+		genericObjectPool.setMaxWaitMillis(1000 * 60 * 60);
+		genericObjectPool.setMaxTotal(poolSize);
+		if (maxUses > 1) {
+			genericObjectPool.setMaxIdle(poolSize);
+			genericObjectPool.setTestOnReturn(true);
+			genericObjectPool.setTestWhileIdle(true);
+			genericObjectPool.setTimeBetweenEvictionRunsMillis(PROBE_INTERVAL_MILLIS);
+			genericObjectPool.setMinEvictableIdleTimeMillis(MAX_IDLE_MILLIS);
+		}
+	}
+
+	private PooledObjectFactory<RenderEngine> createAlwaysClosingFactory() {
+		// Every borrow starts a new render engine, for render engines that are not stable enough to be reused
+		return new PooledObjectFactory<RenderEngine>() {
 			@Override
 			public void activateObject(PooledObject<RenderEngine> arg0) throws Exception {
 				arg0.getObject().init();
@@ -48,6 +78,7 @@ public class CommonsRenderEnginePool implements RenderEnginePool {
 
 			@Override
 			public void destroyObject(PooledObject<RenderEngine> arg0) throws Exception {
+				arg0.getObject().close();
 			}
 
 			@Override
@@ -66,11 +97,72 @@ public class CommonsRenderEnginePool implements RenderEnginePool {
 				return false;
 			}
 		};
-		
-		genericObjectPool = new GenericObjectPool<RenderEngine>(pooledObjectFactory);
-		
-		genericObjectPool.setMaxWaitMillis(1000 * 60 * 60);
-		genericObjectPool.setMaxTotal(poolSize);
+	}
+
+	private PooledObjectFactory<RenderEngine> createReusingFactory() {
+		RenderEngineProbe renderEngineProbe = new RenderEngineProbe(renderEngineFactory.getSchema());
+		return new PooledObjectFactory<RenderEngine>() {
+			@Override
+			public void activateObject(PooledObject<RenderEngine> arg0) throws Exception {
+				((ReusableRenderEngineWrapper) arg0.getObject()).borrowed();
+			}
+
+			@Override
+			public void destroyObject(PooledObject<RenderEngine> arg0) throws Exception {
+				ReusableRenderEngineWrapper renderEngine = (ReusableRenderEngineWrapper) arg0.getObject();
+				LOGGER.debug("Recycling render engine after " + renderEngine.getUses() + " uses");
+				renderEngine.close();
+			}
+
+			@Override
+			public PooledObject<RenderEngine> makeObject() throws Exception {
+				ReusableRenderEngineWrapper renderEngine = new ReusableRenderEngineWrapper(renderEngineFactory.createRenderEngine());
+				renderEngine.start();
+				if (!renderEngine.probe(renderEngineProbe)) {
+					// Still usable for this one borrow, it will be discarded when it is returned
+					LOGGER.warn("New render engine failed the probe model, it will not be reused");
+				}
+				return new DefaultPooledObject<RenderEngine>(renderEngine);
+			}
+
+			@Override
+			public void passivateObject(PooledObject<RenderEngine> arg0) throws Exception {
+			}
+
+			@Override
+			public boolean validateObject(PooledObject<RenderEngine> arg0) {
+				ReusableRenderEngineWrapper renderEngine = (ReusableRenderEngineWrapper) arg0.getObject();
+				if (renderEngine.isFailed() || renderEngine.getUses() >= maxUses || isQuarantined()) {
+					return false;
+				}
+				if (System.currentTimeMillis() - renderEngine.getLastProbe() > PROBE_INTERVAL_MILLIS) {
+					return renderEngine.probe(renderEngineProbe);
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * After QUARANTINE_CRASHES crashes within QUARANTINE_MILLIS no engines are reused for QUARANTINE_MILLIS, so a render engine that keeps crashing cannot poison later jobs
+	 */
+	private synchronized void registerCrash() {
+		long now = System.currentTimeMillis();
+		crashes.addLast(now);
+		while (crashes.getFirst() < now - QUARANTINE_MILLIS) {
+			crashes.removeFirst();
+		}
+		if (crashes.size() >= QUARANTINE_CRASHES && maxUses > 1) {
+			if (!isQuarantined()) {
+				LOGGER.warn(crashes.size() + " render engine crashes in the last " + (QUARANTINE_MILLIS / 60000) + " minutes, not reusing render engines for " + (QUARANTINE_MILLIS / 60000) + " minutes");
+			}
+			quarantinedUntil = now + QUARANTINE_MILLIS;
+			crashes.clear();
+		}
+	}
+
+	private synchronized boolean isQuarantined() {
+		return System.currentTimeMillis() < quarantinedUntil;
 	}
 
 	@Override
@@ -88,6 +180,26 @@ public class CommonsRenderEnginePool implements RenderEnginePool {
 		genericObjectPool.returnObject(renderEngine);
 	}
 
+	@Override
+	public void invalidateObject(RenderEngine renderEngine) throws RenderEngineException {
+		if (renderEngine instanceof ReusableRenderEngineWrapper) {
+			((ReusableRenderEngineWrapper) renderEngine).setFailed();
+		}
+		registerCrash();
+		try {
+			genericObjectPool.invalidateObject(renderEngine);
+		} catch (Exception e) {
+			throw new RenderEngineException(e);
+		}
+	}
+
+	@Override
+	public int getMaxSize() {
+		int maxTotal = genericObjectPool.getMaxTotal();
+		// A negative value means there is no limit
+		return maxTotal < 0 ? Integer.MAX_VALUE : maxTotal;
+	}
+
 	@Override
 	public RenderEngineFactory getRenderEngineFactory() {
 		return renderEngineFactory;
@@ -0,0 +1,98 @@
+package org.bimserver.renderengine.pooled;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.bimserver.emf.Schema;
+import org.bimserver.plugins.renderengine.RenderEngine;
+import org.bimserver.plugins.renderengine.RenderEngineFilter;
+import org.bimserver.plugins.renderengine.RenderEngineGeometry;
+import org.bimserver.plugins.renderengine.RenderEngineInstance;
+import org.bimserver.plugins.renderengine.RenderEngineModel;
+import org.bimserver.plugins.renderengine.RenderEngineSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Health check for pooled render engines, opens a model with a single extruded box and checks that it comes back with triangles
+ */
+public class RenderEngineProbe {
+	private static final Logger LOGGER = LoggerFactory.getLogger(RenderEngineProbe.class);
+	private static final long PROBE_EXPRESS_ID = 20;
+	private final byte[] model;
+
+	public RenderEngineProbe(Schema schema) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ISO-10303-21;\n");
+		sb.append("HEADER;\n");
+		sb.append("FILE_DESCRIPTION(('ViewDefinition [CoordinationView]'),'2;1');\n");
+		sb.append("FILE_NAME('probe.ifc','2019-01-01T00:00:00',(''),(''),'','','');\n");
+		sb.append("FILE_SCHEMA(('" + schema.getHeaderName() + "'));\n");
+		sb.append("ENDSEC;\n");
+		sb.append("DATA;\n");
+		sb.append("#1=IFCPERSON($,$,'probe',$,$,$,$,$);\n");
+		sb.append("#2=IFCORGANIZATION($,'probe',$,$,$);\n");
+		sb.append("#3=IFCPERSONANDORGANIZATION(#1,#2,$);\n");
+		sb.append("#4=IFCAPPLICATION(#2,'1','probe','probe');\n");
+		sb.append("#5=IFCOWNERHISTORY(#3,#4,$,.ADDED.,$,$,$,0);\n");
+		sb.append("#6=IFCSIUNIT(*,.LENGTHUNIT.,$,.METRE.);\n");
+		sb.append("#7=IFCUNITASSIGNMENT((#6));\n");
+		sb.append("#8=IFCCARTESIANPOINT((0.,0.,0.));\n");
+		sb.append("#9=IFCAXIS2PLACEMENT3D(#8,$,$);\n");
+		sb.append("#10=IFCGEOMETRICREPRESENTATIONCONTEXT($,'Model',3,1.E-05,#9,$);\n");
+		sb.append("#11=IFCPROJECT('0YvctVUKr0kugbFTf53O9L',#5,'probe',$,$,$,$,(#10),#7);\n");
+		sb.append("#12=IFCLOCALPLACEMENT($,#9);\n");
+		sb.append("#13=IFCCARTESIANPOINT((0.,0.));\n");
+		sb.append("#14=IFCAXIS2PLACEMENT2D(#13,$);\n");
+		sb.append("#15=IFCRECTANGLEPROFILEDEF(.AREA.,$,#14,1.,1.);\n");
+		sb.append("#16=IFCDIRECTION((0.,0.,1.));\n");
+		sb.append("#17=IFCEXTRUDEDAREASOLID(#15,#9,#16,1.);\n");
+		sb.append("#18=IFCSHAPEREPRESENTATION(#10,'Body','SweptSolid',(#17));\n");
+		sb.append("#19=IFCPRODUCTDEFINITIONSHAPE($,$,(#18));\n");
+		sb.append("#" + PROBE_EXPRESS_ID + "=IFCBUILDINGELEMENTPROXY('2O2Fr$t4X7Zf8NOew3FLOH',#5,'probe',$,$,#12,#19,$,$);\n");
+		sb.append("ENDSEC;\n");
+		sb.append("END-ISO-10303-21;\n");
+		model = sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return Whether the render engine generated geometry for the probe model, any exception counts as a failure
+	 */
+	public boolean run(RenderEngine renderEngine) {
+		RenderEngineSettings settings = new RenderEngineSettings();
+		settings.setGenerateNormals(true);
+		settings.setGenerateTriangles(true);
+		settings.setGenerateWireFrame(false);
+		try (RenderEngineModel renderEngineModel = renderEngine.openModel(new ByteArrayInputStream(model), model.length)) {
+			renderEngineModel.setSettings(settings);
+			renderEngineModel.setFilter(new RenderEngineFilter());
+			renderEngineModel.generateGeneralGeometry();
+			RenderEngineInstance renderEngineInstance = renderEngineModel.getInstanceFromExpressId(PROBE_EXPRESS_ID);
+			if (renderEngineInstance == null) {
+				return false;
+			}
+			RenderEngineGeometry geometry = renderEngineInstance.generateGeometry();
+			return geometry != null && geometry.getNrIndices() > 0;
+		} catch (Exception e) {
+			LOGGER.warn("Render engine failed the probe model: " + e.getMessage());
+			return false;
+		}
+	}
+}
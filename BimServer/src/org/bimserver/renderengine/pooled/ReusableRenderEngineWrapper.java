@@ -0,0 +1,118 @@
+package org.bimserver.renderengine.pooled;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.InputStream;
+
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.plugins.renderengine.Metrics;
+import org.bimserver.plugins.renderengine.ObjectModelRenderEngine;
+import org.bimserver.plugins.renderengine.RenderEngine;
+import org.bimserver.plugins.renderengine.RenderEngineException;
+import org.bimserver.plugins.renderengine.RenderEngineModel;
+import org.bimserver.plugins.serializers.ObjectProvider;
+
+/**
+ * Keeps one render engine process alive over multiple borrows. The pool decides when to recycle it, based on the number of uses, the outcome of the probe model and whether it failed while borrowed
+ */
+public class ReusableRenderEngineWrapper implements ObjectModelRenderEngine {
+
+	private final RenderEngine wrapped;
+	private int uses;
+	private long lastProbe;
+	private volatile boolean failed;
+
+	public ReusableRenderEngineWrapper(RenderEngine wrapped) {
+		this.wrapped = wrapped;
+	}
+
+	@Override
+	public void init() throws RenderEngineException {
+		// The pool initializes the wrapped engine once, when it is created
+	}
+
+	public void start() throws RenderEngineException {
+		wrapped.init();
+	}
+
+	public boolean probe(RenderEngineProbe renderEngineProbe) {
+		lastProbe = System.currentTimeMillis();
+		if (!renderEngineProbe.run(wrapped)) {
+			failed = true;
+		}
+		return !failed;
+	}
+
+	public void borrowed() {
+		uses++;
+	}
+
+	public int getUses() {
+		return uses;
+	}
+
+	public long getLastProbe() {
+		return lastProbe;
+	}
+
+	public void setFailed() {
+		failed = true;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	@Override
+	public RenderEngineModel openModel(InputStream inputStream, long size) throws RenderEngineException {
+		return wrapped.openModel(inputStream, size);
+	}
+
+	@Override
+	public RenderEngineModel openModel(InputStream inputStream) throws RenderEngineException {
+		return wrapped.openModel(inputStream);
+	}
+
+	@Override
+	public RenderEngineModel openModel(ObjectProvider objectProvider, PackageMetaData packageMetaData) throws RenderEngineException {
+		if (!(wrapped instanceof ObjectModelRenderEngine)) {
+			throw new RenderEngineException(wrapped.getClass().getName() + " cannot open models from objects");
+		}
+		return ((ObjectModelRenderEngine) wrapped).openModel(objectProvider, packageMetaData);
+	}
+
+	@Override
+	public void close() throws RenderEngineException {
+		wrapped.close();
+	}
+
+	@Override
+	public boolean isCalculateQuantities() {
+		return wrapped.isCalculateQuantities();
+	}
+
+	@Override
+	public boolean isApplyLayerSets() {
+		return wrapped.isApplyLayerSets();
+	}
+
+	@Override
+	public Metrics getMetrics() {
+		return wrapped.getMetrics();
+	}
+}
@@ -38,10 +38,12 @@ import java.io.BufferedInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
-import javax.activation.DataHandler;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -54,13 +56,13 @@ import org.apache.commons.fileupload.util.Streams;
 import org.bimserver.BimServer;
 import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
 import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.longaction.LongBulkUploadAction;
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.shared.exceptions.ServerException;
 import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.shared.interfaces.ServiceInterface;
 import org.bimserver.utils.ByteUtils;
-import org.bimserver.utils.FakeClosingInputStream;
-import org.bimserver.utils.InputStreamDataSource;
+import org.bimserver.webservices.ServiceMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -92,6 +94,7 @@ public class BulkUploadServlet extends SubServlet {
 			boolean isMultipart = ServletFileUpload.isMultipartContent(request);
 			long poid = -1;
 			String comment = null;
+			boolean sync = false;
 			if (isMultipart) {
 				ServletFileUpload upload = new ServletFileUpload();
 				FileItemIterator iter = upload.getItemIterator(request);
@@ -106,47 +109,73 @@ public class BulkUploadServlet extends SubServlet {
 							poid = Long.parseLong(Streams.asString(item.openStream()));
 						} else if ("comment".equals(item.getFieldName())) {
 							comment = Streams.asString(item.openStream());
+						} else if ("sync".equals(item.getFieldName())) {
+							sync = Boolean.parseBoolean(Streams.asString(item.openStream()));
 						}
 					} else {
 						name = item.getName();
 						in = item.openStream();
 						
 						if (poid != -1) {
-							ServiceInterface service = getBimServer().getServiceFactory().get(token, AccessMethod.INTERNAL).get(ServiceInterface.class);
+							ServiceMap serviceMap = getBimServer().getServiceFactory().get(token, AccessMethod.INTERNAL);
+							ServiceInterface service = serviceMap.get(ServiceInterface.class);
 
 							SProject mainProject = service.getProjectByPoid(poid);
 							
-							ZipInputStream zipInputStream = new ZipInputStream(in);
-							ZipEntry nextEntry = zipInputStream.getNextEntry();
-							while (nextEntry != null) {
-								String fullfilename = nextEntry.getName();
-								if (fullfilename.toLowerCase().endsWith(".ifc") || fullfilename.toLowerCase().endsWith("ifcxml") || fullfilename.toLowerCase().endsWith(".ifczip")) {
-									BufferedInputStream bufferedInputStream = new BufferedInputStream(zipInputStream);
-									byte[] initialBytes = ByteUtils.extractHead(bufferedInputStream, 4096);
-									InputStreamDataSource inputStreamDataSource = new InputStreamDataSource(new FakeClosingInputStream(bufferedInputStream));
-									inputStreamDataSource.setName(name);
-									DataHandler ifcFile = new DataHandler(inputStreamDataSource);
-									if (fullfilename.contains("/")) {
-										String path = fullfilename.substring(0, fullfilename.lastIndexOf("/"));
-										String filename = fullfilename.substring(fullfilename.lastIndexOf("/") + 1);
-										String extension = filename.substring(filename.lastIndexOf(".") + 1);
-										
-										try {
-											String schema = service.determineIfcVersion(initialBytes, fullfilename.toLowerCase().endsWith(".ifczip"));
-											SProject project = getOrCreatePath(service, mainProject, mainProject, path, schema);
-											SDeserializerPluginConfiguration deserializer = service.getSuggestedDeserializerForExtension(extension, project.getOid());
+							// The archive is read once on this thread (creating the projects on the way), the checkins themselves run on the workers of the bulk upload action
+							String username = serviceMap.getUser() == null ? "Unknown" : serviceMap.getUser().getName();
+							String userUsername = serviceMap.getUser() == null ? "Unknown" : serviceMap.getUser().getUsername();
+							LongBulkUploadAction bulkUploadAction = new LongBulkUploadAction(getBimServer(), username, userUsername, serviceMap.getAuthorization(), token, comment);
+							getBimServer().getLongActionManager().start(bulkUploadAction);
+							result.put("topicId", bulkUploadAction.getProgressTopic().getKey().getId());
+							
+							Path tmpDir = getBimServer().getHomeDir().resolve("tmp");
+							try {
+								ZipInputStream zipInputStream = new ZipInputStream(in);
+								ZipEntry nextEntry = zipInputStream.getNextEntry();
+								while (nextEntry != null) {
+									String fullfilename = nextEntry.getName();
+									if (fullfilename.toLowerCase().endsWith(".ifc") || fullfilename.toLowerCase().endsWith("ifcxml") || fullfilename.toLowerCase().endsWith(".ifczip")) {
+										if (fullfilename.contains("/")) {
+											String path = fullfilename.substring(0, fullfilename.lastIndexOf("/"));
+											String filename = fullfilename.substring(fullfilename.lastIndexOf("/") + 1);
+											String extension = filename.substring(filename.lastIndexOf(".") + 1);
 											
-											service.checkinSync(project.getOid(), comment, deserializer.getOid(), -1L, filename, ifcFile, false);
-										} catch (Exception e) {
-											LOGGER.error(e.getMessage() + " (" + fullfilename + ")");
+											Path file = null;
+											try {
+												if (!Files.exists(tmpDir)) {
+													Files.createDirectories(tmpDir);
+												}
+												file = Files.createTempFile(tmpDir, "bulkupload", "." + extension);
+												Files.copy(zipInputStream, file, StandardCopyOption.REPLACE_EXISTING);
+												byte[] initialBytes;
+												try (InputStream fileInputStream = Files.newInputStream(file)) {
+													initialBytes = ByteUtils.extractHead(new BufferedInputStream(fileInputStream), 4096);
+												}
+												String schema = service.determineIfcVersion(initialBytes, fullfilename.toLowerCase().endsWith(".ifczip"));
+												SProject project = getOrCreatePath(service, mainProject, mainProject, path, schema);
+												SDeserializerPluginConfiguration deserializer = service.getSuggestedDeserializerForExtension(extension, project.getOid());
+												
+												bulkUploadAction.add(project.getOid(), deserializer.getOid(), filename, file);
+											} catch (Exception e) {
+												LOGGER.error(e.getMessage() + " (" + fullfilename + ")");
+												if (file != null) {
+													Files.deleteIfExists(file);
+												}
+											}
+										}
+									} else {
+										if (!nextEntry.isDirectory()) {
+											LOGGER.info("Unknown fileextenstion " + fullfilename);
 										}
 									}
-								} else {
-									if (!nextEntry.isDirectory()) {
-										LOGGER.info("Unknown fileextenstion " + fullfilename);
-									}
+									nextEntry = zipInputStream.getNextEntry();
 								}
-								nextEntry = zipInputStream.getNextEntry();
+							} finally {
+								bulkUploadAction.allAdded();
+							}
+							if (sync) {
+								bulkUploadAction.waitForCompletion();
 							}
 							
 //							DataHandler ifcFile = new DataHandler(inputStreamDataSource);
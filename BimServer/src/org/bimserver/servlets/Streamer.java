@@ -188,9 +188,11 @@ public class Streamer implements EndPoint {
 								// + ((end - start) / 1000000) + " ms");
 							} catch (IOException e) {
 								LOGGER.error("", e);
-								// Probably closed/F5-ed browser
+								// Probably closed/F5-ed browser, nobody is going to read the rest
+								terminate(topicId);
 							} catch (SerializerException e) {
 								LOGGER.error("", e);
+								terminate(topicId);
 							} finally {
 								try {
 									if (writer != null) {
@@ -256,6 +258,16 @@ public class Streamer implements EndPoint {
 		}
 	}
 
+	/**
+	 * Stops a download that is not going to be read anymore, for streaming downloads this also stops the threads of a parallel query
+	 */
+	private void terminate(long topicId) {
+		LongAction<?> longAction = bimServer.getLongActionManager().getLongAction(topicId);
+		if (longAction != null) {
+			longAction.terminate();
+		}
+	}
+
 	@Override
 	public void cleanup() {
 		bimServer.getEndPointManager().unregister(endpointid);
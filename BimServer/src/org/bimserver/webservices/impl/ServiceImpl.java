@@ -3336,6 +3336,23 @@ public class ServiceImpl extends GenericServiceImpl implements ServiceInterface
 		}
 	}
 
+	@Override
+	public Long regenerateMissingGeometry(Long roid, Long eoid) throws ServerException, UserException {
+		try (DatabaseSession session = getBimServer().getDatabase().createSession(OperationType.POSSIBLY_WRITE)) {
+			Revision revision = session.get(roid, OldQuery.getDefault());
+			SUser user = getCurrentUser();
+			ProgressOnProjectTopic progressTopic = getBimServer().getNotificationsManager().createProgressOnProjectTopic(getAuthorization().getUoid(), revision.getProject().getOid(), SProgressTopicType.UPLOAD, "Generate missing geometry");
+
+			RegenerateGeometryDatabaseAction action = new RegenerateGeometryDatabaseAction(getBimServer(), session, getInternalAccessMethod(), revision.getProject().getOid(), roid, getCurrentUser().getOid(), eoid, true);
+			LongGenericAction longAction = new LongGenericAction(progressTopic.getKey().getId(), getBimServer(), user.getUsername(), user.getName(), getAuthorization(), action);
+			getBimServer().getLongActionManager().start(longAction);
+
+			return progressTopic.getKey().getId();
+		} catch (Exception e) {
+			return handleException(e);
+		}
+	}
+
 	@Override
 	public SDensity getDensityThreshold(Set<Long> roids, Long nrTriangles, Set<String> excludedTypes) throws ServerException, UserException {
 		return getBimServer().getGeometryAccellerator().getDensityThreshold(roids, nrTriangles, excludedTypes);
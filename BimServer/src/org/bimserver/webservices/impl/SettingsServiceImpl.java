@@ -406,6 +406,7 @@ public class SettingsServiceImpl extends GenericServiceImpl implements SettingsI
 			SetServerSettingsDatabaseAction action = new SetServerSettingsDatabaseAction(session, getInternalAccessMethod(), serverSettings);
 			session.executeAndCommitAction(action);
 			getBimServer().getServerSettingsCache().updateCache();
+			getBimServer().updateGeometryScheduler();
 		} catch (Exception e) {
 			handleException(e);
 		} finally {
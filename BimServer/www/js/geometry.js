@@ -177,6 +177,12 @@
           "reference" : false,
           "many" : false,
           "inverse" : false
+        },
+        "encoding" : {
+          "type" : "int",
+          "reference" : false,
+          "many" : false,
+          "inverse" : false
         }
       }
     },
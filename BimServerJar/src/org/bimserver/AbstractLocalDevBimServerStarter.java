@@ -27,6 +27,7 @@ import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 
 import org.bimserver.database.DatabaseRestartRequiredException;
+import org.bimserver.database.KeyValueStoreType;
 import org.bimserver.database.berkeley.DatabaseInitException;
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.store.ServerState;
@@ -71,6 +72,18 @@ public class AbstractLocalDevBimServerStarter {
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
+		}
+		Path lmdbPropertiesFile = config.getHomeDir().resolve("lmdb.properties");
+		if (Files.exists(lmdbPropertiesFile)) {
+			// The presence of this file selects the LMDB backend
+			try (InputStream inputStream = Files.newInputStream(lmdbPropertiesFile)) {
+				Properties properties = new Properties();
+				properties.load(inputStream);
+				config.setKeyValueStoreType(KeyValueStoreType.LMDB);
+				config.setLmdbEnvironmentProperties(properties);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 		try {
 			fixLogging(config);
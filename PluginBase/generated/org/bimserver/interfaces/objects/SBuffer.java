@@ -32,6 +32,7 @@ public class SBuffer implements SDataBase
 	@XmlTransient
 	private static SClass sClass;
 	private byte[] data;
+	private int encoding;
 
 	public long getOid() {
 		return this.oid;
@@ -70,6 +71,9 @@ public class SBuffer implements SDataBase
 		if (sField.getName().equals("data")) {
 			return getData();
 		}
+		if (sField.getName().equals("encoding")) {
+			return getEncoding();
+		}
 		if (sField.getName().equals("oid")) {
 			return getOid();
 		}
@@ -87,6 +91,10 @@ public class SBuffer implements SDataBase
 			setData((byte[])val);
 			return;
 		}
+		if (sField.getName().equals("encoding")) {
+			setEncoding((Integer)val);
+			return;
+		}
 		if (sField.getName().equals("oid")) {
 			setOid((Long)val);
 			return;
@@ -110,6 +118,14 @@ public class SBuffer implements SDataBase
 		this.data = data;
 	}
 	
+	public int getEncoding() {
+		return encoding;
+	}
+
+	public void setEncoding(int encoding) {
+		this.encoding = encoding;
+	}
+	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
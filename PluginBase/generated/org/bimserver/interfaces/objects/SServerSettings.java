@@ -67,6 +67,7 @@ public class SServerSettings implements SDataBase
 	private boolean storeServiceRuns;
 	private boolean optimizeMappedItems;
 	private long defaultRenderEnginePluginId = -1;
+	private List<java.lang.String> indexedFeatures = new ArrayList<java.lang.String>();
 
 	public long getOid() {
 		return this.oid;
@@ -204,6 +205,9 @@ public class SServerSettings implements SDataBase
 		if (sField.getName().equals("defaultRenderEnginePluginId")) {
 			return getDefaultRenderEnginePluginId();
 		}
+		if (sField.getName().equals("indexedFeatures")) {
+			return getIndexedFeatures();
+		}
 		if (sField.getName().equals("oid")) {
 			return getOid();
 		}
@@ -354,6 +358,10 @@ public class SServerSettings implements SDataBase
 			setDefaultRenderEnginePluginId((Long)val);
 			return;
 		}
+		if (sField.getName().equals("indexedFeatures")) {
+			setIndexedFeatures((List<String>)val);
+			return;
+		}
 		if (sField.getName().equals("oid")) {
 			setOid((Long)val);
 			return;
@@ -642,6 +650,15 @@ public class SServerSettings implements SDataBase
 		this.defaultRenderEnginePluginId = defaultRenderEnginePluginId;
 	}
 	
+
+	public List<java.lang.String> getIndexedFeatures() {
+		return indexedFeatures;
+	}
+
+	public void setIndexedFeatures(List<java.lang.String> indexedFeatures) {
+		this.indexedFeatures = indexedFeatures;
+	}
+	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
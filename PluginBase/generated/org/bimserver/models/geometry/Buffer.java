@@ -45,6 +45,7 @@ import org.bimserver.emf.IdEObject;
  * </p>
  * <ul>
  *   <li>{@link org.bimserver.models.geometry.Buffer#getData <em>Data</em>}</li>
+ *   <li>{@link org.bimserver.models.geometry.Buffer#getEncoding <em>Encoding</em>}</li>
  * </ul>
  *
  * @see org.bimserver.models.geometry.GeometryPackage#getBuffer()
@@ -79,4 +80,31 @@ public interface Buffer extends IdEObject {
 	 * @generated
 	 */
 	void setData(byte[] value);
+
+	/**
+	 * Returns the value of the '<em><b>Encoding</b></em>' attribute.
+	 * The default value is <code>"0"</code>.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Encoding</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Encoding</em>' attribute.
+	 * @see #setEncoding(int)
+	 * @see org.bimserver.models.geometry.GeometryPackage#getBuffer_Encoding()
+	 * @model default="0"
+	 * @generated
+	 */
+	int getEncoding();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.geometry.Buffer#getEncoding <em>Encoding</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>Encoding</em>' attribute.
+	 * @see #getEncoding()
+	 * @generated
+	 */
+	void setEncoding(int value);
 } // Buffer
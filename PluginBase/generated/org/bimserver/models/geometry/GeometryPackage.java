@@ -387,6 +387,15 @@ public interface GeometryPackage extends EPackage {
 	 */
 	int BUFFER__DATA = 0;
 
+	/**
+	 * The feature id for the '<em><b>Encoding</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int BUFFER__ENCODING = 1;
+
 	/**
 	 * The number of structural features of the '<em>Buffer</em>' class.
 	 * <!-- begin-user-doc -->
@@ -394,7 +403,7 @@ public interface GeometryPackage extends EPackage {
 	 * @generated
 	 * @ordered
 	 */
-	int BUFFER_FEATURE_COUNT = 1;
+	int BUFFER_FEATURE_COUNT = 2;
 
 	/**
 	 * The meta object id for the '{@link org.bimserver.models.geometry.impl.GeometryDataImpl <em>Data</em>}' class.
@@ -1004,6 +1013,17 @@ public interface GeometryPackage extends EPackage {
 	 */
 	EAttribute getBuffer_Data();
 
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.geometry.Buffer#getEncoding <em>Encoding</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>Encoding</em>'.
+	 * @see org.bimserver.models.geometry.Buffer#getEncoding()
+	 * @see #getBuffer()
+	 * @generated
+	 */
+	EAttribute getBuffer_Encoding();
+
 	/**
 	 * Returns the meta object for class '{@link org.bimserver.models.geometry.GeometryData <em>Data</em>}'.
 	 * <!-- begin-user-doc -->
@@ -1579,6 +1599,14 @@ public interface GeometryPackage extends EPackage {
 		 */
 		EAttribute BUFFER__DATA = eINSTANCE.getBuffer_Data();
 
+		/**
+		 * The meta object literal for the '<em><b>Encoding</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute BUFFER__ENCODING = eINSTANCE.getBuffer_Encoding();
+
 		/**
 		 * The meta object literal for the '{@link org.bimserver.models.geometry.impl.GeometryDataImpl <em>Data</em>}' class.
 		 * <!-- begin-user-doc -->
@@ -47,6 +47,7 @@ import org.eclipse.emf.ecore.EClass;
  * </p>
  * <ul>
  *   <li>{@link org.bimserver.models.geometry.impl.BufferImpl#getData <em>Data</em>}</li>
+ *   <li>{@link org.bimserver.models.geometry.impl.BufferImpl#getEncoding <em>Encoding</em>}</li>
  * </ul>
  *
  * @generated
@@ -101,4 +102,24 @@ public class BufferImpl extends IdEObjectImpl implements Buffer {
 		eSet(GeometryPackage.Literals.BUFFER__DATA, newData);
 	}
 
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public int getEncoding() {
+		return (Integer) eGet(GeometryPackage.Literals.BUFFER__ENCODING, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public void setEncoding(int newEncoding) {
+		eSet(GeometryPackage.Literals.BUFFER__ENCODING, newEncoding);
+	}
+
 } //BufferImpl
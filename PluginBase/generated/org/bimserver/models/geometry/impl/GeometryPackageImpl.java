@@ -510,6 +510,16 @@ public class GeometryPackageImpl extends EPackageImpl implements GeometryPackage
 		return (EAttribute) getBuffer().getEStructuralFeatures().get(0);
 	}
 
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public EAttribute getBuffer_Encoding() {
+		return (EAttribute) getBuffer().getEStructuralFeatures().get(1);
+	}
+
 	/**
 	 * <!-- begin-user-doc -->
 	 * <!-- end-user-doc -->
@@ -79,6 +79,7 @@ import org.eclipse.emf.common.util.EList;
  *   <li>{@link org.bimserver.models.store.ServerSettings#isStoreServiceRuns <em>Store Service Runs</em>}</li>
  *   <li>{@link org.bimserver.models.store.ServerSettings#isOptimizeMappedItems <em>Optimize Mapped Items</em>}</li>
  *   <li>{@link org.bimserver.models.store.ServerSettings#getDefaultRenderEnginePlugin <em>Default Render Engine Plugin</em>}</li>
+ *   <li>{@link org.bimserver.models.store.ServerSettings#getIndexedFeatures <em>Indexed Features</em>}</li>
  * </ul>
  *
  * @see org.bimserver.models.store.StorePackage#getServerSettings()
@@ -956,4 +957,20 @@ public interface ServerSettings extends IdEObject {
 	 */
 	void setDefaultRenderEnginePlugin(PluginDescriptor value);
 
+	/**
+	 * Returns the value of the '<em><b>Indexed Features</b></em>' attribute list.
+	 * The list contents are of type {@link java.lang.String}.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>Indexed Features</em>' attribute list isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>Indexed Features</em>' attribute list.
+	 * @see org.bimserver.models.store.StorePackage#getServerSettings_IndexedFeatures()
+	 * @model
+	 * @generated
+	 */
+	EList<String> getIndexedFeatures();
+
 } // ServerSettings
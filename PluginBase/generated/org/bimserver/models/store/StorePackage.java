@@ -1391,6 +1391,15 @@ public interface StorePackage extends EPackage {
 	 */
 	int SERVER_SETTINGS__DEFAULT_RENDER_ENGINE_PLUGIN = 33;
 
+	/**
+	 * The feature id for the '<em><b>Indexed Features</b></em>' attribute list.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int SERVER_SETTINGS__INDEXED_FEATURES = 34;
+
 	/**
 	 * The number of structural features of the '<em>Server Settings</em>' class.
 	 * <!-- begin-user-doc -->
@@ -1398,7 +1407,7 @@ public interface StorePackage extends EPackage {
 	 * @generated
 	 * @ordered
 	 */
-	int SERVER_SETTINGS_FEATURE_COUNT = 34;
+	int SERVER_SETTINGS_FEATURE_COUNT = 35;
 
 	/**
 	 * The meta object id for the '{@link org.bimserver.models.store.impl.UserSettingsImpl <em>User Settings</em>}' class.
@@ -9220,6 +9229,17 @@ public interface StorePackage extends EPackage {
 	 */
 	EReference getServerSettings_DefaultRenderEnginePlugin();
 
+	/**
+	 * Returns the meta object for the attribute list '{@link org.bimserver.models.store.ServerSettings#getIndexedFeatures <em>Indexed Features</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute list '<em>Indexed Features</em>'.
+	 * @see org.bimserver.models.store.ServerSettings#getIndexedFeatures()
+	 * @see #getServerSettings()
+	 * @generated
+	 */
+	EAttribute getServerSettings_IndexedFeatures();
+
 	/**
 	 * Returns the meta object for class '{@link org.bimserver.models.store.UserSettings <em>User Settings</em>}'.
 	 * <!-- begin-user-doc -->
@@ -15898,6 +15918,14 @@ public interface StorePackage extends EPackage {
 		 */
 		EReference SERVER_SETTINGS__DEFAULT_RENDER_ENGINE_PLUGIN = eINSTANCE.getServerSettings_DefaultRenderEnginePlugin();
 
+		/**
+		 * The meta object literal for the '<em><b>Indexed Features</b></em>' attribute list feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute SERVER_SETTINGS__INDEXED_FEATURES = eINSTANCE.getServerSettings_IndexedFeatures();
+
 		/**
 		 * The meta object literal for the '{@link org.bimserver.models.store.impl.UserSettingsImpl <em>User Settings</em>}' class.
 		 * <!-- begin-user-doc -->
@@ -84,6 +84,7 @@ import org.eclipse.emf.ecore.EClass;
  *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#isStoreServiceRuns <em>Store Service Runs</em>}</li>
  *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#isOptimizeMappedItems <em>Optimize Mapped Items</em>}</li>
  *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#getDefaultRenderEnginePlugin <em>Default Render Engine Plugin</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.ServerSettingsImpl#getIndexedFeatures <em>Indexed Features</em>}</li>
  * </ul>
  *
  * @generated
@@ -780,4 +781,15 @@ public class ServerSettingsImpl extends IdEObjectImpl implements ServerSettings
 		eSet(StorePackage.Literals.SERVER_SETTINGS__DEFAULT_RENDER_ENGINE_PLUGIN, newDefaultRenderEnginePlugin);
 	}
 
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public EList<String> getIndexedFeatures() {
+		return (EList<String>) eGet(StorePackage.Literals.SERVER_SETTINGS__INDEXED_FEATURES, true);
+	}
+
 } //ServerSettingsImpl
@@ -2420,6 +2420,16 @@ public class StorePackageImpl extends EPackageImpl implements StorePackage {
 		return (EReference) getServerSettings().getEStructuralFeatures().get(33);
 	}
 
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public EAttribute getServerSettings_IndexedFeatures() {
+		return (EAttribute) getServerSettings().getEStructuralFeatures().get(34);
+	}
+
 	/**
 	 * <!-- begin-user-doc -->
 	 * <!-- end-user-doc -->
@@ -524,6 +524,10 @@ public class ServiceInterfaceAdaptor implements org.bimserver.shared.interfaces.
 		return null;
 	}
 	
+	public java.lang.Long regenerateMissingGeometry(java.lang.Long roid, java.lang.Long eoid) throws UserException, ServerException {
+		return null;
+	}
+	
 	public void removeModelCheckerFromProject(java.lang.Long poid, java.lang.Long modelCheckerOid) throws UserException, ServerException {
 	}
 	
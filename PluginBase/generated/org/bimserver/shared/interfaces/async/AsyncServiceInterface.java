@@ -669,6 +669,11 @@ public class AsyncServiceInterface {
 		void error(Throwable e);
 	}
 	
+	public interface RegenerateMissingGeometryCallback {
+		void success(java.lang.Long result);
+		void error(Throwable e);
+	}
+	
 	public interface RemoveModelCheckerFromProjectCallback {
 		void success();
 		void error(Throwable e);
@@ -2326,6 +2331,18 @@ public class AsyncServiceInterface {
 		});
 	}
 	
+	public void regenerateMissingGeometry(final java.lang.Long roid, final java.lang.Long eoid, final RegenerateMissingGeometryCallback callback) {
+		executorService.submit(new Runnable(){
+			public void run(){
+				try {
+					callback.success(syncService.regenerateMissingGeometry(roid, eoid));
+				} catch (Throwable e) {
+					callback.error(e);
+				}
+			}
+		});
+	}
+	
 	public void removeModelCheckerFromProject(final java.lang.Long poid, final java.lang.Long modelCheckerOid, final RemoveModelCheckerFromProjectCallback callback) {
 		executorService.submit(new Runnable(){
 			public void run(){
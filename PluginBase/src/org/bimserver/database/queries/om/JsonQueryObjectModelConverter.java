@@ -59,6 +59,9 @@ public class JsonQueryObjectModelConverter {
 		ObjectNode definesNode = OBJECT_MAPPER.createObjectNode();
 		queryNode.set("defines", definesNode);
 		queryNode.put("doublebuffer", query.isDoubleBuffer());
+		if (query.isEncodedGeometry()) {
+			queryNode.put("encodedGeometry", true);
+		}
 		for (String key : defines.keySet()) {
 			Include include = defines.get(key);
 			definesNode.set(key, dumpInclude(include));
@@ -101,6 +104,53 @@ public class JsonQueryObjectModelConverter {
 					oidsNode.add(oid);
 				}
 			}
+			if (queryPart.getNames() != null) {
+				ArrayNode namesNode = OBJECT_MAPPER.createArrayNode();
+				queryPartNode.set("names", namesNode);
+				for (String name : queryPart.getNames()) {
+					namesNode.add(name);
+				}
+			}
+			if (queryPart.getProperties() != null) {
+				ObjectNode propertiesNode = OBJECT_MAPPER.createObjectNode();
+				queryPartNode.set("properties", propertiesNode);
+				for (String propertySetName : queryPart.getProperties().keySet()) {
+					Properties properties = queryPart.getProperties().get(propertySetName);
+					ObjectNode propertySetNode = OBJECT_MAPPER.createObjectNode();
+					propertiesNode.set(propertySetName, propertySetNode);
+					for (String propertyName : properties.keys()) {
+						Object value = properties.get(propertyName);
+						if (value == null) {
+							propertySetNode.putNull(propertyName);
+						} else if (value instanceof Boolean) {
+							propertySetNode.put(propertyName, (Boolean) value);
+						} else if (value instanceof Number) {
+							propertySetNode.put(propertyName, ((Number) value).doubleValue());
+						} else {
+							propertySetNode.put(propertyName, value.toString());
+						}
+					}
+				}
+			}
+			if (queryPart.hasAttributes()) {
+				ObjectNode attributesNode = OBJECT_MAPPER.createObjectNode();
+				queryPartNode.set("attributes", attributesNode);
+				for (String attributeName : queryPart.getAttributes().keySet()) {
+					ArrayNode valuesNode = OBJECT_MAPPER.createArrayNode();
+					attributesNode.set(attributeName, valuesNode);
+					for (Object value : queryPart.getAttributes().get(attributeName)) {
+						if (value instanceof Boolean) {
+							valuesNode.add((Boolean) value);
+						} else if (value instanceof Integer) {
+							valuesNode.add((Integer) value);
+						} else if (value instanceof Long) {
+							valuesNode.add((Long) value);
+						} else {
+							valuesNode.add(value.toString());
+						}
+					}
+				}
+			}
 			if (queryPart.hasInBoundingBox()) {
 				ObjectNode inBoundingBoxNode = OBJECT_MAPPER.createObjectNode();
 				if (!Double.isNaN(queryPart.getInBoundingBox().getX())) {
@@ -166,6 +216,13 @@ public class JsonQueryObjectModelConverter {
 					tileIdsNode.add(id);
 				}
 				tilesNode.set("ids", tileIdsNode);
+				if (!tiles.getLods().isEmpty()) {
+					ArrayNode lodsNode = OBJECT_MAPPER.createArrayNode();
+					for (Integer lod : tiles.getLods()) {
+						lodsNode.add(lod);
+					}
+					tilesNode.set("lods", lodsNode);
+				}
 				queryNode.set("tiles", tilesNode);
 			}
 			queryPartsNode.add(queryPartNode);
@@ -252,6 +309,7 @@ public class JsonQueryObjectModelConverter {
 		}
 		query.setVersion(version);
 		query.setDoubleBuffer(fullQuery.has("doublebuffer") ? fullQuery.get("doublebuffer").asBoolean() : true);
+		query.setEncodedGeometry(fullQuery.has("encodedGeometry") && fullQuery.get("encodedGeometry").asBoolean());
 		if (fullQuery.has("defines")) {
 			JsonNode defines = fullQuery.get("defines");
 			if (defines instanceof ObjectNode) {
@@ -429,7 +487,7 @@ public class JsonQueryObjectModelConverter {
 		Iterator<String> fieldNames = jsonNode.fieldNames();
 		while (fieldNames.hasNext()) {
 			String fieldName = fieldNames.next();
-			if (fieldName.equals("includeAllFields") || fieldName.contentEquals("outputType") || fieldName.contentEquals("outputTypes") || fieldName.contentEquals("fieldsDirect") || fieldName.contentEquals("exclude") || fieldName.contentEquals("field") || fieldName.contentEquals("fields") || fieldName.equals("type") || fieldName.equals("types") || fieldName.equals("oid") || fieldName.equals("oids") || fieldName.equals("guid") || fieldName.equals("guids") || fieldName.equals("name") || fieldName.equals("names") || fieldName.equals("properties") || fieldName.equals("inBoundingBox") || fieldName.equals("include") || fieldName.equals("includes") || fieldName.equalsIgnoreCase("includeAllSubtypes") || fieldName.equals("classifications")) {
+			if (fieldName.equals("includeAllFields") || fieldName.contentEquals("outputType") || fieldName.contentEquals("outputTypes") || fieldName.contentEquals("fieldsDirect") || fieldName.contentEquals("exclude") || fieldName.contentEquals("field") || fieldName.contentEquals("fields") || fieldName.equals("type") || fieldName.equals("types") || fieldName.equals("oid") || fieldName.equals("oids") || fieldName.equals("guid") || fieldName.equals("guids") || fieldName.equals("name") || fieldName.equals("names") || fieldName.equals("attributes") || fieldName.equals("properties") || fieldName.equals("inBoundingBox") || fieldName.equals("include") || fieldName.equals("includes") || fieldName.equalsIgnoreCase("includeAllSubtypes") || fieldName.equals("classifications")) {
 				// fine
 			} else {
 				throw new QueryException("Unknown field: \"" + fieldName + "\"");
@@ -714,6 +772,26 @@ public class JsonQueryObjectModelConverter {
 				throw new QueryException("\"names\" must be of type array");
 			}
 		}
+		if (objectNode.has("attributes")) {
+			JsonNode attributesNode = objectNode.get("attributes");
+			if (attributesNode instanceof ObjectNode) {
+				Iterator<String> fieldNames = attributesNode.fieldNames();
+				while (fieldNames.hasNext()) {
+					String attributeName = fieldNames.next();
+					JsonNode valueNode = attributesNode.get(attributeName);
+					if (valueNode instanceof ArrayNode) {
+						ArrayNode values = (ArrayNode) valueNode;
+						for (int i=0; i<values.size(); i++) {
+							queryPart.addAttribute(attributeName, parseAttributeValue(values.get(i), "\"attributes\"." + attributeName + "[" + i + "]"));
+						}
+					} else {
+						queryPart.addAttribute(attributeName, parseAttributeValue(valueNode, "\"attributes\"." + attributeName));
+					}
+				}
+			} else {
+				throw new QueryException("\"attributes\" must be of type object");
+			}
+		}
 		if (objectNode.has("properties")) {
 			JsonNode propertiesNode = objectNode.get("properties");
 			if (propertiesNode instanceof ObjectNode) {
@@ -800,6 +878,12 @@ public class JsonQueryObjectModelConverter {
 			if (tilesNode.has("maxDepth")) {
 				tiles.setMaxDepth(tilesNode.get("maxDepth").asInt());
 			}
+			if (tilesNode.has("lods") && !tilesNode.get("lods").isNull()) {
+				ArrayNode lodsNode = (ArrayNode) tilesNode.get("lods");
+				for (JsonNode node : lodsNode) {
+					tiles.addLod(node.asInt());
+				}
+			}
 			queryPart.setTiles(tiles);
 		}
 
@@ -827,7 +911,7 @@ public class JsonQueryObjectModelConverter {
 		Iterator<String> fieldNames = objectNode.fieldNames();
 		while (fieldNames.hasNext()) {
 			String fieldName = fieldNames.next();
-			if (fieldName.equals("includeAllFields") || fieldName.equals("type") || fieldName.equals("types") || fieldName.equals("oid") || fieldName.equals("oids") || fieldName.equals("guid") || fieldName.equals("guids") || fieldName.equals("name") || fieldName.equals("names") || fieldName.equals("properties") || fieldName.equals("inBoundingBox") || fieldName.equals("include") || fieldName.equals("includes") || fieldName.equalsIgnoreCase("includeAllSubtypes") || fieldName.equals("classifications") || fieldName.equals("doublebuffer") || fieldName.equals("version")  || fieldName.equals("loaderSettings") || fieldName.equals("tiles") || fieldName.equals("reuseLowerThreshold") || fieldName.contentEquals("specialQueryType")) {
+			if (fieldName.equals("includeAllFields") || fieldName.equals("type") || fieldName.equals("types") || fieldName.equals("oid") || fieldName.equals("oids") || fieldName.equals("guid") || fieldName.equals("guids") || fieldName.equals("name") || fieldName.equals("names") || fieldName.equals("attributes") || fieldName.equals("properties") || fieldName.equals("inBoundingBox") || fieldName.equals("include") || fieldName.equals("includes") || fieldName.equalsIgnoreCase("includeAllSubtypes") || fieldName.equals("classifications") || fieldName.equals("doublebuffer") || fieldName.equals("encodedGeometry") || fieldName.equals("version")  || fieldName.equals("loaderSettings") || fieldName.equals("tiles") || fieldName.equals("reuseLowerThreshold") || fieldName.contentEquals("specialQueryType")) {
 				// fine
 			} else {
 				throw new QueryException("Unknown field: \"" + fieldName + "\"");
@@ -870,6 +954,19 @@ public class JsonQueryObjectModelConverter {
 		}
 	}
 	
+	private Object parseAttributeValue(JsonNode valueNode, String name) throws QueryException {
+		if (valueNode.isTextual()) {
+			return valueNode.asText();
+		} else if (valueNode.isBoolean()) {
+			return valueNode.asBoolean();
+		} else if (valueNode.isInt()) {
+			return valueNode.asInt();
+		} else if (valueNode.isIntegralNumber()) {
+			return valueNode.asLong();
+		}
+		throw new QueryException(name + " must be of type string, boolean or integer");
+	}
+
 	private double checkFloat(ObjectNode node, String key) throws QueryException {
 		if (!node.has(key)) {
 			throw new QueryException("\"" + key + "\" not found on \"inBoundingBox\"");
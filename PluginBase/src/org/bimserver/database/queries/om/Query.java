@@ -37,6 +37,7 @@ public class Query {
 	private ObjectNode geometrySettings;
 	private ObjectNode originalJson;
 	private SpecialQueryType specialQueryType;
+	private boolean encodedGeometry;
 	
 	public Query(String name, PackageMetaData packageMetaData) {
 		this.name = name;
@@ -153,4 +154,15 @@ public class Query {
 	public SpecialQueryType getSpecialQueryType() {
 		return specialQueryType;
 	}
+
+	/**
+	 * @param encodedGeometry Whether the data of Buffers is returned as stored, see Buffer.encoding, instead of decoded to the original layout
+	 */
+	public void setEncodedGeometry(boolean encodedGeometry) {
+		this.encodedGeometry = encodedGeometry;
+	}
+	
+	public boolean isEncodedGeometry() {
+		return encodedGeometry;
+	}
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +38,7 @@ public class QueryPart extends PartOfQuery implements CanInclude {
 	private Set<String> names;
 	private Map<String, Properties> properties;
 	private Set<String> classifications;
+	private Map<String, Set<Object>> attributes;
 	private PackageMetaData packageMetaData;
 	private InBoundingBox inBoundingBox;
 	private List<Include> includes;
@@ -268,6 +270,29 @@ public class QueryPart extends PartOfQuery implements CanInclude {
 		return classifications;
 	}
 
+	/**
+	 * Only matches objects for which the given attribute has (one of) the given value(s), when called for multiple attributes all of them have to match. Answering this needs an index on the attribute (see the indexed features in the server settings)
+	 */
+	public void addAttribute(String attributeName, Object value) {
+		if (attributes == null) {
+			attributes = new LinkedHashMap<>();
+		}
+		Set<Object> values = attributes.get(attributeName);
+		if (values == null) {
+			values = new LinkedHashSet<>();
+			attributes.put(attributeName, values);
+		}
+		values.add(value);
+	}
+
+	public Map<String, Set<Object>> getAttributes() {
+		return attributes;
+	}
+
+	public boolean hasAttributes() {
+		return attributes != null;
+	}
+
 	@Override
 	public void addIncludeReference(Include down, String name) {
 		if (references == null) {
@@ -17,13 +17,16 @@ package org.bimserver.database.queries.om;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class Tiles {
 
 	private final Set<Integer> tileIds = new HashSet<>();
 	private final Set<Long> geometryIdsToReuse = new HashSet<>();
+	private final List<Integer> lods = new ArrayList<>();
 	private float minimumThreshold;
 	private float maximumThreshold;
 	private Object nodes;
@@ -87,6 +90,17 @@ public class Tiles {
 		this.maximumThreshold = maximumThreshold;
 	}
 
+	/**
+	 * Adds the level of detail for the geometry of the tiles of the next octree level, starting at level 0. 0 is the full resolution, deeper tiles use the last given level
+	 */
+	public void addLod(int lod) {
+		lods.add(lod);
+	}
+	
+	public List<Integer> getLods() {
+		return lods;
+	}
+
 	public void setTilingInterface(TilingInterface tilingInterface) {
 		this.tilingInterface = tilingInterface;
 	}
@@ -423,7 +423,8 @@ public class PackageMetaData implements ObjectFactory, Comparable<PackageMetaDat
 	}
 
 	public Set<EClass> getAllSubClassesIncludingSelf(EClass superClass) {
-		Set<EClass> set = new TreeSet<>(getAllSubClasses(superClass));
+		// EClass is not Comparable, so this cannot be a TreeSet
+		Set<EClass> set = new HashSet<>(getAllSubClasses(superClass));
 		set.add(superClass);
 		return set;
 	}
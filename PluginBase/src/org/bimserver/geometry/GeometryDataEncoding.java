@@ -0,0 +1,292 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact storage encoding for the indices, vertices and normals buffers of GeometryData.
+ * 
+ * - Indices are stored as zigzag encoded varints of the difference with the previous index
+ * - Vertices are quantized to 16 bits per component, relative to the bounding box of the object
+ * - Normals are oct-encoded in two 16 bits components
+ * 
+ * Buffers storing encoded data have their encoding attribute set to COMPACT, unencoded buffers have NONE. Queries return decoded data
+ * unless they ask for the encoded form, code reading Buffers otherwise calls decode with the encoding of the Buffer.
+ * An encoded buffer starts with a magic number and a type byte, decode uses these to check the data and to find out how to decode it.
+ */
+public class GeometryDataEncoding {
+	public static final int NONE = 0;
+	public static final int COMPACT = 1;
+	
+	private static final byte[] MAGIC = new byte[] {'B', 'G', 'E', '1'};
+	private static final byte INDICES = 1;
+	private static final byte VERTICES = 2;
+	private static final byte NORMALS = 3;
+	private static final int HEADER_SIZE = MAGIC.length + 1;
+	private static final int MAX_VARINT_SIZE = 5;
+
+	private static boolean hasHeader(byte[] data) {
+		if (data == null || data.length < HEADER_SIZE) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (data[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return data[MAGIC.length] >= INDICES && data[MAGIC.length] <= NORMALS;
+	}
+
+	/**
+	 * @param data Little endian ints
+	 */
+	public static byte[] encodeIndices(byte[] data) {
+		IntBuffer indices = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		int count = indices.capacity();
+		ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + MAX_VARINT_SIZE * (count + 1));
+		writeHeader(out, INDICES);
+		writeVarint(out, count);
+		int previous = 0;
+		for (int i = 0; i < count; i++) {
+			int index = indices.get(i);
+			writeVarint(out, zigzag(index - previous));
+			previous = index;
+		}
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	/**
+	 * @param data Little endian doubles or floats, 3 per vertex
+	 * @param doublePrecision Whether data contains doubles, the decoded data will have the same precision
+	 */
+	public static byte[] encodeVertices(byte[] data, boolean doublePrecision) {
+		int width = doublePrecision ? 8 : 4;
+		int count = data.length / width;
+		double[] vertices = new double[count];
+		ByteBuffer in = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		if (doublePrecision) {
+			in.asDoubleBuffer().get(vertices);
+		} else {
+			FloatBuffer floatBuffer = in.asFloatBuffer();
+			for (int i = 0; i < count; i++) {
+				vertices[i] = floatBuffer.get(i);
+			}
+		}
+		double[] min = new double[] {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		double[] max = new double[] {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for (int i = 0; i < count; i++) {
+			min[i % 3] = Math.min(min[i % 3], vertices[i]);
+			max[i % 3] = Math.max(max[i % 3], vertices[i]);
+		}
+		if (count == 0) {
+			Arrays.fill(min, 0);
+			Arrays.fill(max, 0);
+		}
+		ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + 1 + MAX_VARINT_SIZE + 6 * 8 + count * 2).order(ByteOrder.LITTLE_ENDIAN);
+		writeHeader(out, VERTICES);
+		out.put((byte) width);
+		writeVarint(out, count);
+		for (int i = 0; i < 3; i++) {
+			out.putDouble(min[i]);
+		}
+		for (int i = 0; i < 3; i++) {
+			out.putDouble(max[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			double range = max[i % 3] - min[i % 3];
+			int quantized = range == 0 ? 0 : (int) Math.round((vertices[i] - min[i % 3]) / range * 65535);
+			out.putShort((short) quantized);
+		}
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	/**
+	 * @param data Little endian floats, 3 per normal
+	 */
+	public static byte[] encodeNormals(byte[] data) {
+		FloatBuffer normals = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		int count = normals.capacity();
+		if (count % 3 != 0) {
+			throw new IllegalArgumentException("Number of normal components (" + count + ") is not a multiple of 3");
+		}
+		ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + MAX_VARINT_SIZE + (count / 3) * 4).order(ByteOrder.LITTLE_ENDIAN);
+		writeHeader(out, NORMALS);
+		writeVarint(out, count);
+		for (int i = 0; i < count; i += 3) {
+			float x = normals.get(i);
+			float y = normals.get(i + 1);
+			float z = normals.get(i + 2);
+			float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+			float u = 0;
+			float v = 0;
+			if (l1 != 0) {
+				u = x / l1;
+				v = y / l1;
+				if (z < 0) {
+					float foldedU = (1 - Math.abs(v)) * signNotZero(u);
+					float foldedV = (1 - Math.abs(u)) * signNotZero(v);
+					u = foldedU;
+					v = foldedV;
+				}
+			}
+			out.putShort(toSnorm16(u));
+			out.putShort(toSnorm16(v));
+		}
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	/**
+	 * @param encoding The encoding of the Buffer the data comes from
+	 * @return The data in its original layout, data itself when encoding is NONE
+	 */
+	public static byte[] decode(int encoding, byte[] data) {
+		if (encoding == NONE || data == null) {
+			return data;
+		}
+		if (encoding != COMPACT) {
+			throw new IllegalArgumentException("Unknown geometry encoding " + encoding);
+		}
+		if (!hasHeader(data)) {
+			throw new IllegalArgumentException("Data of Buffer with encoding " + encoding + " is not encoded");
+		}
+		ByteBuffer in = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		in.position(MAGIC.length);
+		byte type = in.get();
+		switch (type) {
+		case INDICES:
+			return decodeIndices(in);
+		case VERTICES:
+			return decodeVertices(in);
+		case NORMALS:
+			return decodeNormals(in);
+		default:
+			throw new IllegalArgumentException("Unknown encoded buffer type " + type);
+		}
+	}
+
+	private static byte[] decodeIndices(ByteBuffer in) {
+		int count = readVarint(in);
+		ByteBuffer out = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+		IntBuffer indices = out.asIntBuffer();
+		int previous = 0;
+		for (int i = 0; i < count; i++) {
+			previous += unzigzag(readVarint(in));
+			indices.put(previous);
+		}
+		return out.array();
+	}
+
+	private static byte[] decodeVertices(ByteBuffer in) {
+		int width = in.get();
+		int count = readVarint(in);
+		double[] min = new double[3];
+		double[] max = new double[3];
+		for (int i = 0; i < 3; i++) {
+			min[i] = in.getDouble();
+		}
+		for (int i = 0; i < 3; i++) {
+			max[i] = in.getDouble();
+		}
+		ByteBuffer out = ByteBuffer.allocate(count * width).order(ByteOrder.LITTLE_ENDIAN);
+		DoubleBuffer doubles = width == 8 ? out.asDoubleBuffer() : null;
+		FloatBuffer floats = width == 8 ? null : out.asFloatBuffer();
+		for (int i = 0; i < count; i++) {
+			double range = max[i % 3] - min[i % 3];
+			double value = min[i % 3] + ((in.getShort() & 0xFFFF) / 65535d) * range;
+			if (doubles != null) {
+				doubles.put(value);
+			} else {
+				floats.put((float) value);
+			}
+		}
+		return out.array();
+	}
+
+	private static byte[] decodeNormals(ByteBuffer in) {
+		int count = readVarint(in);
+		ByteBuffer out = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+		FloatBuffer normals = out.asFloatBuffer();
+		for (int i = 0; i < count; i += 3) {
+			float u = fromSnorm16(in.getShort());
+			float v = fromSnorm16(in.getShort());
+			float z = 1 - Math.abs(u) - Math.abs(v);
+			if (z < 0) {
+				float unfoldedU = (1 - Math.abs(v)) * signNotZero(u);
+				float unfoldedV = (1 - Math.abs(u)) * signNotZero(v);
+				u = unfoldedU;
+				v = unfoldedV;
+			}
+			float length = (float) Math.sqrt(u * u + v * v + z * z);
+			normals.put(u / length);
+			normals.put(v / length);
+			normals.put(z / length);
+		}
+		return out.array();
+	}
+
+	private static void writeHeader(ByteBuffer out, byte type) {
+		out.put(MAGIC);
+		out.put(type);
+	}
+
+	private static void writeVarint(ByteBuffer out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	private static int readVarint(ByteBuffer in) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static float signNotZero(float value) {
+		return value >= 0 ? 1f : -1f;
+	}
+
+	private static short toSnorm16(float value) {
+		return (short) Math.round(Math.max(-1f, Math.min(1f, value)) * 32767f);
+	}
+
+	private static float fromSnorm16(short value) {
+		return Math.max(-1f, value / 32767f);
+	}
+}
@@ -0,0 +1,40 @@
+package org.bimserver.plugins.renderengine;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.plugins.serializers.ObjectProvider;
+
+/**
+ * A RenderEngine that can open a model from the objects BIMserver has already read from the database, instead of from an IFC file that has to be serialized and parsed again.
+ * Render engines that implement this should return true for {@link RenderEnginePlugin#supportsObjectModels()}.
+ * 
+ * This is only an extension point, no render engine in this repository implements it. Render engine plugins live in their own repositories, until one of them implements this interface
+ * GeometryRunner keeps serializing every job to IFC for the render engine to parse.
+ */
+public interface ObjectModelRenderEngine extends RenderEngine {
+	/**
+	 * Open a model from objects. The express ids of the instances of the returned model are the oids of the objects.
+	 * 
+	 * @param objectProvider Provides all objects of the model, objects that are referenced can also be retrieved with getByOid
+	 * @param packageMetaData
+	 * @return
+	 * @throws RenderEngineException
+	 */
+	RenderEngineModel openModel(ObjectProvider objectProvider, PackageMetaData packageMetaData) throws RenderEngineException;
+}
@@ -34,6 +34,13 @@ public interface RenderEnginePlugin extends Plugin {
 	 */
 	VersionInfo getVersionInfo();
 	
+	/**
+	 * @return Whether the RenderEngines created by this plugin implement {@link ObjectModelRenderEngine}, false unless a plugin overrides it
+	 */
+	default boolean supportsObjectModels() {
+		return false;
+	}
+	
 	@Override
 	default SPluginType getPluginType() {
 		return SPluginType.RENDER_ENGINE;
@@ -21,10 +21,8 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -49,20 +47,33 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
 
+/**
+ * Despite the name, the values of this object are not stored in HashMaps (anymore). Every feature of the EClass has a slot in an array, indexed by the feature id of the EClass. References to other objects are
+ * stored as primitive longs, lists of references are {@link ReferenceList}s. Queries can easily have tens of millions of these objects in memory, so the overhead per object matters.
+ */
 public class HashMapVirtualObject extends AbstractHashMapVirtualObject implements VirtualObject {
 	private static final Logger LOGGER = LoggerFactory.getLogger(VirtualObject.class);
-	private final Map<EStructuralFeature, Object> map = new HashMap<>();
+	
+	// Marks a slot that has explicitly been set to null
+	private static final Object NULL = new Object();
+	
+	// Marks a slot of which the value is stored in the references array
+	private static final Object REFERENCE = new Object();
+	
+	private final Object[] values;
+	private long[] references;
 	private EClass eClass;
 	private long oid;
 	private UUID uuid;
 	private QueryContext reusable;
-	private Map<EStructuralFeature, Object> useForSerializationFeatures = new HashMap<>();
-	private HashMap<EReference, AbstractHashMapVirtualObject> directReferences;
-	private HashMap<EReference, Set<HashMapVirtualObject>> directListReferences;
+	private Object[] useForSerializationFeatures;
+	private AbstractHashMapVirtualObject[] directReferences;
+	private Set<HashMapVirtualObject>[] directListReferences;
 
 	public HashMapVirtualObject(QueryContext reusable, EClass eClass) {
 		this.reusable = reusable;
 		this.eClass = eClass;
+		this.values = new Object[eClass.getFeatureCount()];
 		this.oid = reusable.getDatabaseInterface().newOid(eClass);
 		this.uuid = reusable.getDatabaseInterface().newUuid();
 	}
@@ -70,8 +81,28 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 	public HashMapVirtualObject(QueryContext reusable, EClass eClass, long oid, UUID uuid) {
 		this.reusable = reusable;
 		this.eClass = eClass;
+		this.values = new Object[eClass.getFeatureCount()];
 		this.oid = oid;
 		this.uuid = uuid;
+	}
+	
+	private int getSlot(EStructuralFeature feature) {
+		if (feature == null) {
+			return -1;
+		}
+		return eClass.getFeatureID(feature);
+	}
+	
+	private int getSlotForWrite(EStructuralFeature feature) {
+		int slot = getSlot(feature);
+		if (slot == -1) {
+			throw new IllegalArgumentException((feature == null ? "null" : feature.getName()) + " does not exist in " + eClass.getName());
+		}
+		return slot;
+	}
+	
+	private void put(EStructuralFeature feature, Object value) {
+		values[getSlotForWrite(feature)] = value == null ? NULL : value;
 	}
 	
 	public void prepareForCopy(QueryContext queryContext) {
@@ -84,7 +115,10 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 	}
 	
 	public void eUnset(EStructuralFeature feature) {
-		map.remove(feature);
+		int slot = getSlot(feature);
+		if (slot != -1) {
+			values[slot] = null;
+		}
 	}
 	
 	public QueryContext getReusable() {
@@ -92,20 +126,37 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 	}
 
 	public void setAttribute(EAttribute eAttribute, Object val) {
-		map.put(eAttribute, val);
+		put(eAttribute, val);
 	}
 
 	public Object eGet(EStructuralFeature feature) {
-		return map.get(feature);
+		int slot = getSlot(feature);
+		if (slot == -1) {
+			return null;
+		}
+		Object value = values[slot];
+		if (value == null || value == NULL) {
+			return null;
+		} else if (value == REFERENCE) {
+			return references[slot];
+		}
+		return value;
 	}
 
 	public Object get(String featureName) {
-		EStructuralFeature eStructuralFeature = eClass.getEStructuralFeature(featureName);
-		return map.get(eStructuralFeature);
+		return eGet(eClass.getEStructuralFeature(featureName));
 	}
 	
+	/**
+	 * Removes the value of the given feature, as if it was never read or set
+	 */
+	public void unset(EStructuralFeature feature) {
+		values[getSlotForWrite(feature)] = null;
+	}
+
 	public boolean eIsSet(EStructuralFeature feature) {
-		return map.containsKey(feature);
+		int slot = getSlot(feature);
+		return slot != -1 && values[slot] != null;
 	}
 	
 	public EClass eClass() {
@@ -172,8 +223,9 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 						EReference eReference = (EReference) eStructuralFeature;
 						if (eReference.isMany()) {
 							size += 4;
-							for (Object v : ((List<?>) val)) {
-								size += getWrappedValueSize(v, eReference);
+							List<?> list = (List<?>) val;
+							for (int i = 0; i < list.size(); i++) {
+								size += ReferenceList.getLong(list, i) != -1 ? 8 : getWrappedValueSize(list.get(i), eReference);
 							}
 						} else {
 							size += getWrappedValueSize(val, eReference);
@@ -361,7 +413,13 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 		} else if (feature.getEType() instanceof EClass) {
 			List list = (List) virtualObject.eGet(feature);
 			buffer.putInt(list.size());
-			for (Object o : list) {
+			for (int i = 0; i < list.size(); i++) {
+				long referenceOid = ReferenceList.getLong(list, i);
+				if (referenceOid != -1) {
+					writeReference(referenceOid, buffer, feature);
+					continue;
+				}
+				Object o = list.get(i);
 				if (o == null) {
 					buffer.order(ByteOrder.LITTLE_ENDIAN);
 					buffer.putShort((short) -1);
@@ -504,10 +562,14 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	private List getOrCreateList(EStructuralFeature structuralFeature, int minSize) {
-		List list = (List<?>) map.get(structuralFeature);
+		List list = (List<?>) eGet(structuralFeature);
 		if (list == null) {
-			list = new ArrayList(minSize == -1 ? 0 : minSize);
-			map.put(structuralFeature, list);
+			if (structuralFeature instanceof EReference) {
+				list = new ReferenceList(minSize == -1 ? 0 : minSize);
+			} else {
+				list = new ArrayList(minSize == -1 ? 0 : minSize);
+			}
+			put(structuralFeature, list);
 		}
 		while (list.size() < minSize) {
 			list.add(null);
@@ -543,7 +605,12 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 		if (!definedType.isSuperTypeOf(referencedEClass)) {
 			throw new CannotStoreReferenceInFieldException(DeserializerErrorCode.REFERENCED_OBJECT_CANNOT_BE_STORED_IN_THIS_FIELD, "Cannot store a " + referencedEClass.getName() + " in " + eClass().getName() + "." + eReference.getName() + " of type " + definedType.getName());
 		}
-		map.put(eReference, referenceOid);
+		int slot = getSlotForWrite(eReference);
+		if (references == null) {
+			references = new long[values.length];
+		}
+		references[slot] = referenceOid;
+		values[slot] = REFERENCE;
 	}
 
 	@Override
@@ -558,7 +625,7 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 		if (!definedType.isSuperTypeOf(referencedEClass)) {
 			throw new CannotStoreReferenceInFieldException(DeserializerErrorCode.REFERENCED_OBJECT_CANNOT_BE_STORED_IN_THIS_FIELD, "Cannot store a " + referencedEClass.getName() + " in " + eClass().getName() + "." + eReference.getName() + " of type " + definedType.getName());
 		}
-		map.put(eReference, wrappedVirtualObject);
+		put(eReference, wrappedVirtualObject);
 	}
 
 	@Override
@@ -575,8 +642,22 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 	}
 
 	public boolean has(String key) {
-		EStructuralFeature eStructuralFeature = eClass.getEStructuralFeature(key);
-		return map.containsKey(eStructuralFeature) && map.get(eStructuralFeature) != null;
+		return get(key) != null;
+	}
+	
+	private Object getUseForSerialization(EStructuralFeature feature) {
+		int slot = getSlot(feature);
+		if (useForSerializationFeatures == null || slot == -1) {
+			return null;
+		}
+		return useForSerializationFeatures[slot];
+	}
+	
+	private void putUseForSerialization(EStructuralFeature feature, Object value) {
+		if (useForSerializationFeatures == null) {
+			useForSerializationFeatures = new Object[values.length];
+		}
+		useForSerializationFeatures[getSlotForWrite(feature)] = value;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -584,8 +665,8 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 		if (feature instanceof EAttribute) {
 			return true;
 		}
-		if (useForSerializationFeatures.containsKey(feature)) {
-			Object object = useForSerializationFeatures.get(feature);
+		Object object = getUseForSerialization(feature);
+		if (object != null) {
 			if (object instanceof Set) {
 				Set<Integer> set = (Set<Integer>) object;
 				if (set.contains(index)) {
@@ -602,12 +683,12 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 		if (feature instanceof EAttribute) {
 			return true;
 		}
-		return useForSerializationFeatures.containsKey(feature);
+		return getUseForSerialization(feature) != null;
 	}
 
 	public void addUseForSerialization(EStructuralFeature eStructuralFeature) {
 		if (eStructuralFeature.getEContainingClass().isSuperTypeOf(eClass)) {
-			useForSerializationFeatures.put(eStructuralFeature, true);
+			putUseForSerialization(eStructuralFeature, true);
 		} else {
 			throw new IllegalArgumentException(eStructuralFeature.getName() + " does not exist in " + eClass.getName());
 		}
@@ -616,10 +697,10 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 	@SuppressWarnings("unchecked")
 	public void addUseForSerialization(EStructuralFeature eStructuralFeature, int index) {
 		if (eStructuralFeature.getEContainingClass().isSuperTypeOf(eClass)) {
-			Set<Object> set = (Set<Object>) useForSerializationFeatures.get(eStructuralFeature);
+			Set<Object> set = (Set<Object>) getUseForSerialization(eStructuralFeature);
 			if (set == null) {
 				set = new HashSet<>();
-				useForSerializationFeatures.put(eStructuralFeature, set);
+				putUseForSerialization(eStructuralFeature, set);
 			}
 			set.add(index);
 		} else {
@@ -649,44 +730,50 @@ public class HashMapVirtualObject extends AbstractHashMapVirtualObject implement
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append(eClass.getName() + " " + getOid() + "\n");
-		for (EStructuralFeature eStructuralFeature : map.keySet()) {
-			sb.append("\t" + eStructuralFeature.getName() + ": " + map.get(eStructuralFeature) + "\n");
+		for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
+			if (eIsSet(eStructuralFeature)) {
+				sb.append("\t" + eStructuralFeature.getName() + ": " + eGet(eStructuralFeature) + "\n");
+			}
 		}
 		return sb.toString();
 	}
 
 	public void setDirectReference(EReference feature2, AbstractHashMapVirtualObject byOid) {
 		if (directReferences == null) {
-			directReferences = new HashMap<>();
+			directReferences = new AbstractHashMapVirtualObject[values.length];
 		}
-		directReferences.put(feature2, byOid);
+		directReferences[getSlotForWrite(feature2)] = byOid;
 	}
 
+	@SuppressWarnings("unchecked")
 	public int addDirectListReference(EReference feature2, HashMapVirtualObject byOid) {
 		if (directListReferences == null) {
-			directListReferences = new HashMap<>();
+			directListReferences = new Set[values.length];
 		}
-		Set<HashMapVirtualObject> set = directListReferences.get(feature2);
+		int slot = getSlotForWrite(feature2);
+		Set<HashMapVirtualObject> set = directListReferences[slot];
 		if (set == null) {
 			set = new HashSet<>();
-			directListReferences.put(feature2, set);
+			directListReferences[slot] = set;
 		}
 		set.add(byOid);
 		return set.size() - 1;
 	}
 
 	public AbstractHashMapVirtualObject getDirectFeature(EStructuralFeature representationFeature) {
-		if (directReferences == null) {
+		int slot = getSlot(representationFeature);
+		if (directReferences == null || slot == -1) {
 			return null;
 		}
-		return directReferences.get(representationFeature);
+		return directReferences[slot];
 	}
 
 	public Set<HashMapVirtualObject> getDirectListFeature(EStructuralFeature representationFeature) {
-		if (directListReferences == null) {
+		int slot = getSlot(representationFeature);
+		if (directListReferences == null || slot == -1) {
 			return null;
 		}
-		return directListReferences.get(representationFeature);
+		return directListReferences[slot];
 	}
 
 	public void addReference(EReference eReference, EClass eClassForOid, long referencedOid) {
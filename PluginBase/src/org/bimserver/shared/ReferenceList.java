@@ -0,0 +1,167 @@
+package org.bimserver.shared;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * List used by {@link HashMapVirtualObject} for the values of a many-reference. Most items of these lists are oids, those are stored in a primitive long array instead of as boxed Longs. Other items (wrapped values,
+ * nested lists and nulls) are stored in a second array, which is only created when the first of those items is added.
+ */
+public class ReferenceList extends AbstractList<Object> implements RandomAccess {
+	private static final long NO_OID = -1;
+	private long[] oids;
+	private Object[] others;
+	private int size;
+
+	public ReferenceList(int initialCapacity) {
+		oids = new long[Math.max(initialCapacity, 2)];
+	}
+
+	/**
+	 * Returns the oid at the given index without boxing it
+	 * 
+	 * @return The oid at the given index, or -1 when the item at this index is not a reference (use {@link #get(int)} for those)
+	 */
+	public long getLong(int index) {
+		checkIndex(index);
+		return oids[index];
+	}
+
+	/**
+	 * Same as {@link #getLong(int)} for any list of references, lists other than a ReferenceList are read through {@link List#get(int)}
+	 */
+	public static long getLong(List<?> list, int index) {
+		if (list instanceof ReferenceList) {
+			return ((ReferenceList) list).getLong(index);
+		}
+		Object value = list.get(index);
+		if (value instanceof Long) {
+			return (Long) value;
+		}
+		return NO_OID;
+	}
+
+	@Override
+	public Object get(int index) {
+		checkIndex(index);
+		long oid = oids[index];
+		if (oid != NO_OID) {
+			return oid;
+		}
+		return others == null ? null : others[index];
+	}
+
+	@Override
+	public Object set(int index, Object element) {
+		Object old = get(index);
+		store(index, element);
+		return old;
+	}
+
+	@Override
+	public void add(int index, Object element) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		ensureCapacity(size + 1);
+		System.arraycopy(oids, index, oids, index + 1, size - index);
+		if (others != null) {
+			System.arraycopy(others, index, others, index + 1, size - index);
+		}
+		size++;
+		store(index, element);
+		modCount++;
+	}
+
+	@Override
+	public Object remove(int index) {
+		Object old = get(index);
+		int moved = size - index - 1;
+		System.arraycopy(oids, index + 1, oids, index, moved);
+		if (others != null) {
+			System.arraycopy(others, index + 1, others, index, moved);
+			others[size - 1] = null;
+		}
+		size--;
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		others = null;
+		modCount++;
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		if (o instanceof Long && (Long) o >= 0) {
+			long oid = (Long) o;
+			for (int i = 0; i < size; i++) {
+				if (oids[i] == oid) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		return super.indexOf(o);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private void store(int index, Object element) {
+		if (element instanceof Long && (Long) element >= 0) {
+			oids[index] = (Long) element;
+			if (others != null) {
+				others[index] = null;
+			}
+		} else {
+			oids[index] = NO_OID;
+			if (element != null && others == null) {
+				others = new Object[oids.length];
+			}
+			if (others != null) {
+				others[index] = element;
+			}
+		}
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > oids.length) {
+			int newCapacity = Math.max(minCapacity, oids.length + (oids.length >> 1));
+			oids = Arrays.copyOf(oids, newCapacity);
+			if (others != null) {
+				others = Arrays.copyOf(others, newCapacity);
+			}
+		}
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+}
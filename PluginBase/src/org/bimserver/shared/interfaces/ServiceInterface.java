@@ -1572,6 +1572,20 @@ public interface ServiceInterface extends PublicInterface {
 		@WebParam(name = "roid", partName = "regenerateGeometry.roid") Long roid,
 		@WebParam(name = "eoid", partName = "regenerateGeometry.eoid") Long eoid) throws ServerException, UserException;
 
+	/**
+	 * Generate geometry only for the products of a revision that have a representation but no geometry, for example after a checkin during which geometry generation failed.
+	 * An interrupted (missing) geometry generation continues where it stopped
+	 * 
+	 * @param roid ObjectID of the Revision
+	 * @param eoid ObjectID of the RenderEnginePluginConfiguration to use, or -1 for the default
+	 * @return The topicId of the progress topic
+	 * @throws ServerException, UserException
+	 */
+	@WebMethod(action = "regenerateMissingGeometry")
+	Long regenerateMissingGeometry(
+		@WebParam(name = "roid", partName = "regenerateMissingGeometry.roid") Long roid,
+		@WebParam(name = "eoid", partName = "regenerateMissingGeometry.eoid") Long eoid) throws ServerException, UserException;
+
 	@WebMethod(action = "getModelBoundsUntransformed")
 	SBounds getModelBoundsUntransformed(
 		@WebParam(name = "roid", partName = "getModelBoundsUntransformed.roid") Long roid) throws ServerException, UserException;
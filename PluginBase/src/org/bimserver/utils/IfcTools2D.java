@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bimserver.emf.IdEObject;
+import org.bimserver.geometry.GeometryDataEncoding;
 import org.bimserver.geometry.Matrix;
 import org.bimserver.geometry.Vector;
 import org.bimserver.models.geometry.GeometryData;
@@ -93,8 +94,8 @@ public class IfcTools2D {
 		if (geometry != null) {
 			GeometryData geometryData = geometry.getData();
 			if (geometryData != null) {
-				int[] indices = GeometryUtils.toIntegerArray(geometryData.getIndices().getData());
-				float[] vertices = GeometryUtils.toFloatArray(geometryData.getVertices().getData());
+				int[] indices = GeometryUtils.toIntegerArray(GeometryDataEncoding.decode(geometryData.getIndices().getEncoding(), geometryData.getIndices().getData()));
+				float[] vertices = GeometryUtils.toFloatArray(GeometryDataEncoding.decode(geometryData.getVertices().getEncoding(), geometryData.getVertices().getData()));
 				double[] matrix = GeometryUtils.toDoubleArray(geometry.getTransformation());
 				
 				Area area = new Area();
@@ -178,7 +178,13 @@ public class BinUtils {
 	}
 
 	public static String readString(ByteBuffer buffer, int length) {
-		String string = new String(buffer.array(), buffer.position(), length, Charsets.UTF_8);
+		if (!buffer.hasArray()) {
+			// Direct buffers (for example views on memory-mapped database pages) do not expose a backing array
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return new String(bytes, Charsets.UTF_8);
+		}
+		String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, Charsets.UTF_8);
 		buffer.position(buffer.position() + length);
 		return string;
 	}
@@ -0,0 +1,104 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.junit.Test;
+
+/**
+ * The static helpers of the geometry generation that the benchmarks of the Benchmarks module call directly, this test is in the same package for the same reason
+ */
+public class TestGeometryHelpers {
+
+	@Test
+	public void testHash() {
+		ByteBuffer empty = ByteBuffer.allocate(0);
+		assertEquals(StreamingGeometryGenerator.hash(bytes(1, 2, 3), bytes(4, 5), bytes(6), empty), StreamingGeometryGenerator.hash(bytes(1, 2, 3), bytes(4, 5), bytes(6), empty));
+		// Same bytes, other boundaries between the buffers
+		assertNotEquals(StreamingGeometryGenerator.hash(bytes(1, 2, 3), bytes(4, 5), bytes(6), empty), StreamingGeometryGenerator.hash(bytes(1, 2), bytes(3, 4, 5), bytes(6), empty));
+		// Only the remaining bytes count, and the position of the buffers is not changed
+		ByteBuffer positioned = bytes(9, 1, 2, 3);
+		positioned.position(1);
+		assertEquals(StreamingGeometryGenerator.hash(bytes(1, 2, 3), empty, empty, empty), StreamingGeometryGenerator.hash(positioned, empty, empty, empty));
+		assertEquals(1, positioned.position());
+	}
+
+	@Test
+	public void testQuantizeNormals() {
+		ByteBuffer quantized = GeometryRunner.quantizeNormals(FloatBuffer.wrap(new float[] { 1, -1, 0, 0.5f }));
+		assertEquals(4, quantized.capacity());
+		assertEquals(127, quantized.get(0));
+		assertEquals(-127, quantized.get(1));
+		assertEquals(0, quantized.get(2));
+		assertEquals(63, quantized.get(3));
+	}
+
+	@Test
+	public void testAppendInvertedGeometry() {
+		// One triangle
+		IntBuffer indices = IntBuffer.wrap(new int[] { 0, 1, 2 });
+		DoubleBuffer vertices = DoubleBuffer.wrap(new double[] { 0, 0, 0, 1, 0, 0, 0, 1, 0 });
+		FloatBuffer normals = FloatBuffer.wrap(new float[] { 0, 0, 1, 0, 0, 1, 0, 0, 1 });
+		IntBuffer colorIndices = IntBuffer.wrap(new int[] { 7 });
+		BufferSet bufferSet = GeometryRunner.appendInvertedGeometry(indices, vertices, normals, colorIndices);
+
+		IntBuffer newIndices = bufferSet.getIndicesByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		assertEquals(6, newIndices.capacity());
+		// The copy has its own vertices and the opposite winding order
+		int[] expectedIndices = new int[] { 0, 1, 2, 3, 5, 4 };
+		for (int i = 0; i < expectedIndices.length; i++) {
+			assertEquals(expectedIndices[i], newIndices.get(i));
+		}
+
+		DoubleBuffer newVertices = bufferSet.getVerticesByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		assertEquals(18, newVertices.capacity());
+		for (int i = 0; i < 9; i++) {
+			assertEquals(vertices.get(i), newVertices.get(i), 0);
+			assertEquals(vertices.get(i), newVertices.get(i + 9), 0);
+		}
+
+		FloatBuffer newNormals = bufferSet.getNormalsByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		assertEquals(18, newNormals.capacity());
+		for (int i = 0; i < 9; i++) {
+			assertEquals(normals.get(i), newNormals.get(i), 0);
+			assertEquals(-normals.get(i), newNormals.get(i + 9), 0);
+		}
+
+		IntBuffer newColorIndices = bufferSet.getColorsByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		assertEquals(2, newColorIndices.capacity());
+		assertEquals(7, newColorIndices.get(0));
+		assertEquals(7, newColorIndices.get(1));
+	}
+
+	private ByteBuffer bytes(int... values) {
+		ByteBuffer buffer = ByteBuffer.allocate(values.length);
+		for (int value : values) {
+			buffer.put((byte) value);
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,160 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.GeometryCheckpoint;
+import org.bimserver.database.GeometryCheckpointStore;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.lmdb.LmdbKeyValueStore;
+import org.bimserver.utils.PathUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestGeometryCheckpointStore {
+
+	private Path home;
+	private LmdbKeyValueStore keyValueStore;
+	private GeometryCheckpointStore geometryCheckpointStore;
+
+	@Before
+	public void before() throws Exception {
+		home = Paths.get("tmptestdata/geometrycheckpoints-" + new Random().nextInt(1000000000));
+		Files.createDirectories(home.getParent());
+		keyValueStore = new LmdbKeyValueStore(home, null);
+		keyValueStore.createTable(GeometryCheckpointStore.GEOMETRY_CHECKPOINT_TABLE, null, true);
+		geometryCheckpointStore = new GeometryCheckpointStore(keyValueStore);
+	}
+
+	@After
+	public void after() throws Exception {
+		keyValueStore.close();
+		PathUtils.removeDirectoryWithContent(home);
+	}
+
+	@Test
+	public void testNoCheckpoint() throws Exception {
+		assertNull(geometryCheckpointStore.read(1, 1, null));
+		assertTrue(geometryCheckpointStore.readProductOids(1, 1, null).isEmpty());
+		assertTrue(geometryCheckpointStore.readHashes(1, 1, null).isEmpty());
+	}
+
+	@Test
+	public void testState() throws Exception {
+		GeometryCheckpoint geometryCheckpoint = new GeometryCheckpoint();
+		geometryCheckpoint.setOnlyMissing(true);
+		geometryCheckpoint.setMultiplierToMm(1f);
+		write(1, 1, geometryCheckpoint, Collections.<Long>emptySet(), Collections.<ByteBuffer, Long>emptyMap());
+
+		GeometryCheckpoint read = geometryCheckpointStore.read(1, 1, null);
+		assertTrue(read.isOnlyMissing());
+		assertFalse(read.isRequantize());
+		assertFalse(read.hasBounds());
+		assertEquals(1f, read.getMultiplierToMm(), 0);
+
+		geometryCheckpoint.setRequantize(true);
+		geometryCheckpoint.setBounds(new double[] { -1, -2, -3 }, new double[] { 1, 2, 3 }, new double[] { -10, -20, -30 }, new double[] { 10, 20, 30 });
+		write(1, 1, geometryCheckpoint, Collections.<Long>emptySet(), Collections.<ByteBuffer, Long>emptyMap());
+
+		// The state is overwritten by every write
+		read = geometryCheckpointStore.read(1, 1, null);
+		assertTrue(read.isRequantize());
+		assertTrue(read.hasBounds());
+		assertArrayEquals(new double[] { -1, -2, -3 }, read.getMin(), 0);
+		assertArrayEquals(new double[] { 1, 2, 3 }, read.getMax(), 0);
+		assertArrayEquals(new double[] { -10, -20, -30 }, read.getMinUntransformed(), 0);
+		assertArrayEquals(new double[] { 10, 20, 30 }, read.getMaxUntransformed(), 0);
+	}
+
+	@Test
+	public void testProductsAndHashes() throws Exception {
+		Map<ByteBuffer, Long> hashes = new HashMap<>();
+		hashes.put(hash(1), 1001L);
+		hashes.put(hash(2), 1002L);
+		write(1, 1, new GeometryCheckpoint(), new HashSet<>(Arrays.asList(10L, 11L)), hashes);
+
+		Map<ByteBuffer, Long> moreHashes = new HashMap<>();
+		moreHashes.put(hash(3), 1003L);
+		write(1, 1, new GeometryCheckpoint(), Collections.singleton(12L), moreHashes);
+
+		// Every write adds to the products and hashes of the earlier writes
+		assertEquals(new HashSet<>(Arrays.asList(10L, 11L, 12L)), geometryCheckpointStore.readProductOids(1, 1, null));
+		Map<ByteBuffer, Long> expected = new HashMap<>(hashes);
+		expected.putAll(moreHashes);
+		assertEquals(expected, geometryCheckpointStore.readHashes(1, 1, null));
+	}
+
+	@Test
+	public void testRevisionsAreSeparate() throws Exception {
+		write(1, 1, new GeometryCheckpoint(), Collections.singleton(10L), Collections.singletonMap(hash(1), 1001L));
+		write(1, 2, new GeometryCheckpoint(), Collections.singleton(20L), Collections.singletonMap(hash(2), 2001L));
+		write(2, 1, new GeometryCheckpoint(), Collections.singleton(30L), Collections.singletonMap(hash(3), 3001L));
+
+		assertEquals(Collections.singleton(10L), geometryCheckpointStore.readProductOids(1, 1, null));
+		assertEquals(Collections.singleton(20L), geometryCheckpointStore.readProductOids(1, 2, null));
+		assertEquals(Collections.singleton(30L), geometryCheckpointStore.readProductOids(2, 1, null));
+		assertEquals(Collections.singletonMap(hash(2), 2001L), geometryCheckpointStore.readHashes(1, 2, null));
+
+		DatabaseSession session = createSession();
+		geometryCheckpointStore.delete(1, 1, session);
+		keyValueStore.commit(session);
+
+		assertNull(geometryCheckpointStore.read(1, 1, null));
+		assertTrue(geometryCheckpointStore.readProductOids(1, 1, null).isEmpty());
+		assertTrue(geometryCheckpointStore.readHashes(1, 1, null).isEmpty());
+		assertEquals(Collections.singleton(20L), geometryCheckpointStore.readProductOids(1, 2, null));
+		assertEquals(Collections.singleton(30L), geometryCheckpointStore.readProductOids(2, 1, null));
+	}
+
+	private ByteBuffer hash(int seed) {
+		// Mesh hashes are 16 bytes
+		byte[] bytes = new byte[16];
+		new Random(seed).nextBytes(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	private void write(int pid, int rid, GeometryCheckpoint geometryCheckpoint, Set<Long> productOids, Map<ByteBuffer, Long> hashes) throws Exception {
+		DatabaseSession session = createSession();
+		geometryCheckpointStore.write(pid, rid, geometryCheckpoint, productOids, hashes, session);
+		keyValueStore.commit(session);
+	}
+
+	private DatabaseSession createSession() {
+		// Only the transaction of the session is used by the KeyValueStore
+		return new DatabaseSession(null, keyValueStore.startTransaction(), OperationType.POSSIBLY_WRITE);
+	}
+}
@@ -0,0 +1,80 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.bimserver.geometry.GeometryDataEncoding;
+import org.junit.Test;
+
+public class TestGeometryDataEncoding {
+
+	@Test
+	public void testIndices() {
+		ByteBuffer indices = ByteBuffer.allocate(6 * 4).order(ByteOrder.LITTLE_ENDIAN);
+		for (int index : new int[] {0, 1, 2, 2, 1, 300000}) {
+			indices.putInt(index);
+		}
+		byte[] encoded = GeometryDataEncoding.encodeIndices(indices.array());
+		assertArrayEquals(indices.array(), GeometryDataEncoding.decode(GeometryDataEncoding.COMPACT, encoded));
+	}
+
+	@Test
+	public void testVertices() {
+		ByteBuffer vertices = ByteBuffer.allocate(6 * 8).order(ByteOrder.LITTLE_ENDIAN);
+		for (double value : new double[] {0, 0, 0, 10, 20, 30}) {
+			vertices.putDouble(value);
+		}
+		byte[] decoded = GeometryDataEncoding.decode(GeometryDataEncoding.COMPACT, GeometryDataEncoding.encodeVertices(vertices.array(), true));
+		assertEquals(vertices.array().length, decoded.length);
+		ByteBuffer result = ByteBuffer.wrap(decoded).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 6; i++) {
+			assertEquals(vertices.getDouble(i * 8), result.getDouble(i * 8), 0.001);
+		}
+	}
+
+	@Test
+	public void testEmptyVertices() {
+		byte[] encoded = GeometryDataEncoding.encodeVertices(new byte[0], false);
+		assertEquals(0, GeometryDataEncoding.decode(GeometryDataEncoding.COMPACT, encoded).length);
+	}
+
+	@Test
+	public void testUnencodedDataIsNotDetected() {
+		// Unencoded data that happens to start like encoded data is returned as-is
+		ByteBuffer indices = ByteBuffer.allocate(3 * 4).order(ByteOrder.LITTLE_ENDIAN);
+		indices.putInt(0).putInt(1).putInt(2);
+		byte[] encoded = GeometryDataEncoding.encodeIndices(indices.array());
+		assertSame(encoded, GeometryDataEncoding.decode(GeometryDataEncoding.NONE, encoded));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompactWithoutHeader() {
+		GeometryDataEncoding.decode(GeometryDataEncoding.COMPACT, new byte[] {0, 0, 0, 0, 1, 0, 0, 0});
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownEncoding() {
+		GeometryDataEncoding.decode(2, new byte[0]);
+	}
+}
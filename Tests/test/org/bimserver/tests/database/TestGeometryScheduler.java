@@ -0,0 +1,340 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bimserver.geometry.GeometryScheduler;
+import org.bimserver.geometry.GeometryScheduler.Batch;
+import org.bimserver.plugins.renderengine.RenderEngine;
+import org.bimserver.renderengine.RenderEngineFactory;
+import org.bimserver.renderengine.RenderEnginePool;
+import org.junit.After;
+import org.junit.Test;
+
+public class TestGeometryScheduler {
+
+	private GeometryScheduler scheduler;
+
+	@After
+	public void after() {
+		if (scheduler != null) {
+			scheduler.close();
+		}
+	}
+
+	@Test
+	public void testPoolLimit() throws Exception {
+		scheduler = new GeometryScheduler(4);
+		ConcurrencyCounter counter = new ConcurrencyCounter();
+		try (Batch batch = scheduler.createBatch("pool", GeometryScheduler.DEFAULT_PRIORITY, new FakePool(2))) {
+			for (int i = 0; i < 40; i++) {
+				batch.submit(counter.job(5));
+			}
+			batch.awaitTermination();
+		}
+		assertEquals(40, counter.completed.get());
+		assertTrue("At most 2 jobs may run with a pool of 2, not " + counter.max.get(), counter.max.get() <= 2);
+		assertEquals(40, scheduler.getCompletedJobs());
+	}
+
+	@Test
+	public void testThreadLimit() throws Exception {
+		scheduler = new GeometryScheduler(3);
+		ConcurrencyCounter counter = new ConcurrencyCounter();
+		try (Batch batch = scheduler.createBatch("threads", GeometryScheduler.DEFAULT_PRIORITY, new FakePool(100))) {
+			for (int i = 0; i < 40; i++) {
+				batch.submit(counter.job(5));
+			}
+			batch.awaitTermination();
+		}
+		assertEquals(40, counter.completed.get());
+		assertTrue("At most 3 jobs may run with 3 threads, not " + counter.max.get(), counter.max.get() <= 3);
+		assertEquals(0, scheduler.getRunning());
+		assertEquals(0, scheduler.getQueueDepth());
+	}
+
+	@Test
+	public void testPoolsAreLimitedSeparately() throws Exception {
+		scheduler = new GeometryScheduler(4);
+		ConcurrencyCounter counter1 = new ConcurrencyCounter();
+		ConcurrencyCounter counter2 = new ConcurrencyCounter();
+		try (Batch batch1 = scheduler.createBatch("pool1", GeometryScheduler.DEFAULT_PRIORITY, new FakePool(1));
+				Batch batch2 = scheduler.createBatch("pool2", GeometryScheduler.DEFAULT_PRIORITY, new FakePool(1))) {
+			for (int i = 0; i < 20; i++) {
+				batch1.submit(counter1.job(5));
+				batch2.submit(counter2.job(5));
+			}
+			batch1.awaitTermination();
+			batch2.awaitTermination();
+		}
+		assertEquals(20, counter1.completed.get());
+		assertEquals(20, counter2.completed.get());
+		assertEquals(1, counter1.max.get());
+		assertEquals(1, counter2.max.get());
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		scheduler = new GeometryScheduler(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Batch batch = scheduler.createBatch("backpressure", GeometryScheduler.DEFAULT_PRIORITY, new FakePool(1));
+		try {
+			batch.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			waitFor(new Condition() {
+				@Override
+				public boolean isMet() {
+					return scheduler.getRunning() == 1;
+				}
+			});
+			// The queue holds 64 jobs per thread
+			for (int i = 0; i < 64; i++) {
+				batch.submit(new NoopJob());
+			}
+			assertEquals(64, scheduler.getQueueDepth());
+			final CountDownLatch submitted = new CountDownLatch(1);
+			Thread submitter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						batch.submit(new NoopJob());
+						submitted.countDown();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			submitter.start();
+			assertFalse("Submit should block while the queue is full", submitted.await(500, TimeUnit.MILLISECONDS));
+			release.countDown();
+			assertTrue("Submit should continue when there is room in the queue", submitted.await(10, TimeUnit.SECONDS));
+			batch.awaitTermination();
+			submitter.join();
+			assertEquals(66, scheduler.getCompletedJobs());
+			assertEquals(64, scheduler.getMaxQueueDepth());
+		} finally {
+			release.countDown();
+			batch.close();
+		}
+	}
+
+	@Test
+	public void testPriority() throws Exception {
+		scheduler = new GeometryScheduler(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		FakePool pool = new FakePool(10);
+		try (Batch large = scheduler.createBatch("large", GeometryScheduler.DEFAULT_PRIORITY, pool);
+				Batch small = scheduler.createBatch("small", GeometryScheduler.HIGH_PRIORITY, pool)) {
+			large.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			waitFor(new Condition() {
+				@Override
+				public boolean isMet() {
+					return scheduler.getRunning() == 1;
+				}
+			});
+			// Everything is queued before the only thread becomes available again
+			for (int i = 0; i < 60; i++) {
+				large.submit(new RecordingJob(order, "large"));
+			}
+			for (int i = 0; i < 5; i++) {
+				small.submit(new RecordingJob(order, "small"));
+			}
+			release.countDown();
+			large.awaitTermination();
+			small.awaitTermination();
+		}
+		assertEquals(65, order.size());
+		int lastSmall = order.lastIndexOf("small");
+		assertTrue("The small batch should not wait for the large batch to finish, last small job at " + lastSmall, lastSmall < 20);
+	}
+
+	@Test
+	public void testResize() throws Exception {
+		scheduler = new GeometryScheduler(1);
+		assertEquals(1, scheduler.getNrThreads());
+		scheduler.setNrThreads(4);
+		assertEquals(4, scheduler.getNrThreads());
+		ConcurrencyCounter counter = new ConcurrencyCounter();
+		try (Batch batch = scheduler.createBatch("grown", GeometryScheduler.DEFAULT_PRIORITY, new FakePool(100))) {
+			for (int i = 0; i < 40; i++) {
+				batch.submit(counter.job(5));
+			}
+			batch.awaitTermination();
+		}
+		assertTrue(counter.max.get() <= 4);
+
+		scheduler.setNrThreads(1);
+		assertEquals(1, scheduler.getNrThreads());
+		counter = new ConcurrencyCounter();
+		try (Batch batch = scheduler.createBatch("shrunk", GeometryScheduler.DEFAULT_PRIORITY, new FakePool(100))) {
+			for (int i = 0; i < 20; i++) {
+				batch.submit(counter.job(5));
+			}
+			batch.awaitTermination();
+		}
+		assertEquals(20, counter.completed.get());
+		assertEquals(1, counter.max.get());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoThreads() {
+		scheduler = new GeometryScheduler(1);
+		scheduler.setNrThreads(0);
+	}
+
+	@Test
+	public void testClosedBatch() throws Exception {
+		scheduler = new GeometryScheduler(1);
+		Batch batch = scheduler.createBatch("closed", GeometryScheduler.DEFAULT_PRIORITY, new FakePool(1));
+		assertEquals(1, scheduler.getNrBatches());
+		batch.close();
+		assertEquals(0, scheduler.getNrBatches());
+		try {
+			batch.submit(new NoopJob());
+			fail("Submitting to a closed batch should fail");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	private static void waitFor(Condition condition) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (!condition.isMet()) {
+			if (System.currentTimeMillis() > end) {
+				fail("Timed out");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private interface Condition {
+		boolean isMet();
+	}
+
+	private static class ConcurrencyCounter {
+		private final AtomicInteger current = new AtomicInteger();
+		private final AtomicInteger max = new AtomicInteger();
+		private final AtomicInteger completed = new AtomicInteger();
+
+		public Runnable job(final long sleepMs) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					int now = current.incrementAndGet();
+					int previousMax;
+					while ((previousMax = max.get()) < now && !max.compareAndSet(previousMax, now)) {
+					}
+					try {
+						Thread.sleep(sleepMs);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						current.decrementAndGet();
+						completed.incrementAndGet();
+					}
+				}
+			};
+		}
+	}
+
+	private static class RecordingJob implements Runnable {
+		private final List<String> order;
+		private final String name;
+
+		public RecordingJob(List<String> order, String name) {
+			this.order = order;
+			this.name = name;
+		}
+
+		@Override
+		public void run() {
+			order.add(name);
+		}
+	}
+
+	private static class NoopJob implements Runnable {
+		@Override
+		public void run() {
+		}
+	}
+
+	/**
+	 * The scheduler only looks at the size of a pool, no render engines are ever borrowed
+	 */
+	private static class FakePool implements RenderEnginePool {
+		private final int maxSize;
+
+		public FakePool(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public RenderEngineFactory getRenderEngineFactory() {
+			return null;
+		}
+
+		@Override
+		public RenderEngine borrowObject() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void returnObject(RenderEngine renderEngine) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void invalidateObject(RenderEngine renderEngine) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int getMaxSize() {
+			return maxSize;
+		}
+	}
+}
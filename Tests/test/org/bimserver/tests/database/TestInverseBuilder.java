@@ -0,0 +1,149 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.bimserver.database.actions.InverseBuilder;
+import org.bimserver.utils.PathUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestInverseBuilder {
+
+	private Path tmpDir;
+
+	@Before
+	public void before() throws Exception {
+		tmpDir = Paths.get("tmptestdata/inverses-" + new Random().nextInt(1000000000));
+	}
+
+	@After
+	public void after() throws Exception {
+		if (Files.exists(tmpDir)) {
+			PathUtils.removeDirectoryWithContent(tmpDir);
+		}
+	}
+
+	@Test
+	public void testInMemory() throws Exception {
+		List<long[]> tuples = randomTuples(1000);
+		try (InverseBuilder inverseBuilder = new InverseBuilder(tmpDir, 10000)) {
+			add(inverseBuilder, tuples);
+			inverseBuilder.sort();
+			assertSortedAndStable(inverseBuilder, tuples);
+		}
+		// Nothing had to be spilled
+		assertFalse(Files.exists(tmpDir));
+	}
+
+	@Test
+	public void testSpilled() throws Exception {
+		List<long[]> tuples = randomTuples(10000);
+		try (InverseBuilder inverseBuilder = new InverseBuilder(tmpDir, 100)) {
+			add(inverseBuilder, tuples);
+			inverseBuilder.sort();
+			assertEquals(100, PathUtils.list(tmpDir).size());
+			assertSortedAndStable(inverseBuilder, tuples);
+		}
+		// Run files are removed on close
+		assertTrue(PathUtils.list(tmpDir).isEmpty());
+	}
+
+	@Test
+	public void testPartialLastRun() throws Exception {
+		List<long[]> tuples = randomTuples(1050);
+		try (InverseBuilder inverseBuilder = new InverseBuilder(tmpDir, 100)) {
+			add(inverseBuilder, tuples);
+			inverseBuilder.sort();
+			assertSortedAndStable(inverseBuilder, tuples);
+		}
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		try (InverseBuilder inverseBuilder = new InverseBuilder(tmpDir, 100)) {
+			inverseBuilder.sort();
+			assertFalse(inverseBuilder.next());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAddAfterSort() throws Exception {
+		try (InverseBuilder inverseBuilder = new InverseBuilder(tmpDir, 100)) {
+			inverseBuilder.sort();
+			inverseBuilder.add(1, 2, 0);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNextBeforeSort() throws Exception {
+		try (InverseBuilder inverseBuilder = new InverseBuilder(tmpDir, 100)) {
+			inverseBuilder.add(1, 2, 0);
+			inverseBuilder.next();
+		}
+	}
+
+	/**
+	 * @return { targetOid, sourceOid, referenceIndex }, few targets so most of them get tuples in many runs, source oids are increasing so the order of tuples for one target can be checked
+	 */
+	private List<long[]> randomTuples(int nrTuples) {
+		Random random = new Random(1);
+		List<long[]> tuples = new ArrayList<>();
+		for (int i = 0; i < nrTuples; i++) {
+			tuples.add(new long[] { random.nextInt(200), i, random.nextInt(5) });
+		}
+		return tuples;
+	}
+
+	private void add(InverseBuilder inverseBuilder, List<long[]> tuples) throws Exception {
+		for (long[] tuple : tuples) {
+			inverseBuilder.add(tuple[0], tuple[1], (int) tuple[2]);
+		}
+	}
+
+	private void assertSortedAndStable(InverseBuilder inverseBuilder, List<long[]> tuples) throws Exception {
+		List<long[]> expected = new ArrayList<>(tuples);
+		// Collections.sort is stable
+		Collections.sort(expected, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] o1, long[] o2) {
+				return Long.compare(o1[0], o2[0]);
+			}
+		});
+		for (long[] tuple : expected) {
+			assertTrue(inverseBuilder.next());
+			assertEquals(tuple[0], inverseBuilder.getTargetOid());
+			assertEquals(tuple[1], inverseBuilder.getSourceOid());
+			assertEquals(tuple[2], inverseBuilder.getReferenceIndex());
+		}
+		assertFalse(inverseBuilder.next());
+	}
+}
@@ -0,0 +1,123 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bimserver.ListObjectProvider;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.plugins.serializers.ObjectProvider;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.eclipse.emf.ecore.EClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class TestListObjectProvider {
+
+	private HashMapVirtualObject createObject(long oid) {
+		return new HashMapVirtualObject(null, Ifc2x3tc1Package.eINSTANCE.getIfcWall(), oid, null);
+	}
+
+	@Test
+	public void testNext() throws Exception {
+		List<HashMapVirtualObject> objects = Arrays.asList(createObject(3), createObject(1), createObject(2));
+		ObjectProvider objectProvider = new ListObjectProvider(new FallbackObjectProvider(), objects);
+		for (HashMapVirtualObject object : objects) {
+			assertSame(object, objectProvider.next());
+		}
+		assertNull(objectProvider.next());
+
+		// A copy starts at the first object again
+		ObjectProvider copy = objectProvider.copy();
+		assertSame(objects.get(0), copy.next());
+	}
+
+	@Test
+	public void testGetByOid() throws Exception {
+		FallbackObjectProvider fallback = new FallbackObjectProvider();
+		HashMapVirtualObject listed = createObject(1);
+		ObjectProvider objectProvider = new ListObjectProvider(fallback, Arrays.asList(listed));
+		assertSame(listed, objectProvider.getByOid(1));
+		assertEquals(0, fallback.requested.size());
+
+		// Objects that are not in the list come from the other ObjectProvider
+		HashMapVirtualObject other = objectProvider.getByOid(2);
+		assertEquals(2, other.getOid());
+		assertEquals(Arrays.asList(2L), fallback.requested);
+
+		assertSame(listed, objectProvider.copy().getByOid(1));
+		assertEquals(1, fallback.requested.size());
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		FallbackObjectProvider fallback = new FallbackObjectProvider();
+		ObjectProvider objectProvider = new ListObjectProvider(fallback, new ArrayList<HashMapVirtualObject>());
+		HashMapVirtualObject object = createObject(1);
+		objectProvider.cache(object);
+		assertEquals(Arrays.asList(object), fallback.cached);
+	}
+
+	private class FallbackObjectProvider implements ObjectProvider {
+		private final List<Long> requested = new ArrayList<>();
+		private final List<HashMapVirtualObject> cached = new ArrayList<>();
+
+		@Override
+		public HashMapVirtualObject next() {
+			return null;
+		}
+
+		@Override
+		public ObjectProvider copy() {
+			return this;
+		}
+
+		@Override
+		public HashMapVirtualObject getByOid(long oid) {
+			requested.add(oid);
+			return createObject(oid);
+		}
+
+		@Override
+		public EClass getEClassForOid(long oid) {
+			return Ifc2x3tc1Package.eINSTANCE.getIfcWall();
+		}
+
+		@Override
+		public EClass getEClassForCid(short cid) {
+			return Ifc2x3tc1Package.eINSTANCE.getIfcWall();
+		}
+
+		@Override
+		public ObjectNode getQueryNode() {
+			return null;
+		}
+
+		@Override
+		public void cache(HashMapVirtualObject object) {
+			cached.add(object);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.BimserverLockConflictException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.Record;
+import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.lmdb.LmdbKeyValueStore;
+import org.bimserver.utils.PathUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLmdbKeyValueStore {
+
+	private Path home;
+	private LmdbKeyValueStore keyValueStore;
+
+	@Before
+	public void before() throws Exception {
+		home = Paths.get("tmptestdata/lmdb-" + new Random().nextInt(1000000000));
+		Files.createDirectories(home.getParent());
+		keyValueStore = new LmdbKeyValueStore(home, null);
+		keyValueStore.createTable("table", null, true);
+		keyValueStore.createIndexTable("index", null, true);
+	}
+
+	@After
+	public void after() throws Exception {
+		keyValueStore.close();
+		PathUtils.removeDirectoryWithContent(home);
+	}
+
+	private DatabaseSession createSession() {
+		// Only the transaction of the session is used by the KeyValueStore
+		return new DatabaseSession(null, keyValueStore.startTransaction(), OperationType.POSSIBLY_WRITE);
+	}
+
+	@Test
+	public void testConcurrentWritesToSameKeyConflict() throws Exception {
+		byte[] key = new byte[] { 1, 2, 3 };
+		DatabaseSession first = createSession();
+		DatabaseSession second = createSession();
+		keyValueStore.store("table", key, new byte[] { 1 }, first);
+		keyValueStore.store("table", key, new byte[] { 2 }, second);
+		keyValueStore.commit(first);
+		try {
+			keyValueStore.commit(second);
+			fail("Second commit should conflict with the first");
+		} catch (BimserverLockConflictException e) {
+			// Expected, DatabaseSession retries the second transaction
+			second.getBimTransaction().rollback();
+		}
+		assertArrayEquals(new byte[] { 1 }, keyValueStore.get("table", key, null));
+	}
+
+	@Test
+	public void testConcurrentWritesToDifferentKeys() throws Exception {
+		DatabaseSession first = createSession();
+		DatabaseSession second = createSession();
+		keyValueStore.store("table", new byte[] { 1 }, new byte[] { 1 }, first);
+		keyValueStore.store("table", new byte[] { 2 }, new byte[] { 2 }, second);
+		keyValueStore.commit(first);
+		keyValueStore.commit(second);
+		assertArrayEquals(new byte[] { 1 }, keyValueStore.get("table", new byte[] { 1 }, null));
+		assertArrayEquals(new byte[] { 2 }, keyValueStore.get("table", new byte[] { 2 }, null));
+	}
+
+	@Test
+	public void testWriteAfterCommitDoesNotConflict() throws Exception {
+		byte[] key = new byte[] { 1, 2, 3 };
+		DatabaseSession first = createSession();
+		keyValueStore.store("table", key, new byte[] { 1 }, first);
+		keyValueStore.commit(first);
+		
+		DatabaseSession second = createSession();
+		keyValueStore.store("table", key, new byte[] { 2 }, second);
+		keyValueStore.commit(second);
+		assertArrayEquals(new byte[] { 2 }, keyValueStore.get("table", key, null));
+	}
+
+	@Test
+	public void testLongIndexKey() throws Exception {
+		byte[] key = new byte[2000];
+		new Random(1).nextBytes(key);
+		byte[] otherKey = key.clone();
+		otherKey[1999]++;
+		
+		DatabaseSession session = createSession();
+		keyValueStore.store("index", key, new byte[] { 1 }, session);
+		keyValueStore.store("index", otherKey, new byte[] { 2 }, session);
+		keyValueStore.commit(session);
+		
+		// Both keys are longer than the maximum key size and only differ at the end, they should still be stored as different keys
+		List<byte[]> duplicates = keyValueStore.getDuplicates("index", key, null);
+		assertEquals(1, duplicates.size());
+		assertArrayEquals(new byte[] { 1 }, duplicates.get(0));
+		duplicates = keyValueStore.getDuplicates("index", otherKey, null);
+		assertEquals(1, duplicates.size());
+		assertArrayEquals(new byte[] { 2 }, duplicates.get(0));
+	}
+
+	@Test
+	public void testReusedRecords() throws Exception {
+		DatabaseSession session = createSession();
+		for (byte i = 0; i < 3; i++) {
+			keyValueStore.store("table", new byte[] { 7, i }, new byte[] { i, i }, session);
+		}
+		keyValueStore.commit(session);
+		// The last record is only pending in this transaction, so it is not served from LMDB
+		session = createSession();
+		keyValueStore.store("table", new byte[] { 7, 3 }, new byte[] { 3, 3 }, session);
+
+		List<byte[]> keys = new ArrayList<>();
+		SearchingRecordIterator recordIterator = keyValueStore.getRecordIterator("table", new byte[] { 7 }, new byte[] { 7 }, session);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				keys.add(record.getKey());
+				ByteBuffer keyBuffer = record.getKeyBuffer();
+				keyBuffer.order(ByteOrder.LITTLE_ENDIAN);
+				keyBuffer.get();
+				// Every call gives the buffer back positioned at 0 and in big-endian order, whatever the previous caller did with it
+				keyBuffer = record.getKeyBuffer();
+				assertEquals(0, keyBuffer.position());
+				assertEquals(2, keyBuffer.remaining());
+				assertEquals(ByteOrder.BIG_ENDIAN, keyBuffer.order());
+				assertEquals(keyBuffer.get(1), record.getValueBuffer().get(0));
+				if (keyBuffer.get(1) == 3) {
+					assertTrue(keyBuffer.isReadOnly());
+				}
+				record = recordIterator.next();
+			}
+		} finally {
+			recordIterator.close();
+			session.getBimTransaction().rollback();
+		}
+		// The arrays stay valid after the iterator has moved on
+		assertEquals(4, keys.size());
+		for (byte i = 0; i < 4; i++) {
+			assertArrayEquals(new byte[] { 7, i }, keys.get(i));
+		}
+	}
+
+	@Test
+	public void testLongRecordKey() throws Exception {
+		DatabaseSession session = createSession();
+		try {
+			keyValueStore.store("table", new byte[2000], new byte[] { 1 }, session);
+			fail("Keys longer than the maximum key size should be refused for tables without duplicates");
+		} catch (BimserverDatabaseException e) {
+			// Expected
+		} finally {
+			session.getBimTransaction().rollback();
+		}
+	}
+}
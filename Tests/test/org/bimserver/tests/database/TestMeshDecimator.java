@@ -0,0 +1,122 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.bimserver.geometry.BufferSet;
+import org.bimserver.geometry.MeshDecimator;
+import org.junit.Test;
+
+public class TestMeshDecimator {
+	private static final int SIZE = 20;
+
+	@Test
+	public void testFlatGridKeepsOutline() {
+		IntBuffer indices = IntBuffer.allocate(SIZE * SIZE * 6);
+		DoubleBuffer vertices = DoubleBuffer.allocate((SIZE + 1) * (SIZE + 1) * 3);
+		FloatBuffer normals = FloatBuffer.allocate((SIZE + 1) * (SIZE + 1) * 3);
+		for (int i = 0; i <= SIZE; i++) {
+			for (int j = 0; j <= SIZE; j++) {
+				vertices.put(i).put(j).put(0);
+				normals.put(0).put(0).put(1);
+			}
+		}
+		for (int i = 0; i < SIZE; i++) {
+			for (int j = 0; j < SIZE; j++) {
+				int corner = i * (SIZE + 1) + j;
+				indices.put(new int[] {corner, corner + SIZE + 1, corner + 1, corner + 1, corner + SIZE + 1, corner + SIZE + 2});
+			}
+		}
+		BufferSet bufferSet = new MeshDecimator(indices, vertices, normals, null).decimate(0.2f);
+		int nrTriangles = bufferSet.getIndicesByteBuffer().capacity() / 12;
+		assertTrue("Expected fewer triangles, got " + nrTriangles, nrTriangles <= SIZE * SIZE * 2 / 2);
+
+		DoubleBuffer result = bufferSet.getVerticesByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		int onOutline = 0;
+		for (int i = 0; i < result.capacity() / 3; i++) {
+			double x = result.get(i * 3);
+			double y = result.get(i * 3 + 1);
+			assertEquals(0, result.get(i * 3 + 2), 0);
+			if (x == 0 || y == 0 || x == SIZE || y == SIZE) {
+				onOutline++;
+			}
+		}
+		// Positions on the boundary edges are never moved
+		assertEquals(SIZE * 4, onOutline);
+	}
+
+	@Test
+	public void testClosedSphereKeepsBounds() {
+		int rings = 12;
+		int segments = 24;
+		IntBuffer indices = IntBuffer.allocate(rings * segments * 6);
+		DoubleBuffer vertices = DoubleBuffer.allocate((rings + 1) * (segments + 1) * 3);
+		FloatBuffer normals = FloatBuffer.allocate((rings + 1) * (segments + 1) * 3);
+		for (int i = 0; i <= rings; i++) {
+			double theta = Math.PI * i / rings;
+			// The poles and the seam share their positions exactly, so the sphere is closed
+			double sinTheta = i == 0 || i == rings ? 0 : Math.sin(theta);
+			for (int j = 0; j <= segments; j++) {
+				double phi = 2 * Math.PI * (j % segments) / segments;
+				double x = sinTheta == 0 ? 0 : sinTheta * Math.cos(phi) * SIZE;
+				double y = sinTheta == 0 ? 0 : sinTheta * Math.sin(phi) * SIZE;
+				double z = Math.cos(theta) * SIZE;
+				vertices.put(x).put(y).put(z);
+				normals.put((float) (x / SIZE)).put((float) (y / SIZE)).put((float) (z / SIZE));
+			}
+		}
+		for (int i = 0; i < rings; i++) {
+			for (int j = 0; j < segments; j++) {
+				int corner = i * (segments + 1) + j;
+				indices.put(new int[] {corner, corner + segments + 1, corner + 1, corner + 1, corner + segments + 1, corner + segments + 2});
+			}
+		}
+		double[] bounds = bounds(indices, vertices);
+
+		BufferSet bufferSet = new MeshDecimator(indices, vertices, normals, null).decimate(0.2f);
+		IntBuffer resultIndices = bufferSet.getIndicesByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		DoubleBuffer resultVertices = bufferSet.getVerticesByteBuffer().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		int nrTriangles = resultIndices.capacity() / 3;
+		assertTrue("Expected fewer triangles, got " + nrTriangles, nrTriangles <= rings * segments);
+
+		// Without boundary edges the bounds are only kept by the positions locked on the sides of the bounding box
+		double[] resultBounds = bounds(resultIndices, resultVertices);
+		for (int i = 0; i < 6; i++) {
+			assertEquals(bounds[i], resultBounds[i], 0);
+		}
+	}
+
+	private double[] bounds(IntBuffer indices, DoubleBuffer vertices) {
+		double[] bounds = new double[] {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for (int i = 0; i < indices.capacity(); i++) {
+			int index = indices.get(i);
+			for (int j = 0; j < 3; j++) {
+				bounds[j] = Math.min(bounds[j], vertices.get(index * 3 + j));
+				bounds[j + 3] = Math.max(bounds[j + 3], vertices.get(index * 3 + j));
+			}
+		}
+		return bounds;
+	}
+}
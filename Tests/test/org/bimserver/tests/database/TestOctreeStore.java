@@ -0,0 +1,143 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.bimserver.database.queries.Bounds;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.emf.Schema;
+import org.bimserver.geometry.accellerator.OctreeEntry;
+import org.bimserver.geometry.accellerator.OctreeStore;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.utils.PathUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOctreeStore {
+
+	private Path home;
+
+	@Before
+	public void before() throws Exception {
+		home = Paths.get("tmptestdata/octrees-" + new Random().nextInt(1000000000));
+		Files.createDirectories(home);
+	}
+
+	@After
+	public void after() throws Exception {
+		PathUtils.removeDirectoryWithContent(home);
+	}
+
+	@Test
+	public void testEntriesRoundTrip() throws Exception {
+		PackageMetaData packageMetaData = new PackageMetaData(Ifc2x3tc1Package.eINSTANCE, Schema.IFC2X3TC1, home);
+		OctreeStore octreeStore = new OctreeStore(home, UUID.randomUUID());
+		assertNull(octreeStore.loadEntries(1, packageMetaData));
+
+		List<OctreeEntry> entries = new ArrayList<>();
+		entries.add(new OctreeEntry(10, packageMetaData.getEClass("IfcWall"), 1, 100, 0, 120, 0.5f, new Bounds(0, 0, 0, 1, 2, 3), 1000, new Bounds(-1, -1, -1, 1, 1, 1)));
+		// Reused geometry, the GeometryData is shared with the first entry
+		entries.add(new OctreeEntry(11, packageMetaData.getEClass("IfcWall"), 1, 0, 120, 120, 0.25f, new Bounds(5, 0, 0, 6, 2, 3), 1000, new Bounds(-1, -1, -1, 1, 1, 1)));
+		// A product without geometry
+		entries.add(new OctreeEntry(12, packageMetaData.getEClass("IfcSpace"), 2, 0, 0, 0, 0, null, -1, null));
+		octreeStore.storeEntries(1, entries);
+
+		List<OctreeEntry> loaded = octreeStore.loadEntries(1, packageMetaData);
+		assertEquals(entries.size(), loaded.size());
+		for (int i = 0; i < entries.size(); i++) {
+			OctreeEntry expected = entries.get(i);
+			OctreeEntry actual = loaded.get(i);
+			assertEquals(expected.getOid(), actual.getOid());
+			assertSame(expected.geteClass(), actual.geteClass());
+			assertEquals(expected.getCroid(), actual.getCroid());
+			assertEquals(expected.getSaveableTriangles(), actual.getSaveableTriangles());
+			assertEquals(expected.getReused(), actual.getReused());
+			assertEquals(expected.getTriangles(), actual.getTriangles());
+			assertEquals(expected.getDensity(), actual.getDensity(), 0);
+			assertBoundsEquals(expected.getBounds(), actual.getBounds());
+			assertEquals(expected.getGeometryDataOid(), actual.getGeometryDataOid());
+			assertBoundsEquals(expected.getGeometryDataBounds(), actual.getGeometryDataBounds());
+		}
+		// Other revisions do not share the entries
+		assertNull(octreeStore.loadEntries(2, packageMetaData));
+	}
+
+	@Test
+	public void testCorruptEntriesAreIgnored() throws Exception {
+		PackageMetaData packageMetaData = new PackageMetaData(Ifc2x3tc1Package.eINSTANCE, Schema.IFC2X3TC1, home);
+		UUID uuid = UUID.randomUUID();
+		OctreeStore octreeStore = new OctreeStore(home, uuid);
+		Files.write(home.resolve(uuid.toString()).resolve("revision-1.entries"), new byte[] { 1, 2, 3 });
+		assertNull(octreeStore.loadEntries(1, packageMetaData));
+	}
+
+	@Test
+	public void testInvalidateRemovesEntries() throws Exception {
+		UUID uuid = UUID.randomUUID();
+		OctreeStore octreeStore = new OctreeStore(home, uuid);
+		octreeStore.storeEntries(1, Collections.<OctreeEntry>emptyList());
+		octreeStore.storeEntries(2, Collections.<OctreeEntry>emptyList());
+		Path dir = home.resolve(uuid.toString());
+		assertTrue(Files.exists(dir.resolve("revision-1.entries")));
+
+		octreeStore.invalidate(Collections.singleton(1L));
+		assertFalse(Files.exists(dir.resolve("revision-1.entries")));
+		assertTrue(Files.exists(dir.resolve("revision-2.entries")));
+	}
+
+	@Test
+	public void testFilesOfOtherDatabaseAreRemoved() throws Exception {
+		UUID oldUuid = UUID.randomUUID();
+		new OctreeStore(home, oldUuid).storeEntries(1, Collections.<OctreeEntry>emptyList());
+		assertTrue(Files.exists(home.resolve(oldUuid.toString()).resolve("revision-1.entries")));
+
+		// A new database reuses roids, the files of the old database should not be found anymore
+		UUID newUuid = UUID.randomUUID();
+		new OctreeStore(home, newUuid);
+		assertFalse(Files.exists(home.resolve(oldUuid.toString())));
+		assertTrue(Files.exists(home.resolve(newUuid.toString())));
+	}
+
+	private void assertBoundsEquals(Bounds expected, Bounds actual) {
+		if (expected == null) {
+			assertNull(actual);
+			return;
+		}
+		assertEquals(expected.getMinX(), actual.getMinX(), 0);
+		assertEquals(expected.getMinY(), actual.getMinY(), 0);
+		assertEquals(expected.getMinZ(), actual.getMinZ(), 0);
+		assertEquals(expected.getMaxX(), actual.getMaxX(), 0);
+		assertEquals(expected.getMaxY(), actual.getMaxY(), 0);
+		assertEquals(expected.getMaxZ(), actual.getMaxZ(), 0);
+	}
+}
@@ -0,0 +1,128 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.ReferenceList;
+import org.eclipse.emf.ecore.EReference;
+import org.junit.Test;
+
+public class TestReferenceList {
+
+	@Test
+	public void testOids() {
+		ReferenceList list = new ReferenceList(0);
+		for (long oid = 0; oid < 100; oid++) {
+			list.add(oid);
+		}
+		assertEquals(100, list.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, list.getLong(i));
+			assertEquals(Long.valueOf(i), list.get(i));
+		}
+		assertEquals(Long.valueOf(10), list.remove(10));
+		assertEquals(11, list.getLong(10));
+		assertEquals(Long.valueOf(5), list.set(5, 500L));
+		assertEquals(500, list.getLong(5));
+		assertEquals(5, list.indexOf(500L));
+		assertEquals(-1, list.indexOf(10L));
+		assertTrue(list.contains(99L));
+		list.add(0, 1000L);
+		assertEquals(1000, list.getLong(0));
+		assertEquals(0, list.getLong(1));
+		assertEquals(100, list.size());
+		list.clear();
+		assertEquals(0, list.size());
+	}
+
+	@Test
+	public void testOtherItems() {
+		ReferenceList list = new ReferenceList(2);
+		Object other = new Object();
+		list.add(1L);
+		list.add(null);
+		list.add(other);
+		list.add(2L);
+		assertEquals(4, list.size());
+		assertEquals(1, list.getLong(0));
+		assertEquals(-1, list.getLong(1));
+		assertNull(list.get(1));
+		assertEquals(-1, list.getLong(2));
+		assertSame(other, list.get(2));
+		assertEquals(2, list.getLong(3));
+		assertEquals(1, list.indexOf(null));
+		assertEquals(2, list.indexOf(other));
+
+		// Replacing a non-reference item by an oid and the other way around
+		list.set(2, 3L);
+		assertEquals(3, list.getLong(2));
+		assertEquals(Long.valueOf(3), list.get(2));
+		list.set(0, other);
+		assertEquals(-1, list.getLong(0));
+		assertSame(other, list.get(0));
+
+		list.remove(0);
+		assertEquals(Arrays.asList(null, 3L, 2L), list);
+		assertEquals(Arrays.asList(null, 3L, 2L), new ArrayList<>(list));
+	}
+
+	@Test
+	public void testGetLongOfOtherLists() {
+		List<Object> list = new ArrayList<>();
+		list.add(5L);
+		list.add(null);
+		list.add("x");
+		assertEquals(5, ReferenceList.getLong(list, 0));
+		assertEquals(-1, ReferenceList.getLong(list, 1));
+		assertEquals(-1, ReferenceList.getLong(list, 2));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testOutOfBounds() {
+		ReferenceList list = new ReferenceList(10);
+		list.add(1L);
+		list.getLong(1);
+	}
+
+	@Test
+	public void testVirtualObjectLists() {
+		EReference containsElements = Ifc2x3tc1Package.eINSTANCE.getIfcRelContainedInSpatialStructure_RelatedElements();
+		HashMapVirtualObject object = new HashMapVirtualObject(null, containsElements.getEContainingClass(), 1, null);
+		object.addListItem(containsElements, 10L);
+		object.setListItemReference(containsElements, 3, null, 13L, -1);
+		List<?> list = (List<?>) object.eGet(containsElements);
+		assertTrue(list instanceof ReferenceList);
+		assertEquals(4, list.size());
+		assertEquals(10, ReferenceList.getLong(list, 0));
+		assertEquals(-1, ReferenceList.getLong(list, 1));
+		assertEquals(-1, ReferenceList.getLong(list, 2));
+		assertEquals(13, ReferenceList.getLong(list, 3));
+		object.setListItem(containsElements, 1, 11L);
+		assertEquals(Arrays.asList(10L, 11L, null, 13L), list);
+	}
+}
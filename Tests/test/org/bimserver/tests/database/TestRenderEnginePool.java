@@ -0,0 +1,259 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bimserver.emf.Schema;
+import org.bimserver.plugins.renderengine.Metrics;
+import org.bimserver.plugins.renderengine.RenderEngine;
+import org.bimserver.plugins.renderengine.RenderEngineException;
+import org.bimserver.plugins.renderengine.RenderEngineGeometry;
+import org.bimserver.plugins.renderengine.RenderEngineInstance;
+import org.bimserver.plugins.renderengine.RenderEngineModel;
+import org.bimserver.plugins.renderengine.VersionInfo;
+import org.bimserver.renderengine.RenderEngineFactory;
+import org.bimserver.renderengine.pooled.CommonsRenderEnginePool;
+import org.bimserver.renderengine.pooled.RenderEngineProbe;
+import org.bimserver.renderengine.pooled.ReusableRenderEngineWrapper;
+import org.junit.Test;
+
+public class TestRenderEnginePool {
+
+	@Test
+	public void testReuse() throws Exception {
+		FakeRenderEngineFactory factory = new FakeRenderEngineFactory();
+		CommonsRenderEnginePool pool = new CommonsRenderEnginePool(2, 10, factory);
+		RenderEngine first = pool.borrowObject();
+		pool.returnObject(first);
+		RenderEngine second = pool.borrowObject();
+		pool.returnObject(second);
+		assertSame(first, second);
+		assertEquals(1, factory.created.size());
+		FakeRenderEngine engine = factory.created.get(0);
+		assertEquals(1, engine.inits);
+		assertEquals(0, engine.closes);
+		// The probe model has been opened once, when the engine was created
+		assertEquals(1, engine.opens);
+		assertEquals(2, pool.getMaxSize());
+	}
+
+	@Test
+	public void testMaxUses() throws Exception {
+		FakeRenderEngineFactory factory = new FakeRenderEngineFactory();
+		CommonsRenderEnginePool pool = new CommonsRenderEnginePool(1, 3, factory);
+		RenderEngine first = null;
+		for (int i = 0; i < 3; i++) {
+			RenderEngine renderEngine = pool.borrowObject();
+			if (first == null) {
+				first = renderEngine;
+			} else {
+				assertSame(first, renderEngine);
+			}
+			pool.returnObject(renderEngine);
+		}
+		assertEquals(3, ((ReusableRenderEngineWrapper) first).getUses());
+		assertEquals(1, factory.created.get(0).closes);
+		RenderEngine next = pool.borrowObject();
+		assertNotSame(first, next);
+		assertEquals(2, factory.created.size());
+		pool.returnObject(next);
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		FakeRenderEngineFactory factory = new FakeRenderEngineFactory();
+		CommonsRenderEnginePool pool = new CommonsRenderEnginePool(1, 10, factory);
+		RenderEngine first = pool.borrowObject();
+		pool.invalidateObject(first);
+		assertTrue(((ReusableRenderEngineWrapper) first).isFailed());
+		assertEquals(1, factory.created.get(0).closes);
+		RenderEngine next = pool.borrowObject();
+		assertNotSame(first, next);
+		pool.returnObject(next);
+	}
+
+	@Test
+	public void testFailedProbe() throws Exception {
+		FakeRenderEngineFactory factory = new FakeRenderEngineFactory();
+		factory.healthy = false;
+		CommonsRenderEnginePool pool = new CommonsRenderEnginePool(1, 10, factory);
+		// An engine that fails the probe can still be used once, but is not kept
+		RenderEngine first = pool.borrowObject();
+		assertTrue(((ReusableRenderEngineWrapper) first).isFailed());
+		pool.returnObject(first);
+		assertEquals(1, factory.created.get(0).closes);
+		factory.healthy = true;
+		RenderEngine next = pool.borrowObject();
+		assertNotSame(first, next);
+		assertFalse(((ReusableRenderEngineWrapper) next).isFailed());
+		pool.returnObject(next);
+		assertEquals(0, factory.created.get(1).closes);
+	}
+
+	@Test
+	public void testQuarantine() throws Exception {
+		FakeRenderEngineFactory factory = new FakeRenderEngineFactory();
+		CommonsRenderEnginePool pool = new CommonsRenderEnginePool(1, 10, factory);
+		for (int i = 0; i < 3; i++) {
+			pool.invalidateObject(pool.borrowObject());
+		}
+		// Healthy engines are not reused while the pool is quarantined
+		RenderEngine renderEngine = pool.borrowObject();
+		pool.returnObject(renderEngine);
+		assertEquals(4, factory.created.size());
+		assertEquals(1, factory.created.get(3).closes);
+	}
+
+	@Test
+	public void testAlwaysClosing() throws Exception {
+		FakeRenderEngineFactory factory = new FakeRenderEngineFactory();
+		CommonsRenderEnginePool pool = new CommonsRenderEnginePool(1, factory);
+		for (int i = 0; i < 3; i++) {
+			pool.returnObject(pool.borrowObject());
+		}
+		// Every borrow starts a new render engine, none of them are probed
+		assertEquals(3, factory.created.size());
+		for (FakeRenderEngine engine : factory.created) {
+			assertEquals(1, engine.inits);
+			assertEquals(1, engine.closes);
+			assertEquals(0, engine.opens);
+		}
+	}
+
+	@Test
+	public void testProbe() throws Exception {
+		RenderEngineProbe probe = new RenderEngineProbe(Schema.IFC2X3TC1);
+		FakeRenderEngine healthy = new FakeRenderEngine(true);
+		assertTrue(probe.run(healthy));
+		assertEquals(1, healthy.opens);
+		assertFalse(probe.run(new FakeRenderEngine(false)));
+		FakeRenderEngine empty = new FakeRenderEngine(true);
+		empty.nrIndices = 0;
+		assertFalse(probe.run(empty));
+	}
+
+	private static class FakeRenderEngineFactory implements RenderEngineFactory {
+		private final List<FakeRenderEngine> created = new ArrayList<>();
+		private volatile boolean healthy = true;
+
+		@Override
+		public synchronized RenderEngine createRenderEngine() throws RenderEngineException {
+			FakeRenderEngine renderEngine = new FakeRenderEngine(healthy);
+			created.add(renderEngine);
+			return renderEngine;
+		}
+
+		@Override
+		public VersionInfo getVersionInfo() {
+			return null;
+		}
+
+		@Override
+		public Schema getSchema() {
+			return Schema.IFC2X3TC1;
+		}
+	}
+
+	/**
+	 * Counts the calls the pool makes, a healthy engine returns one triangle for every instance, an unhealthy engine fails to open models
+	 */
+	private static class FakeRenderEngine implements RenderEngine {
+		private final boolean healthy;
+		private int inits;
+		private int closes;
+		private int opens;
+		private int nrIndices = 3;
+
+		public FakeRenderEngine(boolean healthy) {
+			this.healthy = healthy;
+		}
+
+		@Override
+		public void init() throws RenderEngineException {
+			inits++;
+		}
+
+		@Override
+		public RenderEngineModel openModel(InputStream inputStream, long size) throws RenderEngineException {
+			opens++;
+			if (!healthy) {
+				throw new RenderEngineException("Unhealthy render engine");
+			}
+			final RenderEngineInstance renderEngineInstance = fake(RenderEngineInstance.class, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("generateGeometry")) {
+						return new RenderEngineGeometry(ByteBuffer.allocate(nrIndices * 4), ByteBuffer.allocate(72), ByteBuffer.allocate(36), ByteBuffer.allocate(0), ByteBuffer.allocate(0));
+					}
+					return null;
+				}
+			});
+			return fake(RenderEngineModel.class, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("getInstanceFromExpressId")) {
+						return renderEngineInstance;
+					}
+					return null;
+				}
+			});
+		}
+
+		@Override
+		public RenderEngineModel openModel(InputStream inputStream) throws RenderEngineException {
+			return openModel(inputStream, -1);
+		}
+
+		@Override
+		public void close() throws RenderEngineException {
+			closes++;
+		}
+
+		@Override
+		public boolean isCalculateQuantities() {
+			return false;
+		}
+
+		@Override
+		public boolean isApplyLayerSets() {
+			return false;
+		}
+
+		@Override
+		public Metrics getMetrics() {
+			return null;
+		}
+	}
+
+	private static <T> T fake(Class<T> type, InvocationHandler invocationHandler) {
+		return type.cast(Proxy.newProxyInstance(TestRenderEnginePool.class.getClassLoader(), new Class<?>[] { type }, invocationHandler));
+	}
+}
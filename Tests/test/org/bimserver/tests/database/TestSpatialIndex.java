@@ -0,0 +1,153 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.SpatialIndex;
+import org.bimserver.database.SpatialIndexEntry;
+import org.bimserver.database.SpatialIndexIterator;
+import org.bimserver.database.lmdb.LmdbKeyValueStore;
+import org.bimserver.utils.PathUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSpatialIndex {
+
+	private Path home;
+	private LmdbKeyValueStore keyValueStore;
+	private SpatialIndex spatialIndex;
+
+	@Before
+	public void before() throws Exception {
+		home = Paths.get("tmptestdata/spatialindex-" + new Random().nextInt(1000000000));
+		Files.createDirectories(home.getParent());
+		keyValueStore = new LmdbKeyValueStore(home, null);
+		keyValueStore.createTable(SpatialIndex.SPATIAL_INDEX_TABLE, null, true);
+		spatialIndex = new SpatialIndex(keyValueStore);
+	}
+
+	@After
+	public void after() throws Exception {
+		keyValueStore.close();
+		PathUtils.removeDirectoryWithContent(home);
+	}
+
+	@Test
+	public void testQueryFindsAllIntersectingEntries() throws Exception {
+		Random random = new Random(1);
+		List<SpatialIndexEntry> entries = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			entries.add(randomEntry(random, i + 1));
+		}
+		write(1, 1, entries);
+		// Another revision of the same project, none of its entries should be returned
+		write(1, 2, Collections.singletonList(new SpatialIndexEntry(100000, 1, 0, 0, 0, 100000, 100000, 100000)));
+
+		for (int i = 0; i < 100; i++) {
+			SpatialIndexEntry box = randomEntry(random, 0);
+			Set<Long> expected = new HashSet<>();
+			for (SpatialIndexEntry entry : entries) {
+				if (intersects(entry, box)) {
+					expected.add(entry.getOid());
+				}
+			}
+			Set<Long> found = query(1, 1, box);
+			assertTrue(found.containsAll(expected));
+			assertFalse(found.contains(100000L));
+		}
+		assertEquals(entries.size(), spatialIndex.readAll(1, 1, null).size());
+	}
+
+	@Test
+	public void testQueryOutsideOfModel() throws Exception {
+		write(1, 1, Collections.singletonList(new SpatialIndexEntry(1, 1, 0, 0, 0, 1000, 1000, 1000)));
+		assertTrue(query(1, 1, new SpatialIndexEntry(0, 0, 2000, 2000, 2000, 3000, 3000, 3000)).isEmpty());
+		assertEquals(Collections.singleton(1L), query(1, 1, new SpatialIndexEntry(0, 0, 500, 500, 500, 3000, 3000, 3000)));
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		write(1, 1, Collections.singletonList(new SpatialIndexEntry(1, 1, 0, 0, 0, 1000, 1000, 1000)));
+		write(1, 2, Collections.singletonList(new SpatialIndexEntry(2, 1, 0, 0, 0, 1000, 1000, 1000)));
+		DatabaseSession session = createSession();
+		spatialIndex.delete(1, 1, session);
+		keyValueStore.commit(session);
+
+		assertFalse(spatialIndex.hasIndex(1, 1, null));
+		assertNull(spatialIndex.query(1, 1, 0, 0, 0, 1000, 1000, 1000, null));
+		assertNull(spatialIndex.readAll(1, 1, null));
+		assertTrue(spatialIndex.hasIndex(1, 2, null));
+		assertEquals(1, spatialIndex.readAll(1, 2, null).size());
+	}
+
+	private SpatialIndexEntry randomEntry(Random random, long oid) {
+		double x = random.nextDouble() * 100000;
+		double y = random.nextDouble() * 100000;
+		double z = random.nextDouble() * 10000;
+		// Mostly small objects, some large ones that end up in the upper levels
+		double size = random.nextInt(10) == 0 ? random.nextDouble() * 50000 : random.nextDouble() * 2000;
+		return new SpatialIndexEntry(oid, 1, x, y, z, x + size, y + size, z + size / 10);
+	}
+
+	private boolean intersects(SpatialIndexEntry a, SpatialIndexEntry b) {
+		return a.getMinX() <= b.getMaxX() && a.getMaxX() >= b.getMinX() && a.getMinY() <= b.getMaxY() && a.getMaxY() >= b.getMinY() && a.getMinZ() <= b.getMaxZ() && a.getMaxZ() >= b.getMinZ();
+	}
+
+	private void write(int pid, int rid, List<SpatialIndexEntry> entries) throws Exception {
+		DatabaseSession session = createSession();
+		spatialIndex.write(pid, rid, entries, session);
+		keyValueStore.commit(session);
+	}
+
+	private Set<Long> query(int pid, int rid, SpatialIndexEntry box) throws Exception {
+		Set<Long> result = new HashSet<>();
+		SpatialIndexIterator iterator = spatialIndex.query(pid, rid, box.getMinX(), box.getMinY(), box.getMinZ(), box.getMaxX(), box.getMaxY(), box.getMaxZ(), null);
+		try {
+			SpatialIndexEntry entry = iterator.next();
+			while (entry != null) {
+				result.add(entry.getOid());
+				entry = iterator.next();
+			}
+		} finally {
+			iterator.close();
+		}
+		return result;
+	}
+
+	private DatabaseSession createSession() {
+		// Only the transaction of the session is used by the KeyValueStore
+		return new DatabaseSession(null, keyValueStore.startTransaction(), OperationType.POSSIBLY_WRITE);
+	}
+}
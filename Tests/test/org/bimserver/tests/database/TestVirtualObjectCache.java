@@ -0,0 +1,86 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.database.VirtualObjectCache;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.junit.Test;
+
+public class TestVirtualObjectCache {
+
+	private HashMapVirtualObject createObject(long oid) {
+		return new HashMapVirtualObject(null, Ifc2x3tc1Package.eINSTANCE.getIfcWall(), oid, null);
+	}
+
+	@Test
+	public void testBoundIsSharedByAllCaches() {
+		AtomicLong totalWeight = new AtomicLong();
+		VirtualObjectCache single = new VirtualObjectCache(Long.MAX_VALUE);
+		single.put(createObject(1));
+		long objectWeight = single.getWeight();
+		long maxWeight = objectWeight * 50;
+		VirtualObjectCache first = new VirtualObjectCache(maxWeight, totalWeight);
+		VirtualObjectCache second = new VirtualObjectCache(maxWeight, totalWeight);
+		for (long oid = 1; oid <= 1000; oid++) {
+			first.put(createObject(oid));
+			second.put(createObject(oid + 1000));
+		}
+		// Every segment keeps the object that was added last, even when the total is over the maximum
+		assertTrue(totalWeight.get() <= maxWeight + 2 * 16 * objectWeight);
+		assertEquals(first.getWeight() + second.getWeight(), totalWeight.get());
+		assertTrue(first.getEvictions() > 0);
+		assertTrue(second.getEvictions() > 0);
+
+		first.close();
+		assertEquals(second.getWeight(), totalWeight.get());
+		second.close();
+		assertEquals(0, totalWeight.get());
+
+		// Closed caches do not add to the total anymore
+		first.put(createObject(1));
+		assertEquals(0, totalWeight.get());
+	}
+
+	@Test
+	public void testPinnedObjectsAreNotEvicted() {
+		AtomicLong totalWeight = new AtomicLong();
+		VirtualObjectCache cache = new VirtualObjectCache(1, totalWeight);
+		HashMapVirtualObject pinned = createObject(1);
+		cache.put(pinned);
+		cache.pin(pinned);
+		assertEquals(0, totalWeight.get());
+		for (long oid = 2; oid <= 1000; oid++) {
+			cache.put(createObject(oid));
+		}
+		// Caching a pinned object again does not make it evictable
+		cache.put(pinned);
+		for (long oid = 1001; oid <= 2000; oid++) {
+			cache.put(createObject(oid));
+		}
+		assertSame(pinned, cache.get(1));
+		cache.close();
+		assertEquals(0, totalWeight.get());
+	}
+}
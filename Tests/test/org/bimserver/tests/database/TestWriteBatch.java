@@ -0,0 +1,158 @@
+package org.bimserver.tests.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.WriteBatch;
+import org.bimserver.database.berkeley.BerkeleyKeyValueStore;
+import org.bimserver.database.berkeley.BimserverConcurrentModificationDatabaseException;
+import org.bimserver.utils.PathUtils;
+import org.junit.Test;
+
+public class TestWriteBatch {
+
+	@Test
+	public void testEntriesAreSortedUnsigned() {
+		WriteBatch writeBatch = new WriteBatch();
+		writeBatch.store("table", new byte[] { (byte) 0x80 }, new byte[] { 1 });
+		writeBatch.store("table", new byte[] { 0x7f }, new byte[] { 2 });
+		writeBatch.store("table", new byte[] { 0x01, 0x00 }, new byte[] { 3 });
+		writeBatch.store("table", new byte[] { 0x01 }, new byte[] { 4 });
+
+		List<WriteBatch.Entry> entries = writeBatch.getSortedEntries("table");
+		assertArrayEquals(new byte[] { 0x01 }, entries.get(0).getKey());
+		assertArrayEquals(new byte[] { 0x01, 0x00 }, entries.get(1).getKey());
+		assertArrayEquals(new byte[] { 0x7f }, entries.get(2).getKey());
+		assertArrayEquals(new byte[] { (byte) 0x80 }, entries.get(3).getKey());
+		assertEquals(4, writeBatch.size());
+	}
+
+	@Test
+	public void testSameKeyKeepsOrderOfAdding() {
+		WriteBatch writeBatch = new WriteBatch();
+		for (byte i = 0; i < 10; i++) {
+			writeBatch.store("table", new byte[] { (byte) (i % 2) }, new byte[] { i });
+		}
+		List<WriteBatch.Entry> entries = writeBatch.getSortedEntries("table");
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i * 2, entries.get(i).getValue()[0]);
+			assertEquals(i * 2 + 1, entries.get(i + 5).getValue()[0]);
+		}
+	}
+
+	@Test
+	public void testKeysAndValuesAreCopied() {
+		WriteBatch writeBatch = new WriteBatch();
+		byte[] key = new byte[] { 1, 2 };
+		byte[] value = new byte[] { 9, 3, 4, 9 };
+		writeBatch.store("table", key, value, 1, 2);
+		key[0] = 5;
+		value[1] = 5;
+
+		WriteBatch.Entry entry = writeBatch.getSortedEntries("table").get(0);
+		assertArrayEquals(new byte[] { 1, 2 }, entry.getKey());
+		assertArrayEquals(new byte[] { 3, 4 }, entry.getValue());
+		assertEquals(4, writeBatch.getSizeInBytes());
+
+		writeBatch.clear();
+		assertEquals(0, writeBatch.size());
+		assertEquals(0, writeBatch.getSortedEntries("table").size());
+	}
+
+	@Test
+	public void testWriteToBerkeley() throws Exception {
+		Path home = Paths.get("tmptestdata/writebatch-" + new Random().nextInt(1000000000));
+		Files.createDirectories(home.getParent());
+		BerkeleyKeyValueStore keyValueStore = new BerkeleyKeyValueStore(home, null);
+		try {
+			keyValueStore.createTable("table", null, true);
+			keyValueStore.createIndexTable("index", null, true);
+
+			DatabaseSession session = createSession(keyValueStore);
+			keyValueStore.store("table", key(1), new byte[] { 1 }, session);
+			keyValueStore.store("index", new byte[] { 1 }, new byte[] { 1 }, session);
+			keyValueStore.store("index", new byte[] { 1 }, new byte[] { 2 }, session);
+			keyValueStore.commit(session);
+
+			WriteBatch writeBatch = new WriteBatch();
+			writeBatch.store("table", key(3), new byte[] { 3 });
+			writeBatch.store("table", key(1), new byte[] { 11 });
+			writeBatch.storeNoOverwrite("table", key(2), new byte[] { 2 });
+			writeBatch.delete("index", new byte[] { 1 }, new byte[] { 1 });
+			// Deleting and storing the same duplicate again leaves it in place, entries of one key are applied in the order they were added
+			writeBatch.delete("index", new byte[] { 1 }, new byte[] { 2 });
+			writeBatch.store("index", new byte[] { 1 }, new byte[] { 2 });
+			session = createSession(keyValueStore);
+			keyValueStore.write(writeBatch, session);
+			keyValueStore.commit(session);
+
+			assertArrayEquals(new byte[] { 11 }, keyValueStore.get("table", key(1), null));
+			assertArrayEquals(new byte[] { 2 }, keyValueStore.get("table", key(2), null));
+			assertArrayEquals(new byte[] { 3 }, keyValueStore.get("table", key(3), null));
+			List<byte[]> duplicates = keyValueStore.getDuplicates("index", new byte[] { 1 }, null);
+			assertEquals(1, duplicates.size());
+			assertArrayEquals(new byte[] { 2 }, duplicates.get(0));
+
+			writeBatch = new WriteBatch();
+			writeBatch.storeNoOverwrite("table", key(1), new byte[] { 12 });
+			session = createSession(keyValueStore);
+			try {
+				keyValueStore.write(writeBatch, session);
+				fail("Storing an existing record without overwrite should fail");
+			} catch (BimserverConcurrentModificationDatabaseException e) {
+				// Expected
+			} finally {
+				session.getBimTransaction().rollback();
+			}
+			assertArrayEquals(new byte[] { 11 }, keyValueStore.get("table", key(1), null));
+			assertNull(keyValueStore.get("table", key(4), null));
+		} finally {
+			keyValueStore.close();
+			PathUtils.removeDirectoryWithContent(home);
+		}
+	}
+
+	private DatabaseSession createSession(BerkeleyKeyValueStore keyValueStore) {
+		// Only the transaction of the session is used by the KeyValueStore
+		return new DatabaseSession(null, keyValueStore.startTransaction(), OperationType.POSSIBLY_WRITE);
+	}
+
+	/**
+	 * A record key (pid, oid, -rid)
+	 */
+	private byte[] key(long oid) {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putInt(1);
+		buffer.putLong(oid);
+		buffer.putInt(-1);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,104 @@
+package org.bimserver.tests.emf;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+
+import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.models.ifc2x3tc1.IfcBoolean;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
+import org.bimserver.models.ifc2x3tc1.IfcWindow;
+import org.bimserver.models.ifc2x3tc1.Tristate;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * The "properties" filter is answered by the property index, it should give the same results as the scan, also for revisions created by low level transactions
+ */
+public class TestPropertyIndex extends TestWithEmbeddedServer {
+	@Test
+	public void test() {
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+			bimServerClient.checkinSync(project.getOid(), "test", deserializer.getOid(), false, new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc"));
+			project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+			
+			IfcModelInterface model = bimServerClient.getModel(project, project.getLastRevisionId(), true, true);
+			int nrWindows = 0;
+			int nrWindowsWithoutProperties = 0;
+			for (IfcWindow window : model.getAllWithSubTypes(IfcWindow.class)) {
+				nrWindows++;
+				if (window.getIsDefinedBy().isEmpty()) {
+					nrWindowsWithoutProperties++;
+				}
+			}
+			
+			// No window has this property, only the windows without any properties pass the filter
+			assertEquals(nrWindowsWithoutProperties, queryWindows(bimServerClient, project, project.getLastRevisionId(), "TestPropertySet", "TestProperty", Boolean.TRUE));
+			
+			for (IfcWindow window : model.getAllWithSubTypes(IfcWindow.class)) {
+				IfcRelDefinesByProperties ifcRelDefinesByProperties = model.create(IfcRelDefinesByProperties.class);
+				window.getIsDefinedBy().add(ifcRelDefinesByProperties);
+				IfcPropertySet propertySet = model.create(IfcPropertySet.class);
+				propertySet.setName("TestPropertySet");
+				ifcRelDefinesByProperties.setRelatingPropertyDefinition(propertySet);
+				IfcPropertySingleValue property = model.create(IfcPropertySingleValue.class);
+				property.setName("TestProperty");
+				IfcBoolean value = model.create(IfcBoolean.class);
+				value.setWrappedValue(Tristate.TRUE);
+				property.setNominalValue(value);
+				propertySet.getHasProperties().add(property);
+			}
+			long newRoid = model.commit("Added properties to all windows");
+			
+			// The index of the new revision has to include the properties added by the transaction
+			assertEquals(nrWindows, queryWindows(bimServerClient, project, newRoid, "TestPropertySet", "TestProperty", Boolean.TRUE));
+			assertEquals(0, queryWindows(bimServerClient, project, newRoid, "TestPropertySet", "TestProperty", Boolean.FALSE));
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		}
+	}
+
+	private int queryWindows(BimServerClientInterface bimServerClient, SProject project, long roid, String propertySetName, String propertyName, Object value) throws Exception {
+		IfcModelInterface model = bimServerClient.getModel(project, roid, false, false);
+		Query query = new Query(model.getPackageMetaData());
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(model.getPackageMetaData().getEClass("IfcWindow"), true);
+		queryPart.addProperty(propertySetName, propertyName, value);
+		model.query(new JsonQueryObjectModelConverter(model.getPackageMetaData()).toJson(query), true);
+		return model.getAllWithSubTypes(IfcWindow.class).size();
+	}
+}
@@ -0,0 +1,147 @@
+package org.bimserver.tests.lowlevel;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.IfcAxis2Placement3D;
+import org.bimserver.models.ifc2x3tc1.IfcLocalPlacement;
+import org.bimserver.models.ifc2x3tc1.IfcObjectPlacement;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.shared.interfaces.LowLevelInterface;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * Moving one wall should only give new geometry to the wall and the products placed relative to it, the other products keep the geometry of the previous revision
+ */
+public class TestIncrementalGeometry extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			LowLevelInterface lowLevelInterface = bimServerClient.getLowLevelInterface();
+			SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+			bimServerClient.checkinSync(project.getOid(), "test", deserializer.getOid(), false, new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc"));
+			project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+			IfcModelInterface model = bimServerClient.getModel(project, project.getLastRevisionId(), true, false, true);
+
+			IfcWall wall = null;
+			IfcAxis2Placement3D axisPlacement = null;
+			for (IfcWall candidate : model.getAllWithSubTypes(IfcWall.class)) {
+				if (candidate.getGeometry() != null && candidate.getObjectPlacement() instanceof IfcLocalPlacement && ((IfcLocalPlacement) candidate.getObjectPlacement()).getRelativePlacement() instanceof IfcAxis2Placement3D) {
+					wall = candidate;
+					axisPlacement = (IfcAxis2Placement3D) ((IfcLocalPlacement) candidate.getObjectPlacement()).getRelativePlacement();
+					break;
+				}
+			}
+			assertNotNull("No wall with a local placement", wall);
+
+			// Every product of which the placement depends on the changed IfcAxis2Placement3D should get new geometry
+			Set<IfcObjectPlacement> changedPlacements = new HashSet<>();
+			for (IfcLocalPlacement localPlacement : model.getAll(IfcLocalPlacement.class)) {
+				if (localPlacement.getRelativePlacement() == axisPlacement) {
+					changedPlacements.add(localPlacement);
+				}
+			}
+			Set<String> expectedAffected = new HashSet<>();
+			Map<String, Long> geometryBefore = new HashMap<>();
+			for (IfcProduct ifcProduct : model.getAllWithSubTypes(IfcProduct.class)) {
+				if (ifcProduct.getGeometry() != null) {
+					geometryBefore.put(ifcProduct.getGlobalId(), ifcProduct.getGeometry().getOid());
+					if (dependsOn(ifcProduct.getObjectPlacement(), changedPlacements)) {
+						expectedAffected.add(ifcProduct.getGlobalId());
+					}
+				}
+			}
+			assertTrue(expectedAffected.contains(wall.getGlobalId()));
+			assertTrue(expectedAffected.size() < geometryBefore.size());
+			GeometryInfo wallGeometryBefore = wall.getGeometry();
+			double minXBefore = wallGeometryBefore.getBounds().getMin().getX();
+			double minYBefore = wallGeometryBefore.getBounds().getMin().getY();
+
+			// Move the wall one unit along the x and y axis of its placement, with a new point so no other placement uses it
+			List<Double> coordinates = axisPlacement.getLocation().getCoordinates();
+			long tid = lowLevelInterface.startTransaction(project.getOid());
+			long pointOid = lowLevelInterface.createObject(tid, "IfcCartesianPoint", false);
+			for (int i = 0; i < coordinates.size(); i++) {
+				lowLevelInterface.addDoubleAttribute(tid, pointOid, "Coordinates", coordinates.get(i) + (i < 2 ? 1.0 : 0.0));
+			}
+			lowLevelInterface.setReference(tid, axisPlacement.getOid(), "Location", pointOid);
+			long roid = lowLevelInterface.commitTransaction(tid, "Moved wall", false);
+
+			IfcModelInterface newModel = bimServerClient.getModel(project, roid, false, false, true);
+			Set<String> affected = new HashSet<>();
+			for (IfcProduct ifcProduct : newModel.getAllWithSubTypes(IfcProduct.class)) {
+				Long before = geometryBefore.get(ifcProduct.getGlobalId());
+				if (before == null) {
+					continue;
+				}
+				GeometryInfo geometry = ifcProduct.getGeometry();
+				assertNotNull("No geometry for " + ifcProduct.getGlobalId() + " after the change", geometry);
+				if (geometry.getOid() != before) {
+					affected.add(ifcProduct.getGlobalId());
+				}
+				if (ifcProduct.getGlobalId().equals(wall.getGlobalId())) {
+					assertFalse("The moved wall has the same bounds", geometry.getBounds().getMin().getX() == minXBefore && geometry.getBounds().getMin().getY() == minYBefore);
+					assertEquals(wallGeometryBefore.getPrimitiveCount(), geometry.getPrimitiveCount());
+				}
+			}
+			assertEquals(expectedAffected, affected);
+			assertNotEquals(0, affected.size());
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		}
+	}
+
+	private boolean dependsOn(IfcObjectPlacement placement, Set<IfcObjectPlacement> changedPlacements) {
+		Set<IfcObjectPlacement> done = new HashSet<>();
+		while (placement != null && done.add(placement)) {
+			if (changedPlacements.contains(placement)) {
+				return true;
+			}
+			placement = placement instanceof IfcLocalPlacement ? ((IfcLocalPlacement) placement).getPlacementRelTo() : null;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,133 @@
+package org.bimserver.tests.lowlevel;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.interfaces.objects.SServerSettings;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.shared.interfaces.LowLevelInterface;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * Queries on indexed attributes have to find objects that did not change in the revision that is queried, so objects that were last written by an earlier revision
+ */
+public class TestQueryIndexedAttributes extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+
+			SServerSettings serverSettings = bimServerClient.getSettingsInterface().getServerSettings();
+			for (String indexedFeature : new String[] { "IfcRoot.Name", "IfcElement.Tag" }) {
+				if (!serverSettings.getIndexedFeatures().contains(indexedFeature)) {
+					serverSettings.getIndexedFeatures().add(indexedFeature);
+				}
+			}
+			bimServerClient.getSettingsInterface().setServerSettings(serverSettings);
+
+			LowLevelInterface lowLevelInterface = bimServerClient.getLowLevelInterface();
+			SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+
+			Long tid = lowLevelInterface.startTransaction(project.getOid());
+			Long wallA = lowLevelInterface.createObject(tid, "IfcWall", true);
+			lowLevelInterface.setStringAttribute(tid, wallA, "Name", "Wall A");
+			lowLevelInterface.setStringAttribute(tid, wallA, "Tag", "T1");
+			Long wallB = lowLevelInterface.createObject(tid, "IfcWall", true);
+			lowLevelInterface.setStringAttribute(tid, wallB, "Name", "Wall B");
+			lowLevelInterface.setStringAttribute(tid, wallB, "Tag", "T1");
+			Long wallC = lowLevelInterface.createObject(tid, "IfcWall", true);
+			lowLevelInterface.setStringAttribute(tid, wallC, "Name", "Wall C");
+			lowLevelInterface.setStringAttribute(tid, wallC, "Tag", "T2");
+			long firstRoid = lowLevelInterface.commitTransaction(tid, "Initial", false);
+
+			// Only wall B changes, wall A and C keep the records (and index entries) of the first revision
+			tid = lowLevelInterface.startTransaction(project.getOid());
+			lowLevelInterface.setStringAttribute(tid, wallB, "Name", "Wall B2");
+			long secondRoid = lowLevelInterface.commitTransaction(tid, "Renamed wall B", false);
+
+			project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+
+			assertEquals(oids(wallA), queryWalls(bimServerClient, project, secondRoid, "Name", "Wall A"));
+			assertEquals(oids(), queryWalls(bimServerClient, project, secondRoid, "Name", "Wall B"));
+			assertEquals(oids(wallB), queryWalls(bimServerClient, project, secondRoid, "Name", "Wall B2"));
+			assertEquals(oids(wallA, wallB), queryWalls(bimServerClient, project, secondRoid, "Tag", "T1"));
+			assertEquals(oids(wallC), queryWalls(bimServerClient, project, secondRoid, "Tag", "T2"));
+
+			// The first revision still has the old name
+			assertEquals(oids(wallB), queryWalls(bimServerClient, project, firstRoid, "Name", "Wall B"));
+			assertEquals(oids(), queryWalls(bimServerClient, project, firstRoid, "Name", "Wall B2"));
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		}
+	}
+
+	private Set<Long> oids(Long... oids) {
+		Set<Long> result = new HashSet<>();
+		for (Long oid : oids) {
+			result.add(oid);
+		}
+		return result;
+	}
+
+	private Set<Long> queryWalls(BimServerClientInterface bimServerClient, SProject project, long roid, String attributeName, String value) throws Exception {
+		Exception lastException = null;
+		// Declared indices are only used for queries when the background task that adds the existing records has finished
+		for (int i = 0; i < 60; i++) {
+			try {
+				IfcModelInterface model = bimServerClient.getModel(project, roid, false, false);
+				Query query = new Query(model.getPackageMetaData());
+				QueryPart queryPart = query.createQueryPart();
+				queryPart.addType(model.getPackageMetaData().getEClass("IfcWall"), true);
+				if (attributeName.equals("Name")) {
+					queryPart.addName(value);
+				} else {
+					queryPart.addAttribute(attributeName, value);
+				}
+				model.query(new JsonQueryObjectModelConverter(model.getPackageMetaData()).toJson(query), true);
+				Set<Long> result = new HashSet<>();
+				for (IdEObject wall : model.getAllWithSubTypes(IfcWall.class)) {
+					result.add(wall.getOid());
+				}
+				return result;
+			} catch (Exception e) {
+				lastException = e;
+				Thread.sleep(1000);
+			}
+		}
+		throw lastException;
+	}
+}
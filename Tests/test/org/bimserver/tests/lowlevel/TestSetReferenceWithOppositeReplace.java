@@ -0,0 +1,69 @@
+package org.bimserver.tests.lowlevel;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.shared.interfaces.LowLevelInterface;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+public class TestSetReferenceWithOppositeReplace extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		try {
+			// Create a new BimServerClient with authentication
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			
+			LowLevelInterface lowLevelInterface = bimServerClient.getLowLevelInterface();
+			
+			// Create a new project
+			SProject newProject = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			
+			// Start a transaction
+			Long tid = lowLevelInterface.startTransaction(newProject.getOid());
+			
+			Long ifcRelContainedInSpatialStructureOid = lowLevelInterface.createObject(tid, "IfcRelContainedInSpatialStructure", true);
+			Long ifcBuildingOid1 = lowLevelInterface.createObject(tid, "IfcBuilding", true);
+			Long ifcBuildingOid2 = lowLevelInterface.createObject(tid, "IfcBuilding", true);
+			lowLevelInterface.setReference(tid, ifcRelContainedInSpatialStructureOid, "RelatingStructure", ifcBuildingOid1);
+			
+			lowLevelInterface.commitTransaction(tid, "Initial", false);
+			
+			// Point the single reference to another building, the first building should lose the opposite
+			tid = lowLevelInterface.startTransaction(newProject.getOid());
+			lowLevelInterface.setReference(tid, ifcRelContainedInSpatialStructureOid, "RelatingStructure", ifcBuildingOid2);
+			lowLevelInterface.commitTransaction(tid, "Replaced", false);
+			
+			tid = lowLevelInterface.startTransaction(newProject.getOid());
+			assertEquals(ifcBuildingOid2, lowLevelInterface.getReference(tid, ifcRelContainedInSpatialStructureOid, "RelatingStructure"));
+			assertEquals(Collections.emptyList(), lowLevelInterface.getReferences(tid, ifcBuildingOid1, "ContainsElements"));
+			assertEquals(Collections.singletonList(ifcRelContainedInSpatialStructureOid), lowLevelInterface.getReferences(tid, ifcBuildingOid2, "ContainsElements"));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package org.bimserver.tests.lowlevel;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.database.queries.om.Tiles;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.models.ifc2x3tc1.IfcAxis2Placement3D;
+import org.bimserver.models.ifc2x3tc1.IfcLocalPlacement;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.shared.interfaces.LowLevelInterface;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * The octree entries of a revision made with a low-level transaction are derived from the previous revision, querying the tiles of the new revision should still return all products
+ */
+public class TestTilesOfDerivedRevision extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			LowLevelInterface lowLevelInterface = bimServerClient.getLowLevelInterface();
+			SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+			bimServerClient.checkinSync(project.getOid(), "test", deserializer.getOid(), false, new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc"));
+			project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+			long firstRoid = project.getLastRevisionId();
+			PackageMetaData packageMetaData = getBimServer().getMetaDataManager().getPackageMetaData("ifc2x3tc1");
+
+			// Also makes sure the entries of the first revision are at hand when the second revision is committed, so the second one is derived
+			Set<Long> firstTiles = queryTiles(packageMetaData, firstRoid);
+			assertTrue(firstTiles.size() > 0);
+
+			IfcModelInterface model = bimServerClient.getModel(project, firstRoid, true, false, true);
+			IfcWall wall = null;
+			IfcAxis2Placement3D axisPlacement = null;
+			for (IfcWall candidate : model.getAllWithSubTypes(IfcWall.class)) {
+				if (candidate.getGeometry() != null && candidate.getObjectPlacement() instanceof IfcLocalPlacement && ((IfcLocalPlacement) candidate.getObjectPlacement()).getRelativePlacement() instanceof IfcAxis2Placement3D) {
+					wall = candidate;
+					axisPlacement = (IfcAxis2Placement3D) ((IfcLocalPlacement) candidate.getObjectPlacement()).getRelativePlacement();
+					break;
+				}
+			}
+			assertNotNull("No wall with a local placement", wall);
+			assertTrue(firstTiles.contains(wall.getOid()));
+
+			// Move one wall, only the products placed relative to it get new geometry, the entries of all other products are copied
+			List<Double> coordinates = axisPlacement.getLocation().getCoordinates();
+			long tid = lowLevelInterface.startTransaction(project.getOid());
+			long pointOid = lowLevelInterface.createObject(tid, "IfcCartesianPoint", false);
+			for (int i = 0; i < coordinates.size(); i++) {
+				lowLevelInterface.addDoubleAttribute(tid, pointOid, "Coordinates", coordinates.get(i) + (i == 0 ? 1.0 : 0.0));
+			}
+			lowLevelInterface.setReference(tid, axisPlacement.getOid(), "Location", pointOid);
+			long secondRoid = lowLevelInterface.commitTransaction(tid, "Moved wall", false);
+
+			assertEquals(firstTiles, queryTiles(packageMetaData, secondRoid));
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return The oids of the products in all tiles of the given revision
+	 */
+	private Set<Long> queryTiles(PackageMetaData packageMetaData, long roid) throws Exception {
+		Query query = new Query(packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+		Tiles tiles = new Tiles();
+		// Tile 0 with a max depth of 0 covers all levels, no density thresholds
+		tiles.add(0);
+		tiles.setMaxDepth(0);
+		tiles.setMinimumThreshold(-1);
+		tiles.setMaximumThreshold(-1);
+		queryPart.setTiles(tiles);
+		Set<Long> oids = new HashSet<>();
+		try (DatabaseSession databaseSession = getBimServer().getDatabase().createSession(OperationType.READ_ONLY)) {
+			QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, getBimServer(), query, Collections.singleton(roid), packageMetaData);
+			HashMapVirtualObject next = queryObjectProvider.next();
+			while (next != null) {
+				oids.add(next.getOid());
+				next = queryObjectProvider.next();
+			}
+		}
+		return oids;
+	}
+}
@@ -0,0 +1,74 @@
+package org.bimserver.tests.lowlevel;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.shared.interfaces.LowLevelInterface;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+public class TestUnsetReferenceWithOpposite2 extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		try {
+			// Create a new BimServerClient with authentication
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			
+			LowLevelInterface lowLevelInterface = bimServerClient.getLowLevelInterface();
+			
+			// Create a new project
+			SProject newProject = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			
+			// Start a transaction
+			Long tid = lowLevelInterface.startTransaction(newProject.getOid());
+			
+			Long ifcRelContainedInSpatialStructureOid = lowLevelInterface.createObject(tid, "IfcRelContainedInSpatialStructure", true);
+			Long ifcBuildingOid = lowLevelInterface.createObject(tid, "IfcBuilding", true);
+			Long ifcWallOid1 = lowLevelInterface.createObject(tid, "IfcWall", true);
+			Long ifcWallOid2 = lowLevelInterface.createObject(tid, "IfcWall", true);
+			lowLevelInterface.setReference(tid, ifcRelContainedInSpatialStructureOid, "RelatingStructure", ifcBuildingOid);
+			lowLevelInterface.addReference(tid, ifcRelContainedInSpatialStructureOid, "RelatedElements", ifcWallOid1);
+			lowLevelInterface.addReference(tid, ifcRelContainedInSpatialStructureOid, "RelatedElements", ifcWallOid2);
+			
+			lowLevelInterface.commitTransaction(tid, "Initial", false);
+			
+			// Unset the single reference and clear the list, all opposites should be gone
+			tid = lowLevelInterface.startTransaction(newProject.getOid());
+			lowLevelInterface.unsetReference(tid, ifcRelContainedInSpatialStructureOid, "RelatingStructure");
+			lowLevelInterface.removeAllReferences(tid, ifcRelContainedInSpatialStructureOid, "RelatedElements");
+			lowLevelInterface.commitTransaction(tid, "Unset", false);
+			
+			tid = lowLevelInterface.startTransaction(newProject.getOid());
+			assertEquals(Long.valueOf(-1), lowLevelInterface.getReference(tid, ifcRelContainedInSpatialStructureOid, "RelatingStructure"));
+			assertEquals(Collections.emptyList(), lowLevelInterface.getReferences(tid, ifcBuildingOid, "ContainsElements"));
+			assertEquals(Collections.emptyList(), lowLevelInterface.getReferences(tid, ifcWallOid1, "ContainedInStructure"));
+			assertEquals(Collections.emptyList(), lowLevelInterface.getReferences(tid, ifcWallOid2, "ContainedInStructure"));
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+}
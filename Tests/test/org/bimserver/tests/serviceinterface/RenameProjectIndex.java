@@ -0,0 +1,64 @@
+package org.bimserver.tests.serviceinterface;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+public class RenameProjectIndex extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		try {
+			// Create a new BimServerClient with authentication
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			
+			// Project.name is indexed, renaming a project writes the new index entry and removes the old one in the same write batch
+			String originalName = "test " + Math.random();
+			String newName = "test " + Math.random();
+			SProject newProject = bimServerClient.getServiceInterface().addProject(originalName, "ifc2x3tc1");
+
+			newProject.setName(newName);
+			bimServerClient.getServiceInterface().updateProject(newProject);
+			
+			List<SProject> byOriginalName = bimServerClient.getServiceInterface().getProjectsByName(originalName);
+			if (!byOriginalName.isEmpty()) {
+				fail("Project still found by its original name");
+			}
+			List<SProject> byNewName = bimServerClient.getServiceInterface().getProjectsByName(newName);
+			if (byNewName.size() != 1) {
+				fail("Project should be found once by its new name, found " + byNewName.size());
+			} else if (byNewName.get(0).getOid() != newProject.getOid()) {
+				fail("Wrong project found by its new name");
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package org.bimserver.tests.serviceinterface;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.longaction.LongBulkUploadAction;
+import org.bimserver.models.log.AccessMethod;
+import org.bimserver.models.store.ActionState;
+import org.bimserver.shared.interfaces.AuthInterface;
+import org.bimserver.shared.interfaces.ServiceInterface;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.bimserver.webservices.ServiceMap;
+import org.junit.Test;
+
+/**
+ * Runs a bulk upload with checkins on two projects and one file that cannot be read, the way BulkUploadServlet does while reading an archive
+ */
+public class TestBulkUpload extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		List<Path> files = new ArrayList<>();
+		try {
+			AuthInterface authInterface = getBimServer().getServiceFactory().get(AccessMethod.INTERNAL).get(AuthInterface.class);
+			String token = authInterface.login("admin@bimserver.org", "admin");
+			ServiceMap serviceMap = getBimServer().getServiceFactory().get(token, AccessMethod.INTERNAL);
+			ServiceInterface service = serviceMap.get(ServiceInterface.class);
+
+			SProject project1 = service.addProject("test" + Math.random(), "ifc2x3tc1");
+			SProject project2 = service.addProject("test" + Math.random(), "ifc2x3tc1");
+			SDeserializerPluginConfiguration deserializer = service.getSuggestedDeserializerForExtension("ifc", project1.getOid());
+
+			Path model = Files.createTempFile("bulkupload", ".ifc");
+			files.add(model);
+			try (InputStream inputStream = new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc").openStream()) {
+				Files.copy(inputStream, model, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			LongBulkUploadAction bulkUploadAction = new LongBulkUploadAction(getBimServer(), serviceMap.getUser().getName(), serviceMap.getUser().getUsername(), serviceMap.getAuthorization(), token, "bulk");
+			getBimServer().getLongActionManager().start(bulkUploadAction);
+
+			// Fails without affecting the other checkins
+			Path broken = Files.createTempFile("bulkupload", ".ifc");
+			files.add(broken);
+			Files.write(broken, "This is not an IFC file".getBytes(StandardCharsets.UTF_8));
+			bulkUploadAction.add(project2.getOid(), deserializer.getOid(), "broken.ifc", broken);
+
+			long end = System.currentTimeMillis() + 60000;
+			// Progress is reported after the error has been added
+			while ((bulkUploadAction.getErrors().isEmpty() || bulkUploadAction.getProgress() != -1) && System.currentTimeMillis() < end) {
+				Thread.sleep(100);
+			}
+			assertEquals(1, bulkUploadAction.getErrors().size());
+			// The total is not known yet
+			assertEquals(-1, bulkUploadAction.getProgress());
+
+			bulkUploadAction.add(project1.getOid(), deserializer.getOid(), "first.ifc", copy(model, files));
+			bulkUploadAction.add(project1.getOid(), deserializer.getOid(), "second.ifc", copy(model, files));
+			bulkUploadAction.add(project2.getOid(), deserializer.getOid(), "third.ifc", copy(model, files));
+			bulkUploadAction.allAdded();
+			bulkUploadAction.waitForCompletion();
+
+			assertEquals(ActionState.FINISHED, bulkUploadAction.getActionState());
+			assertEquals(1, bulkUploadAction.getErrors().size());
+			assertEquals(100, bulkUploadAction.getState().getProgress());
+			// Checkins on the same project are done one after the other, none of them should have failed on a concurrent checkin
+			assertEquals(2, service.getAllRevisionsOfProject(project1.getOid()).size());
+			assertEquals(1, service.getAllRevisionsOfProject(project2.getOid()).size());
+			// The files are removed after their checkin
+			for (Path file : files.subList(1, files.size())) {
+				assertFalse(file + " has not been removed", Files.exists(file));
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		} finally {
+			try {
+				for (Path file : files) {
+					Files.deleteIfExists(file);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private Path copy(Path model, List<Path> files) throws Exception {
+		Path file = Files.createTempFile("bulkupload", ".ifc");
+		files.add(file);
+		Files.copy(model, file, StandardCopyOption.REPLACE_EXISTING);
+		return file;
+	}
+}
@@ -0,0 +1,212 @@
+package org.bimserver.tests.serviceinterface;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.interfaces.objects.SSerializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SServerSettings;
+import org.bimserver.models.geometry.Bounds;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcSpace;
+import org.bimserver.models.ifc2x3tc1.IfcWall;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * Checks in a model, renames one space in the file and checks it in again with delta checkins enabled. The objects that did not change must still be found by type, GlobalId and name, with the same geometry.
+ */
+public class TestDeltaCheckin extends TestWithEmbeddedServer {
+
+	private static final Pattern SPACE_NAME = Pattern.compile("(IFCSPACE\\('([^']*)',(?:#\\d+|\\$),)'[^']*'");
+	private static final String NEW_NAME = "Renamed by delta checkin test";
+
+	@Test
+	public void test() {
+		boolean originalDeltaCheckin = getBimServer().getConfig().isDeltaCheckin();
+		Path original = null;
+		Path modified = null;
+		try {
+			getBimServer().getConfig().setDeltaCheckin(true);
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			bimServerClient.getSettingsInterface().setCacheOutputFiles(false);
+			SServerSettings serverSettings = bimServerClient.getSettingsInterface().getServerSettings();
+			if (!serverSettings.getIndexedFeatures().contains("IfcRoot.Name")) {
+				serverSettings.getIndexedFeatures().add("IfcRoot.Name");
+				bimServerClient.getSettingsInterface().setServerSettings(serverSettings);
+			}
+
+			SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+			bimServerClient.checkinSync(project.getOid(), "initial", deserializer.getOid(), false, new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc"));
+			project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+			long firstRoid = project.getLastRevisionId();
+
+			SSerializerPluginConfiguration serializer = bimServerClient.getServiceInterface().getSerializerByName("Ifc2x3tc1 (Streaming)");
+			original = Files.createTempFile("deltacheckin", ".ifc");
+			bimServerClient.download(firstRoid, serializer.getOid(), original);
+			String ifc = new String(Files.readAllBytes(original), StandardCharsets.ISO_8859_1);
+			Matcher matcher = SPACE_NAME.matcher(ifc);
+			assertTrue("No named IfcSpace in the model", matcher.find());
+			String renamedGuid = matcher.group(2);
+			modified = Files.createTempFile("deltacheckin", ".ifc");
+			Files.write(modified, (ifc.substring(0, matcher.start()) + matcher.group(1) + "'" + NEW_NAME + "'" + ifc.substring(matcher.end())).getBytes(StandardCharsets.ISO_8859_1));
+
+			bimServerClient.checkinSync(project.getOid(), "renamed space", deserializer.getOid(), false, modified);
+			project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+			long secondRoid = project.getLastRevisionId();
+			assertTrue(secondRoid != firstRoid);
+
+			// Type queries
+			IfcModelInterface firstModel = bimServerClient.getModel(project, firstRoid, false, false, true);
+			IfcModelInterface secondModel = bimServerClient.getModel(project, secondRoid, false, false, true);
+			assertEquals(firstModel.getAll(IfcWall.class).size(), secondModel.getAll(IfcWall.class).size());
+			assertEquals(firstModel.getAll(IfcSpace.class).size(), secondModel.getAll(IfcSpace.class).size());
+			Map<String, IfcProduct> firstProducts = byGuid(firstModel);
+			Map<String, IfcProduct> secondProducts = byGuid(secondModel);
+			assertTrue(firstProducts.size() > 0);
+			assertEquals(firstProducts.keySet(), secondProducts.keySet());
+
+			// GlobalId queries
+			Map<String, IfcProduct> foundByGuid = query(bimServerClient, project, secondRoid, firstProducts.keySet(), Collections.<String>emptySet());
+			for (IfcProduct firstProduct : firstProducts.values()) {
+				IfcProduct found = foundByGuid.get(firstProduct.getGlobalId());
+				assertNotNull("GlobalId " + firstProduct.getGlobalId() + " not found", found);
+				assertEquals(firstProduct.eClass(), found.eClass());
+			}
+
+			// Name queries, the renamed space has to be found under its new name
+			Set<String> names = new HashSet<>();
+			names.add(NEW_NAME);
+			for (IfcProduct firstProduct : firstProducts.values()) {
+				if (firstProduct.getName() != null && !firstProduct.getGlobalId().equals(renamedGuid)) {
+					names.add(firstProduct.getName());
+				}
+			}
+			Map<String, IfcProduct> foundByName = query(bimServerClient, project, secondRoid, Collections.<String>emptySet(), names);
+			for (IfcProduct firstProduct : firstProducts.values()) {
+				IfcProduct secondProduct = secondProducts.get(firstProduct.getGlobalId());
+				if (firstProduct.getGlobalId().equals(renamedGuid)) {
+					assertEquals(NEW_NAME, secondProduct.getName());
+					assertNotNull("Renamed space not found by its new name", foundByName.get(renamedGuid));
+				} else {
+					assertEquals(firstProduct.getName(), secondProduct.getName());
+					if (firstProduct.getName() != null) {
+						assertNotNull("Name " + firstProduct.getName() + " not found", foundByName.get(firstProduct.getGlobalId()));
+					}
+				}
+			}
+
+			// Geometry
+			for (IfcProduct firstProduct : firstProducts.values()) {
+				GeometryInfo firstGeometry = firstProduct.getGeometry();
+				GeometryInfo secondGeometry = secondProducts.get(firstProduct.getGlobalId()).getGeometry();
+				if (firstGeometry == null) {
+					continue;
+				}
+				assertNotNull("No geometry for " + firstProduct.getGlobalId(), secondGeometry);
+				assertEquals(firstGeometry.getPrimitiveCount(), secondGeometry.getPrimitiveCount());
+				assertBoundsEqual(firstGeometry.getBounds(), secondGeometry.getBounds());
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		} finally {
+			getBimServer().getConfig().setDeltaCheckin(originalDeltaCheckin);
+			try {
+				if (original != null) {
+					Files.deleteIfExists(original);
+				}
+				if (modified != null) {
+					Files.deleteIfExists(modified);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private Map<String, IfcProduct> query(BimServerClientInterface bimServerClient, SProject project, long roid, Set<String> guids, Set<String> names) throws Exception {
+		Exception lastException = null;
+		// Declared indices are only used for queries when the background task that adds the existing records has finished
+		for (int i = 0; i < 60; i++) {
+			try {
+				IfcModelInterface model = bimServerClient.getModel(project, roid, false, false);
+				Query query = new Query(model.getPackageMetaData());
+				QueryPart queryPart = query.createQueryPart();
+				queryPart.addType(model.getPackageMetaData().getEClass("IfcProduct"), true);
+				for (String guid : guids) {
+					queryPart.addGuid(guid);
+				}
+				for (String name : names) {
+					queryPart.addName(name);
+				}
+				model.query(new JsonQueryObjectModelConverter(model.getPackageMetaData()).toJson(query), true);
+				return byGuid(model);
+			} catch (Exception e) {
+				lastException = e;
+				Thread.sleep(1000);
+			}
+		}
+		throw lastException;
+	}
+
+	private Map<String, IfcProduct> byGuid(IfcModelInterface model) {
+		Map<String, IfcProduct> result = new HashMap<>();
+		for (IfcProduct ifcProduct : model.getAllWithSubTypes(IfcProduct.class)) {
+			result.put(ifcProduct.getGlobalId(), ifcProduct);
+		}
+		return result;
+	}
+
+	private void assertBoundsEqual(Bounds expected, Bounds actual) {
+		assertEquals(expected.getMin().getX(), actual.getMin().getX(), 0.001);
+		assertEquals(expected.getMin().getY(), actual.getMin().getY(), 0.001);
+		assertEquals(expected.getMin().getZ(), actual.getMin().getZ(), 0.001);
+		assertEquals(expected.getMax().getX(), actual.getMax().getX(), 0.001);
+		assertEquals(expected.getMax().getY(), actual.getMax().getY(), 0.001);
+		assertEquals(expected.getMax().getZ(), actual.getMax().getZ(), 0.001);
+	}
+}
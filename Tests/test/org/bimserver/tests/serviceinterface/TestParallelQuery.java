@@ -0,0 +1,140 @@
+package org.bimserver.tests.serviceinterface;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.queries.ParallelQueryObjectProvider;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Include;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.plugins.serializers.ObjectProvider;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * The parallel query mode of streaming downloads has to return the same objects as the sequential one, every object once
+ */
+public class TestParallelQuery extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+			bimServerClient.checkinSync(project.getOid(), "test", deserializer.getOid(), false, new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc"));
+			project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+			long roid = project.getLastRevisionId();
+
+			PackageMetaData packageMetaData = getBimServer().getMetaDataManager().getPackageMetaData("ifc2x3tc1");
+
+			// Everything
+			Query all = new Query(packageMetaData);
+			all.createQueryPart();
+			compare(packageMetaData, all, roid, pool);
+
+			// Products with their properties, objects reached through several products are only returned once
+			Query properties = new Query(packageMetaData);
+			QueryPart queryPart = properties.createQueryPart();
+			queryPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+			Include definedBy = queryPart.createInclude();
+			definedBy.addType(packageMetaData.getEClass("IfcProduct"), true);
+			definedBy.addField("IsDefinedBy");
+			Include relation = definedBy.createInclude();
+			relation.addType(packageMetaData.getEClass("IfcRelDefinesByProperties"), false);
+			relation.addField("RelatingPropertyDefinition");
+			Include propertySet = relation.createInclude();
+			propertySet.addType(packageMetaData.getEClass("IfcPropertySet"), false);
+			propertySet.addField("HasProperties");
+			assertTrue(ParallelQueryObjectProvider.supports(properties));
+			compare(packageMetaData, properties, roid, pool);
+
+			// Direct fields depend on the order in which objects are read
+			Query direct = new Query(packageMetaData);
+			QueryPart directPart = direct.createQueryPart();
+			directPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+			Include placement = directPart.createInclude();
+			placement.addType(packageMetaData.getEClass("IfcProduct"), true);
+			placement.addFieldDirect("ObjectPlacement");
+			assertFalse(ParallelQueryObjectProvider.supports(direct));
+
+			// A consumer that stops reading, the workers should stop as well
+			try (DatabaseSession databaseSession = getBimServer().getDatabase().createSession(OperationType.READ_ONLY)) {
+				ParallelQueryObjectProvider provider = new ParallelQueryObjectProvider(databaseSession, getBimServer(), all, Collections.singleton(roid), packageMetaData, pool, 4);
+				for (int i = 0; i < 10; i++) {
+					assertNotNull(provider.next());
+				}
+				provider.cancel();
+			}
+			pool.shutdown();
+			assertTrue("Workers did not stop after cancel", pool.awaitTermination(30, TimeUnit.SECONDS));
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private void compare(PackageMetaData packageMetaData, Query query, long roid, ExecutorService pool) throws Exception {
+		try (DatabaseSession databaseSession = getBimServer().getDatabase().createSession(OperationType.READ_ONLY)) {
+			List<Long> sequential = read(new QueryObjectProvider(databaseSession, getBimServer(), query, Collections.singleton(roid), packageMetaData));
+			List<Long> parallel = read(new ParallelQueryObjectProvider(databaseSession, getBimServer(), query, Collections.singleton(roid), packageMetaData, pool, 4));
+			assertTrue(sequential.size() > 0);
+			assertEquals("Objects returned more than once", parallel.size(), new HashSet<>(parallel).size());
+			assertEquals(new HashSet<>(sequential), new HashSet<>(parallel));
+		}
+	}
+
+	private List<Long> read(ObjectProvider objectProvider) throws Exception {
+		List<Long> oids = new ArrayList<>();
+		HashMapVirtualObject next = objectProvider.next();
+		while (next != null) {
+			oids.add(next.getOid());
+			next = objectProvider.next();
+		}
+		return oids;
+	}
+}
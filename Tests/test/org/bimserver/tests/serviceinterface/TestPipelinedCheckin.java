@@ -0,0 +1,147 @@
+package org.bimserver.tests.serviceinterface;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * Checks in the same model with and without the pipelined checkin, the stored models must be the same apart from their oids
+ */
+public class TestPipelinedCheckin extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		boolean originalPipelinedCheckin = getBimServer().getConfig().isPipelinedCheckin();
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+
+			getBimServer().getConfig().setPipelinedCheckin(false);
+			SProject sequentialProject = checkin(bimServerClient);
+			getBimServer().getConfig().setPipelinedCheckin(true);
+			SProject pipelinedProject = checkin(bimServerClient);
+
+			IfcModelInterface sequentialModel = bimServerClient.getModel(sequentialProject, sequentialProject.getLastRevisionId(), false, false, true);
+			IfcModelInterface pipelinedModel = bimServerClient.getModel(pipelinedProject, pipelinedProject.getLastRevisionId(), false, false, true);
+
+			// Same amount of objects of every type
+			assertTrue(sequentialModel.size() > 0);
+			assertEquals(sequentialModel.size(), pipelinedModel.size());
+			assertEquals(countPerClass(sequentialModel), countPerClass(pipelinedModel));
+
+			// Same attributes, references and geometry for every product
+			Map<String, IfcProduct> sequentialProducts = byGuid(sequentialModel);
+			Map<String, IfcProduct> pipelinedProducts = byGuid(pipelinedModel);
+			assertEquals(sequentialProducts.keySet(), pipelinedProducts.keySet());
+			assertEquals(containment(sequentialModel), containment(pipelinedModel));
+			for (IfcProduct sequentialProduct : sequentialProducts.values()) {
+				IfcProduct pipelinedProduct = pipelinedProducts.get(sequentialProduct.getGlobalId());
+				assertEquals(sequentialProduct.eClass(), pipelinedProduct.eClass());
+				assertEquals(sequentialProduct.getName(), pipelinedProduct.getName());
+				assertEquals(sequentialProduct.getObjectPlacement() == null, pipelinedProduct.getObjectPlacement() == null);
+				assertEquals(sequentialProduct.getRepresentation() == null, pipelinedProduct.getRepresentation() == null);
+				assertEquals(sequentialProduct.getIsDefinedBy().size(), pipelinedProduct.getIsDefinedBy().size());
+				GeometryInfo sequentialGeometry = sequentialProduct.getGeometry();
+				GeometryInfo pipelinedGeometry = pipelinedProduct.getGeometry();
+				if (sequentialGeometry != null) {
+					assertNotNull("No geometry for " + sequentialProduct.getGlobalId(), pipelinedGeometry);
+					assertEquals(sequentialGeometry.getPrimitiveCount(), pipelinedGeometry.getPrimitiveCount());
+				}
+			}
+
+			// The index entries written by the pipeline must find the same products
+			IfcModelInterface queried = bimServerClient.getModel(pipelinedProject, pipelinedProject.getLastRevisionId(), false, false);
+			Query query = new Query(queried.getPackageMetaData());
+			QueryPart queryPart = query.createQueryPart();
+			queryPart.addType(queried.getPackageMetaData().getEClass("IfcProduct"), true);
+			for (String guid : sequentialProducts.keySet()) {
+				queryPart.addGuid(guid);
+			}
+			queried.query(new JsonQueryObjectModelConverter(queried.getPackageMetaData()).toJson(query), true);
+			assertEquals(sequentialProducts.keySet(), byGuid(queried).keySet());
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		} finally {
+			getBimServer().getConfig().setPipelinedCheckin(originalPipelinedCheckin);
+		}
+	}
+
+	private SProject checkin(BimServerClientInterface bimServerClient) throws Exception {
+		SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+		SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+		bimServerClient.checkinSync(project.getOid(), "test", deserializer.getOid(), false, new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc"));
+		return bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+	}
+
+	private Map<String, Integer> countPerClass(IfcModelInterface model) {
+		Map<String, Integer> result = new TreeMap<>();
+		for (IdEObject idEObject : model.getValues()) {
+			String name = idEObject.eClass().getName();
+			Integer count = result.get(name);
+			result.put(name, count == null ? 1 : count + 1);
+		}
+		return result;
+	}
+
+	/**
+	 * @return GlobalId of every spatial structure element to the amount of elements it contains
+	 */
+	private Map<String, Integer> containment(IfcModelInterface model) {
+		Map<String, Integer> result = new HashMap<>();
+		for (IfcRelContainedInSpatialStructure rel : model.getAll(IfcRelContainedInSpatialStructure.class)) {
+			String guid = rel.getRelatingStructure().getGlobalId();
+			Integer count = result.get(guid);
+			result.put(guid, (count == null ? 0 : count) + rel.getRelatedElements().size());
+		}
+		return result;
+	}
+
+	private Map<String, IfcProduct> byGuid(IfcModelInterface model) {
+		Map<String, IfcProduct> result = new HashMap<>();
+		for (IfcProduct ifcProduct : model.getAllWithSubTypes(IfcProduct.class)) {
+			result.put(ifcProduct.getGlobalId(), ifcProduct);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,104 @@
+package org.bimserver.tests.serviceinterface;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.Collections;
+
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.VirtualObjectCache;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Include;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * Objects that get state from a query are pinned in the object cache until they have been returned or embedded, so a query with includes stays within the bound of the cache
+ */
+public class TestQueryObjectCacheBound extends TestWithEmbeddedServer {
+	private static final long OBJECT_CACHE_SIZE = 256 * 1024;
+
+	@Test
+	public void test() {
+		long originalObjectCacheSize = getBimServer().getConfig().getObjectCacheSize();
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+			bimServerClient.checkinSync(project.getOid(), "test", deserializer.getOid(), false, new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc"));
+			project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+
+			PackageMetaData packageMetaData = getBimServer().getMetaDataManager().getPackageMetaData("ifc2x3tc1");
+			Query query = new Query(packageMetaData);
+			QueryPart queryPart = query.createQueryPart();
+			queryPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+			Include properties = queryPart.createInclude();
+			properties.addType(packageMetaData.getEClass("IfcProduct"), true);
+			properties.addField("IsDefinedBy");
+			Include relation = properties.createInclude();
+			relation.addType(packageMetaData.getEClass("IfcRelDefinesByProperties"), false);
+			relation.addField("RelatingPropertyDefinition");
+			Include propertySet = relation.createInclude();
+			propertySet.addType(packageMetaData.getEClass("IfcPropertySet"), false);
+			propertySet.addField("HasProperties");
+			Include placement = queryPart.createInclude();
+			placement.addType(packageMetaData.getEClass("IfcProduct"), true);
+			placement.addFieldDirect("ObjectPlacement");
+
+			getBimServer().getConfig().setObjectCacheSize(OBJECT_CACHE_SIZE);
+			try (DatabaseSession databaseSession = getBimServer().getDatabase().createSession(OperationType.READ_ONLY)) {
+				VirtualObjectCache objectCache = databaseSession.getObjectCache();
+				QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, getBimServer(), query, Collections.singleton(project.getLastRevisionId()), packageMetaData);
+				int nrObjects = 0;
+				int maxPinned = 0;
+				HashMapVirtualObject next = queryObjectProvider.next();
+				while (next != null) {
+					nrObjects++;
+					maxPinned = Math.max(maxPinned, objectCache.getNrPinned());
+					// Every segment of the cache keeps the object that was added last, even when the total is over the maximum
+					assertTrue("Object cache is " + objectCache, objectCache.getWeight() <= OBJECT_CACHE_SIZE * 2);
+					next = queryObjectProvider.next();
+				}
+				assertTrue(nrObjects > 1000);
+				assertTrue("At most " + maxPinned + " objects pinned for " + nrObjects + " objects", maxPinned < nrObjects / 10);
+				assertEquals(0, objectCache.getNrPinned());
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		} finally {
+			getBimServer().getConfig().setObjectCacheSize(originalObjectCacheSize);
+		}
+	}
+}
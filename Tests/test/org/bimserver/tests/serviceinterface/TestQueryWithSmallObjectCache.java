@@ -0,0 +1,109 @@
+package org.bimserver.tests.serviceinterface;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+
+import org.apache.commons.io.IOUtils;
+import org.bimserver.database.queries.om.Include;
+import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.interfaces.objects.SSerializerPluginConfiguration;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * Queries with includes set state on the objects they read (features to serialize, direct references), the output should not depend on whether those objects stayed in the object cache
+ */
+public class TestQueryWithSmallObjectCache extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() {
+		long originalObjectCacheSize = getBimServer().getConfig().getObjectCacheSize();
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			bimServerClient.getSettingsInterface().setCacheOutputFiles(false);
+
+			SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+			bimServerClient.checkinSync(project.getOid(), "test", deserializer.getOid(), false, new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc"));
+			project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+
+			PackageMetaData packageMetaData = bimServerClient.getMetaDataManager().getPackageMetaData("ifc2x3tc1");
+			Query query = new Query(packageMetaData);
+			QueryPart queryPart = query.createQueryPart();
+			queryPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+			Include properties = queryPart.createInclude();
+			properties.addType(packageMetaData.getEClass("IfcProduct"), true);
+			properties.addField("IsDefinedBy");
+			Include relation = properties.createInclude();
+			relation.addType(packageMetaData.getEClass("IfcRelDefinesByProperties"), false);
+			relation.addField("RelatingPropertyDefinition");
+			Include propertySet = relation.createInclude();
+			propertySet.addType(packageMetaData.getEClass("IfcPropertySet"), false);
+			propertySet.addField("HasProperties");
+			Include placement = queryPart.createInclude();
+			placement.addType(packageMetaData.getEClass("IfcProduct"), true);
+			placement.addFieldDirect("ObjectPlacement");
+			String json = new JsonQueryObjectModelConverter(packageMetaData).toJson(query).toString();
+
+			SSerializerPluginConfiguration serializer = bimServerClient.getPluginInterface().getSerializerByPluginClassName("org.bimserver.serializers.JsonStreamingSerializerPlugin");
+
+			getBimServer().getConfig().setObjectCacheSize(Long.MAX_VALUE / 2);
+			byte[] expected = download(bimServerClient, project, json, serializer);
+
+			// Every object is evicted right after the next one has been read
+			getBimServer().getConfig().setObjectCacheSize(1);
+			byte[] actual = download(bimServerClient, project, json, serializer);
+
+			assertTrue(expected.length > 0);
+			assertArrayEquals(expected, actual);
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		} finally {
+			getBimServer().getConfig().setObjectCacheSize(originalObjectCacheSize);
+		}
+	}
+
+	private byte[] download(BimServerClientInterface bimServerClient, SProject project, String json, SSerializerPluginConfiguration serializer) throws Exception {
+		Long topicId = bimServerClient.getServiceInterface().download(Collections.singleton(project.getLastRevisionId()), json, serializer.getOid(), false);
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (InputStream inputStream = bimServerClient.getDownloadData(topicId)) {
+			IOUtils.copy(inputStream, outputStream);
+		}
+		bimServerClient.getServiceInterface().cleanupLongAction(topicId);
+		return outputStream.toByteArray();
+	}
+}
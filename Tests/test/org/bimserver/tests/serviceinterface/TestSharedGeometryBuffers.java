@@ -0,0 +1,144 @@
+package org.bimserver.tests.serviceinterface;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Include;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Test;
+
+/**
+ * Checking in the same model twice in one project should reuse the geometry Buffers of the first revision, Buffers are never shared between projects
+ */
+public class TestSharedGeometryBuffers extends TestWithEmbeddedServer {
+
+	private static final String FILE = "https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/AC11-Institute-Var-2-IFC.ifc";
+
+	@Test
+	public void test() {
+		try {
+			BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+			SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			SProject otherProject = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+			SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+
+			bimServerClient.checkinSync(project.getOid(), "first", deserializer.getOid(), false, new URL(FILE));
+			long firstRoid = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid()).getLastRevisionId();
+			bimServerClient.checkinSync(project.getOid(), "second", deserializer.getOid(), false, new URL(FILE));
+			long secondRoid = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid()).getLastRevisionId();
+			bimServerClient.checkinSync(otherProject.getOid(), "other", deserializer.getOid(), false, new URL(FILE));
+			long otherRoid = bimServerClient.getServiceInterface().getProjectByPoid(otherProject.getOid()).getLastRevisionId();
+
+			Map<String, Long> first = readIndexBuffers(firstRoid);
+			Map<String, Long> second = readIndexBuffers(secondRoid);
+			Map<String, Long> other = readIndexBuffers(otherRoid);
+			assertFalse(first.isEmpty());
+			assertEquals(first.keySet(), second.keySet());
+			assertEquals(first.keySet(), other.keySet());
+
+			// Same data, so the second revision refers to the Buffers of the first one
+			assertEquals(first, second);
+
+			Set<Long> otherBuffers = new HashSet<>(other.values());
+			otherBuffers.retainAll(first.values());
+			assertTrue("Buffers shared between projects", otherBuffers.isEmpty());
+		} catch (Throwable e) {
+			e.printStackTrace();
+			if (e instanceof AssertionError) {
+				throw (AssertionError)e;
+			}
+			fail(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return GlobalId of every product with geometry to the oid of the Buffer with its indices, the Buffer itself is checked to be readable from the given revision
+	 */
+	private Map<String, Long> readIndexBuffers(long roid) throws Exception {
+		PackageMetaData packageMetaData = getBimServer().getMetaDataManager().getPackageMetaData("ifc2x3tc1");
+		Query query = new Query(packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(packageMetaData.getEClass("IfcProduct"), true);
+		Include geometryInfo = queryPart.createInclude();
+		geometryInfo.addType(packageMetaData.getEClass("IfcProduct"), true);
+		geometryInfo.addField("geometry");
+		Include geometryData = geometryInfo.createInclude();
+		geometryData.addType(packageMetaData.getEClassIncludingDependencies("GeometryInfo"), false);
+		geometryData.addField("data");
+		Include buffer = geometryData.createInclude();
+		buffer.addType(packageMetaData.getEClassIncludingDependencies("GeometryData"), false);
+		buffer.addField("indices");
+
+		Map<Long, String> productOfGeometryInfo = new HashMap<>();
+		Map<Long, Long> dataOfGeometryInfo = new HashMap<>();
+		Map<Long, Long> indicesOfData = new HashMap<>();
+		Set<Long> buffersWithData = new HashSet<>();
+		try (DatabaseSession databaseSession = getBimServer().getDatabase().createSession(OperationType.READ_ONLY)) {
+			QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, getBimServer(), query, Collections.singleton(roid), packageMetaData);
+			HashMapVirtualObject next = queryObjectProvider.next();
+			while (next != null) {
+				String className = next.eClass().getName();
+				if (className.equals("GeometryInfo")) {
+					dataOfGeometryInfo.put(next.getOid(), (Long) next.get("data"));
+				} else if (className.equals("GeometryData")) {
+					indicesOfData.put(next.getOid(), (Long) next.get("indices"));
+				} else if (className.equals("Buffer")) {
+					if (next.get("data") != null) {
+						buffersWithData.add(next.getOid());
+					}
+				} else if (next.get("geometry") != null) {
+					productOfGeometryInfo.put((Long) next.get("geometry"), (String) next.get("GlobalId"));
+				}
+				next = queryObjectProvider.next();
+			}
+		}
+		Map<String, Long> result = new HashMap<>();
+		for (Map.Entry<Long, String> entry : productOfGeometryInfo.entrySet()) {
+			Long dataOid = dataOfGeometryInfo.get(entry.getKey());
+			assertNotNull(dataOid);
+			Long indicesOid = indicesOfData.get(dataOid);
+			assertNotNull(indicesOid);
+			assertTrue("Buffer " + indicesOid + " not readable from revision " + roid, buffersWithData.contains(indicesOid));
+			result.put(entry.getValue(), indicesOid);
+		}
+		return result;
+	}
+}